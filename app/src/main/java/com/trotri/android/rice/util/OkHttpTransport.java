@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.rice.util;
+
+import com.trotri.android.thunder.ht.Transport;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.OkUrlFactory;
+
+/**
+ * OkHttpTransport class file
+ * 基于OkHttpClient的网络传输类，thunder.ht的Http、Download与Retrofit共用一个连接池、HTTP/2多路复用和Dispatcher
+ * 连接数限制：OkUrlFactory的连接通过Dispatcher异步执行，受Dispatcher的每个主机最多并发请求数限制，
+ * 空闲连接由ConnectionPool按“主机 + 端口 + 代理”复用，见{@link #newClient(int, int, long)}
+ * 使用方法：
+ * OkHttpClient client = OkHttpTransport.newClient(4, 5, 5 * 60 * 1000);
+ * HttpProxy.getInstance(context).setTransport(new OkHttpTransport(client));
+ * Retrofit retrofit = new RetrofitBuilder().client(client).baseUrl(url).build();
+ * 需要包：
+ * compile 'com.squareup.okhttp3:okhttp:3.7.0'
+ * compile 'com.squareup.okhttp3:okhttp-urlconnection:3.7.0'
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: OkHttpTransport.java 1 2016-01-08 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class OkHttpTransport implements Transport {
+    /**
+     * 默认的每个主机最多并发请求数
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /**
+     * 默认的最多保留的空闲连接数，所有主机共用
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+
+    /**
+     * 默认的空闲连接保留时间，单位：毫秒
+     */
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+
+    /**
+     * 不使用运营商代理时的连接工厂
+     */
+    private final OkUrlFactory mFactory;
+
+    /**
+     * 使用运营商代理时的连接工厂，Key => 代理，由同一个OkHttpClient派生，共用连接池和Dispatcher
+     */
+    private final Map<Proxy, OkUrlFactory> mProxyFactories = new HashMap<>();
+
+    /**
+     * 共用的OkHttpClient
+     */
+    private final OkHttpClient mClient;
+
+    /**
+     * 构造方法：使用默认的连接数限制创建OkHttpClient
+     */
+    public OkHttpTransport() {
+        this(newClient(DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_DURATION_MS));
+    }
+
+    /**
+     * 构造方法：初始化共用的OkHttpClient
+     *
+     * @param client 共用的OkHttpClient，如：Retrofit使用的OkHttpClient
+     */
+    public OkHttpTransport(OkHttpClient client) {
+        mClient = client;
+        mFactory = new OkUrlFactory(client);
+    }
+
+    @Override
+    public HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        return getFactory(proxy).open(url);
+    }
+
+    @Override
+    public void release(HttpURLConnection urlConn, boolean reusable) {
+        if (!reusable) {
+            urlConn.disconnect();
+        }
+    }
+
+    /**
+     * 获取连接工厂，代理不同时，用newBuilder()派生新的OkHttpClient，仍共用连接池和Dispatcher
+     *
+     * @param proxy 代理，不使用运营商代理：null
+     * @return an OkUrlFactory Object
+     */
+    private OkUrlFactory getFactory(Proxy proxy) {
+        if (proxy == null) {
+            return mFactory;
+        }
+
+        synchronized (mProxyFactories) {
+            OkUrlFactory factory = mProxyFactories.get(proxy);
+            if (factory == null) {
+                factory = new OkUrlFactory(mClient.newBuilder().proxy(proxy).build());
+                mProxyFactories.put(proxy, factory);
+            }
+
+            return factory;
+        }
+    }
+
+    /**
+     * 创建按主机限制并发请求数的OkHttpClient，运营商代理派生的OkHttpClient共用同一个Dispatcher和连接池，
+     * 经过代理时仍按目标主机计数
+     *
+     * @param maxRequestsPerHost  每个主机最多并发请求数，超过时排队等待
+     * @param maxIdleConnections  最多保留的空闲连接数，所有主机共用
+     * @param keepAliveDurationMs 空闲连接保留时间，单位：毫秒
+     * @return an OkHttpClient Object
+     */
+    public static OkHttpClient newClient(int maxRequestsPerHost, int maxIdleConnections, long keepAliveDurationMs) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveDurationMs, TimeUnit.MILLISECONDS))
+                .build();
+    }
+
+    /**
+     * 获取共用的OkHttpClient
+     *
+     * @return an OkHttpClient Object
+     */
+    public OkHttpClient getClient() {
+        return mClient;
+    }
+
+}
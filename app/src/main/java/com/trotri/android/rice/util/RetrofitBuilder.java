@@ -60,13 +60,19 @@ public class RetrofitBuilder {
      */
     private FormBody.Builder mQueryStr = new FormBody.Builder();
 
+    /**
+     * 共用的OkHttpClient，null：创建新的OkHttpClient
+     */
+    private OkHttpClient mClient;
+
     /**
      * Create the {@link Retrofit} instance using the configured values.
      *
      * @return a Retrofit Object
      */
     public Retrofit build() {
-        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(getInterceptor()).build();
+        OkHttpClient.Builder clientBuilder = (mClient != null) ? mClient.newBuilder() : new OkHttpClient.Builder();
+        OkHttpClient client = clientBuilder.addInterceptor(getInterceptor()).build();
 
         Retrofit.Builder builder = new Retrofit.Builder()
                 .baseUrl(mBaseUrl)
@@ -92,6 +98,18 @@ public class RetrofitBuilder {
         };
     }
 
+    /**
+     * 设置共用的OkHttpClient，newBuilder()派生后添加拦截器，共用连接池和Dispatcher
+     * 与{@link OkHttpTransport}使用同一个OkHttpClient时，thunder.ht的Http、Download与Retrofit共用一套网络栈
+     *
+     * @param client an OkHttpClient Object
+     * @return Returns a reference to the same RetrofitBuilder object, so you can chain put calls together.
+     */
+    public RetrofitBuilder client(OkHttpClient client) {
+        mClient = client;
+        return this;
+    }
+
     /**
      * 设置Url前缀
      *
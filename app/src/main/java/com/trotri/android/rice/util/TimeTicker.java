@@ -30,6 +30,8 @@ import java.util.concurrent.TimeUnit;
 /**
  * TimeTicker class file
  * 计划任务类，周期执行和延迟执行
+ * 全部计划任务共用一个线程池{@link #SCHEDULED_EXECUTOR}，线程数不随任务数增加，通过{@link Task}取消或重新计划任务
+ * 同一个命令同时只能有一个未结束的计划，重新计划时上一次执行未结束，新的执行等待上一次执行结束，同一个命令不会并发执行
  * 需要包：
  * compile 'org.apache.commons:commons-lang3:3.6'
  *
@@ -62,11 +64,31 @@ public class TimeTicker {
     private static final ThreadFactory THREAD_FACTORY = new BasicThreadFactory.Builder()
             .namingPattern(THREAD_NAME).daemon(true).build();
 
+    /**
+     * 计划任务类型：周期执行，延迟时间从上一个任务开始时计算
+     */
+    public static final int TYPE_FIXED_RATE = 1;
+
+    /**
+     * 计划任务类型：周期执行，延迟时间从上一个任务结束时计算
+     */
+    public static final int TYPE_FIXED_DELAY = 2;
+
+    /**
+     * 计划任务类型：延迟执行
+     */
+    public static final int TYPE_DELAY = 3;
+
     /**
      * 崩溃处理类
      */
     private static CrashHandler sCrashHandler = new CrashHandler();
 
+    /**
+     * 共用的计划任务执行类，取消的任务立即从队列中移除
+     */
+    public static final ScheduledExecutorService SCHEDULED_EXECUTOR = newSharedScheduledThreadPool();
+
     /**
      * 周期执行
      *
@@ -76,20 +98,14 @@ public class TimeTicker {
      * @param unit         时间单位
      * @param l            执行完成后回调方法
      * @param <V>          Runnable::exec()返回结果类型
-     * @return 句柄，a ScheduledFuture<?> Object，用于取消任务
+     * @return 句柄，a Task Object，用于取消或重新计划任务
      * @throws RejectedExecutionException if the task cannot be scheduled for execution
      * @throws NullPointerException       if command is null
      * @throws IllegalArgumentException   if period less than or equal to zero
+     * @throws IllegalStateException      if command is already scheduled and not done
      */
-    public static <V> ScheduledFuture<?> atFixedRate(AbstractRunnable<V> command, long initialDelay, long period, TimeUnit unit, Listener<V> l) {
-        if (command == null) {
-            throw new NullPointerException("command is null");
-        }
-
-        command.mExecutorService = newScheduledThreadPool();
-        command.mListener = l;
-
-        return command.mExecutorService.scheduleAtFixedRate(command, initialDelay, period, unit);
+    public static <V> Task atFixedRate(AbstractRunnable<V> command, long initialDelay, long period, TimeUnit unit, Listener<V> l) {
+        return schedule(TYPE_FIXED_RATE, command, initialDelay, period, unit, l);
     }
 
     /**
@@ -101,20 +117,14 @@ public class TimeTicker {
      * @param unit         时间单位
      * @param l            执行完成后回调方法
      * @param <V>          Runnable::exec()返回结果类型
-     * @return 句柄，a ScheduledFuture<?> Object，用于取消任务
+     * @return 句柄，a Task Object，用于取消或重新计划任务
      * @throws RejectedExecutionException if the task cannot be scheduled for execution
      * @throws NullPointerException       if command is null
      * @throws IllegalArgumentException   if period less than or equal to zero
+     * @throws IllegalStateException      if command is already scheduled and not done
      */
-    public static <V> ScheduledFuture<?> withFixedDelay(AbstractRunnable<V> command, long initialDelay, long period, TimeUnit unit, Listener<V> l) {
-        if (command == null) {
-            throw new NullPointerException("command is null");
-        }
-
-        command.mExecutorService = newScheduledThreadPool();
-        command.mListener = l;
-
-        return command.mExecutorService.scheduleWithFixedDelay(command, initialDelay, period, unit);
+    public static <V> Task withFixedDelay(AbstractRunnable<V> command, long initialDelay, long period, TimeUnit unit, Listener<V> l) {
+        return schedule(TYPE_FIXED_DELAY, command, initialDelay, period, unit, l);
     }
 
     /**
@@ -125,23 +135,53 @@ public class TimeTicker {
      * @param unit    时间单位
      * @param l       执行完成后回调方法
      * @param <V>     Runnable::exec()返回结果类型
-     * @return 句柄，a ScheduledFuture<?> Object，用于取消任务
+     * @return 句柄，a Task Object，用于取消或重新计划任务
      * @throws RejectedExecutionException if the task cannot be scheduled for execution
      * @throws NullPointerException       if command is null
+     * @throws IllegalStateException      if command is already scheduled and not done
      */
-    public static <V> ScheduledFuture<?> delay(AbstractRunnable<V> command, long delay, TimeUnit unit, Listener<V> l) {
+    public static <V> Task delay(AbstractRunnable<V> command, long delay, TimeUnit unit, Listener<V> l) {
+        return schedule(TYPE_DELAY, command, delay, 0, unit, l);
+    }
+
+    /**
+     * 在共用的计划任务执行类中计划任务
+     *
+     * @param type         计划任务类型，{@link #TYPE_FIXED_RATE}、{@link #TYPE_FIXED_DELAY}、{@link #TYPE_DELAY}
+     * @param command      the runnable task
+     * @param initialDelay 首次执行延迟时间
+     * @param period       周期，延迟执行时忽略
+     * @param unit         时间单位
+     * @param l            执行完成后回调方法
+     * @param <V>          Runnable::exec()返回结果类型
+     * @return 句柄，a Task Object
+     * @throws IllegalStateException if command is already scheduled and not done
+     */
+    private static <V> Task schedule(int type, AbstractRunnable<V> command, long initialDelay, long period, TimeUnit unit, Listener<V> l) {
         if (command == null) {
             throw new NullPointerException("command is null");
         }
 
-        command.mExecutorService = newScheduledThreadPool();
-        command.mListener = l;
+        synchronized (command) {
+            // 一个命令只有一个句柄，重复计划会覆盖mTask，回调收到错误的句柄，需要先取消或使用Task.reschedule()
+            if (command.mTask != null && !command.mTask.isDone()) {
+                throw new IllegalStateException("command is already scheduled");
+            }
+
+            Task task = new Task(type, command, unit.toNanos(period));
+            command.mTask = task;
+            command.mListener = l;
+
+            synchronized (task) {
+                task.schedule(unit.toNanos(initialDelay));
+            }
 
-        return command.mExecutorService.schedule(command, delay, unit);
+            return task;
+        }
     }
 
     /**
-     * 获取计划任务执行类
+     * 获取新的计划任务执行类，需要调用者shutdown()，一般使用共用的{@link #SCHEDULED_EXECUTOR}
      *
      * @return 计划任务执行类，a ScheduledExecutorService Object
      */
@@ -149,6 +189,17 @@ public class TimeTicker {
         return new ScheduledThreadPoolExecutor(CORE_POOL_SIZE, THREAD_FACTORY);
     }
 
+    /**
+     * 创建共用的计划任务执行类，取消的任务立即从队列中移除，避免周期任务取消后仍占用队列
+     *
+     * @return 计划任务执行类，a ScheduledExecutorService Object
+     */
+    private static ScheduledExecutorService newSharedScheduledThreadPool() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(CORE_POOL_SIZE, THREAD_FACTORY);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
     /**
      * 获取崩溃处理类
      *
@@ -168,7 +219,7 @@ public class TimeTicker {
     }
 
     /**
-     * 执行命令基类
+     * 执行命令基类，同一个对象同时只能被计划一次，已结束（取消或延迟执行完成）后可以再次计划
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.TimeTicker$AbstractRunnable { *; }
@@ -176,23 +227,30 @@ public class TimeTicker {
      */
     public abstract static class AbstractRunnable<V> implements Runnable {
         /**
-         * 计划任务执行类
+         * 计划任务句柄
          */
-        private ScheduledExecutorService mExecutorService;
+        private Task mTask;
 
         /**
          * 执行完成后回调接口
          */
         private Listener<V> mListener;
 
+        /**
+         * 执行锁，重新计划后新旧计划的执行可能重叠，加锁保证同一个命令不会并发执行
+         */
+        private final Object mRunLock = new Object();
+
         @Override
         public void run() {
-            onInitialize();
+            synchronized (mRunLock) {
+                onInitialize();
 
-            V result = exec();
+                V result = exec();
 
-            if (mListener != null) {
-                mListener.onComplete(mExecutorService, result);
+                if (mListener != null) {
+                    mListener.onComplete(mTask, result);
+                }
             }
         }
 
@@ -215,6 +273,148 @@ public class TimeTicker {
 
     }
 
+    /**
+     * 计划任务句柄，用于取消或重新计划任务
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.TimeTicker$Task { *; }
+     * </p>
+     */
+    public static final class Task {
+        /**
+         * 计划任务类型
+         */
+        private final int mType;
+
+        /**
+         * the runnable task
+         */
+        private final AbstractRunnable<?> mCommand;
+
+        /**
+         * 周期，单位：纳秒
+         */
+        private long mPeriodNanos;
+
+        /**
+         * 当前计划的句柄
+         */
+        private ScheduledFuture<?> mFuture;
+
+        /**
+         * 构造方法：初始化计划任务类型、the runnable task、周期
+         *
+         * @param type        计划任务类型
+         * @param command     the runnable task
+         * @param periodNanos 周期，单位：纳秒
+         */
+        private Task(int type, AbstractRunnable<?> command, long periodNanos) {
+            mType = type;
+            mCommand = command;
+            mPeriodNanos = periodNanos;
+        }
+
+        /**
+         * 在共用的计划任务执行类中计划任务，调用前需加锁，避免任务立即执行时在回调中取消，mFuture还未赋值
+         *
+         * @param initialDelayNanos 首次执行延迟时间，单位：纳秒
+         */
+        private void schedule(long initialDelayNanos) {
+            switch (mType) {
+                case TYPE_FIXED_RATE:
+                    mFuture = SCHEDULED_EXECUTOR.scheduleAtFixedRate(mCommand, initialDelayNanos, mPeriodNanos, TimeUnit.NANOSECONDS);
+                    break;
+                case TYPE_FIXED_DELAY:
+                    mFuture = SCHEDULED_EXECUTOR.scheduleWithFixedDelay(mCommand, initialDelayNanos, mPeriodNanos, TimeUnit.NANOSECONDS);
+                    break;
+                default:
+                    mFuture = SCHEDULED_EXECUTOR.schedule(mCommand, initialDelayNanos, TimeUnit.NANOSECONDS);
+                    break;
+            }
+        }
+
+        /**
+         * 取消任务，正在执行的任务会执行完成，之后不再执行
+         *
+         * @return Returns True, or False：任务已完成或已取消
+         */
+        public synchronized boolean cancel() {
+            return mFuture.cancel(false);
+        }
+
+        /**
+         * 取消当前计划，按新的首次执行延迟时间重新计划任务，周期不变
+         * 正在执行的任务会执行完成，新计划的执行等待它结束后再开始
+         *
+         * @param initialDelay 首次执行延迟时间
+         * @param unit         时间单位
+         * @throws RejectedExecutionException if the task cannot be scheduled for execution
+         */
+        public void reschedule(long initialDelay, TimeUnit unit) {
+            synchronized (this) {
+                reschedule(initialDelay, mPeriodNanos, unit, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * 取消当前计划，按新的首次执行延迟时间和周期重新计划任务，延迟执行的任务忽略周期
+         *
+         * @param initialDelay 首次执行延迟时间
+         * @param period       周期
+         * @param unit         时间单位
+         * @throws RejectedExecutionException if the task cannot be scheduled for execution
+         * @throws IllegalArgumentException   if period less than or equal to zero
+         */
+        public void reschedule(long initialDelay, long period, TimeUnit unit) {
+            reschedule(initialDelay, period, unit, unit);
+        }
+
+        /**
+         * 取消当前计划，重新计划任务
+         *
+         * @param initialDelay 首次执行延迟时间
+         * @param period       周期
+         * @param delayUnit    首次执行延迟时间的时间单位
+         * @param periodUnit   周期的时间单位
+         */
+        private synchronized void reschedule(long initialDelay, long period, TimeUnit delayUnit, TimeUnit periodUnit) {
+            if (mType != TYPE_DELAY && period <= 0) {
+                throw new IllegalArgumentException("period less than or equal to zero");
+            }
+
+            mFuture.cancel(false);
+            mPeriodNanos = periodUnit.toNanos(period);
+            schedule(delayUnit.toNanos(initialDelay));
+        }
+
+        /**
+         * 任务是否已取消
+         *
+         * @return Returns True, or False
+         */
+        public synchronized boolean isCancelled() {
+            return mFuture.isCancelled();
+        }
+
+        /**
+         * 任务是否已结束，包括已取消、延迟执行的任务已执行完成
+         *
+         * @return Returns True, or False
+         */
+        public synchronized boolean isDone() {
+            return mFuture.isDone();
+        }
+
+        /**
+         * 获取计划任务类型
+         *
+         * @return 计划任务类型
+         */
+        public int getType() {
+            return mType;
+        }
+    }
+
     /**
      * Listener interface
      * 回调接口
@@ -225,10 +425,10 @@ public class TimeTicker {
         /**
          * 执行完成后回调方法
          *
-         * @param service 执行计划任务类，用于shutdown()
-         * @param result  执行结果
+         * @param task   计划任务句柄，用于cancel()或reschedule()
+         * @param result 执行结果
          */
-        void onComplete(ScheduledExecutorService service, V result);
+        void onComplete(Task task, V result);
     }
 
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ap;
+
+import android.support.v4.util.Pools;
+
+/**
+ * CommandPool class file
+ * 命令对象池类，参考android.os.Message.obtain()，高频的回调命令执行完后放回对象池，稳定状态下不再创建新对象
+ * 基于{@link Pools.SynchronizedPool}，只增加默认的对象池大小：
+ * 对象池为空时acquire()返回null，已满时release()返回False并丢弃，重复放回同一个对象时抛出IllegalStateException
+ * 使用方法：
+ * private static final CommandPool<UiCommand> POOL = new CommandPool<>();
+ * static UiCommand obtain(...) { UiCommand command = POOL.acquire(); if (command == null) { command = new UiCommand(); } ... }
+ * protected void recycle() { 清空字段; POOL.release(this); }
+ * 注：放回对象池后，不能再持有或使用该对象
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: CommandPool.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class CommandPool<T> extends Pools.SynchronizedPool<T> {
+
+    public static final String TAG = "CommandPool";
+
+    /**
+     * 默认的对象池大小
+     */
+    public static final int DEFAULT_MAX_SIZE = 10;
+
+    /**
+     * 构造方法：初始化默认的对象池大小
+     */
+    public CommandPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * 构造方法：初始化对象池大小
+     *
+     * @param maxSize 对象池大小，超过时放回的对象直接丢弃
+     * @throws IllegalArgumentException 如果对象池大小小于等于0，抛出异常
+     */
+    public CommandPool(int maxSize) {
+        super(maxSize);
+    }
+
+}
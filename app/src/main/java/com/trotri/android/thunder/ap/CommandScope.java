@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CommandScope class file
+ * 命令作用域类，绑定页面的生命周期，页面销毁时取消作用域内所有未完成的命令
+ * 在{@link #run(Runnable)}中提交的命令（包括HttpAsync、Sandbox、AsyncRegistry等内部提交的命令）属于该作用域，
+ * 命令执行时再提交的命令和UiThread命令也属于该作用域
+ * 取消作用域：排队中的命令从线程池队列中移除，执行中的命令被中断（可中断的阻塞操作，如：下载、FileChannel，会停止），
+ * 已post和之后post的UiThread命令不再执行，不再持有Listener，之后在该作用域提交的命令直接取消
+ * 使用方法：
+ * getCommandScope().run(new Runnable() {
+ * public void run() {
+ * mHttpAsync.get(url, listener);
+ * }
+ * });
+ * AbstractViewModel.onDestroyed()时自动调用{@link #cancel()}
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: CommandScope.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class CommandScope {
+
+    public static final String TAG = "CommandScope";
+
+    /**
+     * 当前线程的作用域
+     */
+    private static final ThreadLocal<CommandScope> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 未完成的命令
+     */
+    private final Set<ThreadPool.AbstractCommand> mCommands = new HashSet<>();
+
+    /**
+     * 是否已取消
+     */
+    private volatile boolean mCancelled = false;
+
+    /**
+     * 获取当前线程的作用域
+     *
+     * @return a CommandScope Object, or null
+     */
+    public static CommandScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程的作用域
+     *
+     * @param scope a CommandScope Object, or null
+     * @return 之前的作用域，用于恢复
+     */
+    static CommandScope swap(CommandScope scope) {
+        CommandScope prev = CURRENT.get();
+        if (scope != null) {
+            CURRENT.set(scope);
+        } else {
+            CURRENT.remove();
+        }
+
+        return prev;
+    }
+
+    /**
+     * 在该作用域中执行代码，代码中提交的命令属于该作用域
+     *
+     * @param r 代码
+     */
+    public void run(Runnable r) {
+        CommandScope prev = swap(this);
+
+        try {
+            r.run();
+        } finally {
+            swap(prev);
+        }
+    }
+
+    /**
+     * 提交命令到该作用域
+     *
+     * @param command 命令
+     */
+    public void execute(ThreadPool.AbstractCommand command) {
+        ThreadPool.execute(command, this);
+    }
+
+    /**
+     * 取消作用域内所有未完成的命令，之后提交的命令直接取消
+     */
+    public void cancel() {
+        List<ThreadPool.AbstractCommand> commands;
+
+        synchronized (mCommands) {
+            if (mCancelled) {
+                return;
+            }
+
+            mCancelled = true;
+            commands = new ArrayList<>(mCommands);
+            mCommands.clear();
+        }
+
+        for (ThreadPool.AbstractCommand command : commands) {
+            command.cancel(true);
+        }
+
+        Logger.d(Constants.TAG_LOG, TAG + " cancel() commands: " + commands.size());
+    }
+
+    /**
+     * 是否已取消
+     *
+     * @return Returns True, or False
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 获取未完成的命令数
+     *
+     * @return 命令数
+     */
+    public int size() {
+        synchronized (mCommands) {
+            return mCommands.size();
+        }
+    }
+
+    /**
+     * 添加命令
+     *
+     * @param command 命令
+     * @return 已取消时返回False
+     */
+    boolean add(ThreadPool.AbstractCommand command) {
+        synchronized (mCommands) {
+            return !mCancelled && mCommands.add(command);
+        }
+    }
+
+    /**
+     * 命令完成或取消后移除
+     *
+     * @param command 命令
+     * @return 已被{@link #cancel()}移除时返回False
+     */
+    boolean remove(ThreadPool.AbstractCommand command) {
+        synchronized (mCommands) {
+            return mCommands.remove(command);
+        }
+    }
+
+}
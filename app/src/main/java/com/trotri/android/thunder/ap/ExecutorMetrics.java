@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ap;
+
+import android.os.SystemClock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ExecutorMetrics class file
+ * 线程池和主线程的命令计时统计类，记录{@link ThreadPool.AbstractCommand}和{@link UiThread.AbstractCommand}的：
+ * 排队时间（提交到开始执行，主线程即Handler的分发延迟）、执行时间、提交时的队列长度，按线程池和命令类名汇总耗时的百分位数
+ * 百分位数是滚动的，只统计最近一到两个{@link #WINDOW_MS}内的命令
+ * 默认关闭，关闭时只多一次volatile读，见{@link #setEnabled(boolean)}；开启后每个命令多两次SystemClock.uptimeMillis()和一次短暂加锁
+ * 每个线程池各用一把锁，主线程的命令不会和线程池的命令竞争同一把锁
+ * 类名是混淆后的类名，混淆时需保留命令类名，或者通过mapping文件还原
+ * 使用方法：
+ * Logger.d(Constants.TAG_LOG, ExecutorMetrics.dump());
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: ExecutorMetrics.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class ExecutorMetrics {
+
+    private static final String TAG = "ExecutorMetrics";
+
+    /**
+     * 线程池：I/O线程池
+     */
+    public static final int POOL_IO = ThreadPool.TYPE_IO;
+
+    /**
+     * 线程池：CPU线程池
+     */
+    public static final int POOL_CPU = ThreadPool.TYPE_CPU;
+
+    /**
+     * 线程池：主线程
+     */
+    public static final int POOL_UI = 3;
+
+    /**
+     * 滚动窗口，单位：毫秒
+     */
+    public static final long WINDOW_MS = 60 * 1000;
+
+    /**
+     * 每个线程池最多汇总的命令类数，超过后移除最久未执行的
+     */
+    public static final int MAX_KEYS = 64;
+
+    /**
+     * 是否开启统计
+     */
+    private static volatile boolean sEnabled = false;
+
+    /**
+     * 按线程池汇总，下标 => 线程池，每个线程池的统计用自己加锁
+     */
+    private static final Pool[] POOLS = {
+            null, new Pool("io"), new Pool("cpu"), new Pool("ui")
+    };
+
+    /**
+     * 记录提交命令，在提交命令的线程中执行
+     *
+     * @param pool       线程池，{@link #POOL_IO}、{@link #POOL_CPU}、{@link #POOL_UI}
+     * @param queueDepth 提交后的队列长度
+     */
+    public static void onEnqueued(int pool, int queueDepth) {
+        long nowMs = SystemClock.uptimeMillis();
+        Pool p = POOLS[pool];
+
+        synchronized (p) {
+            p.mStats.addQueueDepth(queueDepth, nowMs);
+        }
+    }
+
+    /**
+     * 记录执行命令，在执行命令的线程中执行
+     *
+     * @param pool   线程池，{@link #POOL_IO}、{@link #POOL_CPU}、{@link #POOL_UI}
+     * @param name   命令类名
+     * @param waitMs 排队时间，单位：毫秒
+     * @param runMs  执行时间，单位：毫秒
+     */
+    public static void onExecuted(int pool, String name, long waitMs, long runMs) {
+        long nowMs = SystemClock.uptimeMillis();
+        Pool p = POOLS[pool];
+        String key = p.mName + " " + name;
+
+        synchronized (p) {
+            p.mStats.add(waitMs, runMs, nowMs);
+
+            Stats stats = p.mTasks.get(key);
+            if (stats == null) {
+                stats = new Stats(key);
+                p.mTasks.put(key, stats);
+            }
+
+            stats.add(waitMs, runMs, nowMs);
+        }
+    }
+
+    /**
+     * 获取线程池的统计
+     *
+     * @param pool 线程池，{@link #POOL_IO}、{@link #POOL_CPU}、{@link #POOL_UI}
+     * @return 统计的副本
+     */
+    public static Stats getPoolStats(int pool) {
+        Pool p = POOLS[pool];
+
+        synchronized (p) {
+            return new Stats(p.mStats, SystemClock.uptimeMillis());
+        }
+    }
+
+    /**
+     * 获取按命令类汇总的统计
+     *
+     * @return 统计的副本，Key => 线程池 + 类名，按线程池分组，组内按最近执行的顺序排序
+     */
+    public static Map<String, Stats> getTaskStats() {
+        long nowMs = SystemClock.uptimeMillis();
+        Map<String, Stats> result = new LinkedHashMap<>();
+
+        for (int pool = POOL_IO; pool <= POOL_UI; pool++) {
+            Pool p = POOLS[pool];
+            synchronized (p) {
+                for (Map.Entry<String, Stats> entry : p.mTasks.entrySet()) {
+                    result.put(entry.getKey(), new Stats(entry.getValue(), nowMs));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 获取统计的文本，包括每个线程池当前的队列长度和执行中的命令数，用于日志或上报
+     *
+     * @return 统计的文本，多行
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(TAG).append(" window=").append(WINDOW_MS / 1000).append("s\n");
+        sb.append("io queue=").append(ThreadPool.getQueueSize(ThreadPool.TYPE_IO))
+                .append(" active=").append(ThreadPool.getActiveCount(ThreadPool.TYPE_IO)).append("\n");
+        sb.append("cpu queue=").append(ThreadPool.getQueueSize(ThreadPool.TYPE_CPU))
+                .append(" active=").append(ThreadPool.getActiveCount(ThreadPool.TYPE_CPU)).append("\n");
+        sb.append("ui pending=").append(UiThread.getPendingCount()).append("\n");
+
+        for (int pool = POOL_IO; pool <= POOL_UI; pool++) {
+            sb.append(getPoolStats(pool)).append("\n");
+        }
+
+        for (Stats stats : getTaskStats().values()) {
+            sb.append(stats).append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * 清空汇总的统计
+     */
+    public static void reset() {
+        for (int pool = POOL_IO; pool <= POOL_UI; pool++) {
+            Pool p = POOLS[pool];
+            synchronized (p) {
+                p.mStats = new Stats(p.mName);
+                p.mTasks.clear();
+            }
+        }
+    }
+
+    /**
+     * 设置是否开启统计
+     *
+     * @param value 是否开启，默认：False
+     */
+    public static void setEnabled(boolean value) {
+        sEnabled = value;
+    }
+
+    /**
+     * 获取是否开启统计
+     *
+     * @return Returns True, or False
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Pool final class
+     * 一个线程池的统计和按命令类汇总的统计，用自己加锁
+     *
+     * @since 1.0
+     */
+    private static final class Pool {
+        /**
+         * 线程池：io、cpu、ui
+         */
+        private final String mName;
+
+        /**
+         * 线程池的统计
+         */
+        private Stats mStats;
+
+        /**
+         * 按命令类汇总，Key => 线程池 + 类名
+         */
+        private final Map<String, Stats> mTasks = new LinkedHashMap<String, Stats>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest) {
+                return size() > MAX_KEYS;
+            }
+        };
+
+        /**
+         * 构造方法：初始化线程池
+         */
+        private Pool(String name) {
+            mName = name;
+            mStats = new Stats(name);
+        }
+    }
+
+    /**
+     * Stats final class
+     * 一个线程池或一个命令类的滚动统计，包括当前窗口和上一个窗口
+     *
+     * @since 1.0
+     */
+    public static final class Stats {
+        /**
+         * 耗时分布的桶的上界，单位：毫秒，包含
+         */
+        private static final long[] BOUNDS = {
+                0, 1, 2, 4, 8, 16, 32, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, Long.MAX_VALUE
+        };
+
+        /**
+         * 线程池或命令类
+         */
+        private final String mName;
+
+        /**
+         * 当前窗口的开始时间，单位：毫秒
+         */
+        private long mWindowStartMs;
+
+        /**
+         * 当前窗口和上一个窗口的命令数
+         */
+        private long mCount, mPrevCount;
+
+        /**
+         * 当前窗口和上一个窗口的最大队列长度
+         */
+        private int mMaxQueueDepth, mPrevMaxQueueDepth;
+
+        /**
+         * 当前窗口和上一个窗口的排队时间的分布
+         */
+        private Histogram mWait, mPrevWait;
+
+        /**
+         * 当前窗口和上一个窗口的执行时间的分布
+         */
+        private Histogram mRun, mPrevRun;
+
+        /**
+         * 构造方法：初始化线程池或命令类
+         */
+        private Stats(String name) {
+            mName = name;
+            mWindowStartMs = SystemClock.uptimeMillis();
+            mWait = new Histogram(BOUNDS);
+            mPrevWait = new Histogram(BOUNDS);
+            mRun = new Histogram(BOUNDS);
+            mPrevRun = new Histogram(BOUNDS);
+        }
+
+        /**
+         * 构造方法：复制统计，合并两个窗口
+         */
+        private Stats(Stats s, long nowMs) {
+            s.roll(nowMs);
+
+            mName = s.mName;
+            mWindowStartMs = s.mWindowStartMs;
+            mCount = s.mCount + s.mPrevCount;
+            mMaxQueueDepth = Math.max(s.mMaxQueueDepth, s.mPrevMaxQueueDepth);
+            mWait = new Histogram(s.mWait, s.mPrevWait);
+            mPrevWait = new Histogram(BOUNDS);
+            mRun = new Histogram(s.mRun, s.mPrevRun);
+            mPrevRun = new Histogram(BOUNDS);
+        }
+
+        /**
+         * 添加一个命令的排队时间和执行时间
+         */
+        private void add(long waitMs, long runMs, long nowMs) {
+            roll(nowMs);
+
+            mCount++;
+            mWait.add(waitMs);
+            mRun.add(runMs);
+        }
+
+        /**
+         * 添加一次提交时的队列长度
+         */
+        private void addQueueDepth(int queueDepth, long nowMs) {
+            roll(nowMs);
+
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+        }
+
+        /**
+         * 当前窗口结束后，变成上一个窗口；超过两个窗口没有数据时，全部清空
+         */
+        private void roll(long nowMs) {
+            long elapsedMs = nowMs - mWindowStartMs;
+            if (elapsedMs < WINDOW_MS) {
+                return;
+            }
+
+            if (elapsedMs < WINDOW_MS * 2) {
+                mPrevCount = mCount;
+                mPrevMaxQueueDepth = mMaxQueueDepth;
+                mPrevWait = mWait;
+                mPrevRun = mRun;
+                mWindowStartMs += WINDOW_MS;
+            } else {
+                mPrevCount = 0;
+                mPrevMaxQueueDepth = 0;
+                mPrevWait = new Histogram(BOUNDS);
+                mPrevRun = new Histogram(BOUNDS);
+                mWindowStartMs = nowMs;
+            }
+
+            mCount = 0;
+            mMaxQueueDepth = 0;
+            mWait = new Histogram(BOUNDS);
+            mRun = new Histogram(BOUNDS);
+        }
+
+        /**
+         * 获取线程池或命令类
+         *
+         * @return 线程池：io、cpu、ui，命令类：线程池 + 类名
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * 获取命令数
+         *
+         * @return 命令数
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * 获取提交时的最大队列长度，只对线程池有效
+         *
+         * @return 最大队列长度
+         */
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        /**
+         * 获取排队时间的分布，主线程即Handler的分发延迟
+         *
+         * @return a Histogram Object
+         */
+        public Histogram getWait() {
+            return mWait;
+        }
+
+        /**
+         * 获取执行时间的分布
+         *
+         * @return a Histogram Object
+         */
+        public Histogram getRun() {
+            return mRun;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " count=" + mCount + " maxQueue=" + mMaxQueueDepth + " wait{" + mWait + "} run{" + mRun + "}";
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ap;
+
+/**
+ * Histogram final class
+ * 耗时分布，按固定的桶统计，内存固定，百分位数取所在桶的上界
+ * 桶的上界由调用者传入，{@link ExecutorMetrics}和{@link com.trotri.android.thunder.ht.HttpMetrics}各用一组
+ * 非线程安全，由调用者加锁
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: Histogram.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public final class Histogram {
+    /**
+     * 桶的上界，单位：毫秒，包含，升序，最后一个必须是Long.MAX_VALUE
+     */
+    private final long[] mBounds;
+
+    /**
+     * 每个桶的数量
+     */
+    private final long[] mCounts;
+
+    /**
+     * 数量
+     */
+    private long mCount;
+
+    /**
+     * 总和，单位：毫秒
+     */
+    private long mSum;
+
+    /**
+     * 最大值，单位：毫秒
+     */
+    private long mMax;
+
+    /**
+     * 构造方法：初始化桶的上界
+     *
+     * @param bounds 桶的上界，单位：毫秒，包含，升序，最后一个必须是Long.MAX_VALUE，不复制，调用者不能再修改
+     */
+    public Histogram(long[] bounds) {
+        if (bounds.length == 0 || bounds[bounds.length - 1] != Long.MAX_VALUE) {
+            throw new IllegalArgumentException("the last bound must be Long.MAX_VALUE");
+        }
+
+        mBounds = bounds;
+        mCounts = new long[bounds.length];
+    }
+
+    /**
+     * 构造方法：复制耗时分布
+     *
+     * @param h 耗时分布
+     */
+    public Histogram(Histogram h) {
+        mBounds = h.mBounds;
+        mCounts = h.mCounts.clone();
+        mCount = h.mCount;
+        mSum = h.mSum;
+        mMax = h.mMax;
+    }
+
+    /**
+     * 构造方法：合并两个耗时分布，桶的上界必须相同
+     *
+     * @param a 耗时分布
+     * @param b 耗时分布
+     */
+    public Histogram(Histogram a, Histogram b) {
+        if (a.mBounds != b.mBounds) {
+            throw new IllegalArgumentException("bounds must be the same");
+        }
+
+        mBounds = a.mBounds;
+        mCounts = new long[mBounds.length];
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = a.mCounts[i] + b.mCounts[i];
+        }
+
+        mCount = a.mCount + b.mCount;
+        mSum = a.mSum + b.mSum;
+        mMax = Math.max(a.mMax, b.mMax);
+    }
+
+    /**
+     * 添加一个耗时，小于0时忽略
+     *
+     * @param ms 耗时，单位：毫秒
+     */
+    public void add(long ms) {
+        if (ms < 0) {
+            return;
+        }
+
+        int i = 0;
+        while (ms > mBounds[i]) {
+            i++;
+        }
+
+        mCounts[i]++;
+        mCount++;
+        mSum += ms;
+        mMax = Math.max(mMax, ms);
+    }
+
+    /**
+     * 获取百分位数
+     *
+     * @param percent 百分比，如：50、90、99
+     * @return 耗时，单位：毫秒，不超过最大值，没有数据：-1
+     */
+    public long getPercentile(double percent) {
+        if (mCount == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(mCount * Math.max(0, Math.min(percent, 100)) / 100);
+        rank = Math.max(rank, 1);
+
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(mBounds[i], mMax);
+            }
+        }
+
+        return mMax;
+    }
+
+    /**
+     * 获取数量
+     *
+     * @return 数量
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * 获取平均值
+     *
+     * @return 耗时，单位：毫秒，没有数据：-1
+     */
+    public long getMean() {
+        return (mCount > 0) ? mSum / mCount : -1;
+    }
+
+    /**
+     * 获取最大值
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getMax() {
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        return "p50=" + getPercentile(50) + "ms p90=" + getPercentile(90) + "ms p99=" + getPercentile(99) + "ms max=" + mMax + "ms";
+    }
+
+}
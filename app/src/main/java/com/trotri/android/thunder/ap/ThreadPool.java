@@ -16,10 +16,13 @@
 
 package com.trotri.android.thunder.ap;
 
+import android.os.SystemClock;
+
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -29,6 +32,14 @@ import java.util.concurrent.atomic.AtomicInteger;
  * ThreadPool class file
  * 标准线程池类
  * 通过线程池创建子线程，并指定子线程崩溃处理类
+ * 分两个线程池：I/O线程池用于阻塞操作（HTTP、下载、SQLite、文件读写），线程数多于处理器数；
+ * CPU线程池用于计算（如：MD5），线程数等于处理器数，命令通过{@link AbstractCommand#getExecutorType()}声明使用哪个线程池
+ * 两个线程池的核心线程都会超时回收，所以线程数先增长到最大值，再进入阻塞队列，不会等到队列满了才增加线程
+ * 线程池和阻塞队列都满时，按命令的{@link AbstractCommand#getRejectPolicy()}处理：
+ * 抛出异常、在调用者线程中执行、丢弃最早的命令（被丢弃的命令按取消处理）、或者有限时间内等待队列空位
+ * 主线程提交时不等待也不在主线程中执行，直接抛出异常，避免卡顿或ANR
+ * 开启{@link ExecutorMetrics}时，记录每个命令的排队时间、执行时间和提交时的队列长度
+ * 取消：{@link AbstractCommand#cancel(boolean)}，命令提交时属于当前线程的{@link CommandScope}，作用域取消时命令一起取消
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: ThreadPool.java 1 2015-02-22 10:00:06Z huan.song $
@@ -44,19 +55,55 @@ public class ThreadPool {
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
 
     /**
-     * 线程池核心线程数
+     * 线程池类型：I/O，阻塞操作，如：HTTP、下载、SQLite、文件读写
+     */
+    public static final int TYPE_IO = 1;
+
+    /**
+     * 线程池类型：CPU，计算操作，如：MD5
+     */
+    public static final int TYPE_CPU = 2;
+
+    /**
+     * 线程池满时的处理策略：抛出RejectedExecutionException，调用者自己处理
+     */
+    public static final int POLICY_ABORT = 1;
+
+    /**
+     * 线程池满时的处理策略：在调用者线程中执行，调用者是主线程时按{@link #POLICY_ABORT}处理
+     */
+    public static final int POLICY_CALLER_RUNS = 2;
+
+    /**
+     * 线程池满时的处理策略：丢弃队列中最早的命令，再加入队列，被丢弃的命令通过{@link AbstractCommand#cancel(boolean)}取消
+     */
+    public static final int POLICY_DISCARD_OLDEST = 3;
+
+    /**
+     * 线程池满时的处理策略：最多等待{@link #REJECT_WAIT_MS}毫秒，等到队列空位后加入队列，超时后抛出RejectedExecutionException
+     * 调用者是主线程时不等待，按{@link #POLICY_ABORT}处理
+     */
+    public static final int POLICY_WAIT = 4;
+
+    /**
+     * POLICY_WAIT最多等待的时间，单位：毫秒
+     */
+    public static final long REJECT_WAIT_MS = 1000;
+
+    /**
+     * I/O线程池最大线程数，阻塞操作大部分时间在等待，线程数多于处理器数
      */
-    private static final int CORE_POOL_SIZE = CPU_COUNT + 1;
+    private static final int IO_POOL_SIZE = Math.max(8, CPU_COUNT * 4);
 
     /**
-     * 线程池最大线程数
+     * CPU线程池最大线程数
      */
-    private static final int MAXIMUM_POOL_SIZE = CPU_COUNT * 2 + 1;
+    private static final int CPU_POOL_SIZE = Math.max(2, CPU_COUNT);
 
     /**
-     * 多余的空闲线程生存时间
+     * 空闲线程生存时间，单位：秒，包括核心线程
      */
-    private static final int KEEP_ALIVE = 1;
+    private static final int KEEP_ALIVE = 30;
 
     /**
      * 阻塞队列容量
@@ -64,31 +111,41 @@ public class ThreadPool {
     private static final int POOL_WORK_QUEUE_CAPACITY = 128;
 
     /**
-     * 阻塞队列
+     * 线程池满时的处理类
      */
-    private static final BlockingQueue<Runnable> POOL_WORK_QUEUE = new LinkedBlockingQueue<>(POOL_WORK_QUEUE_CAPACITY);
+    private static final RejectedExecutionHandler REJECT_HANDLER = new RejectHandler();
 
     /**
-     * 线程工厂
+     * 当前线程正在执行的命令
      */
-    private static final ThreadFactory THREAD_FACTORY = new DefaultThreadFactory();
+    private static final ThreadLocal<AbstractCommand> CURRENT_COMMAND = new ThreadLocal<>();
 
     /**
      * 崩溃处理类
      */
     private static CrashHandler sCrashHandler = new CrashHandler();
 
+    /**
+     * I/O线程池
+     */
+    public static final Executor IO_EXECUTOR = newExecutor(IO_POOL_SIZE, "io");
+
+    /**
+     * CPU线程池
+     */
+    public static final Executor CPU_EXECUTOR = newExecutor(CPU_POOL_SIZE, "cpu");
+
     /**
      * An {@link Executor} that can be used to execute tasks in parallel.
+     * 兼容之前的代码，等于{@link #IO_EXECUTOR}
      */
-    public static final Executor THREAD_POOL_EXECUTOR
-            = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, KEEP_ALIVE,
-            TimeUnit.SECONDS, POOL_WORK_QUEUE, THREAD_FACTORY);
+    public static final Executor THREAD_POOL_EXECUTOR = IO_EXECUTOR;
 
     /**
      * Executes the given command at some time in the future.  The command
      * may execute in a new thread, in a pooled thread, or in the calling
      * thread, at the discretion of the {@code Executor} implementation.
+     * 按命令声明的类型选择线程池，线程池满时按命令声明的策略处理
      *
      * @param command the runnable task
      * @throws RejectedExecutionException if this task cannot be
@@ -96,7 +153,100 @@ public class ThreadPool {
      * @throws NullPointerException       if command is null
      */
     public static void execute(AbstractCommand command) {
-        THREAD_POOL_EXECUTOR.execute(command);
+        execute(command, CommandScope.current());
+    }
+
+    /**
+     * 提交命令到作用域，作用域已取消时直接取消命令，不执行
+     *
+     * @param command the runnable task
+     * @param scope   命令作用域，null：不属于任何作用域
+     * @throws RejectedExecutionException if this task cannot be
+     *                                    accepted for execution
+     */
+    public static void execute(AbstractCommand command, CommandScope scope) {
+        if (scope != null) {
+            command.mScope = scope;
+            if (!scope.add(command)) {
+                command.cancel(false);
+                return;
+            }
+        }
+
+        int type = command.getExecutorType();
+        boolean metrics = ExecutorMetrics.isEnabled();
+        if (metrics) {
+            command.mEnqueueMs = SystemClock.uptimeMillis();
+        }
+
+        try {
+            getExecutor(type).execute(command);
+        } catch (RejectedExecutionException e) {
+            command.mEnqueueMs = -1;
+            if (scope != null) {
+                scope.remove(command);
+            }
+
+            throw e;
+        }
+
+        if (metrics) {
+            ExecutorMetrics.onEnqueued((type == TYPE_CPU) ? ExecutorMetrics.POOL_CPU : ExecutorMetrics.POOL_IO, getQueueSize(type));
+        }
+    }
+
+    /**
+     * 获取当前线程正在执行的命令
+     *
+     * @return an AbstractCommand Object, 不在命令中：null
+     */
+    public static AbstractCommand currentCommand() {
+        return CURRENT_COMMAND.get();
+    }
+
+    /**
+     * 获取线程池
+     *
+     * @param type 线程池类型，{@link #TYPE_IO}、{@link #TYPE_CPU}
+     * @return an Executor Object
+     */
+    public static Executor getExecutor(int type) {
+        return (type == TYPE_CPU) ? CPU_EXECUTOR : IO_EXECUTOR;
+    }
+
+    /**
+     * 获取线程池的队列长度
+     *
+     * @param type 线程池类型，{@link #TYPE_IO}、{@link #TYPE_CPU}
+     * @return 等待执行的命令数
+     */
+    public static int getQueueSize(int type) {
+        return ((ThreadPoolExecutor) getExecutor(type)).getQueue().size();
+    }
+
+    /**
+     * 获取线程池中执行中的命令数
+     *
+     * @param type 线程池类型，{@link #TYPE_IO}、{@link #TYPE_CPU}
+     * @return 执行中的命令数，近似值
+     */
+    public static int getActiveCount(int type) {
+        return ((ThreadPoolExecutor) getExecutor(type)).getActiveCount();
+    }
+
+    /**
+     * 创建线程池，核心线程数等于最大线程数，核心线程空闲超时后回收
+     *
+     * @param poolSize 最大线程数
+     * @param name     线程名
+     * @return a ThreadPoolExecutor Object
+     */
+    private static ThreadPoolExecutor newExecutor(int poolSize, String name) {
+        BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>(POOL_WORK_QUEUE_CAPACITY);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE,
+                TimeUnit.SECONDS, workQueue, new DefaultThreadFactory(name), REJECT_HANDLER);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -125,11 +275,145 @@ public class ThreadPool {
      * </p>
      */
     public abstract static class AbstractCommand implements Runnable {
+        /**
+         * 提交的时间，单位：毫秒，未通过{@link ThreadPool#execute(AbstractCommand)}提交或未开启统计：-1
+         */
+        volatile long mEnqueueMs = -1;
+
+        /**
+         * 命令作用域，null：不属于任何作用域
+         */
+        volatile CommandScope mScope;
+
+        /**
+         * 回收次数，UiThread命令用于判断post时的命令是否已被对象池复用
+         */
+        volatile int mGeneration = 0;
+
+        /**
+         * 是否已取消
+         */
+        private volatile boolean mCancelled = false;
+
+        /**
+         * 执行命令的线程，未执行或已执行完：null，访问时需对this加锁
+         */
+        private Thread mRunner;
+
         @Override
         public void run() {
-            onInitialize();
+            long enqueueMs = mEnqueueMs;
+            mEnqueueMs = -1;
+
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+
+                mRunner = Thread.currentThread();
+            }
+
+            AbstractCommand prevCommand = CURRENT_COMMAND.get();
+            CURRENT_COMMAND.set(this);
+            CommandScope prevScope = CommandScope.swap(mScope);
+            long startMs = (enqueueMs >= 0) ? SystemClock.uptimeMillis() : -1;
+
+            try {
+                onInitialize();
+
+                exec();
+            } finally {
+                synchronized (this) {
+                    mRunner = null;
+                    if (mCancelled) {
+                        // 清除取消时的中断状态，避免影响线程池中的下一个命令
+                        Thread.interrupted();
+                    }
+                }
+
+                CURRENT_COMMAND.set(prevCommand);
+                CommandScope.swap(prevScope);
+
+                CommandScope scope = mScope;
+                boolean released = (scope == null) || scope.remove(this);
+
+                if (startMs >= 0) {
+                    int pool = (getExecutorType() == TYPE_CPU) ? ExecutorMetrics.POOL_CPU : ExecutorMetrics.POOL_IO;
+                    ExecutorMetrics.onExecuted(pool, getClass().getName(), startMs - enqueueMs, SystemClock.uptimeMillis() - startMs);
+                }
+
+                // 已取消的命令可能仍在cancel()中被使用，作用域取消时可能仍被作用域引用，都不回收
+                if (released && !mCancelled) {
+                    recycle();
+                }
+            }
+        }
+
+        /**
+         * 执行完后回调，释放作用域
+         * 对象池命令重写此方法：先调用super.recycle()，再清空字段并放回对象池，见{@link CommandPool}
+         * 已取消的命令不回调
+         */
+        protected void recycle() {
+            mScope = null;
+            mGeneration++;
+        }
+
+        /**
+         * 取消命令，排队中的命令从线程池队列中移除，执行中的命令可选择中断执行线程
+         * 取消后，命令执行时提交的UiThread命令不再执行
+         *
+         * @param mayInterruptIfRunning 是否中断执行线程，只能停止可中断的阻塞操作（如：下载、FileChannel、Thread.sleep）
+         * @return 已取消过：False
+         */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (mCancelled) {
+                    return false;
+                }
+
+                mCancelled = true;
+                if (mayInterruptIfRunning && mRunner != null) {
+                    mRunner.interrupt();
+                }
+            }
+
+            Executor executor = getExecutor(getExecutorType());
+            if (executor instanceof ThreadPoolExecutor) {
+                ((ThreadPoolExecutor) executor).remove(this);
+            }
 
-            exec();
+            CommandScope scope = mScope;
+            if (scope != null) {
+                scope.remove(this);
+            }
+
+            onCancelled();
+            return true;
+        }
+
+        /**
+         * 取消后回调，在调用cancel()的线程中执行，用于释放资源，如：从合并请求中移除
+         */
+        protected void onCancelled() {
+        }
+
+        /**
+         * 是否已取消
+         *
+         * @return Returns True, or False
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * 获取命令作用域
+         *
+         * @return a CommandScope Object, or null
+         */
+        public CommandScope getScope() {
+            return mScope;
         }
 
         /**
@@ -147,6 +431,81 @@ public class ThreadPool {
          */
         public abstract void exec();
 
+        /**
+         * 获取使用的线程池类型，默认：I/O线程池，计算操作重写此方法返回{@link #TYPE_CPU}
+         *
+         * @return 线程池类型，{@link #TYPE_IO}、{@link #TYPE_CPU}
+         */
+        public int getExecutorType() {
+            return TYPE_IO;
+        }
+
+        /**
+         * 获取线程池满时的处理策略，默认：有限时间内等待队列空位，主线程提交时直接抛出异常
+         * 调用者捕获RejectedExecutionException后自己处理的命令，重写此方法返回{@link #POLICY_ABORT}
+         *
+         * @return 处理策略，{@link #POLICY_ABORT}、{@link #POLICY_CALLER_RUNS}、{@link #POLICY_DISCARD_OLDEST}、{@link #POLICY_WAIT}
+         */
+        public int getRejectPolicy() {
+            return POLICY_WAIT;
+        }
+
+    }
+
+    /**
+     * 线程池满时的处理类，按命令声明的策略处理，不是AbstractCommand时抛出异常
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.ThreadPool$RejectHandler { *; }
+     * </p>
+     */
+    static class RejectHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            int policy = (r instanceof AbstractCommand) ? ((AbstractCommand) r).getRejectPolicy() : POLICY_ABORT;
+
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Task " + r + " rejected from " + executor + ", executor shutdown");
+            }
+
+            // 主线程不能阻塞等待，也不能执行阻塞的命令
+            if ((policy == POLICY_WAIT || policy == POLICY_CALLER_RUNS) && UiThread.isMainThread()) {
+                policy = POLICY_ABORT;
+            }
+
+            switch (policy) {
+                case POLICY_CALLER_RUNS:
+                    Logger.w(Constants.TAG_LOG, TAG + " rejectedExecution() caller runs, task: " + r);
+                    r.run();
+                    return;
+                case POLICY_DISCARD_OLDEST:
+                    Runnable oldest = executor.getQueue().poll();
+                    Logger.w(Constants.TAG_LOG, TAG + " rejectedExecution() discard oldest, task: " + oldest);
+                    if (oldest instanceof AbstractCommand) {
+                        // 被丢弃的命令不会再执行，取消后释放作用域和监听器
+                        ((AbstractCommand) oldest).cancel(false);
+                    }
+
+                    executor.execute(r);
+                    return;
+                case POLICY_WAIT:
+                    try {
+                        if (executor.getQueue().offer(r, REJECT_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    break;
+                default:
+                    break;
+            }
+
+            throw new RejectedExecutionException("Task " + r + " rejected from " + executor + ", policy: " + policy);
+        }
+
     }
 
     /**
@@ -160,9 +519,23 @@ public class ThreadPool {
 
         private final AtomicInteger mCount = new AtomicInteger(1);
 
+        /**
+         * 线程名
+         */
+        private final String mName;
+
+        /**
+         * 构造方法：初始化线程名
+         *
+         * @param name 线程名，如：io、cpu
+         */
+        public DefaultThreadFactory(String name) {
+            mName = name;
+        }
+
         @Override
         public Thread newThread(Runnable r) {
-            return new Thread(r, TAG + " #" + mCount.getAndIncrement());
+            return new Thread(r, TAG + "-" + mName + " #" + mCount.getAndIncrement());
         }
 
     }
@@ -16,13 +16,27 @@
 
 package com.trotri.android.thunder.ap;
 
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * UiThread class file
  * 主线程类
  * 在主线程中执行代码，用于从子线程切换到主线程
+ * 开启{@link ExecutorMetrics}时，记录每个命令的分发延迟（post到开始执行）和执行时间，以及等待执行的命令数
+ * 取消：在ThreadPool命令中post的命令，该命令取消后不再执行；在{@link CommandScope}中post的命令，作用域取消后不再执行
+ * 批量分发：{@link #setBatchEnabled(boolean)}后，命令先进入队列，每帧（Choreographer，API 16以下用Handler）在主线程中一次执行完，
+ * 每帧最多执行{@link #setFrameBudgetMs(long)}毫秒，剩下的命令下一帧继续执行，命令的执行顺序不变
+ * 大量异步结果同时返回时，不再每个命令一个主线程消息，减少消息开销和掉帧；屏幕关闭没有帧时，最多延迟{@link #FALLBACK_DELAY_MS}毫秒执行
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: UiThread.java 1 2015-02-22 10:00:06Z huan.song $
@@ -37,6 +51,46 @@ public class UiThread {
      */
     public static final Handler MAIN_THREAD_HANDLER = new Handler(Looper.getMainLooper());
 
+    /**
+     * 默认的批量分发时每帧最多执行的时间，单位：毫秒，一帧约16毫秒，留一半给绘制
+     */
+    public static final long DEFAULT_FRAME_BUDGET_MS = 8;
+
+    /**
+     * 批量分发时，等待帧回调的最长时间，单位：毫秒，超时后通过Handler执行
+     */
+    public static final long FALLBACK_DELAY_MS = 100;
+
+    /**
+     * 已post未执行的命令数，只统计开启ExecutorMetrics时post的命令
+     */
+    private static final AtomicInteger PENDING_COUNT = new AtomicInteger(0);
+
+    /**
+     * 批量分发类
+     */
+    private static final FrameBatcher BATCHER = new FrameBatcher();
+
+    /**
+     * 是否批量分发
+     */
+    private static volatile boolean sBatchEnabled = false;
+
+    /**
+     * 批量分发时每帧最多执行的时间，单位：毫秒
+     */
+    private static volatile long sFrameBudgetMs = DEFAULT_FRAME_BUDGET_MS;
+
+    /**
+     * 当前线程是否是主线程
+     *
+     * @return Returns True, or False
+     */
+    public static boolean isMainThread() {
+        Looper mainLooper = Looper.getMainLooper();
+        return (mainLooper != null && mainLooper.getThread() == Thread.currentThread());
+    }
+
     /**
      * 将AbstractCommand子类添加到主线程队列
      *
@@ -46,9 +100,87 @@ public class UiThread {
      * looper processing the message queue is exiting.
      */
     public static boolean exec(AbstractCommand command) {
+        ThreadPool.AbstractCommand parent = ThreadPool.currentCommand();
+        command.mParent = parent;
+        command.mParentGeneration = (parent != null) ? parent.mGeneration : 0;
+        command.mScope = (parent != null) ? parent.getScope() : CommandScope.current();
+
+        if (!ExecutorMetrics.isEnabled()) {
+            return post(command);
+        }
+
+        command.mPostMs = SystemClock.uptimeMillis();
+        int pending = PENDING_COUNT.incrementAndGet();
+        if (!post(command)) {
+            command.mPostMs = -1;
+            PENDING_COUNT.decrementAndGet();
+            return false;
+        }
+
+        ExecutorMetrics.onEnqueued(ExecutorMetrics.POOL_UI, pending);
+        return true;
+    }
+
+    /**
+     * 将命令添加到主线程队列，批量分发时添加到批量分发类的队列
+     *
+     * @param command The Command that will be executed.
+     * @return Returns true if the Runnable was successfully placed in to the queue.
+     */
+    private static boolean post(AbstractCommand command) {
+        if (sBatchEnabled) {
+            BATCHER.enqueue(command);
+            return true;
+        }
+
         return MAIN_THREAD_HANDLER.post(command);
     }
 
+    /**
+     * 设置是否批量分发，关闭后队列中的命令仍在下一帧执行
+     *
+     * @param value 是否批量分发，默认：False
+     */
+    public static void setBatchEnabled(boolean value) {
+        sBatchEnabled = value;
+    }
+
+    /**
+     * 获取是否批量分发
+     *
+     * @return Returns True, or False
+     */
+    public static boolean isBatchEnabled() {
+        return sBatchEnabled;
+    }
+
+    /**
+     * 设置批量分发时每帧最多执行的时间，至少执行一个命令
+     *
+     * @param frameBudgetMs 时间，单位：毫秒，默认：{@link #DEFAULT_FRAME_BUDGET_MS}
+     */
+    public static void setFrameBudgetMs(long frameBudgetMs) {
+        sFrameBudgetMs = frameBudgetMs;
+    }
+
+    /**
+     * 获取批量分发时每帧最多执行的时间
+     *
+     * @return 时间，单位：毫秒
+     */
+    public static long getFrameBudgetMs() {
+        return sFrameBudgetMs;
+    }
+
+    /**
+     * 获取已post未执行的命令数
+     *
+     * @return 等待执行的命令数
+     */
+    public static int getPendingCount() {
+        return PENDING_COUNT.get();
+    }
+
     /**
      * 执行命令
      * <p>
@@ -57,9 +189,67 @@ public class UiThread {
      * </p>
      */
     public abstract static class AbstractCommand implements Runnable {
+        /**
+         * post的时间，单位：毫秒，未通过{@link UiThread#exec(AbstractCommand)}提交或未开启统计：-1
+         */
+        volatile long mPostMs = -1;
+
+        /**
+         * post该命令的ThreadPool命令，取消后不再执行
+         */
+        volatile ThreadPool.AbstractCommand mParent;
+
+        /**
+         * post该命令时ThreadPool命令的回收次数，命令被对象池复用后不再判断是否已取消
+         */
+        volatile int mParentGeneration;
+
+        /**
+         * post该命令时的作用域，取消后不再执行
+         */
+        volatile CommandScope mScope;
+
         @Override
         public void run() {
-            exec();
+            long postMs = mPostMs;
+            mPostMs = -1;
+            if (postMs >= 0) {
+                PENDING_COUNT.decrementAndGet();
+            }
+
+            ThreadPool.AbstractCommand parent = mParent;
+            int parentGeneration = mParentGeneration;
+            CommandScope scope = mScope;
+            mParent = null;
+            mScope = null;
+
+            try {
+                if ((parent != null && parent.isCancelled() && parent.mGeneration == parentGeneration) || (scope != null && scope.isCancelled())) {
+                    return;
+                }
+
+                if (postMs < 0) {
+                    exec();
+                    return;
+                }
+
+                long startMs = SystemClock.uptimeMillis();
+
+                try {
+                    exec();
+                } finally {
+                    ExecutorMetrics.onExecuted(ExecutorMetrics.POOL_UI, getClass().getName(), startMs - postMs, SystemClock.uptimeMillis() - startMs);
+                }
+            } finally {
+                recycle();
+            }
+        }
+
+        /**
+         * 执行完或取消后回调，对象池命令重写此方法，清空字段并放回对象池，见{@link CommandPool}
+         * 默认：不回收
+         */
+        protected void recycle() {
         }
 
         /**
@@ -69,4 +259,145 @@ public class UiThread {
 
     }
 
+    /**
+     * 批量分发类，任意线程添加命令，主线程每帧执行一批
+     * 每批只需要一个帧回调和一个超时消息，帧回调先到时取消超时消息
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.UiThread$FrameBatcher { *; }
+     * </p>
+     */
+    static class FrameBatcher implements Runnable {
+        /**
+         * 等待执行的命令
+         */
+        private final Queue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 是否已安排执行
+         */
+        private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+        /**
+         * 帧回调，API 16及以上，在主线程中第一次执行时创建
+         */
+        private volatile FrameCallback mFrameCallback;
+
+        /**
+         * 添加命令，未安排执行时安排执行
+         *
+         * @param r 命令
+         */
+        public void enqueue(Runnable r) {
+            mQueue.offer(r);
+            if (mScheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+
+        /**
+         * 安排执行，有帧回调时等待下一帧，同时发送超时消息；第一次执行时没有帧回调，通过Handler执行并创建帧回调
+         */
+        private void schedule() {
+            FrameCallback callback = mFrameCallback;
+            if (callback == null) {
+                MAIN_THREAD_HANDLER.post(this);
+                return;
+            }
+
+            callback.post();
+            MAIN_THREAD_HANDLER.postDelayed(this, FALLBACK_DELAY_MS);
+        }
+
+        /**
+         * 通过Handler执行：第一次执行或等待帧回调超时
+         */
+        @Override
+        public void run() {
+            if (mFrameCallback == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                mFrameCallback = new FrameCallback(this);
+            }
+
+            drain();
+        }
+
+        /**
+         * 在主线程中执行一批命令，超过每帧最多执行的时间时停止，剩下的命令安排到下一帧
+         */
+        void drain() {
+            MAIN_THREAD_HANDLER.removeCallbacks(this);
+            FrameCallback callback = mFrameCallback;
+            if (callback != null) {
+                callback.remove();
+            }
+
+            long deadlineMs = SystemClock.uptimeMillis() + getFrameBudgetMs();
+
+            try {
+                Runnable r;
+                while ((r = mQueue.poll()) != null) {
+                    r.run();
+
+                    if (SystemClock.uptimeMillis() >= deadlineMs) {
+                        break;
+                    }
+                }
+            } finally {
+                mScheduled.set(false);
+                if (!mQueue.isEmpty() && mScheduled.compareAndSet(false, true)) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * 帧回调，每帧开始时执行一批命令
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.UiThread$FrameCallback { *; }
+     * </p>
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    static class FrameCallback implements Choreographer.FrameCallback {
+        /**
+         * 主线程的Choreographer
+         */
+        private final Choreographer mChoreographer;
+
+        /**
+         * 批量分发类
+         */
+        private final FrameBatcher mBatcher;
+
+        /**
+         * 构造方法：在主线程中获取Choreographer
+         *
+         * @param batcher 批量分发类
+         */
+        public FrameCallback(FrameBatcher batcher) {
+            mChoreographer = Choreographer.getInstance();
+            mBatcher = batcher;
+        }
+
+        /**
+         * 安排下一帧执行，任意线程
+         */
+        public void post() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        /**
+         * 取消下一帧执行
+         */
+        public void remove() {
+            mChoreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mBatcher.drain();
+        }
+    }
+
 }
@@ -18,12 +18,14 @@ package com.trotri.android.thunder.base;
 
 import android.os.Bundle;
 
+import com.trotri.android.thunder.ap.CommandScope;
 import com.trotri.android.thunder.ap.Constants;
 import com.trotri.android.thunder.ap.Logger;
 
 /**
  * AbstractViewModel abstract class file
  * ViewModel基类，需要子类继承后使用
+ * 异步操作在{@link #runInScope(Runnable)}中提交，onDestroyed()时取消未完成的命令，不再回调Listener
  * <p>
  * 避免混淆，proguard-rules.pro:
  * -keepclassmembers class 包名.AbstractViewModel { *; }
@@ -37,6 +39,11 @@ public abstract class AbstractViewModel {
 
     public static final String TAG = "AbstractViewModel";
 
+    /**
+     * 命令作用域，onDestroyed()时取消
+     */
+    private final CommandScope mCommandScope = new CommandScope();
+
     /**
      * 当View执行onViewCreated()后调用该方法
      *
@@ -63,9 +70,29 @@ public abstract class AbstractViewModel {
     /**
      * 当View执行onDestroyView()前调用该方法
      * 销毁ViewModel前释放资源（cancel HTTP requests, close database connection...）
+     * 取消命令作用域内未完成的命令，子类重写时需调用super.onDestroyed()
      */
     public void onDestroyed() {
         Logger.d(Constants.TAG_LOG, TAG + " " + getClassName() + "::onDestroyed()");
+        mCommandScope.cancel();
+    }
+
+    /**
+     * 在命令作用域中执行代码，代码中提交的异步操作（HttpAsync、Sandbox、AsyncRegistry等）在onDestroyed()时取消
+     *
+     * @param r 代码
+     */
+    public void runInScope(Runnable r) {
+        mCommandScope.run(r);
+    }
+
+    /**
+     * 获取命令作用域
+     *
+     * @return a CommandScope Object
+     */
+    public CommandScope getCommandScope() {
+        return mCommandScope;
     }
 
     /**
@@ -36,6 +36,7 @@ import javax.crypto.spec.SecretKeySpec;
  * Aes class file
  * AES加解密类
  * 转换方式：AES/CBC/PKCS5Padding
+ * 线程安全，每个线程使用各自的加解密类，多线程可同时加解密
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: Aes.java 1 2015-02-22 10:00:06Z huan.song $
@@ -76,9 +77,20 @@ public class Aes {
     public static final int IV_LEN = 16;
 
     /**
-     * 加解密类：{@link #TRANSFORMATION}转换方式
+     * 加解密类：{@link #TRANSFORMATION}转换方式，每个线程一个实例，Cipher不是线程安全的
      */
-    private static Cipher sCipher;
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                Logger.e(Constants.TAG_LOG, TAG + " getCipher()", e);
+            }
+
+            return null;
+        }
+    };
 
     /**
      * 解密运算
@@ -221,20 +233,17 @@ public class Aes {
     }
 
     /**
-     * 获取加解密类：{@link #TRANSFORMATION}转换方式
+     * 获取当前线程的加解密类：{@link #TRANSFORMATION}转换方式
      *
      * @return a Cipher Object, or null
      */
     public static Cipher getCipher() {
-        if (sCipher == null) {
-            try {
-                sCipher = Cipher.getInstance(TRANSFORMATION);
-            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-                Logger.e(Constants.TAG_LOG, TAG + " getCipher()", e);
-            }
+        Cipher cipher = CIPHERS.get();
+        if (cipher == null) {
+            CIPHERS.remove();
         }
 
-        return sCipher;
+        return cipher;
     }
 
 }
@@ -27,12 +27,23 @@ import com.trotri.android.thunder.ap.UiThread;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Md5 class file
  * MD5加密类
+ * 线程安全，每个线程使用各自的消息摘要类，多线程可同时加密
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: Md5.java 1 2015-02-22 10:00:06Z huan.song $
@@ -53,9 +64,45 @@ public class Md5 {
     public static final int BUCKET_LEN = 1024;
 
     /**
-     * 消息摘要类
+     * 默认的文件加密分配缓存空间，单位：字节
      */
-    public static MessageDigest sExecutor;
+    public static final int DEFAULT_FILE_BUCKET_LEN = 64 * 1024;
+
+    /**
+     * 大文件的最小长度，单位：字节，大文件使用内存映射读取
+     */
+    public static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * 每次内存映射的最大长度，单位：字节
+     */
+    public static final long MAP_REGION_LEN = 32 * 1024 * 1024;
+
+    /**
+     * 默认的分块加密的块长度，单位：字节
+     */
+    public static final int DEFAULT_CHUNK_LEN = 4 * 1024 * 1024;
+
+    /**
+     * 处理器数量，>= 1
+     */
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 消息摘要类，每个线程一个实例，MessageDigest不是线程安全的
+     */
+    private static final ThreadLocal<MessageDigest> EXECUTORS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                Logger.e(Constants.TAG_LOG, TAG + " getExecutor()", e);
+            }
+
+            return null;
+        }
+    };
 
     /**
      * MD5加密，转为16进制字符串
@@ -188,10 +235,29 @@ public class Md5 {
      * @throws IOException          如果文件对象为null，抛出异常
      */
     public static byte[] toBytes(File f) throws NullPointerException, ArithmeticException, IOException {
+        return toBytes(f, DEFAULT_FILE_BUCKET_LEN);
+    }
+
+    /**
+     * 文件MD5加密，转为字节数组
+     * 大于{@link #MAP_THRESHOLD}的文件使用内存映射读取，否则每次读取bucketLen字节
+     *
+     * @param f         文件对象，a File Object
+     * @param bucketLen 分配缓存空间，单位：字节
+     * @return 密文，字节数组，或null
+     * @throws NullPointerException 如果参数为null，抛出异常
+     * @throws ArithmeticException  如果加密失败或bucketLen <= 0，抛出异常
+     * @throws IOException          如果文件对象为null，抛出异常
+     */
+    public static byte[] toBytes(File f, int bucketLen) throws NullPointerException, ArithmeticException, IOException {
         if (f == null) {
             throw new NullPointerException();
         }
 
+        if (bucketLen <= 0) {
+            throw new ArithmeticException("bucketLen must be greater than 0");
+        }
+
         MessageDigest executor = getExecutor();
         if (executor == null) {
             throw new ArithmeticException("Engine Digest Failure");
@@ -202,13 +268,8 @@ public class Md5 {
         try {
             in = new FileInputStream(f);
 
-            int size;
-            byte[] bucket = new byte[BUCKET_LEN];
-            while ((size = in.read(bucket)) != -1) {
-                if (size > 0) {
-                    executor.update(bucket, 0, size);
-                }
-            }
+            FileChannel channel = in.getChannel();
+            update(executor, channel, 0, channel.size(), bucketLen);
 
             byte[] result = executor.digest();
             if (result == null) {
@@ -224,20 +285,149 @@ public class Md5 {
     }
 
     /**
-     * 获取消息摘要类
+     * 文件分块MD5加密，每块{@link #DEFAULT_CHUNK_LEN}字节，转为每块密文的字节数组
+     *
+     * @param f 文件对象，a File Object
+     * @return 每块的密文，字节数组的数组
+     * @throws NullPointerException 如果参数为null，抛出异常
+     * @throws ArithmeticException  如果加密失败，抛出异常
+     * @throws IOException          如果文件对象为null，抛出异常
+     */
+    public static byte[][] toChunkBytes(File f) throws NullPointerException, ArithmeticException, IOException {
+        return toChunkBytes(f, DEFAULT_CHUNK_LEN);
+    }
+
+    /**
+     * 文件分块MD5加密，转为每块密文的字节数组
+     * 各块在ThreadPool中并行加密，当前线程也参与加密，在ThreadPool中调用也不会因等待而死锁
+     * 每个线程使用自己的FileChannel，一个线程被中断时只关闭自己的通道，不影响其他线程
+     * 根密文：{@link #toRootBytes(byte[][])}，边下载边校验：{@link ChunkDigest}
+     *
+     * @param f        文件对象，a File Object
+     * @param chunkLen 块长度，单位：字节
+     * @return 每块的密文，字节数组的数组，空文件返回长度为0的数组
+     * @throws NullPointerException 如果参数为null，抛出异常
+     * @throws ArithmeticException  如果加密失败，抛出异常
+     * @throws IOException          如果文件对象为null，抛出异常
+     */
+    public static byte[][] toChunkBytes(File f, int chunkLen) throws NullPointerException, ArithmeticException, IOException {
+        if (f == null) {
+            throw new NullPointerException();
+        }
+
+        if (chunkLen <= 0) {
+            throw new ArithmeticException("chunkLen must be greater than 0");
+        }
+
+        FileInputStream in = null;
+
+        try {
+            in = new FileInputStream(f);
+
+            FileChannel channel = in.getChannel();
+            long fileLen = channel.size();
+            int count = (int) ((fileLen + chunkLen - 1) / chunkLen);
+
+            ChunkTask task = new ChunkTask(f, fileLen, chunkLen, count);
+            int helpers = Math.min(count - 1, CPU_COUNT);
+            for (int i = 0; i < helpers; i++) {
+                try {
+                    // 不属于任何作用域，作用域取消时不中断，当前线程等待所有已领取的块
+                    ThreadPool.execute(new ChunkCommand(task), null);
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+
+            task.run(channel);
+            task.await();
+            return task.getChunks();
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * 通过每块的密文计算根密文，MD5(块1密文 + 块2密文 + ...)
+     *
+     * @param chunks 每块的密文，字节数组的数组
+     * @return 根密文，字节数组
+     * @throws ArithmeticException 如果加密失败，抛出异常
+     */
+    public static byte[] toRootBytes(byte[][] chunks) throws ArithmeticException {
+        MessageDigest executor = getExecutor();
+        if (executor == null) {
+            throw new ArithmeticException("Engine Digest Failure");
+        }
+
+        for (byte[] chunk : chunks) {
+            executor.update(chunk);
+        }
+
+        return executor.digest();
+    }
+
+    /**
+     * 读取文件的一段，更新消息摘要
+     * 大于{@link #MAP_THRESHOLD}的一段使用内存映射读取，否则每次读取bucketLen字节
+     * 使用绝对位置读取，不改变FileChannel的当前位置
+     *
+     * @param executor  消息摘要类
+     * @param channel   文件通道
+     * @param position  开始位置
+     * @param length    长度，单位：字节
+     * @param bucketLen 分配缓存空间，单位：字节
+     * @throws IOException 如果读取失败，抛出异常
+     */
+    private static void update(MessageDigest executor, FileChannel channel, long position, long length, int bucketLen) throws IOException {
+        long end = position + length;
+
+        if (length >= MAP_THRESHOLD) {
+            while (position < end) {
+                long size = Math.min(MAP_REGION_LEN, end - position);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                executor.update(region);
+                position += size;
+            }
+
+            return;
+        }
+
+        ByteBuffer bucket = ByteBuffer.allocate((int) Math.min(bucketLen, Math.max(length, 1)));
+        while (position < end) {
+            bucket.clear();
+            if (end - position < bucket.capacity()) {
+                bucket.limit((int) (end - position));
+            }
+
+            int size = channel.read(bucket, position);
+            if (size == -1) {
+                break;
+            }
+
+            if (size > 0) {
+                executor.update(bucket.array(), 0, size);
+                position += size;
+            }
+        }
+    }
+
+    /**
+     * 获取当前线程的消息摘要类，已重置
      *
      * @return a MessageDigest Object, or null
      */
     public static MessageDigest getExecutor() {
-        if (sExecutor == null) {
-            try {
-                sExecutor = MessageDigest.getInstance(ALGORITHM);
-            } catch (NoSuchAlgorithmException e) {
-                Logger.e(Constants.TAG_LOG, TAG + " getExecutor()", e);
-            }
+        MessageDigest executor = EXECUTORS.get();
+        if (executor == null) {
+            EXECUTORS.remove();
+            return null;
         }
 
-        return sExecutor;
+        executor.reset();
+        return executor;
     }
 
     /**
@@ -282,6 +472,313 @@ public class Md5 {
                 UiThread.exec(new UiCommand(e, mListener));
             }
         }
+
+        @Override
+        public int getExecutorType() {
+            return ThreadPool.TYPE_CPU;
+        }
+    }
+
+    /**
+     * 分块加密任务，当前线程和ThreadPool中的线程共同领取块并加密，每个线程使用自己的FileChannel
+     */
+    static class ChunkTask {
+        /**
+         * 文件对象，a File Object
+         */
+        private final File mFile;
+
+        /**
+         * 文件长度，单位：字节
+         */
+        private final long mFileLen;
+
+        /**
+         * 块长度，单位：字节
+         */
+        private final int mChunkLen;
+
+        /**
+         * 每块的密文
+         */
+        private final byte[][] mChunks;
+
+        /**
+         * 下一个待领取的块
+         */
+        private final AtomicInteger mNext = new AtomicInteger(0);
+
+        /**
+         * 未完成的块数
+         */
+        private final CountDownLatch mDone;
+
+        /**
+         * 失败原因
+         */
+        private volatile Exception mError;
+
+        /**
+         * 构造方法：初始化文件对象、文件长度、块长度、块数
+         *
+         * @param f        文件对象，a File Object
+         * @param fileLen  文件长度，单位：字节
+         * @param chunkLen 块长度，单位：字节
+         * @param count    块数
+         */
+        public ChunkTask(File f, long fileLen, int chunkLen, int count) {
+            mFile = f;
+            mFileLen = fileLen;
+            mChunkLen = chunkLen;
+            mChunks = new byte[count][];
+            mDone = new CountDownLatch(count);
+        }
+
+        /**
+         * 【ThreadPool】领取并加密块，直到没有待领取的块，领取到块时打开自己的FileChannel
+         */
+        public void run() {
+            FileInputStream in = null;
+
+            try {
+                int index;
+                while ((index = mNext.getAndIncrement()) < mChunks.length) {
+                    try {
+                        if (in == null) {
+                            in = new FileInputStream(mFile);
+                        }
+
+                        digest(in.getChannel(), index);
+                    } catch (IOException | ArithmeticException e) {
+                        mError = e;
+                    } finally {
+                        mDone.countDown();
+                    }
+                }
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        Logger.w(Constants.TAG_LOG, TAG + " ChunkTask.run() close failure, errMsg: " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        /**
+         * 【调用者线程】领取并加密块，直到没有待领取的块
+         *
+         * @param channel 调用者自己的文件通道
+         */
+        public void run(FileChannel channel) {
+            int index;
+            while ((index = mNext.getAndIncrement()) < mChunks.length) {
+                try {
+                    digest(channel, index);
+                } catch (IOException | ArithmeticException e) {
+                    mError = e;
+                } finally {
+                    mDone.countDown();
+                }
+            }
+        }
+
+        /**
+         * 加密一块
+         *
+         * @param channel 文件通道
+         * @param index   块序号
+         * @throws IOException         如果读取失败，抛出异常
+         * @throws ArithmeticException 如果加密失败，抛出异常
+         */
+        private void digest(FileChannel channel, int index) throws IOException, ArithmeticException {
+            MessageDigest executor = getExecutor();
+            if (executor == null) {
+                throw new ArithmeticException("Engine Digest Failure");
+            }
+
+            long position = (long) index * mChunkLen;
+            update(executor, channel, position, Math.min(mChunkLen, mFileLen - position), DEFAULT_FILE_BUCKET_LEN);
+            mChunks[index] = executor.digest();
+        }
+
+        /**
+         * 等待其他线程加密完已领取的块
+         *
+         * @throws IOException 如果等待被中断或读取失败，抛出异常
+         */
+        public void await() throws IOException {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Chunk Digest Interrupted");
+            }
+
+            if (mError instanceof IOException) {
+                throw (IOException) mError;
+            }
+
+            if (mError != null) {
+                throw (ArithmeticException) mError;
+            }
+        }
+
+        /**
+         * 获取每块的密文
+         *
+         * @return 每块的密文，字节数组的数组
+         */
+        public byte[][] getChunks() {
+            return mChunks;
+        }
+    }
+
+    /**
+     * 【后台线程】执行命令，参与分块加密
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.Md5$ChunkCommand { *; }
+     * </p>
+     */
+    static class ChunkCommand extends ThreadPool.AbstractCommand {
+        /**
+         * 分块加密任务
+         */
+        private ChunkTask mTask;
+
+        /**
+         * 构造方法：初始化分块加密任务
+         *
+         * @param task 分块加密任务
+         */
+        public ChunkCommand(ChunkTask task) {
+            mTask = task;
+        }
+
+        @Override
+        public void exec() {
+            mTask.run();
+        }
+
+        @Override
+        public int getExecutorType() {
+            return ThreadPool.TYPE_CPU;
+        }
+
+        @Override
+        public int getRejectPolicy() {
+            return ThreadPool.POLICY_ABORT;
+        }
+    }
+
+    /**
+     * ChunkDigest class
+     * 流式分块加密类，边写入数据边计算每块的密文，如：下载时每写入一段数据调用一次{@link #update(byte[], int, int)}，
+     * 通过{@link #verify(byte[][])}校验已完成的块，无需等待文件下载完成，下载时的用法见Download.WriteListener
+     */
+    public static class ChunkDigest {
+        /**
+         * 块长度，单位：字节
+         */
+        private final int mChunkLen;
+
+        /**
+         * 消息摘要类，当前块
+         */
+        private final MessageDigest mExecutor;
+
+        /**
+         * 当前块已写入的长度，单位：字节
+         */
+        private long mChunkSize = 0;
+
+        /**
+         * 已完成的块的密文
+         */
+        private final List<byte[]> mChunks = new ArrayList<>();
+
+        /**
+         * 构造方法：初始化块长度、消息摘要类
+         *
+         * @param chunkLen 块长度，单位：字节，与{@link #toChunkBytes(File, int)}一致
+         * @throws ArithmeticException 如果创建消息摘要类失败，抛出异常
+         */
+        public ChunkDigest(int chunkLen) throws ArithmeticException {
+            if (chunkLen <= 0) {
+                throw new ArithmeticException("chunkLen must be greater than 0");
+            }
+
+            try {
+                mExecutor = MessageDigest.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new ArithmeticException("Engine Digest Failure");
+            }
+
+            mChunkLen = chunkLen;
+        }
+
+        /**
+         * 写入数据，块写满时计算该块的密文
+         *
+         * @param data   数据
+         * @param offset 开始位置
+         * @param len    长度，单位：字节
+         */
+        public void update(byte[] data, int offset, int len) {
+            while (len > 0) {
+                int size = (int) Math.min(len, mChunkLen - mChunkSize);
+                mExecutor.update(data, offset, size);
+                mChunkSize += size;
+                offset += size;
+                len -= size;
+
+                if (mChunkSize == mChunkLen) {
+                    mChunks.add(mExecutor.digest());
+                    mChunkSize = 0;
+                }
+            }
+        }
+
+        /**
+         * 校验已完成的块
+         *
+         * @param expected 期望的每块的密文
+         * @return 第一个不一致的块的索引，全部一致返回-1
+         */
+        public int verify(byte[][] expected) {
+            for (int i = 0; i < mChunks.size(); i++) {
+                if (i >= expected.length || !Arrays.equals(mChunks.get(i), expected[i])) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * 结束写入，计算最后一个未写满的块的密文
+         *
+         * @return 每块的密文，字节数组的数组
+         */
+        public byte[][] finish() {
+            if (mChunkSize > 0) {
+                mChunks.add(mExecutor.digest());
+                mChunkSize = 0;
+            }
+
+            return mChunks.toArray(new byte[mChunks.size()][]);
+        }
+
+        /**
+         * 获取已完成的块数
+         *
+         * @return 块数
+         */
+        public int getChunkCount() {
+            return mChunks.size();
+        }
     }
 
     /**
@@ -16,6 +16,7 @@
 
 package com.trotri.android.thunder.db;
 
+import com.trotri.android.thunder.ap.CommandPool;
 import com.trotri.android.thunder.ap.ThreadPool;
 import com.trotri.android.thunder.ap.TypeCast;
 import com.trotri.android.thunder.ap.UiThread;
@@ -23,6 +24,7 @@ import com.trotri.android.thunder.ap.UiThread;
 /**
  * AsyncRegistry class file
  * 异步全局数据寄存类，在后台线程中执行存储，执行完后，在主线程中回调Listener接口
+ * 命令对象从对象池中获取，执行完后放回，频繁读写时不再创建新对象
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: AsyncRegistry.java 1 2015-02-22 10:00:06Z huan.song $
@@ -73,14 +75,8 @@ public class AsyncRegistry {
      * @param defaultValue Value to return if this preference does not exist.
      * @param l            回执线程的处理接口
      */
-    public void getInt(String key, final int defaultValue, final Listener<Integer> l) {
-        getString(key, null, new Listener<String>() {
-            @Override
-            public void onComplete(String value) {
-                int result = TypeCast.toInt(value, defaultValue);
-                l.onComplete(result);
-            }
-        });
+    public void getInt(String key, int defaultValue, Listener<Integer> l) {
+        ThreadPool.execute(AsyncReadCommand.obtain(this, AsyncReadCommand.TYPE_INT, key, null, defaultValue, 0f, l));
     }
 
     /**
@@ -101,14 +97,8 @@ public class AsyncRegistry {
      * @param defaultValue Value to return if this preference does not exist.
      * @param l            回执线程的处理接口
      */
-    public void getLong(String key, final long defaultValue, final Listener<Long> l) {
-        getString(key, null, new Listener<String>() {
-            @Override
-            public void onComplete(String value) {
-                long result = TypeCast.toLong(value, defaultValue);
-                l.onComplete(result);
-            }
-        });
+    public void getLong(String key, long defaultValue, Listener<Long> l) {
+        ThreadPool.execute(AsyncReadCommand.obtain(this, AsyncReadCommand.TYPE_LONG, key, null, defaultValue, 0f, l));
     }
 
     /**
@@ -129,14 +119,8 @@ public class AsyncRegistry {
      * @param defaultValue Value to return if this preference does not exist.
      * @param l            回执线程的处理接口
      */
-    public void getFloat(String key, final float defaultValue, final Listener<Float> l) {
-        getString(key, null, new Listener<String>() {
-            @Override
-            public void onComplete(String value) {
-                float result = TypeCast.toFloat(value, defaultValue);
-                l.onComplete(result);
-            }
-        });
+    public void getFloat(String key, float defaultValue, Listener<Float> l) {
+        ThreadPool.execute(AsyncReadCommand.obtain(this, AsyncReadCommand.TYPE_FLOAT, key, null, 0L, defaultValue, l));
     }
 
     /**
@@ -157,13 +141,8 @@ public class AsyncRegistry {
      * @param defaultValue Value to return if this preference does not exist.
      * @param l            回执线程的处理接口
      */
-    public void getBoolean(String key, final boolean defaultValue, final Listener<Boolean> l) {
-        getInt(key, (defaultValue ? 1 : 0), new Listener<Integer>() {
-            @Override
-            public void onComplete(Integer value) {
-                l.onComplete(value == 1);
-            }
-        });
+    public void getBoolean(String key, boolean defaultValue, Listener<Boolean> l) {
+        ThreadPool.execute(AsyncReadCommand.obtain(this, AsyncReadCommand.TYPE_BOOLEAN, key, null, (defaultValue ? 1 : 0), 0f, l));
     }
 
     /**
@@ -185,7 +164,7 @@ public class AsyncRegistry {
      * @param l            回执线程的处理接口
      */
     public void getString(String key, String defaultValue, Listener<String> l) {
-        ThreadPool.execute(new AsyncReadCommand(key, defaultValue, l));
+        ThreadPool.execute(AsyncReadCommand.obtain(this, AsyncReadCommand.TYPE_STRING, key, defaultValue, 0L, 0f, l));
     }
 
     /**
@@ -196,7 +175,7 @@ public class AsyncRegistry {
      * @param l     回执线程的处理接口
      */
     public void putString(String key, String value, Listener<Boolean> l) {
-        ThreadPool.execute(new AsyncCommand(key, value, l));
+        ThreadPool.execute(AsyncCommand.obtain(this, AsyncCommand.TYPE_PUT, key, value, l));
     }
 
     /**
@@ -206,61 +185,166 @@ public class AsyncRegistry {
      * @param l   回执线程的处理接口
      */
     public void remove(String key, Listener<Boolean> l) {
-        ThreadPool.execute(new AsyncCommand(key, l));
+        ThreadPool.execute(AsyncCommand.obtain(this, AsyncCommand.TYPE_REMOVE, key, null, l));
     }
 
     /**
-     * 【后台线程】执行命令，读取数据
+     * 【后台线程】执行命令，读取数据，并转换为指定类型，执行完后放回对象池
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.AsyncRegistry$AsyncReadCommand { *; }
      * </p>
      */
-    class AsyncReadCommand extends ThreadPool.AbstractCommand {
+    static class AsyncReadCommand extends ThreadPool.AbstractCommand {
+        /**
+         * 数据类型：字符串
+         */
+        public static final int TYPE_STRING = 1;
+
+        /**
+         * 数据类型：整数
+         */
+        public static final int TYPE_INT = 2;
+
+        /**
+         * 数据类型：长整数
+         */
+        public static final int TYPE_LONG = 3;
+
+        /**
+         * 数据类型：浮点数
+         */
+        public static final int TYPE_FLOAT = 4;
+
+        /**
+         * 数据类型：布尔值，按整数存储，1：True
+         */
+        public static final int TYPE_BOOLEAN = 5;
+
+        /**
+         * 命令对象池
+         */
+        private static final CommandPool<AsyncReadCommand> POOL = new CommandPool<>();
+
+        /**
+         * 异步全局数据寄存类
+         */
+        private AsyncRegistry mAsyncRegistry;
+
+        /**
+         * 数据类型，1：字符串、2：整数、3：长整数、4：浮点数、5：布尔值
+         */
+        private int mType;
+
         /**
          * The name of the preference to retrieve.
          */
         private String mKey;
 
         /**
-         * Value to return if this preference does not exist.
+         * Value to return if this preference does not exist.（字符串）
          */
         private String mDefaultValue;
 
+        /**
+         * Value to return if this preference does not exist.（整数、长整数、布尔值）
+         */
+        private long mDefaultLong;
+
+        /**
+         * Value to return if this preference does not exist.（浮点数）
+         */
+        private float mDefaultFloat;
+
         /**
          * 回执线程的处理接口
          */
-        private Listener<String> mListener;
+        private Listener<?> mListener;
 
         /**
-         * 构造方法：初始化键名、默认值、回执线程的处理接口
+         * 构造方法：只能通过{@link #obtain}获取
+         */
+        private AsyncReadCommand() {
+        }
+
+        /**
+         * 从对象池中获取命令，对象池为空时创建新命令
          *
-         * @param key          The name of the preference to retrieve.
-         * @param defaultValue Value to return if this preference does not exist.
-         * @param l            回执线程的处理接口
+         * @param asyncRegistry 异步全局数据寄存类
+         * @param type          数据类型，1：字符串、2：整数、3：长整数、4：浮点数、5：布尔值
+         * @param key           The name of the preference to retrieve.
+         * @param defaultValue  Value to return if this preference does not exist.（字符串）
+         * @param defaultLong   Value to return if this preference does not exist.（整数、长整数、布尔值）
+         * @param defaultFloat  Value to return if this preference does not exist.（浮点数）
+         * @param l             回执线程的处理接口，类型和数据类型一致
+         * @return a AsyncReadCommand Object
          */
-        public AsyncReadCommand(String key, String defaultValue, Listener<String> l) {
-            mKey = key;
-            mDefaultValue = defaultValue;
-            mListener = l;
+        static AsyncReadCommand obtain(AsyncRegistry asyncRegistry, int type, String key, String defaultValue, long defaultLong, float defaultFloat, Listener<?> l) {
+            AsyncReadCommand command = POOL.acquire();
+            if (command == null) {
+                command = new AsyncReadCommand();
+            }
+
+            command.mAsyncRegistry = asyncRegistry;
+            command.mType = type;
+            command.mKey = key;
+            command.mDefaultValue = defaultValue;
+            command.mDefaultLong = defaultLong;
+            command.mDefaultFloat = defaultFloat;
+            command.mListener = l;
+            return command;
         }
 
         @Override
         public void exec() {
-            String value = mRegistry.getString(mKey, mDefaultValue);
-            UiThread.exec(new UiCommand<>(value, mListener));
+            String value = mAsyncRegistry.mRegistry.getString(mKey, mDefaultValue);
+            Object result;
+
+            switch (mType) {
+                case TYPE_INT:
+                    result = TypeCast.toInt(value, (int) mDefaultLong);
+                    break;
+                case TYPE_LONG:
+                    result = TypeCast.toLong(value, mDefaultLong);
+                    break;
+                case TYPE_FLOAT:
+                    result = TypeCast.toFloat(value, mDefaultFloat);
+                    break;
+                case TYPE_BOOLEAN:
+                    result = (TypeCast.toInt(value, (int) mDefaultLong) == 1);
+                    break;
+                default:
+                    result = value;
+                    break;
+            }
+
+            UiThread.exec(UiCommand.obtain(result, mListener));
+        }
+
+        @Override
+        protected void recycle() {
+            super.recycle();
+
+            mAsyncRegistry = null;
+            mType = 0;
+            mKey = null;
+            mDefaultValue = null;
+            mDefaultLong = 0L;
+            mDefaultFloat = 0f;
+            mListener = null;
+            POOL.release(this);
         }
 
     }
 
     /**
-     * 【后台线程】执行命令，设置和删除数据
+     * 【后台线程】执行命令，设置和删除数据，执行完后放回对象池
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.AsyncRegistry$AsyncCommand { *; }
      * </p>
      */
-    class AsyncCommand extends ThreadPool.AbstractCommand {
+    static class AsyncCommand extends ThreadPool.AbstractCommand {
         /**
          * 结果类型：设置数据
          */
@@ -271,6 +355,16 @@ public class AsyncRegistry {
          */
         public static final int TYPE_REMOVE = 2;
 
+        /**
+         * 命令对象池
+         */
+        private static final CommandPool<AsyncCommand> POOL = new CommandPool<>();
+
+        /**
+         * 异步全局数据寄存类
+         */
+        private AsyncRegistry mAsyncRegistry;
+
         /**
          * The name of the preference to retrieve.
          */
@@ -292,31 +386,33 @@ public class AsyncRegistry {
         private int mType;
 
         /**
-         * 构造方法：初始化键名、新值、回执线程的处理接口
-         *
-         * @param key   The name of the preference to modify.
-         * @param value The new value for the preference.
-         * @param l     回执线程的处理接口
+         * 构造方法：只能通过{@link #obtain}获取
          */
-        public AsyncCommand(String key, String value, Listener<Boolean> l) {
-            mType = TYPE_PUT;
-
-            mKey = key;
-            mValue = value;
-            mListener = l;
+        private AsyncCommand() {
         }
 
         /**
-         * 构造方法：初始化键名、回执线程的处理接口
+         * 从对象池中获取命令，对象池为空时创建新命令
          *
-         * @param key The name of the preference to remove.
-         * @param l   回执线程的处理接口
+         * @param asyncRegistry 异步全局数据寄存类
+         * @param type          结果类型，1：设置数据、2：删除数据
+         * @param key           The name of the preference to modify.
+         * @param value         The new value for the preference，删除数据：null
+         * @param l             回执线程的处理接口
+         * @return a AsyncCommand Object
          */
-        public AsyncCommand(String key, Listener<Boolean> l) {
-            mType = TYPE_REMOVE;
+        static AsyncCommand obtain(AsyncRegistry asyncRegistry, int type, String key, String value, Listener<Boolean> l) {
+            AsyncCommand command = POOL.acquire();
+            if (command == null) {
+                command = new AsyncCommand();
+            }
 
-            mKey = key;
-            mListener = l;
+            command.mAsyncRegistry = asyncRegistry;
+            command.mType = type;
+            command.mKey = key;
+            command.mValue = value;
+            command.mListener = l;
+            return command;
         }
 
         @Override
@@ -325,52 +421,90 @@ public class AsyncRegistry {
 
             switch (mType) {
                 case TYPE_PUT:
-                    result = mRegistry.putString(mKey, mValue);
+                    result = mAsyncRegistry.mRegistry.putString(mKey, mValue);
                     break;
                 case TYPE_REMOVE:
-                    result = mRegistry.remove(mKey);
+                    result = mAsyncRegistry.mRegistry.remove(mKey);
                     break;
                 default:
                     break;
             }
 
-            UiThread.exec(new UiCommand<>(result, mListener));
+            UiThread.exec(UiCommand.obtain(result, mListener));
+        }
+
+        @Override
+        protected void recycle() {
+            super.recycle();
+
+            mAsyncRegistry = null;
+            mKey = null;
+            mValue = null;
+            mListener = null;
+            mType = 0;
+            POOL.release(this);
         }
 
     }
 
     /**
-     * 【主线程】执行命令，通知执行结果
+     * 【主线程】执行命令，通知执行结果，执行完后放回对象池
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.AsyncRegistry$UiCommand { *; }
      * </p>
      */
-    class UiCommand<T> extends UiThread.AbstractCommand {
+    static class UiCommand extends UiThread.AbstractCommand {
+        /**
+         * 命令对象池
+         */
+        private static final CommandPool<UiCommand> POOL = new CommandPool<>();
+
         /**
          * 结果
          */
-        private T mResult;
+        private Object mResult;
 
         /**
-         * 回执线程的处理接口
+         * 回执线程的处理接口，类型和结果一致
          */
-        private Listener<T> mListener;
+        private Listener<?> mListener;
 
         /**
-         * 构造方法：初始化结果、回执线程的处理接口
+         * 构造方法：只能通过{@link #obtain}获取
+         */
+        private UiCommand() {
+        }
+
+        /**
+         * 从对象池中获取命令，初始化结果、回执线程的处理接口
          *
          * @param result 结果
-         * @param l      回执线程的处理接口
+         * @param l      回执线程的处理接口，类型和结果一致
+         * @return a UiCommand Object
          */
-        public UiCommand(T result, Listener<T> l) {
-            mResult = result;
-            mListener = l;
+        static UiCommand obtain(Object result, Listener<?> l) {
+            UiCommand command = POOL.acquire();
+            if (command == null) {
+                command = new UiCommand();
+            }
+
+            command.mResult = result;
+            command.mListener = l;
+            return command;
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public void exec() {
-            mListener.onComplete(mResult);
+            ((Listener<Object>) mListener).onComplete(mResult);
+        }
+
+        @Override
+        protected void recycle() {
+            mResult = null;
+            mListener = null;
+            POOL.release(this);
         }
 
     }
@@ -18,15 +18,21 @@ package com.trotri.android.thunder.db;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import com.trotri.android.thunder.ap.Constants;
 import com.trotri.android.thunder.ap.Logger;
 
+import java.util.List;
+
 /**
  * Db class file
  * 数据库操作类
+ * 长连接模式：数据库连接一直保持打开，并开启WAL，读写不再每次打开和关闭数据库文件，用完后调用{@link #close()}
+ * 批量写入：{@link #transaction(Transaction)}、{@link #execBatch(String, List)}、{@link #insertAll(String, List)}
  * <p>
  * 避免混淆，proguard-rules.pro:
  * -keepclassmembers class 包名.Db { *; }
@@ -60,6 +66,11 @@ public class Db extends SQLiteOpenHelper {
      */
     private String mCommand;
 
+    /**
+     * 是否是长连接模式
+     */
+    private boolean mKeepOpen;
+
     /**
      * 构造方法：初始化上下文环境、数据库名、版本、表名、创建表命令
      *
@@ -70,14 +81,29 @@ public class Db extends SQLiteOpenHelper {
      * @param command 创建表命令
      */
     public Db(Context c, String dbName, int version, String tblName, String command) {
+        this(c, dbName, version, tblName, command, false);
+    }
+
+    /**
+     * 构造方法：初始化上下文环境、数据库名、版本、表名、创建表命令、是否是长连接模式
+     *
+     * @param c        上下文环境
+     * @param dbName   数据库名
+     * @param version  版本
+     * @param tblName  表名
+     * @param command  创建表命令
+     * @param keepOpen 是否是长连接模式，True：保持数据库连接并开启WAL、False：每次操作后关闭数据库连接
+     */
+    public Db(Context c, String dbName, int version, String tblName, String command, boolean keepOpen) {
         super(c, dbName, null, version);
 
         mDbName = dbName;
         mVersion = version;
         mTblName = tblName;
         mCommand = command;
+        mKeepOpen = keepOpen;
 
-        Logger.d(Constants.TAG_LOG, TAG + " Constructor() dbName: '" + getDbName() + "', version: " + getVersion() + ", tblName: '" + getTblName() + "', command: '" + getCommand() + "'");
+        Logger.d(Constants.TAG_LOG, TAG + " Constructor() dbName: '" + getDbName() + "', version: " + getVersion() + ", tblName: '" + getTblName() + "', command: '" + getCommand() + "', keepOpen: " + isKeepOpen());
     }
 
     @Override
@@ -95,6 +121,15 @@ public class Db extends SQLiteOpenHelper {
         Logger.d(Constants.TAG_LOG, TAG + " onUpgrade() command: 'DROP TABLE IF EXISTS " + getTblName() + "', oldVersion: " + oldVersion + ", newVersion: " + newVersion);
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (isKeepOpen() && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
     /**
      * 执行一条SQL
      *
@@ -105,7 +140,7 @@ public class Db extends SQLiteOpenHelper {
 
         db = getWritableDatabase();
         db.execSQL(sql);
-        db.close();
+        release(db);
 
         Logger.d(Constants.TAG_LOG, TAG + " execSQL() command: '" + sql + "'");
     }
@@ -121,7 +156,7 @@ public class Db extends SQLiteOpenHelper {
 
         db = getWritableDatabase();
         db.execSQL(sql, bindArgs);
-        db.close();
+        release(db);
 
         Logger.d(Constants.TAG_LOG, TAG + " execSQL() command: '" + sql + "', bindArgs: '" + joinString(bindArgs) + "'");
     }
@@ -144,12 +179,28 @@ public class Db extends SQLiteOpenHelper {
     public long insert(String nullColumnHack, ContentValues values) {
         SQLiteDatabase db = getWritableDatabase();
         long lastInsertId = db.insert(getTblName(), nullColumnHack, values);
-        db.close();
+        release(db);
 
         Logger.d(Constants.TAG_LOG, TAG + " insert() tblName: '" + getTblName() + "', nullColumnHack: '" + nullColumnHack + "', values: '" + values + "'");
         return lastInsertId;
     }
 
+    /**
+     * 插入或替换一条记录，INSERT OR REPLACE，唯一键冲突时替换旧记录
+     *
+     * @param nullColumnHack 空列
+     * @param values         行数据集合
+     * @return 最后一次插入行的Id，如果出错，返回-1
+     */
+    public long replace(String nullColumnHack, ContentValues values) {
+        SQLiteDatabase db = getWritableDatabase();
+        long lastInsertId = db.insertWithOnConflict(getTblName(), nullColumnHack, values, SQLiteDatabase.CONFLICT_REPLACE);
+        release(db);
+
+        Logger.d(Constants.TAG_LOG, TAG + " replace() tblName: '" + getTblName() + "', nullColumnHack: '" + nullColumnHack + "', values: '" + values + "'");
+        return lastInsertId;
+    }
+
     /**
      * 更新记录
      *
@@ -161,7 +212,7 @@ public class Db extends SQLiteOpenHelper {
     public int update(ContentValues values, String whereClause, String[] whereArgs) {
         SQLiteDatabase db = getWritableDatabase();
         int rowCount = db.update(getTblName(), values, whereClause, whereArgs);
-        db.close();
+        release(db);
 
         Logger.d(Constants.TAG_LOG, TAG + " update() tblName: '" + getTblName() + "', values: '" + values + "', whereClause: '" + whereClause + "', whereArgs: '" + joinString(whereArgs) + "'");
         return rowCount;
@@ -177,12 +228,158 @@ public class Db extends SQLiteOpenHelper {
     public int delete(String whereClause, String[] whereArgs) {
         SQLiteDatabase db = getWritableDatabase();
         int rowCount = db.delete(getTblName(), whereClause, whereArgs);
-        db.close();
+        release(db);
 
         Logger.d(Constants.TAG_LOG, TAG + " delete() tblName: '" + getTblName() + "', whereClause: '" + whereClause + "', whereArgs: '" + joinString(whereArgs) + "'");
         return rowCount;
     }
 
+    /**
+     * 在一个事务中执行多个操作，全部成功后提交，否则回滚
+     * <pre>
+     * db.transaction(new Db.Transaction() {
+     *     public void exec(SQLiteDatabase db) {
+     *         db.insert(TABLE_NAME, null, values1);
+     *         db.update(TABLE_NAME, values2, "id = ?", new String[]{"1"});
+     *     }
+     * });
+     * </pre>
+     *
+     * @param t 事务中执行的操作
+     * @return Returns True：提交成功, or False：已回滚
+     */
+    public boolean transaction(Transaction t) {
+        SQLiteDatabase db = getWritableDatabase();
+        boolean result = false;
+
+        db.beginTransaction();
+        try {
+            t.exec(db);
+            db.setTransactionSuccessful();
+            result = true;
+        } catch (SQLException e) {
+            Logger.e(Constants.TAG_LOG, TAG + " transaction() tblName: '" + getTblName() + "'", e);
+        } finally {
+            db.endTransaction();
+            release(db);
+        }
+
+        return result;
+    }
+
+    /**
+     * 在一个事务中批量执行同一条SQL，SQL只编译一次
+     * <pre>
+     * List&lt;Object[]&gt; bindArgsList = new ArrayList&lt;&gt;();
+     * bindArgsList.add(new Object[]{"标题1", "内容1"});
+     * bindArgsList.add(new Object[]{"标题2", "内容2"});
+     * int count = db.execBatch("INSERT INTO tbl (title, content) VALUES (?, ?)", bindArgsList);
+     * </pre>
+     *
+     * @param sql          SQL Command
+     * @param bindArgsList 每次执行的条件参数，a List of Object Array
+     * @return 成功执行的次数，如果出错，已回滚，返回-1
+     */
+    public int execBatch(final String sql, final List<Object[]> bindArgsList) {
+        final int[] count = {0};
+
+        boolean result = transaction(new Transaction() {
+            @Override
+            public void exec(SQLiteDatabase db) {
+                SQLiteStatement statement = db.compileStatement(sql);
+                try {
+                    for (Object[] bindArgs : bindArgsList) {
+                        bindAll(statement, bindArgs);
+                        statement.execute();
+                        count[0]++;
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+
+        Logger.d(Constants.TAG_LOG, TAG + " execBatch() command: '" + sql + "', count: " + count[0] + ", result: " + result);
+        return result ? count[0] : -1;
+    }
+
+    /**
+     * 在一个事务中插入多条记录
+     *
+     * @param nullColumnHack 空列
+     * @param valuesList     每行的数据集合，a List of ContentValues
+     * @return 插入的行数，如果出错，已回滚，返回-1
+     */
+    public int insertAll(final String nullColumnHack, final List<ContentValues> valuesList) {
+        final int[] count = {0};
+
+        boolean result = transaction(new Transaction() {
+            @Override
+            public void exec(SQLiteDatabase db) {
+                for (ContentValues values : valuesList) {
+                    if (db.insertOrThrow(getTblName(), nullColumnHack, values) != -1) {
+                        count[0]++;
+                    }
+                }
+            }
+        });
+
+        Logger.d(Constants.TAG_LOG, TAG + " insertAll() tblName: '" + getTblName() + "', nullColumnHack: '" + nullColumnHack + "', count: " + count[0] + ", result: " + result);
+        return result ? count[0] : -1;
+    }
+
+    /**
+     * 绑定条件参数
+     *
+     * @param statement 已编译的SQL，a SQLiteStatement Object
+     * @param bindArgs  条件参数，an Object Array, or null
+     */
+    public void bindAll(SQLiteStatement statement, Object[] bindArgs) {
+        statement.clearBindings();
+        if (bindArgs == null) {
+            return;
+        }
+
+        for (int i = 0; i < bindArgs.length; i++) {
+            Object value = bindArgs[i];
+            int index = i + 1;
+
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+    /**
+     * 释放数据库连接，长连接模式不关闭
+     *
+     * @param db a SQLiteDatabase Object
+     */
+    public void release(SQLiteDatabase db) {
+        if (!isKeepOpen() && !db.inTransaction()) {
+            db.close();
+        }
+    }
+
+    /**
+     * 是否是长连接模式
+     *
+     * @return Returns True, or False
+     */
+    public boolean isKeepOpen() {
+        return mKeepOpen;
+    }
+
     /**
      * 获取数据库名
      *
@@ -241,4 +438,19 @@ public class Db extends SQLiteOpenHelper {
         return data.toString();
     }
 
+    /**
+     * Transaction interface
+     * 事务接口
+     *
+     * @since 1.0
+     */
+    public interface Transaction {
+        /**
+         * 在事务中执行操作，抛出SQLException时回滚
+         *
+         * @param db a SQLiteDatabase Object
+         */
+        void exec(SQLiteDatabase db);
+    }
+
 }
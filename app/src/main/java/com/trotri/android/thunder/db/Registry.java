@@ -23,8 +23,12 @@ import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 
 import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.Logger;
 import com.trotri.android.thunder.ap.TypeCast;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Registry class file
  * 全局数据寄存类
@@ -35,6 +39,10 @@ import com.trotri.android.thunder.ap.TypeCast;
  * setting_key VARCHAR(50) UNIQUE NOT NULL
  * setting_value TEXT NOT NULL
  * </pre>
+ * 内存缓存：第一次读写时一次性加载全部数据到内存，之后读取不再访问Db
+ * 同一个Db名的所有Registry实例共享一个内存缓存和一个Db对象，一个实例的修改其他实例立即可见，进程内只保持一个Db连接
+ * 默认写穿透，修改内存的同时写入Db（INSERT OR REPLACE）；
+ * 关闭写穿透后{@link #setWriteThrough(boolean)}，修改只写入内存，调用{@link #flush()}时在一个事务中批量写入Db
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: Registry.java 1 2015-02-22 10:00:06Z huan.song $
@@ -85,9 +93,14 @@ public class Registry {
     private final String mDbName;
 
     /**
-     * Db对象
+     * 所有Db的共享存储，Key => Db名, Value => Store
      */
-    private final Db mDb;
+    private static final Map<String, Store> STORES = new HashMap<>();
+
+    /**
+     * 共享存储，包括Db对象和内存缓存，读写时对其加锁
+     */
+    private final Store mStore;
 
     /**
      * 上下文环境
@@ -114,7 +127,25 @@ public class Registry {
         mAppContext = c.getApplicationContext();
         mPackageName = getAppContext().getPackageName();
         mDbName = getPackageName() + dbPostfix;
-        mDb = new Db(getAppContext(), getDbName(), VERSION, TABLE_NAME, getCommand());
+        mStore = getStore(this);
+    }
+
+    /**
+     * 获取Db名对应的共享存储，不存在则创建
+     *
+     * @param registry 第一次创建时，使用该实例的上下文环境、Db名和创建表命令
+     * @return 共享存储，a Store Object
+     */
+    private static Store getStore(Registry registry) {
+        synchronized (STORES) {
+            Store store = STORES.get(registry.getDbName());
+            if (store == null) {
+                store = new Store(new Db(registry.getAppContext(), registry.getDbName(), VERSION, TABLE_NAME, registry.getCommand(), true));
+                STORES.put(registry.getDbName(), store);
+            }
+
+            return store;
+        }
     }
 
     /**
@@ -216,22 +247,16 @@ public class Registry {
      * @return Returns the preference value if it exists, or defaultValue
      */
     public String getString(String key, String defaultValue) {
-        String value = defaultValue;
-
         if (TextUtils.isEmpty(key)) {
-            return value;
+            return defaultValue;
         }
 
-        SQLiteDatabase dbReadable = getDb().getReadableDatabase();
-        Cursor cursor = dbReadable.query(TABLE_NAME, new String[]{SETTING_VALUE},
-                SETTING_KEY + " = ?", new String[]{key}, null, null, null);
-        if (cursor.moveToNext()) {
-            value = cursor.getString(cursor.getColumnIndex(SETTING_VALUE));
-        }
+        synchronized (mStore) {
+            load();
 
-        cursor.close();
-        dbReadable.close();
-        return value;
+            String value = mStore.mCache.get(key);
+            return (value == null) ? defaultValue : value;
+        }
     }
 
     /**
@@ -246,25 +271,28 @@ public class Registry {
             return false;
         }
 
-        ContentValues values = new ContentValues();
-        values.put(SETTING_KEY, key);
-        values.put(SETTING_VALUE, value);
-
-        boolean isNewRecord = (getString(key, null) == null);
+        synchronized (mStore) {
+            load();
 
-        if (isNewRecord) {
-            long lastInsertId = getDb().insert(null, values);
-            if (lastInsertId > 0) {
+            if (!isWriteThrough()) {
+                mStore.mCache.put(key, value);
+                mStore.mDirty.put(key, value);
                 return true;
             }
-        } else {
-            int rowCount = getDb().update(values, SETTING_KEY + " = ?", new String[]{key});
-            if (rowCount > 0) {
-                return true;
+
+            ContentValues values = new ContentValues();
+            values.put(SETTING_KEY, key);
+            values.put(SETTING_VALUE, value);
+
+            long lastInsertId = getDb().replace(null, values);
+            if (lastInsertId <= 0) {
+                Logger.e(Constants.TAG_LOG, TAG + " putString() replace failed, dbName: '" + getDbName() + "', key: '" + key + "'");
+                return false;
             }
-        }
 
-        return false;
+            mStore.mCache.put(key, value);
+            return true;
+        }
     }
 
     /**
@@ -278,8 +306,118 @@ public class Registry {
             return false;
         }
 
-        int rowCount = getDb().delete(SETTING_KEY + " = ?", new String[]{key});
-        return (rowCount > 0);
+        synchronized (mStore) {
+            load();
+
+            if (!isWriteThrough()) {
+                mStore.mDirty.put(key, null);
+                return (mStore.mCache.remove(key) != null);
+            }
+
+            int rowCount = getDb().delete(SETTING_KEY + " = ?", new String[]{key});
+            mStore.mCache.remove(key);
+            return (rowCount > 0);
+        }
+    }
+
+    /**
+     * 将未写入Db的修改，在一个事务中批量写入Db
+     *
+     * @return Returns True, or False
+     */
+    public boolean flush() {
+        synchronized (mStore) {
+            final Map<String, String> dirty = mStore.mDirty;
+            if (dirty.isEmpty()) {
+                return true;
+            }
+
+            boolean result = getDb().transaction(new Db.Transaction() {
+                @Override
+                public void exec(SQLiteDatabase db) {
+                    for (Map.Entry<String, String> entry : dirty.entrySet()) {
+                        if (entry.getValue() == null) {
+                            db.delete(TABLE_NAME, SETTING_KEY + " = ?", new String[]{entry.getKey()});
+                        } else {
+                            ContentValues values = new ContentValues();
+                            values.put(SETTING_KEY, entry.getKey());
+                            values.put(SETTING_VALUE, entry.getValue());
+                            db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                        }
+                    }
+                }
+            });
+
+            if (result) {
+                dirty.clear();
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * 丢弃内存缓存，下次读写时从Db重新加载，未写入Db的修改先写入Db
+     * 内存缓存是共享的，同一个Db名的其他实例也会重新加载
+     */
+    public void reload() {
+        synchronized (mStore) {
+            flush();
+
+            mStore.mCache.clear();
+            mStore.mLoaded = false;
+        }
+    }
+
+    /**
+     * 加载全部数据到内存，只在第一次读写时执行
+     */
+    private void load() {
+        if (mStore.mLoaded) {
+            return;
+        }
+
+        SQLiteDatabase dbReadable = getDb().getReadableDatabase();
+        Cursor cursor = dbReadable.query(TABLE_NAME, new String[]{SETTING_KEY, SETTING_VALUE},
+                null, null, null, null, null);
+
+        int keyIndex = cursor.getColumnIndex(SETTING_KEY);
+        int valueIndex = cursor.getColumnIndex(SETTING_VALUE);
+        while (cursor.moveToNext()) {
+            mStore.mCache.put(cursor.getString(keyIndex), cursor.getString(valueIndex));
+        }
+
+        cursor.close();
+        getDb().release(dbReadable);
+
+        mStore.mLoaded = true;
+        Logger.d(Constants.TAG_LOG, TAG + " load() dbName: '" + getDbName() + "', size: " + mStore.mCache.size());
+    }
+
+    /**
+     * 是否写穿透
+     *
+     * @return Returns True, or False
+     */
+    public boolean isWriteThrough() {
+        synchronized (mStore) {
+            return mStore.mWriteThrough;
+        }
+    }
+
+    /**
+     * 设置是否写穿透，打开写穿透时，先将未写入Db的修改写入Db
+     * 写穿透是共享的，对同一个Db名的所有实例生效
+     *
+     * @param writeThrough True：修改时立即写入Db、False：调用flush()时写入Db，默认：True
+     */
+    public void setWriteThrough(boolean writeThrough) {
+        synchronized (mStore) {
+            mStore.mWriteThrough = writeThrough;
+            if (writeThrough) {
+                flush();
+            }
+        }
     }
 
     /**
@@ -324,7 +462,7 @@ public class Registry {
      * @return Db对象，a Db Object
      */
     public Db getDb() {
-        return mDb;
+        return mStore.mDb;
     }
 
     /**
@@ -336,4 +474,48 @@ public class Registry {
         return mAppContext;
     }
 
+    /**
+     * 共享存储类，同一个Db名只有一个实例
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.Registry$Store { *; }
+     * </p>
+     */
+    static class Store {
+        /**
+         * Db对象，保持连接
+         */
+        final Db mDb;
+
+        /**
+         * 内存缓存，Key => setting_key, Value => setting_value
+         */
+        final Map<String, String> mCache = new HashMap<>();
+
+        /**
+         * 未写入Db的修改，Key => setting_key, Value => setting_value，null表示删除
+         */
+        final Map<String, String> mDirty = new HashMap<>();
+
+        /**
+         * 是否已加载全部数据到内存
+         */
+        boolean mLoaded = false;
+
+        /**
+         * 是否写穿透，True：修改时立即写入Db、False：调用flush()时写入Db
+         */
+        boolean mWriteThrough = true;
+
+        /**
+         * 构造方法：初始化Db对象
+         *
+         * @param db Db对象
+         */
+        Store(Db db) {
+            mDb = db;
+        }
+
+    }
+
 }
@@ -18,6 +18,7 @@ package com.trotri.android.thunder.file;
 
 import android.content.Context;
 
+import com.trotri.android.thunder.ap.CommandPool;
 import com.trotri.android.thunder.ap.ThreadPool;
 import com.trotri.android.thunder.ap.UiThread;
 
@@ -80,7 +81,7 @@ public class Sandbox {
      * @param l        回执线程的处理接口
      */
     public void read(String fileName, Listener l) {
-        ThreadPool.execute(new AsyncCommand(fileName, l));
+        ThreadPool.execute(AsyncCommand.obtain(this, AsyncCommand.TYPE_READ, fileName, null, false, l));
     }
 
     /**
@@ -93,7 +94,7 @@ public class Sandbox {
      * @param l        回执线程的处理接口
      */
     public void write(String fileName, String data, boolean append, Listener l) {
-        ThreadPool.execute(new AsyncCommand(fileName, data, append, l));
+        ThreadPool.execute(AsyncCommand.obtain(this, AsyncCommand.TYPE_WRITE, fileName, data, append, l));
     }
 
     /**
@@ -104,7 +105,7 @@ public class Sandbox {
      * @param l        回执线程的处理接口
      */
     public void remove(String fileName, Listener l) {
-        ThreadPool.execute(new AsyncCommand(fileName, l, true));
+        ThreadPool.execute(AsyncCommand.obtain(this, AsyncCommand.TYPE_REMOVE, fileName, null, false, l));
     }
 
     /**
@@ -180,13 +181,13 @@ public class Sandbox {
     }
 
     /**
-     * 【后台线程】执行命令，发送操作请求
+     * 【后台线程】执行命令，发送操作请求，执行完后放回对象池
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.Sandbox$AsyncCommand { *; }
      * </p>
      */
-    class AsyncCommand extends ThreadPool.AbstractCommand {
+    static class AsyncCommand extends ThreadPool.AbstractCommand {
         /**
          * 操作类型：读取文件
          */
@@ -202,6 +203,16 @@ public class Sandbox {
          */
         public static final int TYPE_REMOVE = 3;
 
+        /**
+         * 命令对象池
+         */
+        private static final CommandPool<AsyncCommand> POOL = new CommandPool<>();
+
+        /**
+         * 文件读写类
+         */
+        private Sandbox mSandbox;
+
         /**
          * 文件名，不需要路径
          */
@@ -228,44 +239,35 @@ public class Sandbox {
         private Listener mListener;
 
         /**
-         * 构造方法：初始化文件名、回执线程的处理接口
-         *
-         * @param fileName 文件名，不需要路径
-         * @param l        回执线程的处理接口
-         */
-        public AsyncCommand(String fileName, Listener l) {
-            this(fileName, l, false);
-        }
-
-        /**
-         * 构造方法：初始化文件名、回执线程的处理接口、是否是删除文件和目录
-         *
-         * @param fileName 文件名，不需要路径
-         * @param l        回执线程的处理接口
-         * @param remove   是否是删除文件和目录
+         * 构造方法：只能通过{@link #obtain}获取
          */
-        public AsyncCommand(String fileName, Listener l, boolean remove) {
-            mType = remove ? TYPE_REMOVE : TYPE_READ;
-
-            mFileName = fileName;
-            mListener = l;
+        private AsyncCommand() {
         }
 
         /**
-         * 构造方法：初始化文件名、需要写入或追加的数据、操作模式、回执线程的处理接口
+         * 从对象池中获取命令，对象池为空时创建新命令
          *
+         * @param sandbox  文件读写类
+         * @param type     操作类型，1：读取文件、2：写入文件、3：删除文件和目录
          * @param fileName 文件名，不需要路径
-         * @param data     需要写入或追加的数据
+         * @param data     需要写入或追加的数据，非写入文件：null
          * @param append   操作模式，如果文件已存在，False：覆盖原文件内容、True：往文件中追加内容
          * @param l        回执线程的处理接口
+         * @return a AsyncCommand Object
          */
-        public AsyncCommand(String fileName, String data, boolean append, Listener l) {
-            mType = TYPE_WRITE;
+        static AsyncCommand obtain(Sandbox sandbox, int type, String fileName, String data, boolean append, Listener l) {
+            AsyncCommand command = POOL.acquire();
+            if (command == null) {
+                command = new AsyncCommand();
+            }
 
-            mFileName = fileName;
-            mData = data;
-            mAppend = append;
-            mListener = l;
+            command.mSandbox = sandbox;
+            command.mType = type;
+            command.mFileName = fileName;
+            command.mData = data;
+            command.mAppend = append;
+            command.mListener = l;
+            return command;
         }
 
         @Override
@@ -273,7 +275,7 @@ public class Sandbox {
             try {
                 onExecute();
             } catch (NullPointerException | IOException e) {
-                UiThread.exec(new UiCommand(e, mListener));
+                UiThread.exec(UiCommand.obtain(e, mListener));
             }
         }
 
@@ -283,24 +285,24 @@ public class Sandbox {
         void onExecute() throws NullPointerException, IOException {
             switch (mType) {
                 case TYPE_READ:
-                    String data = read(mFileName);
+                    String data = mSandbox.read(mFileName);
                     if (data == null) {
-                        UiThread.exec(new UiCommand(new Throwable("File Read Failure, fileName: " + mFileName), mListener));
+                        UiThread.exec(UiCommand.obtain(new Throwable("File Read Failure, fileName: " + mFileName), mListener));
                     } else {
-                        UiThread.exec(new UiCommand(data, mListener));
+                        UiThread.exec(UiCommand.obtain(data, mListener));
                     }
 
                     break;
                 case TYPE_WRITE:
-                    write(mFileName, mData, mAppend);
-                    UiThread.exec(new UiCommand("", mListener));
+                    mSandbox.write(mFileName, mData, mAppend);
+                    UiThread.exec(UiCommand.obtain("", mListener));
                     break;
                 case TYPE_REMOVE:
-                    boolean result = remove(mFileName);
+                    boolean result = mSandbox.remove(mFileName);
                     if (result) {
-                        UiThread.exec(new UiCommand("", mListener));
+                        UiThread.exec(UiCommand.obtain("", mListener));
                     } else {
-                        UiThread.exec(new UiCommand(new Throwable("File Remove Failure, fileName: " + mFileName), mListener));
+                        UiThread.exec(UiCommand.obtain(new Throwable("File Remove Failure, fileName: " + mFileName), mListener));
                     }
 
                     break;
@@ -308,16 +310,29 @@ public class Sandbox {
                     break;
             }
         }
+
+        @Override
+        protected void recycle() {
+            super.recycle();
+
+            mSandbox = null;
+            mFileName = null;
+            mData = null;
+            mAppend = false;
+            mType = 0;
+            mListener = null;
+            POOL.release(this);
+        }
     }
 
     /**
-     * 【主线程】执行命令，通知操作结果
+     * 【主线程】执行命令，通知操作结果，执行完后放回对象池
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.Sandbox$UiCommand { *; }
      * </p>
      */
-    class UiCommand extends UiThread.AbstractCommand {
+    static class UiCommand extends UiThread.AbstractCommand {
         /**
          * 结果类型：操作完成
          */
@@ -328,6 +343,11 @@ public class Sandbox {
          */
         public static final int TYPE_ERROR = 2;
 
+        /**
+         * 命令对象池
+         */
+        private static final CommandPool<UiCommand> POOL = new CommandPool<>();
+
         /**
          * 文件内容（读取文件）、""（写入文件和删除文件）
          */
@@ -349,29 +369,53 @@ public class Sandbox {
         private Listener mListener;
 
         /**
-         * 构造方法：初始化文件内容、回执线程的处理接口
+         * 构造方法：只能通过obtain()获取
+         */
+        private UiCommand() {
+        }
+
+        /**
+         * 从对象池中获取命令，初始化文件内容、回执线程的处理接口
          *
          * @param data 文件内容（读取文件）、""（写入文件和删除文件）
          * @param l    回执线程的处理接口
+         * @return a UiCommand Object
          */
-        public UiCommand(String data, Listener l) {
-            mType = TYPE_COMPLETE;
-
-            mData = data;
-            mListener = l;
+        static UiCommand obtain(String data, Listener l) {
+            UiCommand command = obtain(TYPE_COMPLETE, l);
+            command.mData = data;
+            return command;
         }
 
         /**
-         * 构造方法：初始化失败原因、回执线程的处理接口
+         * 从对象池中获取命令，初始化失败原因、回执线程的处理接口
          *
          * @param tr 失败原因，a Throwable Object
          * @param l  回执线程的处理接口
+         * @return a UiCommand Object
          */
-        public UiCommand(Throwable tr, Listener l) {
-            mType = TYPE_ERROR;
+        static UiCommand obtain(Throwable tr, Listener l) {
+            UiCommand command = obtain(TYPE_ERROR, l);
+            command.mThr = tr;
+            return command;
+        }
 
-            mThr = tr;
-            mListener = l;
+        /**
+         * 从对象池中获取命令，对象池为空时创建新命令
+         *
+         * @param type 结果类型，1：操作完成、2：操作失败
+         * @param l    回执线程的处理接口
+         * @return a UiCommand Object
+         */
+        private static UiCommand obtain(int type, Listener l) {
+            UiCommand command = POOL.acquire();
+            if (command == null) {
+                command = new UiCommand();
+            }
+
+            command.mType = type;
+            command.mListener = l;
+            return command;
         }
 
         @Override
@@ -387,6 +431,15 @@ public class Sandbox {
                     break;
             }
         }
+
+        @Override
+        protected void recycle() {
+            mData = null;
+            mThr = null;
+            mType = 0;
+            mListener = null;
+            POOL.release(this);
+        }
     }
 
     /**
@@ -111,13 +111,24 @@ public class CarrierType {
     }
 
     /**
-     * 获取移动运营商类型
+     * 获取移动运营商类型，读取网络状态快照，不需要IPC，网络改变时快照自动更新
      * 需要权限：
      * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
      *
      * @return 移动运营商类型，0：未知、1：移动、2：联通、3：电信
      */
     public int getType() {
+        return NetworkMonitor.getInstance(getAppContext()).getSnapshot().getCarrierType();
+    }
+
+    /**
+     * 查询移动运营商类型，每次调用都是对ConnectivityManager的IPC调用，一般使用getType()
+     * 需要权限：
+     * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+     *
+     * @return 移动运营商类型，0：未知、1：移动、2：联通、3：电信
+     */
+    public int queryType() {
         String eInfo = getNetwork().getExtra().toLowerCase();
 
         if (eInfo.startsWith(KEYWORD_MOBILE)) {
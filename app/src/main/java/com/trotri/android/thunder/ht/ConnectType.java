@@ -112,13 +112,24 @@ public class ConnectType {
     }
 
     /**
-     * 获取联网类型
+     * 获取联网类型，读取网络状态快照，不需要IPC，网络改变时快照自动更新
      * 需要权限：
      * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
      *
      * @return 联网类型，0：未知、1：Wifi、2：2G、3：3G、4：4G
      */
     public int getType() {
+        return NetworkMonitor.getInstance(getAppContext()).getSnapshot().getConnectType();
+    }
+
+    /**
+     * 查询联网类型，每次调用都是对ConnectivityManager的IPC调用，一般使用getType()
+     * 需要权限：
+     * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+     *
+     * @return 联网类型，0：未知、1：Wifi、2：2G、3：3G、4：4G
+     */
+    public int queryType() {
         Network network = getNetwork();
 
         int type = network.getType();
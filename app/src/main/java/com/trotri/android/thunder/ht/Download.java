@@ -17,17 +17,30 @@
 package com.trotri.android.thunder.ht;
 
 import android.content.Context;
+import android.os.SystemClock;
 
+import com.trotri.android.thunder.ap.CommandScope;
 import com.trotri.android.thunder.ap.Constants;
 import com.trotri.android.thunder.ap.HttpStatus;
 import com.trotri.android.thunder.ap.Logger;
+import com.trotri.android.thunder.ap.ThreadPool;
+import com.trotri.android.thunder.ap.TypeCast;
+import com.trotri.android.thunder.file.FileHelper;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Download class file
@@ -35,6 +48,18 @@ import java.net.HttpURLConnection;
  * 需要权限：
  * <uses-permission android:name="android.permission.INTERNET" />
  * 注：主线程里执行Http请求会报android.os.NetworkOnMainThreadException异常
+ * 断点续传：{@link #resume(String, String, Listener)}，从已下载的文件长度处继续下载，
+ * 下载时将ETag或Last-Modified保存在“文件名 + {@link #VALIDATOR_POSTFIX}”中，继续下载时通过If-Range发送，
+ * 服务器文件已变化时返回200，重新下载整个文件；返回的Content-Range开始位置与请求不一致时，也重新下载整个文件
+ * 分段下载：{@link #execSegmented(String, String, int, Listener)}，多个连接同时下载，进度保存在“文件名 + {@link #PROGRESS_POSTFIX}”中
+ * 压缩传输：{@link Builder#setAcceptGzip(boolean)}后，完整下载时发送Accept-Encoding: gzip, deflate，边接收边解压后写入文件，
+ * 服务器返回压缩数据时文件总大小未知，下载失败时删除解压后的部分文件；断点续传和分段下载（包括从0开始时）始终使用identity，
+ * 保证Range的位置与文件一致
+ * 网络自适应：设置{@link Builder#setNetworkPolicy(NetworkPolicy)}后，连接超时、读取超时、缓存空间、分段下载的并发数由策略按当前网络决定
+ * 写文件：缓冲区满时才写一次文件，不再每个bucket flush一次；{@link Builder#setPipelined(boolean)}后读网络和写磁盘并行，见{@link DownloadWriter}
+ * 下载进度：Listener实现{@link ProgressListener}时回调下载进度，两次回调至少间隔{@link Builder#setProgressIntervalMs(int)}毫秒，
+ * 并且进度至少增加{@link Builder#setProgressStep(int)}%
+ * 写入回调：Listener实现{@link WriteListener}时，每读到一段数据、写入文件前回调，如：边下载边用Md5.ChunkDigest校验
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: Download.java 1 2015-02-22 10:00:06Z huan.song $
@@ -49,21 +74,101 @@ public class Download {
      */
     public static final int DEFAULT_CONNECT_TIMEOUT_MS = 30 * 1000;
 
+    /**
+     * 默认的读取超时，单位：毫秒
+     */
+    public static final int DEFAULT_READ_TIMEOUT_MS = 30 * 1000;
+
     /**
      * 默认的分配缓存空间，单位：字节
      */
     public static final int DEFAULT_BUCKET = 4096;
 
+    /**
+     * 默认的写文件的缓冲区大小，单位：字节，缓冲区满时才写一次文件
+     */
+    public static final int DEFAULT_OUTPUT_BUFFER = 64 * 1024;
+
+    /**
+     * 默认的是否流水线写文件，True：下载线程读网络数据，写线程通过FileChannel写磁盘，结束时fsync一次
+     */
+    public static final boolean DEFAULT_PIPELINED = false;
+
+    /**
+     * 默认的分段下载的段数
+     */
+    public static final int DEFAULT_SEGMENT_COUNT = 3;
+
+    /**
+     * 分段下载的进度文件后缀
+     */
+    public static final String PROGRESS_POSTFIX = ".seg";
+
+    /**
+     * 断点续传的校验文件后缀，保存服务器文件的ETag或Last-Modified
+     */
+    public static final String VALIDATOR_POSTFIX = ".validator";
+
+    /**
+     * 分段下载时，每下载多少字节保存一次进度，单位：字节
+     */
+    private static final long PROGRESS_SAVE_INTERVAL = 256 * 1024;
+
+    /**
+     * 默认的两次进度回调的最小间隔，单位：毫秒
+     */
+    public static final int DEFAULT_PROGRESS_INTERVAL_MS = 200;
+
+    /**
+     * 默认的两次进度回调的最小进度差，单位：%
+     */
+    public static final int DEFAULT_PROGRESS_STEP = 1;
+
+    /**
+     * 默认的是否接收压缩的返回数据，下载的文件多数已压缩，并且压缩后文件总大小未知，默认不接收
+     */
+    public static final boolean DEFAULT_ACCEPT_GZIP = false;
+
     /**
      * 连接超时，单位：毫秒
      */
     private int mConnectTimeOutMs = DEFAULT_CONNECT_TIMEOUT_MS;
 
+    /**
+     * 读取超时，单位：毫秒
+     */
+    private int mReadTimeOutMs = DEFAULT_READ_TIMEOUT_MS;
+
     /**
      * 分配缓存空间，单位：字节
      */
     private int mBucket = DEFAULT_BUCKET;
 
+    /**
+     * 网络自适应策略类，null：使用固定的超时和缓存空间
+     */
+    private NetworkPolicy mNetworkPolicy;
+
+    /**
+     * 两次进度回调的最小间隔，单位：毫秒
+     */
+    private int mProgressIntervalMs = DEFAULT_PROGRESS_INTERVAL_MS;
+
+    /**
+     * 两次进度回调的最小进度差，单位：%
+     */
+    private int mProgressStep = DEFAULT_PROGRESS_STEP;
+
+    /**
+     * 是否接收压缩的返回数据
+     */
+    private boolean mAcceptGzip = DEFAULT_ACCEPT_GZIP;
+
+    /**
+     * 是否流水线写文件
+     */
+    private boolean mPipelined = DEFAULT_PIPELINED;
+
     /**
      * 网络连接类
      */
@@ -83,111 +188,1034 @@ public class Download {
     }
 
     /**
-     * 发送下载请求
-     * 需要权限：
-     * <uses-permission android:name="android.permission.INTERNET" />
+     * 发送下载请求
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url      访问链接，a URL String
+     * @param fileName 文件名，包括目录路径
+     * @param l        回执线程的处理接口
+     */
+    public void exec(String url, String fileName, Listener l) {
+        int statusCode = 0;
+        boolean encoded = false;
+        HttpMetrics.Timing timing = HttpMetrics.start(getAppContext(), Http.METHOD_GET, url);
+
+        try {
+            HttpURLConnection urlConn = null;
+            BufferedInputStream in = null;
+            boolean reusable = false;
+
+            try {
+                urlConn = openConnection(url, 0, -1, null, isAcceptGzip(), timing);
+
+                long totalSize, downloadSize = 0;
+                statusCode = urlConn.getResponseCode();
+                timing.onResponse(statusCode);
+                if (statusCode == HttpStatus.SC_OK) {
+                    totalSize = getDecodedLength(urlConn);
+                    encoded = !HttpHelper.ENCODING_IDENTITY.equals(HttpHelper.getContentEncoding(urlConn));
+                    File validatorFile = new File(fileName + VALIDATOR_POSTFIX);
+                    writeValidator(validatorFile, encoded ? null : getValidator(urlConn));
+
+                    in = new BufferedInputStream(HttpHelper.decode(urlConn, getInputStream(urlConn, timing), getBucket()));
+                    downloadSize = write(in, new File(fileName), false, new ProgressNotifier(l, totalSize, 0));
+
+                    if (downloadSize < totalSize) {
+                        l.onPartial(totalSize, downloadSize);
+                    } else {
+                        reusable = true;
+                        deleteValidator(validatorFile);
+                        l.onComplete(downloadSize);
+                    }
+                } else {
+                    String errMsg = urlConn.getResponseMessage();
+                    Logger.e(Constants.TAG_LOG, TAG + " exec() failure, statusCode: " + statusCode + ", url: " + url + ", fileName: " + fileName + ", errMsg: " + errMsg);
+                    l.onError(statusCode, new Throwable(errMsg));
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+
+                getHttpProxy().release(urlConn, reusable);
+            }
+        } catch (IOException e) {
+            Logger.e(Constants.TAG_LOG, TAG + " exec() failure, statusCode: " + statusCode + ", url: " + url + ", fileName: " + fileName + ", errMsg: " + e.getMessage());
+            // 解压后的部分文件长度不是服务器的字节位置，不能断点续传
+            if (encoded && !new File(fileName).delete()) {
+                Logger.w(Constants.TAG_LOG, TAG + " exec() delete decoded partial file failure, fileName: " + fileName);
+            }
+
+            timing.onError(e);
+            l.onError(statusCode, e);
+        } finally {
+            HttpMetrics.report(timing);
+        }
+    }
+
+    /**
+     * 断点续传，发送下载请求
+     * 文件已存在时，通过Range从文件长度处继续下载并追加到文件末尾；服务器不支持Range时，重新下载整个文件
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url      访问链接，a URL String
+     * @param fileName 文件名，包括目录路径
+     * @param l        回执线程的处理接口
+     */
+    public void resume(String url, String fileName, Listener l) {
+        int statusCode = 0;
+        boolean restart = false;
+        HttpMetrics.Timing timing = HttpMetrics.start(getAppContext(), Http.METHOD_GET, url);
+
+        try {
+            HttpURLConnection urlConn = null;
+            BufferedInputStream in = null;
+            boolean reusable = false;
+
+            File file = new File(fileName);
+            File validatorFile = new File(fileName + VALIDATOR_POSTFIX);
+            long start = file.isFile() ? file.length() : 0;
+
+            try {
+                urlConn = openConnection(url, start, -1, (start > 0) ? readValidator(validatorFile) : null, false, timing);
+
+                statusCode = urlConn.getResponseCode();
+                timing.onResponse(statusCode);
+                if (statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && start > 0
+                        && getTotalSize(urlConn) == start) {
+                    deleteValidator(validatorFile);
+                    l.onComplete(start);
+                } else if (statusCode == HttpStatus.SC_PARTIAL_CONTENT && getRangeStart(urlConn) != start) {
+                    Logger.w(Constants.TAG_LOG, TAG + " resume() range mismatch, restart, url: " + url + ", start: " + start + ", Content-Range: " + urlConn.getHeaderField("Content-Range"));
+                    restart = true;
+                } else if (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+                    boolean append = (statusCode == HttpStatus.SC_PARTIAL_CONTENT);
+                    long totalSize = append ? getTotalSize(urlConn) : getDecodedLength(urlConn);
+                    long downloadSize = append ? start : 0;
+                    if (!append) {
+                        writeValidator(validatorFile, getValidator(urlConn));
+                    }
+
+                    in = new BufferedInputStream(HttpHelper.decode(urlConn, getInputStream(urlConn, timing), getBucket()));
+                    downloadSize += write(in, file, append, new ProgressNotifier(l, totalSize, downloadSize));
+
+                    if (downloadSize < totalSize) {
+                        l.onPartial(totalSize, downloadSize);
+                    } else {
+                        reusable = true;
+                        deleteValidator(validatorFile);
+                        l.onComplete(downloadSize);
+                    }
+                } else {
+                    String errMsg = urlConn.getResponseMessage();
+                    Logger.e(Constants.TAG_LOG, TAG + " resume() failure, statusCode: " + statusCode + ", url: " + url + ", fileName: " + fileName + ", start: " + start + ", errMsg: " + errMsg);
+                    l.onError(statusCode, new Throwable(errMsg));
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+
+                getHttpProxy().release(urlConn, reusable);
+            }
+
+            if (restart && !file.delete()) {
+                throw new IOException("Resume Restart Failure, delete file: " + fileName);
+            }
+        } catch (IOException e) {
+            restart = false;
+            Logger.e(Constants.TAG_LOG, TAG + " resume() failure, statusCode: " + statusCode + ", url: " + url + ", fileName: " + fileName + ", errMsg: " + e.getMessage());
+            timing.onError(e);
+            l.onError(statusCode, e);
+        } finally {
+            HttpMetrics.report(timing);
+        }
+
+        if (restart) {
+            // 文件已删除，再次调用时start为0，不发送Range，不会再次重新下载
+            resume(url, fileName, l);
+        }
+    }
+
+    /**
+     * 分段下载，发送下载请求
+     * 预分配文件大小，多个连接同时下载各段并写入文件的对应位置，每段的进度保存在进度文件中，
+     * 中断后（包括进程重启）再次调用时，各段从已下载处继续下载，全部完成后删除进度文件
+     * 进度文件中保存服务器文件的ETag或Last-Modified，与当前的不一致时重新分段下载；各段请求通过If-Range发送，
+     * 服务器文件在下载期间变化时，该段失败，再次调用时重新分段下载
+     * 每个线程使用自己的文件通道，一个线程被中断时只关闭自己的通道；参与下载的ThreadPool线程属于独立的作用域，
+     * 当前线程被中断时（如：暂停、取消作用域），取消并等待这些线程停止后，才关闭文件和进度文件、回调结果
+     * 服务器不支持Range时，改用{@link #resume(String, String, Listener)}
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url          访问链接，a URL String
+     * @param fileName     文件名，包括目录路径
+     * @param segmentCount 段数，继续下载时使用进度文件中的段数
+     * @param l            回执线程的处理接口
+     */
+    public void execSegmented(String url, String fileName, int segmentCount, Listener l) {
+        int statusCode = 0;
+        long totalSize;
+        String validator;
+
+        try {
+            HttpURLConnection urlConn = null;
+            HttpMetrics.Timing timing = HttpMetrics.start(getAppContext(), Http.METHOD_GET, url);
+
+            try {
+                urlConn = openConnection(url, 0, 0, null, false, timing);
+                statusCode = urlConn.getResponseCode();
+                timing.onResponse(statusCode);
+                totalSize = getTotalSize(urlConn);
+                validator = getValidator(urlConn);
+            } catch (IOException e) {
+                timing.onError(e);
+                throw e;
+            } finally {
+                getHttpProxy().release(urlConn, false);
+                HttpMetrics.report(timing);
+            }
+
+            if (statusCode != HttpStatus.SC_PARTIAL_CONTENT || totalSize <= 0) {
+                Logger.w(Constants.TAG_LOG, TAG + " execSegmented() range not supported, statusCode: " + statusCode + ", url: " + url);
+                resume(url, fileName, l);
+                return;
+            }
+
+            if (getNetworkPolicy() != null) {
+                segmentCount = Math.min(segmentCount, getNetworkPolicy().getMaxRequests());
+            }
+
+            DownloadProgress progress = DownloadProgress.open(new File(fileName + PROGRESS_POSTFIX), totalSize, segmentCount, validator);
+
+            try {
+                RandomAccessFile access = new RandomAccessFile(fileName, "rw");
+                try {
+                    if (access.length() != totalSize) {
+                        access.setLength(totalSize);
+                    }
+                } finally {
+                    access.close();
+                }
+
+                ProgressNotifier notifier = new ProgressNotifier(l, totalSize, progress.getDownloadSize());
+                SegmentTask task = new SegmentTask(url, new File(fileName), progress, notifier);
+                int helpers = progress.getCount() - 1;
+                if (getNetworkPolicy() != null) {
+                    helpers = Math.min(helpers, getNetworkPolicy().getMaxRequests() - 1);
+                }
+
+                task.fork(helpers);
+                try {
+                    task.run();
+                } finally {
+                    task.await();
+                }
+
+                long downloadSize = progress.getDownloadSize();
+                if (progress.isFinish()) {
+                    progress.delete();
+                    progress = null;
+                    l.onComplete(totalSize);
+                } else if (task.getError() == null || downloadSize > 0) {
+                    l.onPartial(totalSize, downloadSize);
+                } else {
+                    throw task.getError();
+                }
+            } finally {
+                if (progress != null) {
+                    progress.close();
+                }
+            }
+        } catch (IOException e) {
+            Logger.e(Constants.TAG_LOG, TAG + " execSegmented() failure, statusCode: " + statusCode + ", url: " + url + ", fileName: " + fileName + ", errMsg: " + e.getMessage());
+            l.onError(statusCode, e);
+        }
+    }
+
+    /**
+     * 下载一段，写入文件的对应位置，并保存进度
+     *
+     * @param url      访问链接，a URL String
+     * @param channel  文件通道
+     * @param progress 分段下载进度类
+     * @param index    段索引
+     * @param notifier 下载进度通知类
+     * @throws IOException 如果下载或写文件失败，抛出异常
+     */
+    private void downloadSegment(String url, FileChannel channel, DownloadProgress progress, int index, ProgressNotifier notifier) throws IOException {
+        long done = progress.getDone(index);
+        long position = progress.getStart(index) + done;
+        long end = progress.getEnd(index);
+        if (position > end) {
+            return;
+        }
+
+        HttpURLConnection urlConn = null;
+        InputStream in = null;
+        boolean reusable = false;
+        HttpMetrics.Timing timing = HttpMetrics.start(getAppContext(), Http.METHOD_GET, url);
+
+        try {
+            urlConn = openConnection(url, position, end, progress.getValidator(), false, timing);
+
+            int statusCode = urlConn.getResponseCode();
+            timing.onResponse(statusCode);
+            if (statusCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new IOException("Segment Download Failure, statusCode: " + statusCode + ", index: " + index);
+            }
+
+            if (getRangeStart(urlConn) != position) {
+                throw new IOException("Segment Range Mismatch, position: " + position + ", Content-Range: " + urlConn.getHeaderField("Content-Range") + ", index: " + index);
+            }
+
+            in = getInputStream(urlConn, timing);
+
+            long saved = done;
+            int size;
+            byte[] bucket = new byte[getBucket()];
+            ByteBuffer buffer = ByteBuffer.wrap(bucket);
+            while (position <= end && (size = in.read(bucket)) != -1) {
+                checkInterrupted();
+
+                if (size > 0) {
+                    size = (int) Math.min(size, end - position + 1);
+                    notifier.write(position, bucket, 0, size);
+
+                    buffer.clear();
+                    buffer.limit(size);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+
+                    done += size;
+                    if (done - saved >= PROGRESS_SAVE_INTERVAL) {
+                        progress.setDone(index, done);
+                        saved = done;
+                    }
+
+                    notifier.add(size);
+                }
+            }
+
+            reusable = (position > end);
+        } catch (IOException e) {
+            timing.onError(e);
+            throw e;
+        } finally {
+            progress.setDone(index, done);
+
+            if (in != null) {
+                in.close();
+            }
+
+            getHttpProxy().release(urlConn, reusable);
+            HttpMetrics.report(timing);
+        }
+    }
+
+    /**
+     * 打开连接，start > 0或end >= 0时通过Range只下载一部分
+     * 不接收压缩的返回数据时要求identity编码，断点续传和分段下载必须使用identity，保证Range的位置与文件一致
+     *
+     * @param url        访问链接，a URL String
+     * @param start      开始位置
+     * @param end        结束位置，包含，-1：到文件末尾
+     * @param ifRange    发送Range时的If-Range，ETag或Last-Modified，服务器文件已变化时返回200，null：不发送
+     * @param acceptGzip 是否接收压缩的返回数据，发送Range时忽略
+     * @param timing     请求的计时
+     * @return a HttpURLConnection Object
+     * @throws IOException 如果连接网络失败，抛出异常
+     */
+    private HttpURLConnection openConnection(String url, long start, long end, String ifRange, boolean acceptGzip, HttpMetrics.Timing timing) throws IOException {
+        HttpURLConnection urlConn = getHttpProxy().openConnection(url);
+        urlConn.setRequestProperty("Connection", "Keep-Alive");
+        if (start > 0 || end >= 0) {
+            urlConn.setRequestProperty("Range", "bytes=" + start + "-" + ((end >= 0) ? String.valueOf(end) : ""));
+            if (ifRange != null && ifRange.length() > 0) {
+                urlConn.setRequestProperty("If-Range", ifRange);
+            }
+
+            acceptGzip = false;
+        }
+
+        urlConn.setRequestProperty("Accept-Encoding", acceptGzip ? HttpHelper.ACCEPT_ENCODING : HttpHelper.ENCODING_IDENTITY);
+
+        urlConn.setRequestMethod(Http.METHOD_GET);
+        urlConn.setConnectTimeout(getConnectTimeOutMs());
+        urlConn.setReadTimeout(getReadTimeOutMs());
+
+        timing.resolve(getHttpProxy());
+        long startMs = SystemClock.elapsedRealtime();
+        urlConn.connect();
+        timing.onConnected();
+        if (getNetworkPolicy() != null) {
+            timing.onResponse(urlConn.getResponseCode());
+            getNetworkPolicy().onResponse(SystemClock.elapsedRealtime() - startMs);
+        }
+
+        return urlConn;
+    }
+
+    /**
+     * 获取返回数据的输入流，设置了网络自适应策略时，关闭后记录一次传输
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @param timing  请求的计时，记录接收的字节数
+     * @return 输入流
+     * @throws IOException 如果读取失败，抛出异常
+     */
+    private InputStream getInputStream(HttpURLConnection urlConn, HttpMetrics.Timing timing) throws IOException {
+        InputStream in = timing.count(urlConn.getInputStream());
+        return (getNetworkPolicy() != null) ? getNetworkPolicy().meter(in) : in;
+    }
+
+    /**
+     * 读取输入流，写入文件，设置了流水线写文件时使用{@link DownloadWriter}
+     *
+     * @param in       输入流
+     * @param file     文件
+     * @param append   是否追加到文件末尾，False：清空文件后写入
+     * @param notifier 下载进度通知类
+     * @return 写入的大小，单位：字节
+     * @throws IOException 如果读写失败，抛出异常
+     */
+    private long write(InputStream in, File file, boolean append, ProgressNotifier notifier) throws IOException {
+        if (isPipelined()) {
+            return writePipelined(in, file, append, notifier);
+        }
+
+        long start = (append && file.isFile()) ? file.length() : 0;
+        long downloadSize = 0;
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file, append), Math.max(getBucket(), DEFAULT_OUTPUT_BUFFER));
+
+        try {
+            int size;
+            byte[] bucket = new byte[getBucket()];
+            while ((size = in.read(bucket)) != -1) {
+                checkInterrupted();
+
+                if (size > 0) {
+                    notifier.write(start + downloadSize, bucket, 0, size);
+                    out.write(bucket, 0, size);
+
+                    downloadSize += size;
+                    notifier.add(size);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        return downloadSize;
+    }
+
+    /**
+     * 读取输入流，流水线写入文件，下载线程读网络数据，写线程写磁盘，结束时fsync一次
+     * 失败或中断时，已读取的部分仍写入文件，保证断点续传的位置与文件长度一致
+     *
+     * @param in       输入流
+     * @param file     文件
+     * @param append   是否追加到文件末尾，False：清空文件后写入
+     * @param notifier 下载进度通知类
+     * @return 写入的大小，单位：字节
+     * @throws IOException 如果读写失败，抛出异常
+     */
+    private long writePipelined(InputStream in, File file, boolean append, ProgressNotifier notifier) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+
+        try {
+            long start = 0;
+            if (append) {
+                start = access.length();
+            } else {
+                access.setLength(0);
+            }
+
+            DownloadWriter writer = new DownloadWriter(access.getChannel(), start, Math.max(getBucket(), DownloadWriter.DEFAULT_BUFFER_SIZE), DownloadWriter.DEFAULT_BUFFER_COUNT);
+            writer.start();
+
+            ByteBuffer buffer = null;
+            long written = 0;
+            boolean completed = false;
+            try {
+                buffer = writer.obtain();
+
+                int size;
+                while ((size = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), Math.min(buffer.remaining(), getBucket()))) != -1) {
+                    checkInterrupted();
+
+                    if (size > 0) {
+                        notifier.write(start + written, buffer.array(), buffer.arrayOffset() + buffer.position(), size);
+                        buffer.position(buffer.position() + size);
+                        written += size;
+                        notifier.add(size);
+
+                        if (!buffer.hasRemaining()) {
+                            writer.submit(buffer);
+                            buffer = null;
+                            buffer = writer.obtain();
+                        }
+                    }
+                }
+
+                completed = true;
+            } finally {
+                if (buffer != null) {
+                    writer.submit(buffer);
+                }
+
+                try {
+                    long end = writer.finish();
+                    if (end != access.length()) {
+                        access.setLength(end);
+                    }
+                } catch (IOException e) {
+                    if (completed) {
+                        throw e;
+                    }
+
+                    // 不覆盖读取失败或中断的原因
+                    Logger.e(Constants.TAG_LOG, TAG + " writePipelined() finish failure, errMsg: " + e.getMessage());
+                }
+            }
+
+            return access.length() - start;
+        } finally {
+            access.close();
+        }
+    }
+
+    /**
+     * 下载线程被中断时（如：{@link DownloadScheduler.Task#pause()}）停止下载，已下载的部分保留在文件中
+     *
+     * @throws InterruptedIOException 如果下载线程被中断，抛出异常
+     */
+    private void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Download Interrupted");
+        }
+    }
+
+    /**
+     * 获取返回数据长度，支持大于2G的文件
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return 返回数据长度，单位：字节，未知：-1
+     */
+    public static long getContentLength(HttpURLConnection urlConn) {
+        return TypeCast.toLong(urlConn.getHeaderField("Content-Length"), -1);
+    }
+
+    /**
+     * 获取解码后的返回数据长度，返回数据经过压缩时未知
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return 返回数据长度，单位：字节，未知：-1
+     */
+    public static long getDecodedLength(HttpURLConnection urlConn) {
+        return HttpHelper.ENCODING_IDENTITY.equals(HttpHelper.getContentEncoding(urlConn)) ? getContentLength(urlConn) : -1;
+    }
+
+    /**
+     * 通过Content-Range获取文件总大小，如：bytes 0-99/1000
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return 文件总大小，单位：字节，未知：-1
+     */
+    public static long getTotalSize(HttpURLConnection urlConn) {
+        String range = urlConn.getHeaderField("Content-Range");
+        if (range == null) {
+            return -1;
+        }
+
+        int pos = range.lastIndexOf('/');
+        return (pos == -1) ? -1 : TypeCast.toLong(range.substring(pos + 1), -1);
+    }
+
+    /**
+     * 通过Content-Range获取返回数据的开始位置，如：bytes 100-199/1000
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return 开始位置，未知：-1
+     */
+    public static long getRangeStart(HttpURLConnection urlConn) {
+        String range = urlConn.getHeaderField("Content-Range");
+        if (range == null) {
+            return -1;
+        }
+
+        int begin = range.indexOf(' ');
+        int pos = range.indexOf('-', begin + 1);
+        return (begin == -1 || pos == -1) ? -1 : TypeCast.toLong(range.substring(begin + 1, pos).trim(), -1);
+    }
+
+    /**
+     * 获取服务器文件的校验值，用于If-Range，优先使用强ETag，弱ETag不能用于If-Range，改用Last-Modified
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return ETag或Last-Modified，都没有时返回null
+     */
+    public static String getValidator(HttpURLConnection urlConn) {
+        String etag = urlConn.getHeaderField("ETag");
+        if (etag != null && etag.length() > 0 && !etag.startsWith("W/")) {
+            return etag;
+        }
+
+        String lastModified = urlConn.getHeaderField("Last-Modified");
+        return (lastModified != null && lastModified.length() > 0) ? lastModified : null;
+    }
+
+    /**
+     * 读取断点续传的校验文件
+     *
+     * @param f 校验文件
+     * @return ETag或Last-Modified，文件不存在或读取失败时返回null
+     */
+    private static String readValidator(File f) {
+        if (!f.isFile()) {
+            return null;
+        }
+
+        try {
+            String validator = FileHelper.read(new FileInputStream(f)).trim();
+            return (validator.length() > 0) ? validator : null;
+        } catch (IOException e) {
+            Logger.w(Constants.TAG_LOG, TAG + " readValidator() failure, file: " + f + ", errMsg: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 保存断点续传的校验文件，校验值为null时删除
+     *
+     * @param f         校验文件
+     * @param validator ETag或Last-Modified
+     */
+    private static void writeValidator(File f, String validator) {
+        if (validator == null) {
+            deleteValidator(f);
+            return;
+        }
+
+        try {
+            FileHelper.write(new FileOutputStream(f), validator);
+        } catch (IOException e) {
+            Logger.w(Constants.TAG_LOG, TAG + " writeValidator() failure, file: " + f + ", errMsg: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 下载完成后删除断点续传的校验文件
+     *
+     * @param f 校验文件
+     */
+    private static void deleteValidator(File f) {
+        if (f.exists() && !f.delete()) {
+            Logger.w(Constants.TAG_LOG, TAG + " deleteValidator() failure, file: " + f);
+        }
+    }
+
+    /**
+     * 连接超时，单位：毫秒，设置了网络自适应策略时由策略决定
+     *
+     * @return 等待时间，单位：毫秒
+     */
+    public int getConnectTimeOutMs() {
+        return (mNetworkPolicy != null) ? mNetworkPolicy.getConnectTimeOutMs() : mConnectTimeOutMs;
+    }
+
+    /**
+     * 读取超时，单位：毫秒，设置了网络自适应策略时由策略决定
+     *
+     * @return 等待时间，单位：毫秒
+     */
+    public int getReadTimeOutMs() {
+        return (mNetworkPolicy != null) ? mNetworkPolicy.getReadTimeOutMs() : mReadTimeOutMs;
+    }
+
+    /**
+     * 分配缓存空间，单位：字节，设置了网络自适应策略时由策略决定
+     *
+     * @return 缓存空间，单位：字节
+     */
+    public int getBucket() {
+        return (mNetworkPolicy != null) ? mNetworkPolicy.getBucket() : mBucket;
+    }
+
+    /**
+     * 获取网络自适应策略类
+     *
+     * @return a NetworkPolicy Object, or null
+     */
+    public NetworkPolicy getNetworkPolicy() {
+        return mNetworkPolicy;
+    }
+
+    /**
+     * 两次进度回调的最小间隔，单位：毫秒
+     *
+     * @return 间隔时间，单位：毫秒
+     */
+    public int getProgressIntervalMs() {
+        return mProgressIntervalMs;
+    }
+
+    /**
+     * 两次进度回调的最小进度差，单位：%
+     *
+     * @return 进度差，单位：%
+     */
+    public int getProgressStep() {
+        return mProgressStep;
+    }
+
+    /**
+     * 是否接收压缩的返回数据
+     *
+     * @return Returns True, or False
+     */
+    public boolean isAcceptGzip() {
+        return mAcceptGzip;
+    }
+
+    /**
+     * 是否流水线写文件
+     *
+     * @return Returns True, or False
+     */
+    public boolean isPipelined() {
+        return mPipelined;
+    }
+
+    /**
+     * 获取网络连接类
+     *
+     * @return a HttpProxy Object
+     */
+    private HttpProxy getHttpProxy() {
+        return mHttpProxy;
+    }
+
+    /**
+     * 获取上下文环境
      *
-     * @param url      访问链接，a URL String
-     * @param fileName 文件名，包括目录路径
-     * @param l        回执线程的处理接口
+     * @return an Application Context Object
      */
-    public void exec(String url, String fileName, Listener l) {
-        int statusCode = 0;
+    public Context getAppContext() {
+        return mAppContext;
+    }
 
-        try {
-            HttpURLConnection urlConn = null;
-            BufferedInputStream in = null;
-            BufferedOutputStream out = null;
+    /**
+     * 分段下载任务，当前线程和ThreadPool中的线程共同领取段并下载
+     * 每个线程打开自己的文件通道，写文件时被中断只关闭该线程的通道（ClosedByInterruptException），不影响其他线程
+     * 当前线程领取完所有段后，不再接受新的线程参与，只等待已开始的线程
+     */
+    class SegmentTask {
+        /**
+         * 访问链接，a URL String
+         */
+        private final String mUrl;
 
-            try {
-                urlConn = getHttpProxy().openConnection(url);
-                urlConn.setRequestProperty("Connection", "Keep-Alive");
-                urlConn.setRequestMethod(Http.METHOD_GET);
-                urlConn.setConnectTimeout(getConnectTimeOutMs());
-                urlConn.connect();
+        /**
+         * 下载的文件
+         */
+        private final File mFile;
 
-                long totalSize, downloadSize = 0;
-                statusCode = urlConn.getResponseCode();
-                if (statusCode == HttpStatus.SC_OK) {
-                    totalSize = urlConn.getContentLength();
+        /**
+         * 分段下载进度类
+         */
+        private final DownloadProgress mProgress;
+
+        /**
+         * 下一个待领取的段
+         */
+        private final AtomicInteger mNext = new AtomicInteger(0);
+
+        /**
+         * 下载进度通知类
+         */
+        private final ProgressNotifier mNotifier;
+
+        /**
+         * 参与下载的ThreadPool线程的作用域，不属于调用者的作用域，由{@link #await()}取消
+         */
+        private final CommandScope mScope = new CommandScope();
+
+        /**
+         * 正在下载的线程数，用this加锁
+         */
+        private int mRunning = 0;
+
+        /**
+         * 是否已不再接受新的线程参与，用this加锁
+         */
+        private boolean mClosed = false;
+
+        /**
+         * 失败原因
+         */
+        private volatile IOException mError;
+
+        /**
+         * 构造方法：初始化访问链接、下载的文件、分段下载进度类、下载进度通知类
+         *
+         * @param url      访问链接，a URL String
+         * @param file     下载的文件，已预分配文件大小
+         * @param progress 分段下载进度类
+         * @param notifier 下载进度通知类
+         */
+        public SegmentTask(String url, File file, DownloadProgress progress, ProgressNotifier notifier) {
+            mUrl = url;
+            mFile = file;
+            mProgress = progress;
+            mNotifier = notifier;
+        }
+
+        /**
+         * 提交ThreadPool线程参与下载，线程池已满时少提交几个，当前线程仍会下载剩余的段
+         *
+         * @param helpers 线程数
+         */
+        public void fork(int helpers) {
+            for (int i = 0; i < helpers; i++) {
+                try {
+                    ThreadPool.execute(new SegmentCommand(this), mScope);
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * 领取并下载段，直到没有待领取的段或当前线程被中断
+         */
+        public void run() {
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
 
-                    in = new BufferedInputStream(urlConn.getInputStream());
-                    out = new BufferedOutputStream(new FileOutputStream(new File(fileName)));
+                mRunning++;
+            }
 
-                    int size;
-                    byte[] bucket = new byte[getBucket()];
-                    while ((size = in.read(bucket)) != -1) {
-                        if (size > 0) {
-                            out.write(bucket, 0, size);
-                            out.flush();
+            RandomAccessFile access = null;
 
-                            downloadSize += size;
+            try {
+                int index;
+                while (!Thread.currentThread().isInterrupted() && (index = mNext.getAndIncrement()) < mProgress.getCount()) {
+                    try {
+                        if (access == null) {
+                            access = new RandomAccessFile(mFile, "rw");
                         }
-                    }
 
-                    if (downloadSize < totalSize) {
-                        l.onPartial(totalSize, downloadSize);
-                    } else {
-                        l.onComplete(downloadSize);
+                        downloadSegment(mUrl, access.getChannel(), mProgress, index, mNotifier);
+                    } catch (IOException e) {
+                        Logger.e(Constants.TAG_LOG, TAG + " downloadSegment() failure, url: " + mUrl + ", index: " + index + ", errMsg: " + e.getMessage());
+                        mError = e;
                     }
-                } else {
-                    String errMsg = urlConn.getResponseMessage();
-                    Logger.e(Constants.TAG_LOG, TAG + " exec() failure, statusCode: " + statusCode + ", url: " + url + ", fileName: " + fileName + ", errMsg: " + errMsg);
-                    l.onError(statusCode, new Throwable(errMsg));
                 }
             } finally {
-                if (out != null) {
-                    out.close();
+                if (access != null) {
+                    try {
+                        access.close();
+                    } catch (IOException e) {
+                        Logger.e(Constants.TAG_LOG, TAG + " SegmentTask.run() close failure, errMsg: " + e.getMessage());
+                    }
                 }
 
-                if (in != null) {
-                    in.close();
+                synchronized (this) {
+                    mRunning--;
+                    notifyAll();
                 }
+            }
+        }
+
+        /**
+         * 不再接受新的线程参与，等待已开始的线程下载完已领取的段，排队中的线程从线程池中移除
+         * 等待被中断时，先中断其他线程，等待它们保存进度并停止后再返回，之后才能关闭进度文件
+         *
+         * @throws InterruptedIOException 如果等待被中断，抛出异常
+         */
+        public void await() throws InterruptedIOException {
+            boolean interrupted = false;
 
-                if (urlConn != null) {
-                    urlConn.disconnect();
+            try {
+                synchronized (this) {
+                    mClosed = true;
+                    while (mRunning > 0) {
+                        wait();
+                    }
                 }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                mScope.cancel();
+                join();
+            }
+
+            mScope.cancel();
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Segment Download Interrupted");
             }
-        } catch (IOException e) {
-            Logger.e(Constants.TAG_LOG, TAG + " exec() failure, statusCode: " + statusCode + ", url: " + url + ", fileName: " + fileName + ", errMsg: " + e.getMessage());
-            l.onError(statusCode, e);
         }
-    }
 
-    /**
-     * 连接超时，单位：毫秒
-     *
-     * @return 等待时间，单位：毫秒
-     */
-    public int getConnectTimeOutMs() {
-        return mConnectTimeOutMs;
-    }
+        /**
+         * 不可中断地等待已开始的线程停止
+         */
+        private synchronized void join() {
+            while (mRunning > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ignored) {
+                    // 调用者已被中断，由await()恢复中断状态
+                }
+            }
+        }
 
-    /**
-     * 分配缓存空间，单位：字节
-     *
-     * @return 缓存空间，单位：字节
-     */
-    public int getBucket() {
-        return mBucket;
+        /**
+         * 获取失败原因
+         *
+         * @return an IOException Object, or null
+         */
+        public IOException getError() {
+            return mError;
+        }
     }
 
     /**
-     * 获取网络连接类
-     *
-     * @return a HttpProxy Object
+     * 【后台线程】执行命令，参与分段下载
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.Download$SegmentCommand { *; }
+     * </p>
      */
-    private HttpProxy getHttpProxy() {
-        return mHttpProxy;
+    static class SegmentCommand extends ThreadPool.AbstractCommand {
+        /**
+         * 分段下载任务
+         */
+        private SegmentTask mTask;
+
+        /**
+         * 构造方法：初始化分段下载任务
+         *
+         * @param task 分段下载任务
+         */
+        public SegmentCommand(SegmentTask task) {
+            mTask = task;
+        }
+
+        @Override
+        public void exec() {
+            mTask.run();
+        }
+
+        @Override
+        public int getRejectPolicy() {
+            return ThreadPool.POLICY_ABORT;
+        }
     }
 
     /**
-     * 获取上下文环境
-     *
-     * @return an Application Context Object
+     * 下载进度通知类，累计已下载大小，按最小间隔和最小进度差节流后回调{@link ProgressListener#onProgress(long, long)}，
+     * 写入文件前回调{@link WriteListener#onWrite(long, byte[], int, int)}
+     * 分段下载时多个线程共用，线程安全
      */
-    public Context getAppContext() {
-        return mAppContext;
+    class ProgressNotifier {
+        /**
+         * 下载进度回调接口，Listener未实现ProgressListener时为null
+         */
+        private final ProgressListener mListener;
+
+        /**
+         * 写入回调接口，Listener未实现WriteListener时为null
+         */
+        private final WriteListener mWriteListener;
+
+        /**
+         * 下载文件总大小，单位：字节，未知：-1
+         */
+        private final long mTotalSize;
+
+        /**
+         * 已下载文件大小，单位：字节
+         */
+        private long mDownloadSize;
+
+        /**
+         * 上次回调的时间，单位：毫秒
+         */
+        private long mLastTimeMs;
+
+        /**
+         * 上次回调的进度，单位：%
+         */
+        private int mLastProgress = -1;
+
+        /**
+         * 构造方法：初始化回调接口、下载文件总大小、已下载文件大小
+         *
+         * @param l            回执线程的处理接口
+         * @param totalSize    下载文件总大小，单位：字节，未知：-1
+         * @param downloadSize 已下载文件大小，单位：字节
+         */
+        public ProgressNotifier(Listener l, long totalSize, long downloadSize) {
+            mListener = (l instanceof ProgressListener) ? (ProgressListener) l : null;
+            mWriteListener = (l instanceof WriteListener) ? (WriteListener) l : null;
+            mTotalSize = totalSize;
+            mDownloadSize = downloadSize;
+        }
+
+        /**
+         * 累计已下载大小，距上次回调的间隔和进度差都达到最小值时，回调下载进度
+         *
+         * @param size 本次下载大小，单位：字节
+         */
+        public void add(int size) {
+            if (mListener == null) {
+                return;
+            }
+
+            long downloadSize;
+            synchronized (this) {
+                mDownloadSize += size;
+
+                long now = SystemClock.uptimeMillis();
+                if (now - mLastTimeMs < getProgressIntervalMs()) {
+                    return;
+                }
+
+                int progress = HttpHelper.getProgress(mTotalSize, mDownloadSize);
+                if (mTotalSize > 0 && mLastProgress >= 0 && progress - mLastProgress < getProgressStep()) {
+                    return;
+                }
+
+                mLastTimeMs = now;
+                mLastProgress = progress;
+                downloadSize = mDownloadSize;
+            }
+
+            mListener.onProgress(mTotalSize, downloadSize);
+        }
+
+        /**
+         * 写入文件前回调读到的数据
+         *
+         * @param position 数据在文件中的位置
+         * @param data     数据
+         * @param offset   开始位置
+         * @param len      长度，单位：字节
+         * @throws IOException 如果回调接口要求停止下载，抛出异常
+         */
+        public void write(long position, byte[] data, int offset, int len) throws IOException {
+            if (mWriteListener != null) {
+                mWriteListener.onWrite(position, data, offset, len);
+            }
+        }
     }
 
     /**
@@ -221,6 +1249,52 @@ public class Download {
         void onError(int statusCode, Throwable tr);
     }
 
+    /**
+     * ProgressListener interface
+     * 下载进度回调接口，在下载线程中回调，已节流，结束时仍回调{@link #onComplete(long)}、{@link #onPartial(long, long)}或{@link #onError(int, Throwable)}
+     *
+     * @since 1.0
+     */
+    public interface ProgressListener extends Listener {
+        /**
+         * 下载过程中回调方法
+         *
+         * @param totalSize    下载文件总大小，单位：字节，未知：-1
+         * @param downloadSize 已下载文件大小，单位：字节
+         */
+        void onProgress(long totalSize, long downloadSize);
+    }
+
+    /**
+     * WriteListener interface
+     * 写入回调接口，在下载线程中回调，每读到一段数据、写入文件前回调一次，抛出异常时停止下载，不写入该段数据，回调{@link #onError(int, Throwable)}
+     * 完整下载和断点续传按文件顺序回调；分段下载时多个线程同时回调，各段的位置不连续，需要自己加锁和按位置处理
+     * 边下载边校验，如：
+     * <pre>
+     * final Md5.ChunkDigest digest = new Md5.ChunkDigest(chunkLen);
+     * public void onWrite(long position, byte[] data, int offset, int len) throws IOException {
+     *     digest.update(data, offset, len);
+     *     if (digest.verify(expected) != -1) {
+     *         throw new IOException("Chunk Digest Mismatch");
+     *     }
+     * }
+     * </pre>
+     *
+     * @since 1.0
+     */
+    public interface WriteListener extends Listener {
+        /**
+         * 读到一段数据后回调方法，data只在回调期间有效，不能保存引用
+         *
+         * @param position 数据在文件中的位置，单位：字节
+         * @param data     数据
+         * @param offset   开始位置
+         * @param len      长度，单位：字节
+         * @throws IOException 如果需要停止下载，抛出异常
+         */
+        void onWrite(long position, byte[] data, int offset, int len) throws IOException;
+    }
+
     /**
      * Builder final class
      * Build a new {@link Download}.
@@ -233,11 +1307,41 @@ public class Download {
          */
         private int mConnectTimeOutMs = DEFAULT_CONNECT_TIMEOUT_MS;
 
+        /**
+         * 读取超时，单位：毫秒
+         */
+        private int mReadTimeOutMs = DEFAULT_READ_TIMEOUT_MS;
+
         /**
          * 分配缓存空间，单位：字节
          */
         private int mBucket = DEFAULT_BUCKET;
 
+        /**
+         * 网络自适应策略类，null：使用固定的超时和缓存空间
+         */
+        private NetworkPolicy mNetworkPolicy;
+
+        /**
+         * 两次进度回调的最小间隔，单位：毫秒
+         */
+        private int mProgressIntervalMs = DEFAULT_PROGRESS_INTERVAL_MS;
+
+        /**
+         * 两次进度回调的最小进度差，单位：%
+         */
+        private int mProgressStep = DEFAULT_PROGRESS_STEP;
+
+        /**
+         * 是否接收压缩的返回数据
+         */
+        private boolean mAcceptGzip = DEFAULT_ACCEPT_GZIP;
+
+        /**
+         * 是否流水线写文件
+         */
+        private boolean mPipelined = DEFAULT_PIPELINED;
+
         /**
          * 上下文环境
          */
@@ -261,7 +1365,13 @@ public class Download {
             Download download = new Download(mAppContext);
 
             download.mConnectTimeOutMs = mConnectTimeOutMs;
+            download.mReadTimeOutMs = mReadTimeOutMs;
             download.mBucket = mBucket;
+            download.mNetworkPolicy = mNetworkPolicy;
+            download.mProgressIntervalMs = mProgressIntervalMs;
+            download.mProgressStep = mProgressStep;
+            download.mAcceptGzip = mAcceptGzip;
+            download.mPipelined = mPipelined;
 
             return download;
         }
@@ -277,6 +1387,28 @@ public class Download {
             return this;
         }
 
+        /**
+         * 设置读取超时，单位：毫秒
+         *
+         * @param readTimeOutMs 超时时间，0：不超时，默认：{@link #DEFAULT_READ_TIMEOUT_MS}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setReadTimeOutMs(int readTimeOutMs) {
+            mReadTimeOutMs = readTimeOutMs;
+            return this;
+        }
+
+        /**
+         * 设置网络自适应策略类，如：NetworkPolicy.getInstance(context)，设置后连接超时、读取超时、缓存空间的设置无效
+         *
+         * @param networkPolicy a NetworkPolicy Object, 默认：null
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setNetworkPolicy(NetworkPolicy networkPolicy) {
+            mNetworkPolicy = networkPolicy;
+            return this;
+        }
+
         /**
          * 设置分配缓存空间，单位：字节
          *
@@ -288,6 +1420,51 @@ public class Download {
             return this;
         }
 
+        /**
+         * 设置两次进度回调的最小间隔，单位：毫秒
+         *
+         * @param progressIntervalMs 间隔时间，0：不限制，默认：{@link #DEFAULT_PROGRESS_INTERVAL_MS}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setProgressIntervalMs(int progressIntervalMs) {
+            mProgressIntervalMs = progressIntervalMs;
+            return this;
+        }
+
+        /**
+         * 设置两次进度回调的最小进度差，单位：%，文件总大小未知时不限制
+         *
+         * @param progressStep 进度差，0：不限制，默认：{@link #DEFAULT_PROGRESS_STEP}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setProgressStep(int progressStep) {
+            mProgressStep = progressStep;
+            return this;
+        }
+
+        /**
+         * 设置是否接收压缩的返回数据，只对完整下载有效，服务器返回压缩数据时文件总大小未知
+         *
+         * @param acceptGzip 是否接收，默认：{@link #DEFAULT_ACCEPT_GZIP}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setAcceptGzip(boolean acceptGzip) {
+            mAcceptGzip = acceptGzip;
+            return this;
+        }
+
+        /**
+         * 设置是否流水线写文件，只对完整下载和断点续传有效，分段下载已直接通过FileChannel写入
+         * 下载线程读网络数据填满缓冲区，写线程批量写磁盘，结束时fsync一次，持续下载的速度只受网络限制
+         *
+         * @param pipelined 是否流水线写文件，默认：{@link #DEFAULT_PIPELINED}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setPipelined(boolean pipelined) {
+            mPipelined = pipelined;
+            return this;
+        }
+
     }
 
 }
@@ -16,12 +16,17 @@
 
 package com.trotri.android.thunder.ht;
 
-import com.trotri.android.thunder.ap.ThreadPool;
+import com.trotri.android.thunder.ap.CommandPool;
 import com.trotri.android.thunder.ap.UiThread;
 
+import java.io.IOException;
+
 /**
  * DownloadAsync class file
  * 下载异步类，在后台线程中执行下载，执行完后，在主线程中回调Listener接口
+ * 下载任务在{@link DownloadScheduler}中排队，按优先级执行，限制并发数，相同的请求只下载一次
+ * Listener实现{@link Download.ProgressListener}时，在主线程中回调下载进度，主线程处理前的多次进度合并为一次，只回调最新的进度
+ * Listener实现{@link Download.WriteListener}时，写入回调仍在下载线程中执行，不切换到主线程
  * 需要权限：
  * <uses-permission android:name="android.permission.INTERNET" />
  *
@@ -55,77 +60,167 @@ public class DownloadAsync {
      * @param url      访问链接，a URL String
      * @param fileName 文件名，包括目录路径
      * @param l        回执线程的处理接口
+     * @return 任务句柄，用于取消、暂停和继续，a DownloadScheduler.Task Object
+     */
+    public DownloadScheduler.Task exec(String url, String fileName, Download.Listener l) {
+        return exec(url, fileName, DownloadScheduler.PRIORITY_NORMAL, l);
+    }
+
+    /**
+     * 发送下载请求
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url      访问链接，a URL String
+     * @param fileName 文件名，包括目录路径
+     * @param priority 优先级，{@link DownloadScheduler#PRIORITY_LOW}、{@link DownloadScheduler#PRIORITY_NORMAL}、{@link DownloadScheduler#PRIORITY_HIGH}
+     * @param l        回执线程的处理接口
+     * @return 任务句柄，用于取消、暂停和继续，a DownloadScheduler.Task Object
      */
-    public void exec(String url, String fileName, Download.Listener l) {
-        ThreadPool.execute(new AsyncCommand(url, fileName, l));
+    public DownloadScheduler.Task exec(String url, String fileName, int priority, Download.Listener l) {
+        return DownloadScheduler.getInstance().submit(mDownload, url, fileName, priority, new UiListener(l));
     }
 
     /**
-     * 【后台线程】执行命令，发送下载请求
+     * 【后台线程】回调接口，将下载请求结果和下载进度切换到主线程
      * <p>
      * 避免混淆，proguard-rules.pro:
-     * -keepclassmembers class 包名.DownloadAsync$AsyncCommand { *; }
+     * -keepclassmembers class 包名.DownloadAsync$UiListener { *; }
      * </p>
      */
-    class AsyncCommand extends ThreadPool.AbstractCommand {
+    class UiListener implements Download.ProgressListener, Download.WriteListener {
         /**
-         * 访问链接，a URL String
+         * 回执线程的处理接口
          */
-        private String mUrl;
+        private Download.Listener mListener;
 
         /**
-         * 文件名，包括目录路径
+         * 最新的下载文件总大小，单位：字节
          */
-        private String mFileName;
+        private long mTotalSize;
 
         /**
-         * 回执线程的处理接口
+         * 最新的已下载文件大小，单位：字节
          */
-        private Download.Listener mListener;
+        private long mDownloadSize;
+
+        /**
+         * 是否已有未执行的进度命令，有则只更新最新的进度，不再发送命令
+         */
+        private boolean mProgressPosted = false;
+
+        /**
+         * 进度命令，同一时间最多只有一个未执行，所以每次下载只创建一个，重复post
+         */
+        private final ProgressCommand mProgressCommand = new ProgressCommand(this);
 
         /**
-         * 构造方法：初始化访问链接、文件名、回执线程的处理接口
+         * 构造方法：初始化回执线程的处理接口
          *
-         * @param url      访问链接，a URL String
-         * @param fileName 文件名，包括目录路径
-         * @param l        回执线程的处理接口
+         * @param l 回执线程的处理接口
          */
-        public AsyncCommand(String url, String fileName, Download.Listener l) {
-            mUrl = url;
-            mFileName = fileName;
+        public UiListener(Download.Listener l) {
             mListener = l;
         }
 
         @Override
-        public void exec() {
-            mDownload.exec(mUrl, mFileName, new Download.Listener() {
-                @Override
-                public void onComplete(long totalSize) {
-                    UiThread.exec(new UiCommand(totalSize, mListener));
-                }
+        public void onProgress(long totalSize, long downloadSize) {
+            if (!(mListener instanceof Download.ProgressListener)) {
+                return;
+            }
 
-                @Override
-                public void onPartial(long totalSize, long downloadSize) {
-                    UiThread.exec(new UiCommand(totalSize, downloadSize, mListener));
+            synchronized (this) {
+                mTotalSize = totalSize;
+                mDownloadSize = downloadSize;
+                if (mProgressPosted) {
+                    return;
                 }
 
-                @Override
-                public void onError(int statusCode, Throwable tr) {
-                    UiThread.exec(new UiCommand(statusCode, tr, mListener));
-                }
-            });
+                mProgressPosted = true;
+            }
+
+            UiThread.exec(mProgressCommand);
+        }
+
+        /**
+         * 【下载线程】写入回调，数据只在回调期间有效，不切换到主线程
+         */
+        @Override
+        public void onWrite(long position, byte[] data, int offset, int len) throws IOException {
+            if (mListener instanceof Download.WriteListener) {
+                ((Download.WriteListener) mListener).onWrite(position, data, offset, len);
+            }
+        }
+
+        /**
+         * 【主线程】回调最新的下载进度
+         */
+        public void notifyProgress() {
+            long totalSize, downloadSize;
+
+            synchronized (this) {
+                totalSize = mTotalSize;
+                downloadSize = mDownloadSize;
+                mProgressPosted = false;
+            }
+
+            ((Download.ProgressListener) mListener).onProgress(totalSize, downloadSize);
+        }
+
+        @Override
+        public void onComplete(long totalSize) {
+            UiThread.exec(UiCommand.obtain(totalSize, mListener));
+        }
+
+        @Override
+        public void onPartial(long totalSize, long downloadSize) {
+            UiThread.exec(UiCommand.obtain(totalSize, downloadSize, mListener));
+        }
+
+        @Override
+        public void onError(int statusCode, Throwable tr) {
+            UiThread.exec(UiCommand.obtain(statusCode, tr, mListener));
+        }
+
+    }
+
+    /**
+     * 【主线程】执行命令，通知下载进度
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.DownloadAsync$ProgressCommand { *; }
+     * </p>
+     */
+    class ProgressCommand extends UiThread.AbstractCommand {
+        /**
+         * 回调接口，保存最新的下载进度
+         */
+        private UiListener mListener;
+
+        /**
+         * 构造方法：初始化回调接口
+         *
+         * @param l 回调接口
+         */
+        public ProgressCommand(UiListener l) {
+            mListener = l;
+        }
+
+        @Override
+        public void exec() {
+            mListener.notifyProgress();
         }
 
     }
 
     /**
-     * 【主线程】执行命令，通知下载请求结果
+     * 【主线程】执行命令，通知下载请求结果，执行完后放回对象池
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.DownloadAsync$UiCommand { *; }
      * </p>
      */
-    class UiCommand extends UiThread.AbstractCommand {
+    static class UiCommand extends UiThread.AbstractCommand {
         /**
          * 结果类型：下载完成
          */
@@ -141,6 +236,11 @@ public class DownloadAsync {
          */
         public static final int TYPE_ERROR = 3;
 
+        /**
+         * 命令对象池
+         */
+        private static final CommandPool<UiCommand> POOL = new CommandPool<>();
+
         /**
          * 下载文件总大小，单位：字节
          */
@@ -172,46 +272,70 @@ public class DownloadAsync {
         private Download.Listener mListener;
 
         /**
-         * 构造方法：初始化下载文件总大小、回执线程的处理接口
+         * 构造方法：只能通过obtain()获取
+         */
+        private UiCommand() {
+        }
+
+        /**
+         * 从对象池中获取命令，初始化下载文件总大小、回执线程的处理接口
          *
          * @param totalSize 下载文件总大小，单位：字节
          * @param l         回执线程的处理接口
+         * @return a UiCommand Object
          */
-        public UiCommand(long totalSize, Download.Listener l) {
-            mType = TYPE_COMPLETE;
-
-            mTotalSize = totalSize;
-            mListener = l;
+        static UiCommand obtain(long totalSize, Download.Listener l) {
+            UiCommand command = obtain(TYPE_COMPLETE, l);
+            command.mTotalSize = totalSize;
+            return command;
         }
 
         /**
-         * 构造方法：初始化下载文件总大小、已下载文件大小、回执线程的处理接口
+         * 从对象池中获取命令，初始化下载文件总大小、已下载文件大小、回执线程的处理接口
          *
          * @param totalSize    下载文件总大小，单位：字节
          * @param downloadSize 已下载文件大小，单位：字节
          * @param l            回执线程的处理接口
+         * @return a UiCommand Object
          */
-        public UiCommand(long totalSize, long downloadSize, Download.Listener l) {
-            mType = TYPE_PARTIAL;
-
-            mTotalSize = totalSize;
-            mDownloadSize = downloadSize;
-            mListener = l;
+        static UiCommand obtain(long totalSize, long downloadSize, Download.Listener l) {
+            UiCommand command = obtain(TYPE_PARTIAL, l);
+            command.mTotalSize = totalSize;
+            command.mDownloadSize = downloadSize;
+            return command;
         }
 
         /**
-         * 构造方法：初始化HTTP状态码、失败原因、回执线程的处理接口
+         * 从对象池中获取命令，初始化HTTP状态码、失败原因、回执线程的处理接口
          *
          * @param statusCode HTTP状态码
          * @param tr         失败原因，a Throwable Object
          * @param l          回执线程的处理接口
+         * @return a UiCommand Object
          */
-        public UiCommand(int statusCode, Throwable tr, Download.Listener l) {
-            mType = TYPE_ERROR;
+        static UiCommand obtain(int statusCode, Throwable tr, Download.Listener l) {
+            UiCommand command = obtain(TYPE_ERROR, l);
+            command.mStatusCode = statusCode;
+            command.mThr = tr;
+            return command;
+        }
 
-            mStatusCode = statusCode;
-            mThr = tr;
-            mListener = l;
+        /**
+         * 从对象池中获取命令，对象池为空时创建新命令
+         *
+         * @param type 结果类型，1：下载完成、2：部分文件下载完成、3：打开URL链接失败或读写文件失败
+         * @param l    回执线程的处理接口
+         * @return a UiCommand Object
+         */
+        private static UiCommand obtain(int type, Download.Listener l) {
+            UiCommand command = POOL.acquire();
+            if (command == null) {
+                command = new UiCommand();
+            }
+
+            command.mType = type;
+            command.mListener = l;
+            return command;
         }
 
         @Override
@@ -231,6 +355,17 @@ public class DownloadAsync {
             }
         }
 
+        @Override
+        protected void recycle() {
+            mTotalSize = 0L;
+            mDownloadSize = 0L;
+            mStatusCode = 0;
+            mThr = null;
+            mType = 0;
+            mListener = null;
+            POOL.release(this);
+        }
+
     }
 
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * DownloadProgress class file
+ * 分段下载进度类，每段的下载进度保存在进度文件中，进程重启后可继续下载
+ * <pre>
+ * 进度文件格式：
+ * long 文件总大小
+ * int  段数
+ * 每段：long 开始位置、long 结束位置（包含）、long 已下载大小
+ * UTF  服务器文件的ETag或Last-Modified，没有时为""
+ * </pre>
+ * 文件总大小或校验值与服务器不一致时，服务器文件已变化，重新分段
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: DownloadProgress.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class DownloadProgress {
+
+    public static final String TAG = "DownloadProgress";
+
+    /**
+     * 文件头长度，单位：字节
+     */
+    private static final int HEADER_LEN = 8 + 4;
+
+    /**
+     * 每段的记录长度，单位：字节
+     */
+    private static final int SEGMENT_LEN = 8 * 3;
+
+    /**
+     * 进度文件
+     */
+    private final File mFile;
+
+    /**
+     * 进度文件读写类
+     */
+    private final RandomAccessFile mAccess;
+
+    /**
+     * 文件总大小，单位：字节
+     */
+    private final long mTotalSize;
+
+    /**
+     * 每段的开始位置
+     */
+    private final long[] mStarts;
+
+    /**
+     * 每段的结束位置，包含
+     */
+    private final long[] mEnds;
+
+    /**
+     * 每段的已下载大小
+     */
+    private final long[] mDones;
+
+    /**
+     * 服务器文件的ETag或Last-Modified，没有时为""
+     */
+    private final String mValidator;
+
+    /**
+     * 构造方法：初始化进度文件、文件总大小、段数
+     *
+     * @param f         进度文件
+     * @param access    进度文件读写类
+     * @param totalSize 文件总大小，单位：字节
+     * @param count     段数
+     * @param validator 服务器文件的ETag或Last-Modified，没有时为""
+     */
+    private DownloadProgress(File f, RandomAccessFile access, long totalSize, int count, String validator) {
+        mFile = f;
+        mAccess = access;
+        mTotalSize = totalSize;
+        mValidator = validator;
+        mStarts = new long[count];
+        mEnds = new long[count];
+        mDones = new long[count];
+    }
+
+    /**
+     * 打开进度文件，文件总大小和校验值都一致时继续使用已保存的进度，否则按段数重新分段
+     *
+     * @param f         进度文件
+     * @param totalSize 文件总大小，单位：字节
+     * @param count     段数，重新分段时使用
+     * @param validator 服务器文件的ETag或Last-Modified，没有时为null
+     * @return a DownloadProgress Object
+     * @throws IOException 如果读写进度文件失败，抛出异常
+     */
+    public static DownloadProgress open(File f, long totalSize, int count, String validator) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(f, "rw");
+        validator = (validator == null) ? "" : validator;
+
+        try {
+            DownloadProgress progress = load(f, access, totalSize, validator);
+            if (progress == null) {
+                progress = create(f, access, totalSize, count, validator);
+            }
+
+            return progress;
+        } catch (IOException e) {
+            access.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取已保存的进度
+     *
+     * @param f         进度文件
+     * @param access    进度文件读写类
+     * @param totalSize 文件总大小，单位：字节
+     * @param validator 服务器文件的ETag或Last-Modified，没有时为""
+     * @return a DownloadProgress Object, or null
+     * @throws IOException 如果读取进度文件失败，抛出异常
+     */
+    private static DownloadProgress load(File f, RandomAccessFile access, long totalSize, String validator) throws IOException {
+        if (access.length() < HEADER_LEN) {
+            return null;
+        }
+
+        access.seek(0);
+        if (access.readLong() != totalSize) {
+            Logger.w(Constants.TAG_LOG, TAG + " load() totalSize changed, file: " + f);
+            return null;
+        }
+
+        int count = access.readInt();
+        if (count <= 0 || access.length() < HEADER_LEN + (long) count * SEGMENT_LEN + 2) {
+            return null;
+        }
+
+        DownloadProgress progress = new DownloadProgress(f, access, totalSize, count, validator);
+        for (int i = 0; i < count; i++) {
+            progress.mStarts[i] = access.readLong();
+            progress.mEnds[i] = access.readLong();
+            progress.mDones[i] = access.readLong();
+        }
+
+        if (!validator.equals(access.readUTF())) {
+            Logger.w(Constants.TAG_LOG, TAG + " load() validator changed, file: " + f);
+            return null;
+        }
+
+        return progress;
+    }
+
+    /**
+     * 按段数重新分段，并保存到进度文件
+     *
+     * @param f         进度文件
+     * @param access    进度文件读写类
+     * @param totalSize 文件总大小，单位：字节
+     * @param count     段数
+     * @param validator 服务器文件的ETag或Last-Modified，没有时为""
+     * @return a DownloadProgress Object
+     * @throws IOException 如果写入进度文件失败，抛出异常
+     */
+    private static DownloadProgress create(File f, RandomAccessFile access, long totalSize, int count, String validator) throws IOException {
+        count = (int) Math.max(1, Math.min(count, totalSize));
+
+        DownloadProgress progress = new DownloadProgress(f, access, totalSize, count, validator);
+
+        access.setLength(0);
+        access.writeLong(totalSize);
+        access.writeInt(count);
+
+        long segmentLen = totalSize / count;
+        for (int i = 0; i < count; i++) {
+            progress.mStarts[i] = i * segmentLen;
+            progress.mEnds[i] = (i == count - 1) ? totalSize - 1 : (i + 1) * segmentLen - 1;
+            progress.mDones[i] = 0;
+
+            access.writeLong(progress.mStarts[i]);
+            access.writeLong(progress.mEnds[i]);
+            access.writeLong(0);
+        }
+
+        access.writeUTF(validator);
+        return progress;
+    }
+
+    /**
+     * 保存某段的已下载大小
+     *
+     * @param index 段索引
+     * @param done  已下载大小，单位：字节
+     * @throws IOException 如果写入进度文件失败，抛出异常
+     */
+    public synchronized void setDone(int index, long done) throws IOException {
+        mDones[index] = done;
+
+        mAccess.seek(HEADER_LEN + (long) index * SEGMENT_LEN + 16);
+        mAccess.writeLong(done);
+    }
+
+    /**
+     * 获取某段的已下载大小
+     *
+     * @param index 段索引
+     * @return 已下载大小，单位：字节
+     */
+    public synchronized long getDone(int index) {
+        return mDones[index];
+    }
+
+    /**
+     * 获取某段的开始位置
+     *
+     * @param index 段索引
+     * @return 开始位置
+     */
+    public long getStart(int index) {
+        return mStarts[index];
+    }
+
+    /**
+     * 获取某段的结束位置，包含
+     *
+     * @param index 段索引
+     * @return 结束位置
+     */
+    public long getEnd(int index) {
+        return mEnds[index];
+    }
+
+    /**
+     * 获取段数
+     *
+     * @return 段数
+     */
+    public int getCount() {
+        return mStarts.length;
+    }
+
+    /**
+     * 获取全部段的已下载大小
+     *
+     * @return 已下载大小，单位：字节
+     */
+    public synchronized long getDownloadSize() {
+        long downloadSize = 0;
+        for (long done : mDones) {
+            downloadSize += done;
+        }
+
+        return downloadSize;
+    }
+
+    /**
+     * 获取文件总大小
+     *
+     * @return 文件总大小，单位：字节
+     */
+    public long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /**
+     * 获取服务器文件的校验值，用于分段请求的If-Range
+     *
+     * @return ETag或Last-Modified，没有时为""
+     */
+    public String getValidator() {
+        return mValidator;
+    }
+
+    /**
+     * 是否全部段都已下载完成
+     *
+     * @return Returns True, or False
+     */
+    public boolean isFinish() {
+        return getDownloadSize() >= getTotalSize();
+    }
+
+    /**
+     * 关闭进度文件
+     *
+     * @throws IOException 如果关闭失败，抛出异常
+     */
+    public void close() throws IOException {
+        mAccess.close();
+    }
+
+    /**
+     * 关闭并删除进度文件，下载完成后调用
+     *
+     * @throws IOException 如果关闭失败，抛出异常
+     */
+    public void delete() throws IOException {
+        close();
+
+        if (!mFile.delete()) {
+            Logger.w(Constants.TAG_LOG, TAG + " delete() failure, file: " + mFile);
+        }
+    }
+
+}
@@ -0,0 +1,782 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.CrashHandler;
+import com.trotri.android.thunder.ap.Logger;
+import com.trotri.android.thunder.ap.ThreadPool;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DownloadScheduler class file
+ * 下载调度类，下载任务不再直接进入共享的ThreadPool，而是在专用队列中排队
+ * 按优先级出队，限制同时下载的总数和每个主机的数量，相同的“访问链接 + 文件名”只下载一次，
+ * 支持取消、暂停和继续，暂停后继续时使用{@link Download#resume(String, String, Download.Listener)}断点续传
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: DownloadScheduler.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class DownloadScheduler {
+
+    public static final String TAG = "DownloadScheduler";
+
+    /**
+     * 优先级：低
+     */
+    public static final int PRIORITY_LOW = 0;
+
+    /**
+     * 优先级：普通
+     */
+    public static final int PRIORITY_NORMAL = 5;
+
+    /**
+     * 优先级：高
+     */
+    public static final int PRIORITY_HIGH = 10;
+
+    /**
+     * 默认的同时下载的最大总数
+     */
+    public static final int DEFAULT_MAX_RUNNING = 3;
+
+    /**
+     * 默认的每个主机同时下载的最大数量
+     */
+    public static final int DEFAULT_MAX_RUNNING_PER_HOST = 2;
+
+    /**
+     * 默认的排队中任务的最大数量，超出后拒绝新任务
+     */
+    public static final int DEFAULT_MAX_PENDING = 64;
+
+    /**
+     * 任务状态：排队中
+     */
+    public static final int STATE_PENDING = 1;
+
+    /**
+     * 任务状态：下载中
+     */
+    public static final int STATE_RUNNING = 2;
+
+    /**
+     * 任务状态：已暂停
+     */
+    public static final int STATE_PAUSED = 3;
+
+    /**
+     * 任务状态：已取消
+     */
+    public static final int STATE_CANCELED = 4;
+
+    /**
+     * 任务状态：已结束，完成、部分完成或失败
+     */
+    public static final int STATE_FINISHED = 5;
+
+    /**
+     * 多余的空闲线程生存时间，单位：秒
+     */
+    private static final int KEEP_ALIVE = 30;
+
+    /**
+     * 用于对获取单例的线程加锁
+     */
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static DownloadScheduler sInstance;
+
+    /**
+     * 用于对队列和任务状态加锁
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * 排队中的任务，优先级高的先出队，优先级相同时先进先出
+     */
+    private final PriorityQueue<Task> mPending = new PriorityQueue<>();
+
+    /**
+     * 未结束的任务，Key => 访问链接 + 文件名，用于合并相同的下载请求
+     */
+    private final Map<String, Task> mTasks = new HashMap<>();
+
+    /**
+     * 每个主机下载中的任务数
+     */
+    private final Map<String, Integer> mRunningPerHost = new HashMap<>();
+
+    /**
+     * 下载中的任务数
+     */
+    private int mRunning = 0;
+
+    /**
+     * 任务序号，用于相同优先级的先进先出
+     */
+    private long mSequence = 0;
+
+    /**
+     * 同时下载的最大总数
+     */
+    private int mMaxRunning = DEFAULT_MAX_RUNNING;
+
+    /**
+     * 每个主机同时下载的最大数量
+     */
+    private int mMaxRunningPerHost = DEFAULT_MAX_RUNNING_PER_HOST;
+
+    /**
+     * 排队中任务的最大数量
+     */
+    private int mMaxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * 网络自适应策略类，设置后同时下载的最大总数不超过策略的最大并发数，null：不限制
+     */
+    private NetworkPolicy mNetworkPolicy;
+
+    /**
+     * 执行下载的线程池，并发数由调度类控制
+     */
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DefaultThreadFactory());
+
+    /**
+     * 构造方法：禁止New实例
+     */
+    private DownloadScheduler() {
+    }
+
+    /**
+     * 获取已存在的实例，该实例是共享的，如果实例不存在，则创建新实例
+     */
+    public static DownloadScheduler getInstance() {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                sInstance = new DownloadScheduler();
+            }
+
+            return sInstance;
+        }
+    }
+
+    /**
+     * 添加下载任务
+     * 相同的“访问链接 + 文件名”的任务未结束时，不再新建任务，回调接口加入已有任务，优先级取较高者
+     * 已有任务已暂停时继续该任务（从已下载的文件长度处继续下载），避免新的回调接口一直等不到结果，也避免两个任务同时写一个文件
+     *
+     * @param download 下载类
+     * @param url      访问链接，a URL String
+     * @param fileName 文件名，包括目录路径
+     * @param priority 优先级，{@link #PRIORITY_LOW}、{@link #PRIORITY_NORMAL}、{@link #PRIORITY_HIGH}
+     * @param l        回执线程的处理接口，在下载线程中回调
+     * @return 任务句柄，用于取消、暂停和继续，a Task Object
+     */
+    public Task submit(Download download, String url, String fileName, int priority, Download.Listener l) {
+        String key = url + "\n" + fileName;
+
+        synchronized (mLock) {
+            Task task = mTasks.get(key);
+            if (task != null) {
+                task.mListeners.add(l);
+                if (task.mState == STATE_PAUSED) {
+                    task.resume();
+                }
+
+                if (priority > task.mPriority && task.mState == STATE_PENDING) {
+                    mPending.remove(task);
+                    task.mPriority = priority;
+                    mPending.add(task);
+                }
+
+                Logger.d(Constants.TAG_LOG, TAG + " submit() merged, url: " + url + ", fileName: " + fileName);
+                return task;
+            }
+
+            task = new Task(download, key, url, fileName, priority, l);
+            if (mPending.size() >= mMaxPending) {
+                Logger.e(Constants.TAG_LOG, TAG + " submit() queue is full, url: " + url + ", fileName: " + fileName);
+                task.mState = STATE_FINISHED;
+                l.onError(0, new RejectedExecutionException("Download Queue Full, maxPending: " + mMaxPending));
+                return task;
+            }
+
+            mTasks.put(key, task);
+            enqueue(task);
+            promote();
+            return task;
+        }
+    }
+
+    /**
+     * 任务入队，调用前需加锁
+     *
+     * @param task 任务
+     */
+    private void enqueue(Task task) {
+        task.mState = STATE_PENDING;
+        task.mSequence = mSequence++;
+        mPending.add(task);
+    }
+
+    /**
+     * 按优先级启动排队中的任务，直到达到并发上限，调用前需加锁
+     */
+    private void promote() {
+        int maxRunning = getMaxRunning();
+        if (mRunning >= maxRunning || mPending.isEmpty()) {
+            return;
+        }
+
+        List<Task> skipped = new ArrayList<>();
+        Task task;
+        while (mRunning < maxRunning && (task = mPending.poll()) != null) {
+            if (getRunning(task.mHost) >= mMaxRunningPerHost) {
+                skipped.add(task);
+                continue;
+            }
+
+            task.mState = STATE_RUNNING;
+            task.mSubmitted = true;
+            mRunning++;
+            mRunningPerHost.put(task.mHost, getRunning(task.mHost) + 1);
+
+            try {
+                mExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                Logger.e(Constants.TAG_LOG, TAG + " promote() url: " + task.mUrl, e);
+                task.mSubmitted = false;
+                onFinished(task);
+                skipped.add(task);
+                task.mState = STATE_PENDING;
+                break;
+            }
+        }
+
+        mPending.addAll(skipped);
+    }
+
+    /**
+     * 任务结束或停止下载后，释放并发数，调用前需加锁
+     *
+     * @param task 任务
+     */
+    private void onFinished(Task task) {
+        mRunning--;
+
+        int running = getRunning(task.mHost) - 1;
+        if (running > 0) {
+            mRunningPerHost.put(task.mHost, running);
+        } else {
+            mRunningPerHost.remove(task.mHost);
+        }
+    }
+
+    /**
+     * 获取主机下载中的任务数，调用前需加锁
+     *
+     * @param host 主机
+     * @return 任务数
+     */
+    private int getRunning(String host) {
+        Integer running = mRunningPerHost.get(host);
+        return (running == null) ? 0 : running;
+    }
+
+    /**
+     * 获取同时下载的最大总数，设置了网络自适应策略时，不超过当前网络的最大并发数，调用前需加锁
+     *
+     * @return 最大总数
+     */
+    private int getMaxRunning() {
+        return (mNetworkPolicy != null) ? Math.min(mMaxRunning, mNetworkPolicy.getMaxRequests()) : mMaxRunning;
+    }
+
+    /**
+     * 设置网络自适应策略类，同时下载的最大总数随网络变化
+     *
+     * @param networkPolicy a NetworkPolicy Object, or null
+     */
+    public void setNetworkPolicy(NetworkPolicy networkPolicy) {
+        synchronized (mLock) {
+            mNetworkPolicy = networkPolicy;
+            promote();
+        }
+    }
+
+    /**
+     * 设置同时下载的最大总数
+     *
+     * @param maxRunning 最大总数，默认：{@link #DEFAULT_MAX_RUNNING}
+     */
+    public void setMaxRunning(int maxRunning) {
+        synchronized (mLock) {
+            mMaxRunning = Math.max(1, maxRunning);
+            promote();
+        }
+    }
+
+    /**
+     * 设置每个主机同时下载的最大数量
+     *
+     * @param maxRunningPerHost 最大数量，默认：{@link #DEFAULT_MAX_RUNNING_PER_HOST}
+     */
+    public void setMaxRunningPerHost(int maxRunningPerHost) {
+        synchronized (mLock) {
+            mMaxRunningPerHost = Math.max(1, maxRunningPerHost);
+            promote();
+        }
+    }
+
+    /**
+     * 设置排队中任务的最大数量
+     *
+     * @param maxPending 最大数量，默认：{@link #DEFAULT_MAX_PENDING}
+     */
+    public void setMaxPending(int maxPending) {
+        synchronized (mLock) {
+            mMaxPending = Math.max(1, maxPending);
+        }
+    }
+
+    /**
+     * 获取排队中的任务数
+     *
+     * @return 任务数
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * 获取下载中的任务数
+     *
+     * @return 任务数
+     */
+    public int getRunningCount() {
+        synchronized (mLock) {
+            return mRunning;
+        }
+    }
+
+    /**
+     * 下载任务，也是取消、暂停和继续的句柄
+     * 在调度类的专用线程池中执行，并发数由调度类控制，不经过ThreadPool，所以不是ThreadPool.AbstractCommand
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.DownloadScheduler$Task { *; }
+     * </p>
+     */
+    public class Task implements Runnable, Comparable<Task> {
+        /**
+         * 下载类
+         */
+        private final Download mDownload;
+
+        /**
+         * 访问链接 + 文件名
+         */
+        private final String mKey;
+
+        /**
+         * 访问链接，a URL String
+         */
+        private final String mUrl;
+
+        /**
+         * 文件名，包括目录路径
+         */
+        private final String mFileName;
+
+        /**
+         * 主机
+         */
+        private final String mHost;
+
+        /**
+         * 回执线程的处理接口，合并的请求共用一个任务
+         */
+        private final List<Download.Listener> mListeners = new ArrayList<>();
+
+        /**
+         * 优先级
+         */
+        private int mPriority;
+
+        /**
+         * 任务序号
+         */
+        private long mSequence;
+
+        /**
+         * 任务状态
+         */
+        private int mState;
+
+        /**
+         * 是否断点续传，暂停后继续时为True
+         */
+        private boolean mResume = false;
+
+        /**
+         * 是否在下载线程停止后重新排队，暂停后下载线程停止前调用了继续时为True
+         */
+        private boolean mRestart = false;
+
+        /**
+         * 下载线程，下载中时不为null，用于暂停和取消时中断下载
+         */
+        private Thread mThread;
+
+        /**
+         * 是否已提交到线程池但下载线程尚未开始，此时mThread为null，暂停后继续时不能再次排队
+         */
+        private boolean mSubmitted = false;
+
+        /**
+         * 构造方法：初始化下载类、访问链接、文件名、优先级、回执线程的处理接口
+         *
+         * @param download 下载类
+         * @param key      访问链接 + 文件名
+         * @param url      访问链接，a URL String
+         * @param fileName 文件名，包括目录路径
+         * @param priority 优先级
+         * @param l        回执线程的处理接口
+         */
+        Task(Download download, String key, String url, String fileName, int priority, Download.Listener l) {
+            mDownload = download;
+            mKey = key;
+            mUrl = url;
+            mFileName = fileName;
+            mHost = getHost(url);
+            mPriority = priority;
+            mListeners.add(l);
+        }
+
+        @Override
+        public void run() {
+            CrashHandler h = ThreadPool.getCrashHandler();
+            if (h != null) {
+                Thread.currentThread().setUncaughtExceptionHandler(h);
+            }
+
+            boolean resume;
+
+            synchronized (mLock) {
+                mSubmitted = false;
+                mThread = Thread.currentThread();
+                if (mState != STATE_RUNNING) {
+                    release();
+                    return;
+                }
+
+                resume = mResume;
+            }
+
+            Download.Listener l = new TaskListener(this);
+
+            try {
+                if (resume) {
+                    mDownload.resume(mUrl, mFileName, l);
+                } else {
+                    mDownload.exec(mUrl, mFileName, l);
+                }
+            } finally {
+                synchronized (mLock) {
+                    if (mThread == Thread.currentThread() && mState == STATE_RUNNING) {
+                        mState = STATE_FINISHED;
+                        mTasks.remove(mKey);
+                    }
+
+                    release();
+                }
+            }
+        }
+
+        /**
+         * 获取需要通知下载进度或写入回调的回调接口，已暂停或已取消的任务不通知
+         *
+         * @param type {@link Download.ProgressListener}或{@link Download.WriteListener}
+         * @return 实现了type的回调接口
+         */
+        private List<Download.Listener> getActiveListeners(Class<? extends Download.Listener> type) {
+            List<Download.Listener> listeners = new ArrayList<>();
+
+            synchronized (mLock) {
+                if (mState == STATE_RUNNING && mThread == Thread.currentThread()) {
+                    for (Download.Listener listener : mListeners) {
+                        if (type.isInstance(listener)) {
+                            listeners.add(listener);
+                        }
+                    }
+                }
+            }
+
+            return listeners;
+        }
+
+        /**
+         * 下载结束，已暂停或已取消的任务不通知结果，暂停时恰好下载完成的任务仍通知完成
+         *
+         * @param completed 是否下载完成
+         * @return 需要通知结果的回调接口
+         */
+        private List<Download.Listener> finish(boolean completed) {
+            synchronized (mLock) {
+                boolean notify = (mState == STATE_RUNNING) || (completed && mState == STATE_PAUSED);
+                if (notify) {
+                    mState = STATE_FINISHED;
+                    mRestart = false;
+                    mTasks.remove(mKey);
+                }
+
+                release();
+                return notify ? new ArrayList<>(mListeners) : new ArrayList<Download.Listener>();
+            }
+        }
+
+        /**
+         * 当前线程停止下载后，释放并发数，暂停期间已调用继续的任务重新排队，调用前需加锁
+         */
+        private void release() {
+            if (mThread != Thread.currentThread()) {
+                return;
+            }
+
+            mThread = null;
+            onFinished(this);
+
+            if (mRestart && mState == STATE_PAUSED) {
+                enqueue(this);
+            }
+
+            mRestart = false;
+            promote();
+        }
+
+        /**
+         * 取消任务，排队中的任务出队，下载中的任务中断下载，不再通知结果
+         */
+        public void cancel() {
+            synchronized (mLock) {
+                if (mState == STATE_FINISHED || mState == STATE_CANCELED) {
+                    return;
+                }
+
+                stop(STATE_CANCELED);
+                mRestart = false;
+                mTasks.remove(mKey);
+            }
+        }
+
+        /**
+         * 暂停任务，排队中的任务出队，下载中的任务中断下载，已下载的部分保留在文件中
+         */
+        public void pause() {
+            synchronized (mLock) {
+                if (mState == STATE_PENDING || mState == STATE_RUNNING) {
+                    stop(STATE_PAUSED);
+                    mResume = true;
+                }
+            }
+        }
+
+        /**
+         * 继续已暂停的任务，重新排队，从已下载的文件长度处继续下载
+         * 下载线程尚未停止或已提交尚未开始时，停止后再排队，避免同一个任务被执行两次
+         */
+        public void resume() {
+            synchronized (mLock) {
+                if (mState != STATE_PAUSED) {
+                    return;
+                }
+
+                if (mThread != null || mSubmitted) {
+                    mRestart = true;
+                } else {
+                    enqueue(this);
+                    promote();
+                }
+            }
+        }
+
+        /**
+         * 停止排队或下载，调用前需加锁
+         *
+         * @param state 新的任务状态
+         */
+        private void stop(int state) {
+            if (mState == STATE_PENDING) {
+                mPending.remove(this);
+            } else if (mState == STATE_RUNNING && mThread != null) {
+                mThread.interrupt();
+            }
+
+            mState = state;
+        }
+
+        /**
+         * 获取任务状态
+         *
+         * @return 任务状态，1：排队中、2：下载中、3：已暂停、4：已取消、5：已结束
+         */
+        public int getState() {
+            synchronized (mLock) {
+                return mState;
+            }
+        }
+
+        /**
+         * 获取访问链接
+         *
+         * @return a URL String
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * 获取文件名
+         *
+         * @return 文件名，包括目录路径
+         */
+        public String getFileName() {
+            return mFileName;
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (mPriority != another.mPriority) {
+                return (mPriority > another.mPriority) ? -1 : 1;
+            }
+
+            return (mSequence < another.mSequence) ? -1 : ((mSequence == another.mSequence) ? 0 : 1);
+        }
+    }
+
+    /**
+     * 【下载线程】任务的回调接口，将下载结果、下载进度和写入回调分发给合并到该任务的所有回调接口
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.DownloadScheduler$TaskListener { *; }
+     * </p>
+     */
+    static class TaskListener implements Download.ProgressListener, Download.WriteListener {
+        /**
+         * 下载任务
+         */
+        private final Task mTask;
+
+        /**
+         * 构造方法：初始化下载任务
+         *
+         * @param task 下载任务
+         */
+        public TaskListener(Task task) {
+            mTask = task;
+        }
+
+        @Override
+        public void onProgress(long totalSize, long downloadSize) {
+            for (Download.Listener listener : mTask.getActiveListeners(Download.ProgressListener.class)) {
+                ((Download.ProgressListener) listener).onProgress(totalSize, downloadSize);
+            }
+        }
+
+        @Override
+        public void onWrite(long position, byte[] data, int offset, int len) throws IOException {
+            for (Download.Listener listener : mTask.getActiveListeners(Download.WriteListener.class)) {
+                ((Download.WriteListener) listener).onWrite(position, data, offset, len);
+            }
+        }
+
+        @Override
+        public void onComplete(long totalSize) {
+            for (Download.Listener listener : mTask.finish(true)) {
+                listener.onComplete(totalSize);
+            }
+        }
+
+        @Override
+        public void onPartial(long totalSize, long downloadSize) {
+            for (Download.Listener listener : mTask.finish(false)) {
+                listener.onPartial(totalSize, downloadSize);
+            }
+        }
+
+        @Override
+        public void onError(int statusCode, Throwable tr) {
+            for (Download.Listener listener : mTask.finish(false)) {
+                listener.onError(statusCode, tr);
+            }
+        }
+    }
+
+    /**
+     * 获取访问链接的主机
+     *
+     * @param url 访问链接，a URL String
+     * @return 主机，或""
+     */
+    private static String getHost(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return (host == null) ? "" : host;
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * 线程工厂
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.DownloadScheduler$DefaultThreadFactory { *; }
+     * </p>
+     */
+    static class DefaultThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, TAG + " #" + mCount.getAndIncrement());
+        }
+
+    }
+
+}
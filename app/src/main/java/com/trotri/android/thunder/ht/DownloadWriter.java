@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.Logger;
+import com.trotri.android.thunder.ap.ThreadPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DownloadWriter class file
+ * 流水线写文件类，下载线程读取网络数据填满缓冲区后提交，写线程（ThreadPool）通过FileChannel按位置写入文件，读网络和写磁盘并行
+ * 每个缓冲区（默认{@link #DEFAULT_BUFFER_SIZE}）写一次，不再每个bucket写一次并flush，只在结束时fsync一次
+ * 缓冲区从进程内共享的池中获取，用完后归还；没有空闲缓冲区时，下载线程自己写一个已提交的缓冲区，
+ * 写线程未能启动（线程池已满）时也不会死锁，只是退化为串行写
+ * 写入失败时，文件截断到第一个失败的位置，保证文件内容是连续的已下载部分，断点续传可以继续
+ * 使用方法：
+ * DownloadWriter writer = new DownloadWriter(channel, position);
+ * writer.start();
+ * ByteBuffer buffer = writer.obtain();
+ * // 填充buffer，填满后：writer.submit(buffer); buffer = writer.obtain();
+ * writer.submit(buffer);
+ * writer.finish();
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: DownloadWriter.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class DownloadWriter {
+
+    public static final String TAG = "DownloadWriter";
+
+    /**
+     * 默认的缓冲区大小，单位：字节
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 默认的每个下载使用的缓冲区数量，2：双缓冲
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 2;
+
+    /**
+     * 缓冲区池最多保存的缓冲区数量
+     */
+    private static final int MAX_POOL_SIZE = 8;
+
+    /**
+     * 下载线程等待空闲缓冲区的间隔，单位：毫秒
+     */
+    private static final long OBTAIN_WAIT_MS = 10;
+
+    /**
+     * 缓冲区池，只保存{@link #DEFAULT_BUFFER_SIZE}大小的缓冲区
+     */
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 缓冲区池中的缓冲区数量
+     */
+    private static final AtomicInteger POOL_SIZE = new AtomicInteger(0);
+
+    /**
+     * 结束标记
+     */
+    private static final Chunk EOF = new Chunk(null, -1);
+
+    /**
+     * 文件通道
+     */
+    private final FileChannel mChannel;
+
+    /**
+     * 缓冲区大小，单位：字节
+     */
+    private final int mBufferSize;
+
+    /**
+     * 缓冲区数量
+     */
+    private final int mBufferCount;
+
+    /**
+     * 已提交未写入的缓冲区
+     */
+    private final BlockingQueue<Chunk> mFilled = new LinkedBlockingQueue<>();
+
+    /**
+     * 已写入的空闲缓冲区
+     */
+    private final BlockingQueue<ByteBuffer> mFree = new LinkedBlockingQueue<>();
+
+    /**
+     * 是否已领取写线程的工作，写线程和finish()只有一个能领取
+     */
+    private final AtomicBoolean mClaimed = new AtomicBoolean(false);
+
+    /**
+     * 写线程结束
+     */
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    /**
+     * 下一个提交的缓冲区写入的位置，只在下载线程中访问
+     */
+    private long mPosition;
+
+    /**
+     * 已分配的缓冲区数量，只在下载线程中访问
+     */
+    private int mAllocated;
+
+    /**
+     * 第一个写入失败的位置，没有失败：-1
+     */
+    private long mErrorPosition = -1;
+
+    /**
+     * 写入失败的原因
+     */
+    private IOException mError;
+
+    /**
+     * 构造方法：初始化文件通道、开始位置，使用默认的缓冲区大小和数量
+     *
+     * @param channel  文件通道
+     * @param position 开始位置
+     */
+    public DownloadWriter(FileChannel channel, long position) {
+        this(channel, position, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * 构造方法：初始化文件通道、开始位置、缓冲区大小和数量
+     *
+     * @param channel     文件通道
+     * @param position    开始位置
+     * @param bufferSize  缓冲区大小，单位：字节
+     * @param bufferCount 缓冲区数量，至少2个
+     */
+    public DownloadWriter(FileChannel channel, long position, int bufferSize, int bufferCount) {
+        mChannel = channel;
+        mPosition = position;
+        mBufferSize = bufferSize;
+        mBufferCount = Math.max(bufferCount, 2);
+    }
+
+    /**
+     * 在ThreadPool中启动写线程，线程池拒绝时由下载线程自己写
+     * 写线程不属于任何作用域，作用域取消时不中断写线程，由下载线程的finish()结束
+     */
+    public void start() {
+        try {
+            ThreadPool.execute(new WriteCommand(this), null);
+        } catch (RejectedExecutionException e) {
+            Logger.w(Constants.TAG_LOG, TAG + " start() rejected, write in download thread");
+        }
+    }
+
+    /**
+     * 【下载线程】获取一个空的缓冲区，没有空闲缓冲区时，先自己写一个已提交的缓冲区
+     *
+     * @return 空的缓冲区，有array()
+     * @throws IOException 如果写入失败，抛出异常
+     */
+    public ByteBuffer obtain() throws IOException {
+        ByteBuffer buffer;
+
+        while (true) {
+            throwIfError();
+
+            buffer = mFree.poll();
+            if (buffer != null) {
+                break;
+            }
+
+            if (mAllocated < mBufferCount) {
+                mAllocated++;
+                buffer = acquire(mBufferSize);
+                break;
+            }
+
+            Chunk chunk = mFilled.poll();
+            if (chunk != null && chunk != EOF) {
+                write(chunk);
+                buffer = chunk.mBuffer;
+                break;
+            }
+
+            try {
+                buffer = mFree.poll(OBTAIN_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (buffer != null) {
+                break;
+            }
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 【下载线程】提交一个已填充的缓冲区，从position 0到当前position的数据写入文件
+     *
+     * @param buffer 缓冲区，来自{@link #obtain()}
+     */
+    public void submit(ByteBuffer buffer) {
+        buffer.flip();
+        if (!buffer.hasRemaining()) {
+            mFree.offer(buffer);
+            return;
+        }
+
+        Chunk chunk = new Chunk(buffer, mPosition);
+        mPosition += buffer.remaining();
+        mFilled.offer(chunk);
+    }
+
+    /**
+     * 【下载线程】等待所有已提交的缓冲区写入文件，fsync一次，归还缓冲区
+     * 无论下载是否成功都需要调用，保证已下载的部分写入文件
+     *
+     * @return 写入后的文件位置
+     * @throws IOException 如果写入或fsync失败，抛出异常
+     */
+    public long finish() throws IOException {
+        mFilled.offer(EOF);
+
+        // 暂时清除中断状态（如：暂停下载），FileChannel在中断的线程中读写会被关闭
+        boolean interrupted = Thread.interrupted();
+
+        try {
+            if (mClaimed.compareAndSet(false, true)) {
+                drain();
+            } else {
+                awaitDone();
+            }
+
+            synchronized (this) {
+                if (mError != null) {
+                    try {
+                        mChannel.truncate(mErrorPosition);
+                    } catch (IOException e) {
+                        Logger.e(Constants.TAG_LOG, TAG + " finish() truncate failure, position: " + mErrorPosition + ", errMsg: " + e.getMessage());
+                    }
+
+                    throw mError;
+                }
+            }
+
+            mChannel.force(false);
+            return mPosition;
+        } finally {
+            ByteBuffer buffer;
+            while ((buffer = mFree.poll()) != null) {
+                release(buffer);
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 【写线程】写入已提交的缓冲区，直到结束标记
+     * 被中断时继续写完所有缓冲区，结束后再恢复中断状态，FileChannel在中断的线程中读写会被关闭
+     */
+    private void drain() {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                Chunk chunk;
+                try {
+                    chunk = mFilled.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+
+                if (chunk == EOF) {
+                    break;
+                }
+
+                write(chunk);
+                mFree.offer(chunk.mBuffer);
+            }
+        } finally {
+            mDone.countDown();
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 写入一个缓冲区，写入失败后不再写入，缓冲区由调用者归还或重用
+     * 写入前清除中断状态，写入后恢复，避免中断关闭共用的FileChannel
+     *
+     * @param chunk 已提交的缓冲区
+     */
+    private void write(Chunk chunk) {
+        boolean interrupted = Thread.interrupted();
+
+        try {
+            if (!hasError()) {
+                ByteBuffer buffer = chunk.mBuffer;
+                long position = chunk.mPosition;
+                while (buffer.hasRemaining()) {
+                    position += mChannel.write(buffer, position);
+                }
+            }
+        } catch (IOException e) {
+            Logger.e(Constants.TAG_LOG, TAG + " write() failure, position: " + chunk.mPosition + ", errMsg: " + e.getMessage());
+            setError(chunk.mPosition, e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 等待写线程结束，调用前已清除中断状态
+     */
+    private void awaitDone() {
+        while (true) {
+            try {
+                mDone.await();
+                return;
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 记录写入失败，保留最小的失败位置
+     */
+    private synchronized void setError(long position, IOException e) {
+        if (mError == null || position < mErrorPosition) {
+            mErrorPosition = position;
+            mError = e;
+        }
+    }
+
+    /**
+     * 是否写入失败
+     */
+    private synchronized boolean hasError() {
+        return mError != null;
+    }
+
+    /**
+     * 如果写入失败，抛出异常
+     */
+    private synchronized void throwIfError() throws IOException {
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    /**
+     * 从缓冲区池中获取缓冲区，池中没有时分配新的缓冲区
+     *
+     * @param size 缓冲区大小，单位：字节
+     * @return 缓冲区
+     */
+    private static ByteBuffer acquire(int size) {
+        if (size == DEFAULT_BUFFER_SIZE) {
+            ByteBuffer buffer = POOL.poll();
+            if (buffer != null) {
+                POOL_SIZE.decrementAndGet();
+                return buffer;
+            }
+        }
+
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * 归还缓冲区到缓冲区池，池已满或大小不一致时丢弃
+     *
+     * @param buffer 缓冲区
+     */
+    private static void release(ByteBuffer buffer) {
+        if (buffer.capacity() == DEFAULT_BUFFER_SIZE && POOL_SIZE.incrementAndGet() <= MAX_POOL_SIZE) {
+            buffer.clear();
+            POOL.offer(buffer);
+        } else if (buffer.capacity() == DEFAULT_BUFFER_SIZE) {
+            POOL_SIZE.decrementAndGet();
+        }
+    }
+
+    /**
+     * 已提交的缓冲区和写入位置
+     */
+    private static final class Chunk {
+        private final ByteBuffer mBuffer;
+        private final long mPosition;
+
+        private Chunk(ByteBuffer buffer, long position) {
+            mBuffer = buffer;
+            mPosition = position;
+        }
+    }
+
+    /**
+     * 【后台线程】执行命令，写入已提交的缓冲区
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.DownloadWriter$WriteCommand { *; }
+     * </p>
+     */
+    static class WriteCommand extends ThreadPool.AbstractCommand {
+        /**
+         * 流水线写文件类
+         */
+        private DownloadWriter mWriter;
+
+        /**
+         * 构造方法：初始化流水线写文件类
+         *
+         * @param writer 流水线写文件类
+         */
+        public WriteCommand(DownloadWriter writer) {
+            mWriter = writer;
+        }
+
+        @Override
+        public void exec() {
+            if (mWriter.mClaimed.compareAndSet(false, true)) {
+                mWriter.drain();
+            }
+        }
+
+        @Override
+        public int getRejectPolicy() {
+            return ThreadPool.POLICY_ABORT;
+        }
+    }
+
+}
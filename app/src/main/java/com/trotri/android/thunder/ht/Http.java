@@ -17,6 +17,8 @@
 package com.trotri.android.thunder.ht;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.trotri.android.thunder.ap.Constants;
@@ -26,8 +28,13 @@ import com.trotri.android.thunder.ap.Logger;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -36,6 +43,12 @@ import java.util.Map;
  * 需要权限：
  * <uses-permission android:name="android.permission.INTERNET" />
  * 注：主线程里执行Http请求会报android.os.NetworkOnMainThreadException异常
+ * 压缩传输：默认发送Accept-Encoding: gzip, deflate，边接收边解压；POST数据长度达到{@link Builder#setGzipRequestMinLength(int)}时，gzip压缩后发送
+ * 网络自适应：设置{@link Builder#setNetworkPolicy(NetworkPolicy)}后，连接超时、读取超时、缓存空间由策略按当前网络决定，并记录每次请求的RTT和带宽
+ * 计时统计：开启{@link HttpMetrics#setEnabled(boolean)}后，记录每个请求各阶段的耗时和收发字节数
+ * 响应缓存：设置{@link Builder#setHttpCache(HttpCache)}后，GET请求在新鲜期内直接读缓存，过期后重新验证，服务器返回304时读缓存
+ * 流式上传：{@link #upload(String, HttpBody, Listener)}边读取边发送{@link HttpBody}、{@link Multipart}，已知长度时使用固定长度的流模式，未知时使用分块传输，
+ * Listener同时实现{@link ProgressListener}时回调上传进度
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: Http.java 1 2015-02-22 10:00:06Z huan.song $
@@ -68,6 +81,11 @@ public class Http {
      */
     public static final int DEFAULT_CONNECT_TIMEOUT_MS = 6 * 1000;
 
+    /**
+     * 默认的读取超时，单位：毫秒
+     */
+    public static final int DEFAULT_READ_TIMEOUT_MS = 30 * 1000;
+
     /**
      * 默认的字符编码
      */
@@ -83,11 +101,41 @@ public class Http {
      */
     public static final boolean DEFAULT_USE_CACHES = false;
 
+    /**
+     * 默认的是否接收压缩的返回数据
+     */
+    public static final boolean DEFAULT_ACCEPT_GZIP = true;
+
+    /**
+     * 默认的POST数据压缩的最小长度，-1：不压缩，需要服务器支持Content-Encoding: gzip的请求
+     */
+    public static final int DEFAULT_GZIP_REQUEST_MIN_LENGTH = -1;
+
+    /**
+     * 上传进度回调的最小间隔，单位：毫秒
+     */
+    public static final long UPLOAD_PROGRESS_INTERVAL_MS = 200;
+
+    /**
+     * 按Content-Length预分配的最大长度，单位：字节，更大的返回数据边读取边扩容，避免错误的Content-Length导致OOM
+     */
+    public static final int MAX_PRESIZE_LENGTH = 1024 * 1024;
+
+    /**
+     * StreamListener未读完返回数据时，最多读取并丢弃的剩余长度，单位：字节，超过时不复用连接
+     */
+    public static final int MAX_DRAIN_LENGTH = 64 * 1024;
+
     /**
      * 连接超时，单位：毫秒
      */
     private int mConnectTimeOutMs = DEFAULT_CONNECT_TIMEOUT_MS;
 
+    /**
+     * 读取超时，单位：毫秒
+     */
+    private int mReadTimeOutMs = DEFAULT_READ_TIMEOUT_MS;
+
     /**
      * 字符编码，默认：UTF-8
      */
@@ -103,6 +151,26 @@ public class Http {
      */
     private boolean mUseCaches = DEFAULT_USE_CACHES;
 
+    /**
+     * 是否接收压缩的返回数据
+     */
+    private boolean mAcceptGzip = DEFAULT_ACCEPT_GZIP;
+
+    /**
+     * POST数据压缩的最小长度，单位：字节，-1：不压缩
+     */
+    private int mGzipRequestMinLength = DEFAULT_GZIP_REQUEST_MIN_LENGTH;
+
+    /**
+     * HTTP响应磁盘缓存类，null：不缓存
+     */
+    private HttpCache mHttpCache;
+
+    /**
+     * 网络自适应策略类，null：使用固定的超时和缓存空间
+     */
+    private NetworkPolicy mNetworkPolicy;
+
     /**
      * 网络连接类
      */
@@ -209,14 +277,134 @@ public class Http {
      * @param params 查询串，a String, or null
      * @param l      回执线程的处理接口
      */
-    public void request(String method, String url, String params, Listener l) {
+    public void request(String method, String url, String params, final Listener l) {
+        requestStream(method, url, params, new StreamListener() {
+            @Override
+            public void onStream(InputStream in, int contentLength) throws IOException {
+                l.onComplete(readBytes(in, contentLength));
+            }
+
+            @Override
+            public void onError(int statusCode, Throwable tr, byte[] data) {
+                l.onError(statusCode, tr, data);
+            }
+        });
+    }
+
+    /**
+     * 发送GET请求，边接收边处理HTTP返回数据
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url    访问链接，a URL String
+     * @param params 查询串，a String, or null
+     * @param l      回执线程的处理接口
+     */
+    public void getStream(String url, String params, StreamListener l) {
+        requestStream(METHOD_GET, url, params, l);
+    }
+
+    /**
+     * 发送POST请求，边接收边处理HTTP返回数据
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url    访问链接，a URL String
+     * @param params 查询串，a String, or null
+     * @param l      回执线程的处理接口
+     */
+    public void postStream(String url, String params, StreamListener l) {
+        requestStream(METHOD_POST, url, params, l);
+    }
+
+    /**
+     * 发送POST请求，流式上传请求数据，如：文件、{@link Multipart}，内存峰值只有一个缓存空间
+     * Listener同时实现{@link ProgressListener}时，在发送请求的线程中回调上传进度
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url  访问链接，a URL String
+     * @param body 请求数据
+     * @param l    回执线程的处理接口
+     */
+    public void upload(String url, HttpBody body, final Listener l) {
+        requestStream(METHOD_POST, url, null, body, getProgressListener(l), new StreamListener() {
+            @Override
+            public void onStream(InputStream in, int contentLength) throws IOException {
+                l.onComplete(readBytes(in, contentLength));
+            }
+
+            @Override
+            public void onError(int statusCode, Throwable tr, byte[] data) {
+                l.onError(statusCode, tr, data);
+            }
+        });
+    }
+
+    /**
+     * 发送POST请求，流式上传请求数据，边接收边处理HTTP返回数据
+     * Listener同时实现{@link ProgressListener}时，在发送请求的线程中回调上传进度
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url  访问链接，a URL String
+     * @param body 请求数据
+     * @param l    回执线程的处理接口
+     */
+    public void uploadStream(String url, HttpBody body, StreamListener l) {
+        requestStream(METHOD_POST, url, null, body, getProgressListener(l), l);
+    }
+
+    /**
+     * 发送HTTP请求，边接收边处理HTTP返回数据
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param method 访问方式，{@link #METHOD_GET}、{@link #METHOD_POST}
+     * @param url    访问链接，a URL String
+     * @param params 查询串，Map集合，Key => String, Value => String
+     * @param l      回执线程的处理接口
+     */
+    public void requestStream(String method, String url, Map<String, String> params, StreamListener l) {
+        requestStream(method, url, joinString(params), l);
+    }
+
+    /**
+     * 发送HTTP请求，边接收边处理HTTP返回数据
+     * HTTP返回数据不再整体缓存到内存，而是直接交给{@link StreamListener#onStream(InputStream, int)}读取，
+     * 如：new JsonReader(new InputStreamReader(in, "UTF-8"))，内存峰值只有一个缓存空间
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param method 访问方式，{@link #METHOD_GET}、{@link #METHOD_POST}
+     * @param url    访问链接，a URL String
+     * @param params 查询串，a String, or null
+     * @param l      回执线程的处理接口
+     */
+    public void requestStream(String method, String url, String params, StreamListener l) {
+        requestStream(method, url, params, null, null, l);
+    }
+
+    /**
+     * 发送HTTP请求，边接收边处理HTTP返回数据
+     *
+     * @param method 访问方式，{@link #METHOD_GET}、{@link #METHOD_POST}
+     * @param url    访问链接，a URL String
+     * @param params 查询串，a String, or null
+     * @param upload 流式上传的请求数据，不上传：null，上传时忽略POST查询串
+     * @param pl     上传进度的回调接口，a ProgressListener Object, or null
+     * @param l      回执线程的处理接口
+     */
+    private void requestStream(String method, String url, String params, HttpBody upload, ProgressListener pl, StreamListener l) {
         int statusCode = 0;
+        ResponseInputStream response = null;
+        HttpMetrics.Timing timing = HttpMetrics.start(getAppContext(), method, url);
 
         try {
             HttpURLConnection urlConn = null;
-            BufferedOutputStream out = null;
+            OutputStream out = null;
             BufferedInputStream in = null;
-            ByteArrayOutputStream data = null;
+            boolean reusable = false;
 
             method = isPost(method) ? METHOD_POST : METHOD_GET;
             if (isGet(method) && !TextUtils.isEmpty(params)) {
@@ -224,63 +412,126 @@ public class Http {
                 url += params;
             }
 
+            HttpCache.Entry entry = null;
+            boolean cacheable = isGet(method) && getHttpCache() != null && !HttpCache.hasCredentials(url, null);
+            if (cacheable) {
+                entry = getHttpCache().get(url);
+            }
+
             try {
+                if (entry != null && entry.isFresh()) {
+                    InputStream cacheStream = getHttpCache().open(entry);
+                    if (cacheStream != null) {
+                        statusCode = HttpStatus.SC_OK;
+                        timing.onCacheHit();
+                        in = new BufferedInputStream(cacheStream, getBucket());
+                        l.onStream(in, (int) entry.getBodyLength());
+                        return;
+                    }
+                }
+
                 urlConn = getHttpProxy().openConnection(url);
                 if (isPost(method)) {
                     urlConn.setDoOutput(true);
                 }
 
+                if (cacheable && HttpCache.hasCredentials(url, urlConn)) {
+                    cacheable = false;
+                    entry = null;
+                }
+
+                if (entry != null) {
+                    entry.addValidators(urlConn);
+                }
+
+                byte[] body = null;
+                if (upload != null) {
+                    urlConn.setRequestProperty("Content-Type", upload.getContentType());
+                    setStreamingMode(urlConn, upload.getContentLength());
+                } else if (isPost(method) && !TextUtils.isEmpty(params)) {
+                    body = params.getBytes(getCharset());
+                    if (getGzipRequestMinLength() >= 0 && body.length >= getGzipRequestMinLength()) {
+                        body = HttpHelper.gzip(body, getBucket());
+                        urlConn.setRequestProperty("Content-Encoding", HttpHelper.ENCODING_GZIP);
+                    }
+                }
+
+                if (isAcceptGzip()) {
+                    urlConn.setRequestProperty("Accept-Encoding", HttpHelper.ACCEPT_ENCODING);
+                }
+
                 urlConn.setRequestProperty("Connection", "Keep-Alive");
                 urlConn.setRequestMethod(method);
                 urlConn.setUseCaches(isUseCaches());
                 urlConn.setConnectTimeout(getConnectTimeOutMs());
+                urlConn.setReadTimeout(getReadTimeOutMs());
+
+                timing.resolve(getHttpProxy());
+                long startMs = SystemClock.elapsedRealtime();
                 urlConn.connect();
+                timing.onConnected();
 
-                if (isPost(method) && !TextUtils.isEmpty(params)) {
-                    out = new BufferedOutputStream(urlConn.getOutputStream());
-                    out.write(params.getBytes());
-                    out.flush();
+                if (body != null) {
+                    out = new BufferedOutputStream(urlConn.getOutputStream(), getBucket());
+                    out.write(body);
                     out.close();
                     out = null;
+                    timing.onRequestSent(body.length);
+                }
+
+                if (upload != null) {
+                    UploadOutputStream uploadOut = new UploadOutputStream(
+                            new BufferedOutputStream(urlConn.getOutputStream(), getBucket()), upload.getContentLength(), pl);
+                    out = uploadOut;
+                    upload.writeTo(uploadOut, new byte[getBucket()]);
+                    uploadOut.finish();
+                    out.close();
+                    out = null;
+                    timing.onRequestSent(uploadOut.getUploadSize());
                 }
 
                 statusCode = urlConn.getResponseCode();
-                if (statusCode == HttpStatus.SC_OK) {
-                    in = new BufferedInputStream(urlConn.getInputStream());
-                    data = new ByteArrayOutputStream();
-
-                    int size;
-                    byte[] bucket = new byte[getBucket()];
-                    while ((size = in.read(bucket)) != -1) {
-                        if (size > 0) {
-                            data.write(bucket, 0, size);
-                            data.flush();
-                        }
+                timing.onResponse(statusCode);
+                if (getNetworkPolicy() != null && body == null && upload == null) {
+                    getNetworkPolicy().onResponse(SystemClock.elapsedRealtime() - startMs);
+                }
+
+                InputStream cacheStream;
+                if (statusCode == HttpStatus.SC_NOT_MODIFIED && entry != null
+                        && (cacheStream = getHttpCache().open(entry)) != null) {
+                    getHttpCache().update(entry, urlConn);
+                    in = new BufferedInputStream(cacheStream, getBucket());
+                    l.onStream(in, (int) entry.getBodyLength());
+                    reusable = true;
+                } else if (statusCode == HttpStatus.SC_OK) {
+                    response = new ResponseInputStream(urlConn.getInputStream());
+                    InputStream stream = timing.count(response);
+                    if (getNetworkPolicy() != null) {
+                        stream = getNetworkPolicy().meter(stream);
                     }
 
-                    l.onComplete(data.toByteArray());
+                    stream = HttpHelper.decode(urlConn, stream, getBucket());
+                    if (cacheable) {
+                        stream = getHttpCache().put(url, urlConn, stream);
+                    }
+
+                    in = new BufferedInputStream(stream, getBucket());
+                    l.onStream(in, HttpHelper.getDecodedLength(urlConn));
+                    reusable = drain(in, url);
                 } else {
-                    in = new BufferedInputStream(urlConn.getErrorStream());
-                    data = new ByteArrayOutputStream();
-
-                    int size;
-                    byte[] bucket = new byte[getBucket()];
-                    while ((size = in.read(bucket)) != -1) {
-                        if (size > 0) {
-                            data.write(bucket, 0, size);
-                            data.flush();
-                        }
+                    InputStream errorStream = timing.count(urlConn.getErrorStream());
+                    byte[] data = null;
+                    if (errorStream != null) {
+                        in = new BufferedInputStream(HttpHelper.decode(urlConn, errorStream, getBucket()), getBucket());
+                        data = readBytes(in, HttpHelper.getDecodedLength(urlConn));
                     }
 
                     String errMsg = urlConn.getResponseMessage();
                     Logger.e(Constants.TAG_LOG, TAG + " request() failure, statusCode: " + statusCode + ", url: " + url + ", params: " + params + ", errMsg: " + errMsg);
-                    l.onError(statusCode, new Throwable(errMsg), data.toByteArray());
+                    l.onError(statusCode, new Throwable(errMsg), data);
+                    reusable = true;
                 }
             } finally {
-                if (data != null) {
-                    data.close();
-                }
-
                 if (in != null) {
                     in.close();
                 }
@@ -289,13 +540,101 @@ public class Http {
                     out.close();
                 }
 
-                if (urlConn != null) {
-                    urlConn.disconnect();
-                }
+                getHttpProxy().release(urlConn, reusable);
             }
         } catch (IOException e) {
             Logger.e(Constants.TAG_LOG, TAG + " request() failure, statusCode: " + statusCode + ", url: " + url + ", params: " + params + ", errMsg: " + e.getMessage());
-            l.onError(statusCode, e, null);
+            timing.onError(e);
+            // 读取返回数据时网络失败，与StreamListener解析失败区分开，只有前者可以重试
+            l.onError(statusCode, (response != null && response.getError() != null) ? new ResponseReadException(e) : e, null);
+        } finally {
+            HttpMetrics.report(timing);
+        }
+    }
+
+    /**
+     * StreamListener返回后，读取并丢弃未读完的返回数据，读到结尾后连接才能复用
+     *
+     * @param in  返回数据的输入流
+     * @param url 访问链接，a URL String
+     * @return 已读到结尾：True，连接可以复用
+     */
+    private boolean drain(InputStream in, String url) {
+        try {
+            if (HttpHelper.drain(in, MAX_DRAIN_LENGTH, getBucket())) {
+                return true;
+            }
+
+            Logger.w(Constants.TAG_LOG, TAG + " drain() body not consumed, connection not reused, url: " + url);
+        } catch (IOException e) {
+            Logger.w(Constants.TAG_LOG, TAG + " drain() failure, url: " + url + ", errMsg: " + e.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * 设置流式上传的模式，已知长度时使用固定长度的流模式，未知时使用分块传输，两种模式都不在内存中缓存整个请求数据
+     *
+     * @param urlConn       a HttpURLConnection Object
+     * @param contentLength 请求数据长度，单位：字节，未知：-1
+     */
+    private void setStreamingMode(HttpURLConnection urlConn, long contentLength) {
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            urlConn.setFixedLengthStreamingMode((int) contentLength);
+        } else if (contentLength >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            urlConn.setFixedLengthStreamingMode(contentLength);
+        } else {
+            urlConn.setChunkedStreamingMode(getBucket());
+        }
+    }
+
+    /**
+     * 获取上传进度的回调接口
+     *
+     * @param l 回执线程的处理接口
+     * @return a ProgressListener Object, or null
+     */
+    private static ProgressListener getProgressListener(Object l) {
+        return (l instanceof ProgressListener) ? (ProgressListener) l : null;
+    }
+
+    /**
+     * 读取全部HTTP返回数据
+     * 已知数据长度且不超过{@link #MAX_PRESIZE_LENGTH}时，直接读入等长的字节数组，避免ByteArrayOutputStream扩容和toByteArray()时的复制，
+     * 更大的数据从{@link #MAX_PRESIZE_LENGTH}开始边读取边扩容，数据长度与实际不符时也不会一次分配过大的内存
+     *
+     * @param in            输入流
+     * @param contentLength 数据长度，未知：-1
+     * @return HTTP返回数据，a Byte Array
+     * @throws IOException 如果读取失败，抛出异常
+     */
+    public byte[] readBytes(InputStream in, int contentLength) throws IOException {
+        int size;
+
+        if (contentLength > 0 && contentLength <= MAX_PRESIZE_LENGTH) {
+            byte[] data = new byte[contentLength];
+
+            int offset = 0;
+            while (offset < contentLength && (size = in.read(data, offset, contentLength - offset)) != -1) {
+                offset += size;
+            }
+
+            return (offset == contentLength) ? data : Arrays.copyOf(data, offset);
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream((contentLength > 0) ? MAX_PRESIZE_LENGTH : getBucket());
+        try {
+            byte[] bucket = new byte[getBucket()];
+            while ((size = in.read(bucket)) != -1) {
+                if (size > 0) {
+                    data.write(bucket, 0, size);
+                }
+            }
+
+            return data.toByteArray();
+        } finally {
+            data.close();
         }
     }
 
@@ -340,12 +679,21 @@ public class Http {
     }
 
     /**
-     * 连接超时，单位：毫秒
+     * 连接超时，单位：毫秒，设置了网络自适应策略时由策略决定
      *
      * @return 等待时间，单位：毫秒
      */
     public int getConnectTimeOutMs() {
-        return mConnectTimeOutMs;
+        return (mNetworkPolicy != null) ? mNetworkPolicy.getConnectTimeOutMs() : mConnectTimeOutMs;
+    }
+
+    /**
+     * 读取超时，单位：毫秒，设置了网络自适应策略时由策略决定
+     *
+     * @return 等待时间，单位：毫秒
+     */
+    public int getReadTimeOutMs() {
+        return (mNetworkPolicy != null) ? mNetworkPolicy.getReadTimeOutMs() : mReadTimeOutMs;
     }
 
     /**
@@ -358,12 +706,12 @@ public class Http {
     }
 
     /**
-     * 分配缓存空间，单位：字节
+     * 分配缓存空间，单位：字节，设置了网络自适应策略时由策略决定
      *
      * @return 缓存空间，单位：字节
      */
     public int getBucket() {
-        return mBucket;
+        return (mNetworkPolicy != null) ? mNetworkPolicy.getBucket() : mBucket;
     }
 
     /**
@@ -375,6 +723,42 @@ public class Http {
         return mUseCaches;
     }
 
+    /**
+     * 是否接收压缩的返回数据
+     *
+     * @return Returns True, or False
+     */
+    public boolean isAcceptGzip() {
+        return mAcceptGzip;
+    }
+
+    /**
+     * POST数据压缩的最小长度，单位：字节
+     *
+     * @return 最小长度，-1：不压缩
+     */
+    public int getGzipRequestMinLength() {
+        return mGzipRequestMinLength;
+    }
+
+    /**
+     * 获取网络自适应策略类
+     *
+     * @return a NetworkPolicy Object, or null
+     */
+    public NetworkPolicy getNetworkPolicy() {
+        return mNetworkPolicy;
+    }
+
+    /**
+     * 获取HTTP响应磁盘缓存类
+     *
+     * @return a HttpCache Object, or null
+     */
+    public HttpCache getHttpCache() {
+        return mHttpCache;
+    }
+
     /**
      * 获取网络连接类
      *
@@ -417,6 +801,229 @@ public class Http {
         void onError(int statusCode, Throwable tr, byte[] data);
     }
 
+    /**
+     * StreamListener interface
+     * 流式回调接口，边接收边处理HTTP返回数据
+     *
+     * @since 1.0
+     */
+    public interface StreamListener {
+        /**
+         * Http请求成功后回调方法，在发送请求的线程中执行
+         * 方法返回后输入流会被关闭，不可在其他线程中继续读取
+         *
+         * @param in            HTTP返回数据的输入流，an InputStream Object
+         * @param contentLength HTTP返回数据长度，未知：-1
+         * @throws IOException 如果读取失败，抛出异常，之后回调{@link #onError(int, Throwable, byte[])}
+         */
+        void onStream(InputStream in, int contentLength) throws IOException;
+
+        /**
+         * 打开URL链接失败或读写数据失败后回调方法
+         *
+         * @param statusCode HTTP状态码
+         * @param tr         失败原因，a Throwable Object
+         * @param data       HTTP返回的错误数据，a Byte Array, or null
+         */
+        void onError(int statusCode, Throwable tr, byte[] data);
+    }
+
+    /**
+     * ProgressListener interface
+     * 上传进度回调接口，由{@link Listener}或{@link StreamListener}同时实现
+     *
+     * @since 1.0
+     */
+    public interface ProgressListener {
+        /**
+         * 上传过程中回调方法，在发送请求的线程中执行，间隔不小于{@link #UPLOAD_PROGRESS_INTERVAL_MS}，上传完成时一定回调一次
+         *
+         * @param totalSize  请求数据总大小，单位：字节，未知：-1
+         * @param uploadSize 已上传大小，单位：字节
+         */
+        void onProgress(long totalSize, long uploadSize);
+    }
+
+    /**
+     * 上传的输出流，按时间间隔回调上传进度
+     */
+    class UploadOutputStream extends FilterOutputStream {
+        /**
+         * 请求数据总大小，单位：字节，未知：-1
+         */
+        private final long mTotalSize;
+
+        /**
+         * 上传进度的回调接口，null：不回调
+         */
+        private final ProgressListener mListener;
+
+        /**
+         * 已上传大小，单位：字节
+         */
+        private long mUploadSize = 0;
+
+        /**
+         * 上次回调时的已上传大小，单位：字节
+         */
+        private long mNotifiedSize = -1;
+
+        /**
+         * 上次回调的时间，单位：毫秒
+         */
+        private long mNotifiedMs = 0;
+
+        /**
+         * 构造方法：初始化输出流、请求数据总大小、上传进度的回调接口
+         *
+         * @param out       输出流
+         * @param totalSize 请求数据总大小，单位：字节，未知：-1
+         * @param l         上传进度的回调接口，a ProgressListener Object, or null
+         */
+        public UploadOutputStream(OutputStream out, long totalSize, ProgressListener l) {
+            super(out);
+            mTotalSize = totalSize;
+            mListener = l;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            add(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            out.write(buffer, offset, count);
+            add(count);
+        }
+
+        /**
+         * 获取已上传大小
+         *
+         * @return 已上传大小，单位：字节
+         */
+        public long getUploadSize() {
+            return mUploadSize;
+        }
+
+        /**
+         * 上传完成，回调最终进度
+         *
+         * @throws IOException 如果发送失败，抛出异常
+         */
+        public void finish() throws IOException {
+            out.flush();
+            if (mListener != null && mNotifiedSize != mUploadSize) {
+                notifyProgress(SystemClock.uptimeMillis());
+            }
+        }
+
+        /**
+         * 增加已上传大小，距上次回调超过时间间隔时回调进度
+         *
+         * @param size 增加的大小，单位：字节
+         */
+        private void add(int size) {
+            mUploadSize += size;
+            if (mListener == null) {
+                return;
+            }
+
+            long nowMs = SystemClock.uptimeMillis();
+            if (mNotifiedSize < 0 || nowMs - mNotifiedMs >= UPLOAD_PROGRESS_INTERVAL_MS) {
+                notifyProgress(nowMs);
+            }
+        }
+
+        /**
+         * 回调上传进度
+         *
+         * @param nowMs 当前时间，单位：毫秒
+         */
+        private void notifyProgress(long nowMs) {
+            mNotifiedMs = nowMs;
+            mNotifiedSize = mUploadSize;
+            mListener.onProgress(mTotalSize, mUploadSize);
+        }
+    }
+
+    /**
+     * 返回数据的输入流，记录从网络读取时的失败原因，用于区分网络失败和StreamListener解析失败
+     */
+    static class ResponseInputStream extends FilterInputStream {
+        /**
+         * 从网络读取时的失败原因
+         */
+        private volatile IOException mError;
+
+        /**
+         * 构造方法：初始化网络输入流
+         *
+         * @param in 网络输入流
+         */
+        public ResponseInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return in.read();
+            } catch (IOException e) {
+                mError = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            try {
+                return in.read(buffer, offset, count);
+            } catch (IOException e) {
+                mError = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                return in.skip(n);
+            } catch (IOException e) {
+                mError = e;
+                throw e;
+            }
+        }
+
+        /**
+         * 获取从网络读取时的失败原因
+         *
+         * @return an IOException Object, or null
+         */
+        public IOException getError() {
+            return mError;
+        }
+    }
+
+    /**
+     * ResponseReadException class
+     * 已收到200后，从网络读取返回数据失败，如：断网、超时、连接被关闭，可以重试
+     * StreamListener自己抛出的异常（如：解析失败）不会被包装成该异常
+     *
+     * @since 1.0
+     */
+    public static class ResponseReadException extends IOException {
+        /**
+         * 构造方法：初始化失败原因
+         *
+         * @param cause 失败原因，StreamListener收到的异常，或它包装后抛出的异常
+         */
+        public ResponseReadException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
     /**
      * Builder final class
      * Build a new {@link Http}.
@@ -429,6 +1036,11 @@ public class Http {
          */
         private int mConnectTimeOutMs = DEFAULT_CONNECT_TIMEOUT_MS;
 
+        /**
+         * 读取超时，单位：毫秒
+         */
+        private int mReadTimeOutMs = DEFAULT_READ_TIMEOUT_MS;
+
         /**
          * 字符编码，默认：UTF-8
          */
@@ -444,6 +1056,26 @@ public class Http {
          */
         private boolean mUseCaches = DEFAULT_USE_CACHES;
 
+        /**
+         * 是否接收压缩的返回数据
+         */
+        private boolean mAcceptGzip = DEFAULT_ACCEPT_GZIP;
+
+        /**
+         * POST数据压缩的最小长度，单位：字节，-1：不压缩
+         */
+        private int mGzipRequestMinLength = DEFAULT_GZIP_REQUEST_MIN_LENGTH;
+
+        /**
+         * HTTP响应磁盘缓存类，null：不缓存
+         */
+        private HttpCache mHttpCache;
+
+        /**
+         * 网络自适应策略类，null：使用固定的超时和缓存空间
+         */
+        private NetworkPolicy mNetworkPolicy;
+
         /**
          * 上下文环境
          */
@@ -467,9 +1099,14 @@ public class Http {
             Http http = new Http(mAppContext);
 
             http.mConnectTimeOutMs = mConnectTimeOutMs;
+            http.mReadTimeOutMs = mReadTimeOutMs;
             http.mCharset = mCharset;
             http.mBucket = mBucket;
             http.mUseCaches = mUseCaches;
+            http.mAcceptGzip = mAcceptGzip;
+            http.mGzipRequestMinLength = mGzipRequestMinLength;
+            http.mHttpCache = mHttpCache;
+            http.mNetworkPolicy = mNetworkPolicy;
 
             return http;
         }
@@ -485,6 +1122,17 @@ public class Http {
             return this;
         }
 
+        /**
+         * 设置读取超时，单位：毫秒
+         *
+         * @param readTimeOutMs 超时时间，0：不超时，默认：{@link #DEFAULT_READ_TIMEOUT_MS}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setReadTimeOutMs(int readTimeOutMs) {
+            mReadTimeOutMs = readTimeOutMs;
+            return this;
+        }
+
         /**
          * 设置字符编码，默认：UTF-8
          *
@@ -518,6 +1166,50 @@ public class Http {
             return this;
         }
 
+        /**
+         * 设置是否接收压缩的返回数据，接收时发送Accept-Encoding: gzip, deflate，并边接收边解压
+         *
+         * @param acceptGzip 是否接收，默认：{@link #DEFAULT_ACCEPT_GZIP}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setAcceptGzip(boolean acceptGzip) {
+            mAcceptGzip = acceptGzip;
+            return this;
+        }
+
+        /**
+         * 设置POST数据压缩的最小长度，数据长度达到后gzip压缩并发送Content-Encoding: gzip，需要服务器支持
+         *
+         * @param gzipRequestMinLength 最小长度，单位：字节，-1：不压缩，默认：{@link #DEFAULT_GZIP_REQUEST_MIN_LENGTH}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setGzipRequestMinLength(int gzipRequestMinLength) {
+            mGzipRequestMinLength = gzipRequestMinLength;
+            return this;
+        }
+
+        /**
+         * 设置网络自适应策略类，如：NetworkPolicy.getInstance(context)，设置后连接超时、读取超时、缓存空间的设置无效
+         *
+         * @param networkPolicy a NetworkPolicy Object, 默认：null
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setNetworkPolicy(NetworkPolicy networkPolicy) {
+            mNetworkPolicy = networkPolicy;
+            return this;
+        }
+
+        /**
+         * 设置HTTP响应磁盘缓存类，如：HttpCache.getInstance(context)
+         *
+         * @param httpCache a HttpCache Object, 默认：null，不缓存
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setHttpCache(HttpCache httpCache) {
+            mHttpCache = httpCache;
+            return this;
+        }
+
     }
 
 }
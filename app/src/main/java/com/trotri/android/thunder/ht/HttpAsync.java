@@ -16,14 +16,25 @@
 
 package com.trotri.android.thunder.ht;
 
+import com.trotri.android.thunder.ap.CommandPool;
+import com.trotri.android.thunder.ap.CommandScope;
 import com.trotri.android.thunder.ap.ThreadPool;
 import com.trotri.android.thunder.ap.UiThread;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * HttpAsync class file
  * HTTP异步类，在后台线程中执行HTTP请求，执行完后，在主线程中回调Listener接口
+ * 合并请求：coalesce = true时，访问方式、访问链接、查询串、{@link CommandScope}都相同且未完成的请求只执行一次，结果通知所有Listener，
+ * 所有Listener收到的是同一个byte[]，不可修改
+ * 取消：每次请求返回自己的{@link Call}，{@link Call#cancel()}只移除本次的Listener，合并的请求全部取消后才取消HTTP请求
+ * 流式上传：Listener同时实现{@link Http.ProgressListener}时，在主线程中回调上传进度
+ * 离线队列：设置{@link RequestQueue}后，可重试失败（断网、408、429、5xx）的GET请求自动加入队列，联网后重发，
+ * 其他请求可通过{@link #requestOrQueue}显式加入队列，Listener仍然收到本次的onError
  * 需要权限：
  * <uses-permission android:name="android.permission.INTERNET" />
  *
@@ -35,11 +46,21 @@ public class HttpAsync {
 
     private static final String TAG = "HttpAsync";
 
+    /**
+     * 执行中的可合并请求，Key => Http对象 + 访问方式 + 访问链接 + 查询串
+     */
+    private static final Map<String, AsyncCommand> IN_FLIGHT = new HashMap<>();
+
     /**
      * HTTP类
      */
     private final Http mHttp;
 
+    /**
+     * 离线请求队列，null：失败的请求不加入队列
+     */
+    private volatile RequestQueue mRequestQueue;
+
     /**
      * 构造方法：初始化HTTP类
      *
@@ -56,9 +77,10 @@ public class HttpAsync {
      *
      * @param url 访问链接，a URL String
      * @param l   回执线程的处理接口
+     * @return 本次请求，用于取消
      */
-    public void get(String url, Http.Listener l) {
-        get(url, "", l);
+    public Call get(String url, Http.Listener l) {
+        return get(url, "", l);
     }
 
     /**
@@ -69,9 +91,10 @@ public class HttpAsync {
      * @param url    访问链接，a URL String
      * @param params 查询串，Map集合，Key => String, Value => String
      * @param l      回执线程的处理接口
+     * @return 本次请求，用于取消
      */
-    public void get(String url, Map<String, String> params, Http.Listener l) {
-        request(Http.METHOD_GET, url, params, l);
+    public Call get(String url, Map<String, String> params, Http.Listener l) {
+        return request(Http.METHOD_GET, url, params, l);
     }
 
     /**
@@ -82,9 +105,40 @@ public class HttpAsync {
      * @param url    访问链接，a URL String
      * @param params 查询串，a String, or null
      * @param l      回执线程的处理接口
+     * @return 本次请求，用于取消
+     */
+    public Call get(String url, String params, Http.Listener l) {
+        return request(Http.METHOD_GET, url, params, l);
+    }
+
+    /**
+     * 发送GET请求，可与相同的未完成请求合并
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url      访问链接，a URL String
+     * @param params   查询串，Map集合，Key => String, Value => String
+     * @param coalesce 是否与相同的未完成请求合并
+     * @param l        回执线程的处理接口
+     * @return 本次请求，用于取消
      */
-    public void get(String url, String params, Http.Listener l) {
-        request(Http.METHOD_GET, url, params, l);
+    public Call get(String url, Map<String, String> params, boolean coalesce, Http.Listener l) {
+        return request(Http.METHOD_GET, url, params, coalesce, l);
+    }
+
+    /**
+     * 发送GET请求，可与相同的未完成请求合并
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url      访问链接，a URL String
+     * @param params   查询串，a String, or null
+     * @param coalesce 是否与相同的未完成请求合并
+     * @param l        回执线程的处理接口
+     * @return 本次请求，用于取消
+     */
+    public Call get(String url, String params, boolean coalesce, Http.Listener l) {
+        return request(Http.METHOD_GET, url, params, coalesce, l);
     }
 
     /**
@@ -95,9 +149,10 @@ public class HttpAsync {
      * @param url    访问链接，a URL String
      * @param params 查询串，Map集合，Key => String, Value => String
      * @param l      回执线程的处理接口
+     * @return 本次请求，用于取消
      */
-    public void post(String url, Map<String, String> params, Http.Listener l) {
-        request(Http.METHOD_POST, url, params, l);
+    public Call post(String url, Map<String, String> params, Http.Listener l) {
+        return request(Http.METHOD_POST, url, params, l);
     }
 
     /**
@@ -108,9 +163,23 @@ public class HttpAsync {
      * @param url    访问链接，a URL String
      * @param params 查询串，a String, or null
      * @param l      回执线程的处理接口
+     * @return 本次请求，用于取消
      */
-    public void post(String url, String params, Http.Listener l) {
-        request(Http.METHOD_POST, url, params, l);
+    public Call post(String url, String params, Http.Listener l) {
+        return request(Http.METHOD_POST, url, params, l);
+    }
+
+    /**
+     * 发送POST请求，流式上传请求数据，如：文件、{@link Multipart}
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param url  访问链接，a URL String
+     * @param body 请求数据
+     * @param l    回执线程的处理接口，同时实现{@link Http.ProgressListener}时回调上传进度
+     */
+    public void upload(String url, HttpBody body, Http.Listener l) {
+        ThreadPool.execute(new UploadCommand(url, body, l));
     }
 
     /**
@@ -122,9 +191,26 @@ public class HttpAsync {
      * @param url    访问链接，a URL String
      * @param params 查询串，Map集合，Key => String, Value => String
      * @param l      回执线程的处理接口
+     * @return 本次请求，用于取消
      */
-    public void request(String method, String url, Map<String, String> params, Http.Listener l) {
-        request(method, url, mHttp.joinString(params), l);
+    public Call request(String method, String url, Map<String, String> params, Http.Listener l) {
+        return request(method, url, mHttp.joinString(params), false, l);
+    }
+
+    /**
+     * 发送HTTP请求
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param method   访问方式
+     * @param url      访问链接，a URL String
+     * @param params   查询串，Map集合，Key => String, Value => String
+     * @param coalesce 是否与相同的未完成请求合并，只适用于幂等请求，如：GET
+     * @param l        回执线程的处理接口
+     * @return 本次请求，用于取消
+     */
+    public Call request(String method, String url, Map<String, String> params, boolean coalesce, Http.Listener l) {
+        return request(method, url, mHttp.joinString(params), coalesce, l);
     }
 
     /**
@@ -136,9 +222,114 @@ public class HttpAsync {
      * @param url    访问链接，a URL String
      * @param params 查询串，a String, or null
      * @param l      回执线程的处理接口
+     * @return 本次请求，用于取消
+     */
+    public Call request(String method, String url, String params, Http.Listener l) {
+        return request(method, url, params, false, l);
+    }
+
+    /**
+     * 发送HTTP请求
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param method   访问方式
+     * @param url      访问链接，a URL String
+     * @param params   查询串，a String, or null
+     * @param coalesce 是否与相同的未完成请求合并，只适用于幂等请求，如：GET
+     * @param l        回执线程的处理接口
+     * @return 本次请求，用于取消
+     */
+    public Call request(String method, String url, String params, boolean coalesce, Http.Listener l) {
+        return request(method, url, params, coalesce, Http.METHOD_GET.equalsIgnoreCase(method), false, l);
+    }
+
+    /**
+     * 发送HTTP请求，可重试的失败后加入离线请求队列，联网后重发，需要先设置{@link #setRequestQueue}
+     * 需要权限：
+     * <uses-permission android:name="android.permission.INTERNET" />
+     *
+     * @param method   访问方式
+     * @param url      访问链接，a URL String
+     * @param params   查询串，a String, or null
+     * @param collapse 是否合并，True：队列中同一接口（访问方式 + 访问链接）只保留最新的请求
+     * @param l        回执线程的处理接口
+     * @return 本次请求，用于取消
      */
-    public void request(String method, String url, String params, Http.Listener l) {
-        ThreadPool.execute(new AsyncCommand(method, url, params, l));
+    public Call requestOrQueue(String method, String url, String params, boolean collapse, Http.Listener l) {
+        return request(method, url, params, false, true, collapse, l);
+    }
+
+    /**
+     * 发送HTTP请求
+     *
+     * @param method   访问方式
+     * @param url      访问链接，a URL String
+     * @param params   查询串，a String, or null
+     * @param coalesce 是否与相同的未完成请求合并
+     * @param queued   可重试的失败后是否加入离线请求队列
+     * @param collapse 加入离线请求队列时是否合并同一接口的请求
+     * @param l        回执线程的处理接口
+     * @return 本次请求，用于取消
+     */
+    private Call request(String method, String url, String params, boolean coalesce, boolean queued, boolean collapse, Http.Listener l) {
+        if (!coalesce) {
+            AsyncCommand command = new AsyncCommand(method, url, params, null, queued, collapse);
+            Call call = new Call(command, l);
+            command.mCalls.add(call);
+            ThreadPool.execute(command);
+            return call;
+        }
+
+        String key = System.identityHashCode(mHttp) + "\n" + method.toUpperCase() + "\n" + url + "\n" + ((params != null) ? params : "");
+        AsyncCommand command;
+        Call call;
+
+        synchronized (IN_FLIGHT) {
+            command = IN_FLIGHT.get(key);
+            if (command != null && command.getHttp() == mHttp && command.mRequestScope == CommandScope.current()) {
+                call = new Call(command, l);
+                command.mCalls.add(call);
+                return call;
+            }
+
+            command = new AsyncCommand(method, url, params, key, queued, collapse);
+            call = new Call(command, l);
+            command.mCalls.add(call);
+            IN_FLIGHT.put(key, command);
+        }
+
+        try {
+            ThreadPool.execute(command);
+        } catch (RuntimeException e) {
+            synchronized (IN_FLIGHT) {
+                if (IN_FLIGHT.get(key) == command) {
+                    IN_FLIGHT.remove(key);
+                }
+            }
+
+            throw e;
+        }
+
+        return call;
+    }
+
+    /**
+     * 设置离线请求队列，重发时使用队列自己的HTTP类
+     *
+     * @param queue 离线请求队列，null：失败的请求不加入队列
+     */
+    public void setRequestQueue(RequestQueue queue) {
+        mRequestQueue = queue;
+    }
+
+    /**
+     * 获取离线请求队列
+     *
+     * @return a RequestQueue Object, or null
+     */
+    public RequestQueue getRequestQueue() {
+        return mRequestQueue;
     }
 
     /**
@@ -165,23 +356,47 @@ public class HttpAsync {
         private String mParams;
 
         /**
-         * 回执线程的处理接口
+         * 合并请求的Key，不合并：null
          */
-        private Http.Listener mListener;
+        private String mKey;
+
+        /**
+         * 可重试的失败后是否加入离线请求队列
+         */
+        private boolean mQueued;
+
+        /**
+         * 加入离线请求队列时是否合并同一接口的请求
+         */
+        private boolean mCollapse;
+
+        /**
+         * 发送请求时的命令作用域，只合并同一作用域的请求，避免一个页面取消时影响其他页面
+         */
+        private final CommandScope mRequestScope = CommandScope.current();
+
+        /**
+         * 未取消的请求，合并的请求共用一个命令，访问时需对IN_FLIGHT加锁
+         */
+        private final List<Call> mCalls = new ArrayList<>(1);
 
         /**
-         * 构造方法：初始化访问方式、访问链接、查询串、回执线程的处理接口
+         * 构造方法：初始化访问方式、访问链接、查询串、合并请求的Key、是否加入离线请求队列
          *
-         * @param method 访问方式
-         * @param url    访问链接，a URL String
-         * @param params 查询串，a String, or null
-         * @param l      回执线程的处理接口
+         * @param method   访问方式
+         * @param url      访问链接，a URL String
+         * @param params   查询串，a String, or null
+         * @param key      合并请求的Key，不合并：null
+         * @param queued   可重试的失败后是否加入离线请求队列
+         * @param collapse 加入离线请求队列时是否合并同一接口的请求
          */
-        public AsyncCommand(String method, String url, String params, Http.Listener l) {
+        public AsyncCommand(String method, String url, String params, String key, boolean queued, boolean collapse) {
             mMethod = method;
             mUrl = url;
             mParams = params;
-            mListener = l;
+            mKey = key;
+            mQueued = queued;
+            mCollapse = collapse;
         }
 
         @Override
@@ -189,26 +404,228 @@ public class HttpAsync {
             mHttp.request(mMethod, mUrl, mParams, new Http.Listener() {
                 @Override
                 public void onComplete(byte[] data) {
-                    UiThread.exec(new UiCommand(data, mListener));
+                    for (Call call : finish()) {
+                        UiThread.exec(UiCommand.obtain(data, call));
+                    }
                 }
 
                 @Override
                 public void onError(int statusCode, Throwable tr, byte[] data) {
-                    UiThread.exec(new UiCommand(statusCode, tr, data, mListener));
+                    RequestQueue queue = mRequestQueue;
+                    if (mQueued && queue != null && RequestQueue.isRetryable(statusCode, tr)) {
+                        queue.enqueueFailed(mMethod, mUrl, mParams, mCollapse ? RequestQueue.getEndpointKey(mMethod, mUrl) : null);
+                    }
+
+                    for (Call call : finish()) {
+                        UiThread.exec(UiCommand.obtain(statusCode, tr, data, call));
+                    }
                 }
             });
         }
 
+        /**
+         * 请求结束，从执行中的请求中移除，之后的相同请求重新发送，之后取消请求不再取消命令
+         *
+         * @return 需要通知结果的请求
+         */
+        private List<Call> finish() {
+            synchronized (IN_FLIGHT) {
+                if (mKey != null && IN_FLIGHT.get(mKey) == this) {
+                    IN_FLIGHT.remove(mKey);
+                }
+
+                List<Call> calls = new ArrayList<>(mCalls);
+                mCalls.clear();
+                return calls;
+            }
+        }
+
+        /**
+         * 移除一个请求，没有未取消的请求时取消命令
+         *
+         * @param call 请求
+         */
+        private void detach(Call call) {
+            synchronized (IN_FLIGHT) {
+                if (!mCalls.remove(call) || !mCalls.isEmpty()) {
+                    return;
+                }
+
+                if (mKey != null && IN_FLIGHT.get(mKey) == this) {
+                    IN_FLIGHT.remove(mKey);
+                }
+            }
+
+            cancel(true);
+        }
+
+        /**
+         * 获取HTTP类
+         *
+         * @return a Http Object
+         */
+        public Http getHttp() {
+            return mHttp;
+        }
+
+        @Override
+        protected void onCancelled() {
+            finish();
+        }
+
     }
 
     /**
-     * 【主线程】执行命令，通知Http请求结果
+     * 一次请求，合并的请求共用一个命令，每次请求有自己的Call，取消时只移除自己的Listener
+     * 取消后不再回调Listener，在主线程中取消时，已post的结果也不再回调
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.HttpAsync$Call { *; }
+     * </p>
+     */
+    public static class Call implements Http.Listener {
+        /**
+         * 执行HTTP请求的命令
+         */
+        private final AsyncCommand mCommand;
+
+        /**
+         * 回执线程的处理接口
+         */
+        private final Http.Listener mListener;
+
+        /**
+         * 是否已取消
+         */
+        private volatile boolean mCancelled = false;
+
+        /**
+         * 构造方法：初始化执行HTTP请求的命令、回执线程的处理接口
+         *
+         * @param command 执行HTTP请求的命令
+         * @param l       回执线程的处理接口
+         */
+        Call(AsyncCommand command, Http.Listener l) {
+            mCommand = command;
+            mListener = l;
+        }
+
+        /**
+         * 取消本次请求，不再回调Listener，合并的请求全部取消后才取消HTTP请求
+         *
+         * @return 已取消过：False
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return false;
+                }
+
+                mCancelled = true;
+            }
+
+            mCommand.detach(this);
+            return true;
+        }
+
+        /**
+         * 是否已取消，HTTP请求被取消（如：作用域取消）时也返回True
+         *
+         * @return Returns True, or False
+         */
+        public boolean isCancelled() {
+            return mCancelled || mCommand.isCancelled();
+        }
+
+        @Override
+        public void onComplete(byte[] data) {
+            if (!mCancelled) {
+                mListener.onComplete(data);
+            }
+        }
+
+        @Override
+        public void onError(int statusCode, Throwable tr, byte[] data) {
+            if (!mCancelled) {
+                mListener.onError(statusCode, tr, data);
+            }
+        }
+
+    }
+
+    /**
+     * 【后台线程】执行命令，流式上传请求数据
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.HttpAsync$UploadCommand { *; }
+     * </p>
+     */
+    class UploadCommand extends ThreadPool.AbstractCommand {
+        /**
+         * 访问链接，a URL String
+         */
+        private String mUrl;
+
+        /**
+         * 请求数据
+         */
+        private HttpBody mBody;
+
+        /**
+         * 回执线程的处理接口
+         */
+        private Http.Listener mListener;
+
+        /**
+         * 构造方法：初始化访问链接、请求数据、回执线程的处理接口
+         *
+         * @param url  访问链接，a URL String
+         * @param body 请求数据
+         * @param l    回执线程的处理接口
+         */
+        public UploadCommand(String url, HttpBody body, Http.Listener l) {
+            mUrl = url;
+            mBody = body;
+            mListener = l;
+        }
+
+        @Override
+        public void exec() {
+            mHttp.upload(mUrl, mBody, new UploadListener());
+        }
+
+        /**
+         * 在后台线程中接收结果和上传进度，转到主线程回调
+         */
+        class UploadListener implements Http.Listener, Http.ProgressListener {
+            @Override
+            public void onComplete(byte[] data) {
+                UiThread.exec(UiCommand.obtain(data, mListener));
+            }
+
+            @Override
+            public void onError(int statusCode, Throwable tr, byte[] data) {
+                UiThread.exec(UiCommand.obtain(statusCode, tr, data, mListener));
+            }
+
+            @Override
+            public void onProgress(long totalSize, long uploadSize) {
+                if (mListener instanceof Http.ProgressListener) {
+                    UiThread.exec(UiCommand.obtain(totalSize, uploadSize, mListener));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 【主线程】执行命令，通知Http请求结果和上传进度，执行完后放回对象池
      * <p>
      * 避免混淆，proguard-rules.pro:
      * -keepclassmembers class 包名.HttpAsync$UiCommand { *; }
      * </p>
      */
-    class UiCommand extends UiThread.AbstractCommand {
+    static class UiCommand extends UiThread.AbstractCommand {
         /**
          * 结果类型：Http请求完成
          */
@@ -219,6 +636,16 @@ public class HttpAsync {
          */
         public static final int TYPE_ERROR = 2;
 
+        /**
+         * 结果类型：上传进度
+         */
+        public static final int TYPE_PROGRESS = 3;
+
+        /**
+         * 命令对象池
+         */
+        private static final CommandPool<UiCommand> POOL = new CommandPool<>();
+
         /**
          * HTTP状态码
          */
@@ -235,7 +662,17 @@ public class HttpAsync {
         private Throwable mThr;
 
         /**
-         * 结果类型，1：Http请求完成、2：Http请求失败
+         * 请求数据总大小，单位：字节，未知：-1
+         */
+        private long mTotalSize;
+
+        /**
+         * 已上传大小，单位：字节
+         */
+        private long mUploadSize;
+
+        /**
+         * 结果类型，1：Http请求完成、2：Http请求失败、3：上传进度
          */
         private int mType;
 
@@ -245,33 +682,72 @@ public class HttpAsync {
         private Http.Listener mListener;
 
         /**
-         * 构造方法：初始化HTTP返回数据、回执线程的处理接口
+         * 构造方法：只能通过obtain()获取
+         */
+        private UiCommand() {
+        }
+
+        /**
+         * 从对象池中获取命令，初始化HTTP返回数据、回执线程的处理接口
          *
          * @param data HTTP返回数据，a Byte Array
          * @param l    回执线程的处理接口
+         * @return a UiCommand Object
          */
-        public UiCommand(byte[] data, Http.Listener l) {
-            mType = TYPE_COMPLETE;
-
-            mData = data;
-            mListener = l;
+        static UiCommand obtain(byte[] data, Http.Listener l) {
+            UiCommand command = obtain(TYPE_COMPLETE, l);
+            command.mData = data;
+            return command;
         }
 
         /**
-         * 构造方法：初始化HTTP状态码、失败原因、HTTP返回数据、回执线程的处理接口
+         * 从对象池中获取命令，初始化HTTP状态码、失败原因、HTTP返回数据、回执线程的处理接口
          *
          * @param statusCode HTTP状态码
          * @param tr         失败原因，a Throwable Object
          * @param data       HTTP返回数据，a Byte Array
          * @param l          回执线程的处理接口
+         * @return a UiCommand Object
          */
-        public UiCommand(int statusCode, Throwable tr, byte[] data, Http.Listener l) {
-            mType = TYPE_ERROR;
+        static UiCommand obtain(int statusCode, Throwable tr, byte[] data, Http.Listener l) {
+            UiCommand command = obtain(TYPE_ERROR, l);
+            command.mStatusCode = statusCode;
+            command.mThr = tr;
+            command.mData = data;
+            return command;
+        }
 
-            mStatusCode = statusCode;
-            mThr = tr;
-            mData = data;
-            mListener = l;
+        /**
+         * 从对象池中获取命令，初始化请求数据总大小、已上传大小、回执线程的处理接口
+         *
+         * @param totalSize  请求数据总大小，单位：字节，未知：-1
+         * @param uploadSize 已上传大小，单位：字节
+         * @param l          回执线程的处理接口，a Http.ProgressListener Object
+         * @return a UiCommand Object
+         */
+        static UiCommand obtain(long totalSize, long uploadSize, Http.Listener l) {
+            UiCommand command = obtain(TYPE_PROGRESS, l);
+            command.mTotalSize = totalSize;
+            command.mUploadSize = uploadSize;
+            return command;
+        }
+
+        /**
+         * 从对象池中获取命令，对象池为空时创建新命令
+         *
+         * @param type 结果类型，1：Http请求完成、2：Http请求失败、3：上传进度
+         * @param l    回执线程的处理接口
+         * @return a UiCommand Object
+         */
+        private static UiCommand obtain(int type, Http.Listener l) {
+            UiCommand command = POOL.acquire();
+            if (command == null) {
+                command = new UiCommand();
+            }
+
+            command.mType = type;
+            command.mListener = l;
+            return command;
         }
 
         @Override
@@ -283,11 +759,26 @@ public class HttpAsync {
                 case TYPE_ERROR:
                     mListener.onError(mStatusCode, mThr, mData);
                     break;
+                case TYPE_PROGRESS:
+                    ((Http.ProgressListener) mListener).onProgress(mTotalSize, mUploadSize);
+                    break;
                 default:
                     break;
             }
         }
 
+        @Override
+        protected void recycle() {
+            mStatusCode = 0;
+            mData = null;
+            mThr = null;
+            mTotalSize = 0L;
+            mUploadSize = 0L;
+            mType = 0;
+            mListener = null;
+            POOL.release(this);
+        }
+
     }
 
 }
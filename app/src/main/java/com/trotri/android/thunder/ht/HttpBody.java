@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * HttpBody abstract class file
+ * HTTP请求数据类，边读取边发送，不把整个请求数据读入内存
+ * 已知数据长度时，使用固定长度的流模式（setFixedLengthStreamingMode）发送，未知时使用分块传输（setChunkedStreamingMode）
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: HttpBody.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public abstract class HttpBody {
+
+    /**
+     * 默认的数据类型
+     */
+    public static final String CONTENT_TYPE_OCTET_STREAM = "application/octet-stream";
+
+    /**
+     * 获取数据类型，Content-Type
+     *
+     * @return 数据类型
+     */
+    public abstract String getContentType();
+
+    /**
+     * 获取数据长度
+     *
+     * @return 数据长度，单位：字节，未知：-1
+     */
+    public abstract long getContentLength();
+
+    /**
+     * 将请求数据写入输出流
+     *
+     * @param out    输出流
+     * @param bucket 缓存空间
+     * @throws IOException 如果读写失败，抛出异常
+     */
+    public abstract void writeTo(OutputStream out, byte[] bucket) throws IOException;
+
+    /**
+     * 创建字节数组请求数据
+     *
+     * @param data        请求数据，a Byte Array
+     * @param contentType 数据类型，null：{@link #CONTENT_TYPE_OCTET_STREAM}
+     * @return a HttpBody Object
+     */
+    public static HttpBody create(final byte[] data, final String contentType) {
+        return new HttpBody() {
+            @Override
+            public String getContentType() {
+                return (contentType != null) ? contentType : CONTENT_TYPE_OCTET_STREAM;
+            }
+
+            @Override
+            public long getContentLength() {
+                return data.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out, byte[] bucket) throws IOException {
+                out.write(data);
+            }
+        };
+    }
+
+    /**
+     * 创建文件请求数据，发送时从磁盘边读取边发送
+     *
+     * @param file        文件
+     * @param contentType 数据类型，null：{@link #CONTENT_TYPE_OCTET_STREAM}
+     * @return a HttpBody Object
+     */
+    public static HttpBody create(final File file, final String contentType) {
+        return new HttpBody() {
+            @Override
+            public String getContentType() {
+                return (contentType != null) ? contentType : CONTENT_TYPE_OCTET_STREAM;
+            }
+
+            @Override
+            public long getContentLength() {
+                return file.length();
+            }
+
+            @Override
+            public void writeTo(OutputStream out, byte[] bucket) throws IOException {
+                InputStream in = new FileInputStream(file);
+                try {
+                    copy(in, out, bucket, file.length());
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * 创建输入流请求数据，只能发送一次，发送后不关闭输入流
+     *
+     * @param in            输入流
+     * @param contentLength 数据长度，单位：字节，未知：-1，使用分块传输
+     * @param contentType   数据类型，null：{@link #CONTENT_TYPE_OCTET_STREAM}
+     * @return a HttpBody Object
+     */
+    public static HttpBody create(final InputStream in, final long contentLength, final String contentType) {
+        return new HttpBody() {
+            @Override
+            public String getContentType() {
+                return (contentType != null) ? contentType : CONTENT_TYPE_OCTET_STREAM;
+            }
+
+            @Override
+            public long getContentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public void writeTo(OutputStream out, byte[] bucket) throws IOException {
+                copy(in, out, bucket, contentLength);
+            }
+        };
+    }
+
+    /**
+     * 从输入流复制数据到输出流
+     * 已知数据长度时，只复制指定长度，长度不一致时抛出异常，避免固定长度的流模式发送不完整的请求
+     *
+     * @param in     输入流
+     * @param out    输出流
+     * @param bucket 缓存空间
+     * @param length 数据长度，单位：字节，未知：-1，复制到输入流结束
+     * @return 复制的字节数
+     * @throws IOException 如果读写失败或长度不一致，抛出异常
+     */
+    static long copy(InputStream in, OutputStream out, byte[] bucket, long length) throws IOException {
+        long total = 0;
+        int size;
+
+        while ((length < 0 || total < length)
+                && (size = in.read(bucket, 0, (length < 0) ? bucket.length : (int) Math.min(bucket.length, length - total))) != -1) {
+            out.write(bucket, 0, size);
+            total += size;
+        }
+
+        if (length >= 0 && total != length) {
+            throw new IOException("content length mismatch, expected: " + length + ", actual: " + total);
+        }
+
+        return total;
+    }
+
+}
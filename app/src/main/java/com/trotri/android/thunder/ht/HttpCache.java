@@ -0,0 +1,843 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import android.content.Context;
+
+import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.Logger;
+import com.trotri.android.thunder.crypto.Md5;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CookieHandler;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HttpCache class file
+ * HTTP响应磁盘缓存类，缓存GET请求的返回数据，保存在应用沙盒的缓存目录中：/data/data/<package name>/cache/http
+ * 新鲜期：按Cache-Control的max-age或Expires计算，no-cache：每次都重新验证，no-store、private：不缓存
+ * 缓存的Key只有访问链接，所以携带身份信息（Authorization、Cookie、URL中的用户信息）的请求不读也不写缓存，见{@link #hasCredentials}，
+ * 避免一个账号的返回数据被同一设备上的另一个账号读到
+ * 过期后：通过If-None-Match、If-Modified-Since重新验证，服务器返回304时直接读缓存，只传输响应头
+ * 缓存总大小超过上限时，按最近最少使用（LRU）删除
+ * 每条缓存由两个文件组成：“Md5(url) + {@link #META_POSTFIX}”保存响应头，“Md5(url) + {@link #BODY_POSTFIX}”保存返回数据
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: HttpCache.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class HttpCache {
+
+    public static final String TAG = "HttpCache";
+
+    /**
+     * 缓存目录名
+     */
+    public static final String DIRECTORY_NAME = "http";
+
+    /**
+     * 默认的缓存总大小上限，单位：字节
+     */
+    public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * 响应头文件后缀
+     */
+    public static final String META_POSTFIX = ".meta";
+
+    /**
+     * 返回数据文件后缀
+     */
+    public static final String BODY_POSTFIX = ".body";
+
+    /**
+     * 正在写入的返回数据文件后缀
+     */
+    private static final String TEMP_POSTFIX = ".tmp";
+
+    /**
+     * 响应头文件格式版本号，格式变化后旧缓存作废
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * 用于对获取单例的线程加锁
+     */
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static HttpCache sInstance;
+
+    /**
+     * 缓存目录
+     */
+    private final File mDirectory;
+
+    /**
+     * 缓存总大小上限，单位：字节
+     */
+    private long mMaxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * 缓存总大小，单位：字节
+     */
+    private long mSize = 0;
+
+    /**
+     * 缓存索引，按访问顺序排列，Key => Md5(url), Value => 缓存大小
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 是否已读取缓存目录
+     */
+    private boolean mLoaded = false;
+
+    /**
+     * 用于对缓存索引加锁
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * 构造方法：初始化缓存目录
+     */
+    private HttpCache(Context c) {
+        this(new File(c.getApplicationContext().getCacheDir(), DIRECTORY_NAME));
+    }
+
+    /**
+     * 构造方法：初始化缓存目录
+     *
+     * @param directory 缓存目录
+     */
+    HttpCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * 获取已存在的实例，该实例是共享的，如果实例不存在，则创建新实例
+     */
+    public static HttpCache getInstance(Context c) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                sInstance = new HttpCache(c);
+            }
+
+            return sInstance;
+        }
+    }
+
+    /**
+     * 获取缓存
+     *
+     * @param url 访问链接，a URL String
+     * @return a Entry Object, or null
+     */
+    public Entry get(String url) {
+        String key = Md5.toHex(url);
+
+        // 响应头文件由commit()和update()在锁内替换，读取时也需加锁，避免读到写了一半的文件
+        synchronized (mLock) {
+            load();
+
+            // 注意，用get()而不是containsKey()，按访问顺序排列的LinkedHashMap只在get()时把命中的缓存移到末尾，trim()才是LRU
+            if (mEntries.get(key) == null) {
+                return null;
+            }
+
+            File metaFile = getMetaFile(key);
+            DataInputStream in = null;
+
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(metaFile)));
+                if (in.readInt() != VERSION || !url.equals(in.readUTF())) {
+                    throw new IOException("Cache Entry Mismatch");
+                }
+
+                Entry entry = new Entry(url, getBodyFile(key), in.readUTF(), in.readUTF(), in.readLong(), in.readLong());
+                metaFile.setLastModified(System.currentTimeMillis());
+                return entry;
+            } catch (IOException e) {
+                Logger.w(Constants.TAG_LOG, TAG + " get() failure, url: " + url + ", errMsg: " + e.getMessage());
+                remove(key, true);
+                return null;
+            } finally {
+                close(in);
+            }
+        }
+    }
+
+    /**
+     * 打开缓存的返回数据
+     *
+     * @param entry a Entry Object
+     * @return 返回数据的输入流，缓存已被删除：null
+     */
+    public InputStream open(Entry entry) {
+        try {
+            return new FileInputStream(entry.mBodyFile);
+        } catch (FileNotFoundException e) {
+            Logger.w(Constants.TAG_LOG, TAG + " open() failure, url: " + entry.getUrl() + ", errMsg: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 服务器返回304后，按新的响应头更新缓存的新鲜期和验证信息
+     *
+     * @param entry   a Entry Object
+     * @param urlConn a HttpURLConnection Object
+     */
+    public void update(Entry entry, HttpURLConnection urlConn) {
+        long now = System.currentTimeMillis();
+        String eTag = urlConn.getHeaderField("ETag");
+        String lastModified = urlConn.getHeaderField("Last-Modified");
+
+        entry.mETag = (eTag != null) ? eTag : entry.mETag;
+        entry.mLastModified = (lastModified != null) ? lastModified : entry.mLastModified;
+        entry.mExpiresMs = getExpiresMs(urlConn, now);
+
+        String key = Md5.toHex(entry.getUrl());
+        synchronized (mLock) {
+            if (mEntries.get(key) != null) {
+                writeMeta(key, entry);
+            }
+        }
+    }
+
+    /**
+     * 服务器返回200后，可缓存时边读取边写入缓存，读到末尾并关闭输入流后保存缓存
+     *
+     * @param url     访问链接，a URL String
+     * @param urlConn a HttpURLConnection Object
+     * @param in      返回数据的输入流，已按Content-Encoding解码
+     * @return 返回数据的输入流，可缓存时写入缓存，否则返回原输入流
+     */
+    public InputStream put(String url, HttpURLConnection urlConn, InputStream in) {
+        long now = System.currentTimeMillis();
+        long expiresMs = getExpiresMs(urlConn, now);
+        String eTag = urlConn.getHeaderField("ETag");
+        String lastModified = urlConn.getHeaderField("Last-Modified");
+
+        if (!isStorable(urlConn) || (expiresMs <= now && eTag == null && lastModified == null)
+                || HttpHelper.getDecodedLength(urlConn) > getMaxSize()) {
+            return in;
+        }
+
+        String key = Md5.toHex(url);
+        synchronized (mLock) {
+            load();
+        }
+
+        try {
+            File tempFile = File.createTempFile(key, TEMP_POSTFIX, mDirectory);
+            Entry entry = new Entry(url, getBodyFile(key), (eTag != null) ? eTag : "", (lastModified != null) ? lastModified : "", expiresMs, 0);
+            return new CacheInputStream(in, key, entry, tempFile, HttpHelper.getDecodedLength(urlConn));
+        } catch (IOException e) {
+            Logger.w(Constants.TAG_LOG, TAG + " put() failure, url: " + url + ", errMsg: " + e.getMessage());
+            return in;
+        }
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param url 访问链接，a URL String
+     */
+    public void remove(String url) {
+        remove(Md5.toHex(url), true);
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key   Md5(url)
+     * @param index 是否同时从缓存索引中删除
+     */
+    private void remove(String key, boolean index) {
+        synchronized (mLock) {
+            if (index) {
+                Long size = mEntries.remove(key);
+                if (size != null) {
+                    mSize -= size;
+                }
+            }
+
+            getMetaFile(key).delete();
+            getBodyFile(key).delete();
+        }
+    }
+
+    /**
+     * 删除全部缓存
+     */
+    public void clear() {
+        synchronized (mLock) {
+            load();
+
+            for (String key : mEntries.keySet()) {
+                remove(key, false);
+            }
+
+            mEntries.clear();
+            mSize = 0;
+        }
+    }
+
+    /**
+     * 保存缓存，替换旧缓存，并按LRU删除超出上限的缓存
+     *
+     * @param key      Md5(url)
+     * @param entry    a Entry Object
+     * @param tempFile 已写完的返回数据临时文件
+     */
+    private void commit(String key, Entry entry, File tempFile) {
+        synchronized (mLock) {
+            remove(key, true);
+
+            File bodyFile = getBodyFile(key);
+            if (!tempFile.renameTo(bodyFile) || !writeMeta(key, entry)) {
+                tempFile.delete();
+                remove(key, false);
+                return;
+            }
+
+            long size = getMetaFile(key).length() + bodyFile.length();
+            mEntries.put(key, size);
+            mSize += size;
+
+            trim();
+        }
+    }
+
+    /**
+     * 写入响应头文件，调用前需加锁
+     *
+     * @param key   Md5(url)
+     * @param entry a Entry Object
+     * @return Returns True, or False
+     */
+    private boolean writeMeta(String key, Entry entry) {
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getMetaFile(key))));
+            out.writeInt(VERSION);
+            out.writeUTF(entry.getUrl());
+            out.writeUTF(entry.mETag);
+            out.writeUTF(entry.mLastModified);
+            out.writeLong(entry.mExpiresMs);
+            out.writeLong(entry.mBodyLength);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            Logger.e(Constants.TAG_LOG, TAG + " writeMeta() failure, url: " + entry.getUrl() + ", errMsg: " + e.getMessage());
+            return false;
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * 第一次使用时读取缓存目录，按最后访问时间建立缓存索引，删除未写完的临时文件，调用前需加锁
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+
+        mLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Logger.e(Constants.TAG_LOG, TAG + " load() failure, mkdirs: " + mDirectory);
+            return;
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+        });
+
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(META_POSTFIX)) {
+                String key = name.substring(0, name.length() - META_POSTFIX.length());
+                File bodyFile = getBodyFile(key);
+                if (bodyFile.isFile()) {
+                    long size = f.length() + bodyFile.length();
+                    mEntries.put(key, size);
+                    mSize += size;
+                } else {
+                    f.delete();
+                }
+            } else if (name.endsWith(TEMP_POSTFIX)) {
+                f.delete();
+            }
+        }
+
+        trim();
+    }
+
+    /**
+     * 缓存总大小超过上限时，删除最近最少使用的缓存，调用前需加锁
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > getMaxSize() && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+
+            mSize -= eldest.getValue();
+            remove(eldest.getKey(), false);
+        }
+    }
+
+    /**
+     * 是否可以缓存，Cache-Control包含no-store或private，或Vary了Accept-Encoding以外的请求头时，不缓存
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return Returns True, or False
+     */
+    public static boolean isStorable(HttpURLConnection urlConn) {
+        String cacheControl = urlConn.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            cacheControl = cacheControl.toLowerCase();
+            if (cacheControl.contains("no-store") || cacheControl.contains("private")) {
+                return false;
+            }
+        }
+
+        String vary = urlConn.getHeaderField("Vary");
+        return (vary == null || vary.trim().equalsIgnoreCase("Accept-Encoding"));
+    }
+
+    /**
+     * 请求是否携带身份信息：URL中的用户信息、Authorization或Cookie请求头、CookieHandler为该链接保存的Cookie
+     * 携带身份信息的请求不读也不写缓存，无法判断时按携带处理
+     *
+     * @param url     访问链接，a URL String
+     * @param urlConn 尚未连接的HttpURLConnection，null：只检查访问链接
+     * @return Returns True, or False
+     */
+    public static boolean hasCredentials(String url, HttpURLConnection urlConn) {
+        if (urlConn != null && (urlConn.getRequestProperty("Authorization") != null || urlConn.getRequestProperty("Cookie") != null)) {
+            return true;
+        }
+
+        try {
+            URI uri = new URI(url);
+            if (uri.getRawUserInfo() != null) {
+                return true;
+            }
+
+            CookieHandler handler = CookieHandler.getDefault();
+            if (handler == null) {
+                return false;
+            }
+
+            Map<String, List<String>> cookies = handler.get(uri, Collections.<String, List<String>>emptyMap());
+            for (Map.Entry<String, List<String>> header : cookies.entrySet()) {
+                if (header.getKey() != null && header.getKey().toLowerCase().startsWith("cookie")) {
+                    for (String value : header.getValue()) {
+                        if (value != null && !value.isEmpty()) {
+                            return true;
+                        }
+                    }
+                }
+            }
+
+            return false;
+        } catch (URISyntaxException | IOException e) {
+            Logger.w(Constants.TAG_LOG, TAG + " hasCredentials() url: " + url + ", errMsg: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 计算新鲜期的截止时间，优先使用Cache-Control的max-age，其次使用Expires
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @param now     当前时间，单位：毫秒
+     * @return 截止时间，单位：毫秒，no-cache或未指定：当前时间，需要重新验证
+     */
+    public static long getExpiresMs(HttpURLConnection urlConn, long now) {
+        String cacheControl = urlConn.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache")) {
+                    return now;
+                }
+
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring(8).trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        return now;
+                    }
+                }
+            }
+        }
+
+        long expiration = urlConn.getExpiration();
+        return (expiration > 0) ? expiration : now;
+    }
+
+    /**
+     * 关闭流，忽略异常
+     *
+     * @param stream 输入流或输出流, or null
+     */
+    private static void close(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                Logger.w(Constants.TAG_LOG, TAG + " close() failure, errMsg: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取响应头文件
+     *
+     * @param key Md5(url)
+     * @return a File Object
+     */
+    private File getMetaFile(String key) {
+        return new File(mDirectory, key + META_POSTFIX);
+    }
+
+    /**
+     * 获取返回数据文件
+     *
+     * @param key Md5(url)
+     * @return a File Object
+     */
+    private File getBodyFile(String key) {
+        return new File(mDirectory, key + BODY_POSTFIX);
+    }
+
+    /**
+     * 设置缓存总大小上限，超出部分按LRU删除
+     *
+     * @param maxSize 上限，单位：字节，默认：{@link #DEFAULT_MAX_SIZE}
+     */
+    public void setMaxSize(long maxSize) {
+        synchronized (mLock) {
+            mMaxSize = maxSize;
+            if (mLoaded) {
+                trim();
+            }
+        }
+    }
+
+    /**
+     * 获取缓存总大小上限，单位：字节
+     *
+     * @return 上限，单位：字节
+     */
+    public long getMaxSize() {
+        synchronized (mLock) {
+            return mMaxSize;
+        }
+    }
+
+    /**
+     * 获取缓存总大小，单位：字节
+     *
+     * @return 总大小，单位：字节
+     */
+    public long getSize() {
+        synchronized (mLock) {
+            load();
+            return mSize;
+        }
+    }
+
+    /**
+     * 缓存的响应头
+     */
+    public static final class Entry {
+        /**
+         * 访问链接，a URL String
+         */
+        private final String mUrl;
+
+        /**
+         * 返回数据文件
+         */
+        private final File mBodyFile;
+
+        /**
+         * ETag，没有：""
+         */
+        private String mETag;
+
+        /**
+         * Last-Modified，没有：""
+         */
+        private String mLastModified;
+
+        /**
+         * 新鲜期的截止时间，单位：毫秒
+         */
+        private long mExpiresMs;
+
+        /**
+         * 返回数据长度，单位：字节
+         */
+        private long mBodyLength;
+
+        /**
+         * 构造方法：初始化响应头
+         */
+        private Entry(String url, File bodyFile, String eTag, String lastModified, long expiresMs, long bodyLength) {
+            mUrl = url;
+            mBodyFile = bodyFile;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mExpiresMs = expiresMs;
+            mBodyLength = bodyLength;
+        }
+
+        /**
+         * 是否在新鲜期内，新鲜期内直接读缓存，不访问网络
+         *
+         * @return Returns True, or False
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < mExpiresMs;
+        }
+
+        /**
+         * 给请求添加验证信息：If-None-Match、If-Modified-Since
+         *
+         * @param urlConn a HttpURLConnection Object
+         */
+        public void addValidators(HttpURLConnection urlConn) {
+            if (!mETag.isEmpty()) {
+                urlConn.setRequestProperty("If-None-Match", mETag);
+            }
+
+            if (!mLastModified.isEmpty()) {
+                urlConn.setRequestProperty("If-Modified-Since", mLastModified);
+            }
+        }
+
+        /**
+         * 获取访问链接
+         *
+         * @return a URL String
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * 获取返回数据长度，单位：字节
+         *
+         * @return 返回数据长度
+         */
+        public long getBodyLength() {
+            return mBodyLength;
+        }
+    }
+
+    /**
+     * 边读取边写入缓存的输入流，读到末尾（或已读完Content-Length）并关闭后保存缓存，未读完或写入失败时放弃缓存
+     */
+    class CacheInputStream extends FilterInputStream {
+        /**
+         * Md5(url)
+         */
+        private final String mKey;
+
+        /**
+         * 缓存的响应头
+         */
+        private final Entry mEntry;
+
+        /**
+         * 返回数据临时文件
+         */
+        private final File mTempFile;
+
+        /**
+         * 返回数据长度，未知：-1
+         */
+        private final int mContentLength;
+
+        /**
+         * 临时文件输出流，写入失败或超出上限后为null
+         */
+        private OutputStream mOut;
+
+        /**
+         * 是否已读到末尾
+         */
+        private boolean mEof = false;
+
+        /**
+         * 是否已关闭
+         */
+        private boolean mClosed = false;
+
+        /**
+         * 构造方法：初始化输入流、Md5(url)、缓存的响应头、返回数据临时文件、返回数据长度
+         *
+         * @throws FileNotFoundException 如果打开临时文件失败，抛出异常
+         */
+        public CacheInputStream(InputStream in, String key, Entry entry, File tempFile, int contentLength) throws FileNotFoundException {
+            super(in);
+
+            mKey = key;
+            mEntry = entry;
+            mTempFile = tempFile;
+            mContentLength = contentLength;
+            mOut = new BufferedOutputStream(new FileOutputStream(tempFile));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                mEof = true;
+            } else {
+                save(new byte[]{(byte) b}, 0, 1);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int size = super.read(buffer, offset, count);
+            if (size == -1) {
+                mEof = true;
+            } else {
+                save(buffer, offset, size);
+            }
+
+            return size;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            abort();
+            return super.skip(byteCount);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+
+            mClosed = true;
+            try {
+                super.close();
+            } finally {
+                if (mOut != null && isComplete()) {
+                    try {
+                        mOut.close();
+                        mOut = null;
+                        commit(mKey, mEntry, mTempFile);
+                    } catch (IOException e) {
+                        Logger.w(Constants.TAG_LOG, TAG + " close() failure, url: " + mEntry.getUrl() + ", errMsg: " + e.getMessage());
+                        abort();
+                    }
+                } else {
+                    abort();
+                }
+            }
+        }
+
+        /**
+         * 是否已读完返回数据
+         *
+         * @return Returns True, or False
+         */
+        private boolean isComplete() {
+            return mEof || (mContentLength >= 0 && mEntry.mBodyLength == mContentLength);
+        }
+
+        /**
+         * 写入临时文件，写入失败或超出上限时放弃缓存，不影响读取
+         */
+        private void save(byte[] buffer, int offset, int count) {
+            if (mOut == null) {
+                return;
+            }
+
+            try {
+                mEntry.mBodyLength += count;
+                if (mEntry.mBodyLength > getMaxSize()) {
+                    abort();
+                    return;
+                }
+
+                mOut.write(buffer, offset, count);
+            } catch (IOException e) {
+                Logger.w(Constants.TAG_LOG, TAG + " save() failure, url: " + mEntry.getUrl() + ", errMsg: " + e.getMessage());
+                abort();
+            }
+        }
+
+        /**
+         * 放弃缓存，删除临时文件
+         */
+        private void abort() {
+            HttpCache.close(mOut);
+            mOut = null;
+            mTempFile.delete();
+        }
+    }
+
+}
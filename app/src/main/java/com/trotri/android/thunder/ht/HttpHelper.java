@@ -23,9 +23,18 @@ import android.provider.Settings;
 import com.trotri.android.thunder.ap.Constants;
 import com.trotri.android.thunder.ap.Logger;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * HttpHelper class file
@@ -39,6 +48,18 @@ public class HttpHelper {
 
     private static final String TAG = "HttpHelper";
 
+    /**
+     * 内容编码
+     */
+    public static final String ENCODING_GZIP = "gzip";
+    public static final String ENCODING_DEFLATE = "deflate";
+    public static final String ENCODING_IDENTITY = "identity";
+
+    /**
+     * 请求头Accept-Encoding的值，支持的内容编码
+     */
+    public static final String ACCEPT_ENCODING = ENCODING_GZIP + ", " + ENCODING_DEFLATE;
+
     /**
      * 将Map集合拼接成字符串
      *
@@ -115,4 +136,117 @@ public class HttpHelper {
         return progress;
     }
 
+    /**
+     * 获取返回数据的内容编码，Content-Encoding
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return 内容编码，小写，没有：{@link #ENCODING_IDENTITY}
+     */
+    public static String getContentEncoding(HttpURLConnection urlConn) {
+        String encoding = urlConn.getContentEncoding();
+        return (encoding == null || encoding.trim().isEmpty()) ? ENCODING_IDENTITY : encoding.trim().toLowerCase();
+    }
+
+    /**
+     * 获取解码后的返回数据长度
+     * 返回数据经过压缩时，Content-Length是压缩后的长度，解码后的长度未知
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @return 返回数据长度，未知：-1
+     */
+    public static int getDecodedLength(HttpURLConnection urlConn) {
+        return ENCODING_IDENTITY.equals(getContentEncoding(urlConn)) ? urlConn.getContentLength() : -1;
+    }
+
+    /**
+     * gzip压缩请求数据，压缩后的长度即实际发送的字节数
+     *
+     * @param data   请求数据
+     * @param bucket 压缩缓存空间，单位：字节
+     * @return 压缩后的数据
+     * @throws IOException 如果压缩失败，抛出异常
+     */
+    public static byte[] gzip(byte[] data, int bucket) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(32, data.length / 4));
+        GZIPOutputStream out = new GZIPOutputStream(buffer, bucket);
+
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 读取并丢弃剩余的返回数据，读到结尾后连接才能复用，剩余数据过多时放弃，由调用者断开连接
+     *
+     * @param in        返回数据的输入流
+     * @param maxLength 最多读取的长度，单位：字节
+     * @param bucket    缓存空间，单位：字节
+     * @return 已读到结尾：True，剩余数据超过maxLength：False
+     * @throws IOException 如果读取失败，抛出异常
+     */
+    public static boolean drain(InputStream in, long maxLength, int bucket) throws IOException {
+        byte[] buffer = new byte[bucket];
+        long remaining = maxLength;
+
+        while (true) {
+            int size = in.read(buffer, 0, (int) Math.min(buffer.length, remaining + 1));
+            if (size == -1) {
+                return true;
+            }
+
+            remaining -= size;
+            if (remaining < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 按Content-Encoding解码返回数据，边读取边解压，不缓存整个返回数据
+     * deflate：兼容带zlib头和不带zlib头（raw deflate）两种格式，关闭输入流时释放Inflater
+     *
+     * @param urlConn a HttpURLConnection Object
+     * @param in      返回数据的输入流
+     * @param bucket  解压缓存空间，单位：字节
+     * @return 解码后的输入流，不支持的内容编码：原输入流
+     * @throws IOException 如果读取gzip头失败，抛出异常
+     */
+    public static InputStream decode(HttpURLConnection urlConn, InputStream in, int bucket) throws IOException {
+        String encoding = getContentEncoding(urlConn);
+
+        if (ENCODING_GZIP.equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(in, bucket);
+        }
+
+        if (ENCODING_DEFLATE.equals(encoding)) {
+            BufferedInputStream buffered = new BufferedInputStream(in, bucket);
+            buffered.mark(2);
+            int cmf = buffered.read(), flg = buffered.read();
+            buffered.reset();
+
+            boolean zlib = (cmf != -1 && flg != -1 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0);
+            final Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(buffered, inflater, bucket) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        if (!ENCODING_IDENTITY.equals(encoding)) {
+            Logger.w(Constants.TAG_LOG, TAG + " decode() unsupported Content-Encoding: " + encoding);
+        }
+
+        return in;
+    }
+
 }
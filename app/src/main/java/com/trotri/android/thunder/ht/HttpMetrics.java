@@ -0,0 +1,783 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.Histogram;
+import com.trotri.android.thunder.ap.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HttpMetrics class file
+ * HTTP请求计时统计类，记录Http和Download每个请求各阶段的耗时：DNS、连接（TCP + TLS）、发送请求、首字节（服务器处理）、传输，
+ * 以及收发字节数、HTTP状态码、联网类型，并按主机和接口（主机 + 路径）汇总耗时的百分位数
+ * 默认关闭，关闭时不做DNS预解析，不包装输入流，不汇总，见{@link #setEnabled(boolean)}
+ * DNS：连接前用系统解析器预解析主机名并计时，之后的连接命中系统DNS缓存；复用Keep-Alive连接时，连接耗时接近0
+ * 传输：包括{@link Http.StreamListener#onStream(InputStream, int)}处理数据的时间
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: HttpMetrics.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class HttpMetrics {
+
+    private static final String TAG = "HttpMetrics";
+
+    /**
+     * 最多汇总的主机数和接口数，超过后移除最久未请求的
+     */
+    public static final int MAX_KEYS = 64;
+
+    /**
+     * 是否开启统计
+     */
+    private static volatile boolean sEnabled = false;
+
+    /**
+     * 报告计时的回调接口
+     */
+    private static volatile OnReportListener sReportListener = null;
+
+    /**
+     * 按主机汇总，Key => 主机
+     */
+    private static final Map<String, Stats> HOST_STATS = newStatsMap();
+
+    /**
+     * 按接口汇总，Key => 主机 + 路径
+     */
+    private static final Map<String, Stats> ENDPOINT_STATS = newStatsMap();
+
+    /**
+     * 开始一个请求的计时
+     *
+     * @param c      上下文环境，用于获取联网类型
+     * @param method 访问方式
+     * @param url    访问链接，a URL String
+     * @return a Timing Object，关闭统计时只记录，不汇总
+     */
+    public static Timing start(Context c, String method, String url) {
+        boolean enabled = sEnabled;
+        int connectType = enabled ? ConnectType.getInstance(c).getType() : ConnectType.TYPE_UNKNOWN;
+        return new Timing(enabled, method, url, connectType);
+    }
+
+    /**
+     * 结束一个请求的计时，汇总并回调{@link OnReportListener}，在发送请求的线程中执行
+     *
+     * @param timing a Timing Object
+     */
+    public static void report(Timing timing) {
+        if (!timing.mEnabled || timing.mEndMs >= 0) {
+            return;
+        }
+
+        timing.mEndMs = SystemClock.elapsedRealtime();
+
+        synchronized (HOST_STATS) {
+            getStats(HOST_STATS, timing.getHost()).add(timing);
+            getStats(ENDPOINT_STATS, timing.getEndpoint()).add(timing);
+        }
+
+        OnReportListener listener = sReportListener;
+        if (listener != null) {
+            try {
+                listener.onReport(timing);
+            } catch (RuntimeException e) {
+                Logger.e(Constants.TAG_LOG, TAG + " report() listener failure", e);
+            }
+        }
+    }
+
+    /**
+     * 获取按主机汇总的统计
+     *
+     * @return 统计的副本，Key => 主机
+     */
+    public static Map<String, Stats> getHostStats() {
+        return copy(HOST_STATS);
+    }
+
+    /**
+     * 获取按接口汇总的统计
+     *
+     * @return 统计的副本，Key => 主机 + 路径
+     */
+    public static Map<String, Stats> getEndpointStats() {
+        return copy(ENDPOINT_STATS);
+    }
+
+    /**
+     * 清空汇总的统计
+     */
+    public static void reset() {
+        synchronized (HOST_STATS) {
+            HOST_STATS.clear();
+            ENDPOINT_STATS.clear();
+        }
+    }
+
+    /**
+     * 设置是否开启统计
+     *
+     * @param value 是否开启，默认：False
+     */
+    public static void setEnabled(boolean value) {
+        sEnabled = value;
+    }
+
+    /**
+     * 获取是否开启统计
+     *
+     * @return Returns True, or False
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 设置报告计时的回调接口
+     *
+     * @param listener a OnReportListener to report timing
+     */
+    public static void setOnReportListener(OnReportListener listener) {
+        sReportListener = listener;
+    }
+
+    /**
+     * 获取或创建统计，调用前需对HOST_STATS加锁
+     */
+    private static Stats getStats(Map<String, Stats> map, String key) {
+        Stats stats = map.get(key);
+        if (stats == null) {
+            stats = new Stats(key);
+            map.put(key, stats);
+        }
+
+        return stats;
+    }
+
+    /**
+     * 复制统计
+     */
+    private static Map<String, Stats> copy(Map<String, Stats> map) {
+        synchronized (HOST_STATS) {
+            Map<String, Stats> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Stats> entry : map.entrySet()) {
+                result.put(entry.getKey(), new Stats(entry.getValue()));
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * 创建按访问顺序排序，超过{@link #MAX_KEYS}时移除最久未请求的Map
+     */
+    private static Map<String, Stats> newStatsMap() {
+        return new LinkedHashMap<String, Stats>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest) {
+                return size() > MAX_KEYS;
+            }
+        };
+    }
+
+    /**
+     * Timing final class
+     * 一个请求的计时，时间单位：毫秒，未发生的阶段：-1
+     *
+     * @since 1.0
+     */
+    public static final class Timing {
+        /**
+         * 是否开启统计
+         */
+        private final boolean mEnabled;
+
+        /**
+         * 访问方式
+         */
+        private final String mMethod;
+
+        /**
+         * 访问链接
+         */
+        private final String mUrl;
+
+        /**
+         * 主机
+         */
+        private final String mHost;
+
+        /**
+         * 接口，主机 + 路径
+         */
+        private final String mEndpoint;
+
+        /**
+         * 联网类型，0：未知、1：Wifi、2：2G、3：3G、4：4G
+         */
+        private final int mConnectType;
+
+        /**
+         * 开始时间，SystemClock.elapsedRealtime()
+         */
+        private final long mStartMs;
+
+        /**
+         * DNS耗时
+         */
+        private long mDnsMs = -1;
+
+        /**
+         * 连接完成时间
+         */
+        private long mConnectedMs = -1;
+
+        /**
+         * 发送请求完成时间
+         */
+        private long mRequestSentMs = -1;
+
+        /**
+         * 收到响应头时间
+         */
+        private long mResponseMs = -1;
+
+        /**
+         * 结束时间
+         */
+        private long mEndMs = -1;
+
+        /**
+         * HTTP状态码，未收到：0
+         */
+        private int mStatusCode = 0;
+
+        /**
+         * 发送的字节数
+         */
+        private long mBytesOut = 0;
+
+        /**
+         * 接收的字节数，压缩时是解压前的字节数
+         */
+        private long mBytesIn = 0;
+
+        /**
+         * 是否读缓存
+         */
+        private boolean mFromCache = false;
+
+        /**
+         * 失败原因，成功：null
+         */
+        private Throwable mError;
+
+        /**
+         * 构造方法：初始化是否开启统计、访问方式、访问链接、联网类型
+         */
+        private Timing(boolean enabled, String method, String url, int connectType) {
+            mEnabled = enabled;
+            mMethod = (method != null) ? method.toUpperCase() : Http.METHOD_GET;
+            mUrl = url;
+            mConnectType = connectType;
+            mStartMs = SystemClock.elapsedRealtime();
+
+            String host = "", path = "";
+            if (enabled) {
+                try {
+                    URL u = new URL(url);
+                    host = u.getHost();
+                    path = u.getPath();
+                } catch (IOException e) {
+                    host = String.valueOf(url);
+                }
+            }
+
+            mHost = host;
+            mEndpoint = host + path;
+        }
+
+        /**
+         * 连接前预解析主机名，记录DNS耗时，解析失败时忽略，由连接抛出异常
+         * 使用运营商代理时由代理解析主机名，使用自定义的网络传输接口（如：OkHttp）时由它自己解析，都不预解析，DNS耗时记为0
+         *
+         * @param httpProxy 打开连接的代理类
+         */
+        public void resolve(HttpProxy httpProxy) {
+            if (!mEnabled || mHost.isEmpty()) {
+                return;
+            }
+
+            // 注意，OkHttpTransport在rice.util中，thunder不依赖OkHttp，不能引用它，所以判断是否为系统HttpURLConnection
+            if (httpProxy.getProxy() != null || !(httpProxy.getTransport() instanceof UrlConnectionTransport)) {
+                return;
+            }
+
+            long startMs = SystemClock.elapsedRealtime();
+            try {
+                InetAddress.getAllByName(mHost);
+            } catch (IOException e) {
+                Logger.w(Constants.TAG_LOG, TAG + " resolve() failure, host: " + mHost + ", errMsg: " + e.getMessage());
+            }
+
+            mDnsMs = SystemClock.elapsedRealtime() - startMs;
+        }
+
+        /**
+         * 连接完成
+         */
+        public void onConnected() {
+            mConnectedMs = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * 发送请求完成
+         *
+         * @param bytesOut 发送的请求数据字节数
+         */
+        public void onRequestSent(long bytesOut) {
+            mRequestSentMs = SystemClock.elapsedRealtime();
+            mBytesOut += bytesOut;
+        }
+
+        /**
+         * 收到响应头，多次调用时只记录第一次的时间
+         *
+         * @param statusCode HTTP状态码
+         */
+        public void onResponse(int statusCode) {
+            if (mResponseMs < 0) {
+                mResponseMs = SystemClock.elapsedRealtime();
+            }
+
+            mStatusCode = statusCode;
+        }
+
+        /**
+         * 读缓存，不联网
+         */
+        public void onCacheHit() {
+            mFromCache = true;
+            onResponse(200);
+        }
+
+        /**
+         * 请求失败
+         *
+         * @param tr 失败原因
+         */
+        public void onError(Throwable tr) {
+            mError = tr;
+        }
+
+        /**
+         * 包装输入流，记录接收的字节数，关闭统计时返回原输入流
+         *
+         * @param in 输入流
+         * @return 记录字节数的输入流
+         */
+        public InputStream count(InputStream in) {
+            if (!mEnabled || in == null) {
+                return in;
+            }
+
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        mBytesIn++;
+                    }
+
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int size = super.read(buffer, offset, count);
+                    if (size > 0) {
+                        mBytesIn += size;
+                    }
+
+                    return size;
+                }
+            };
+        }
+
+        /**
+         * 获取DNS耗时
+         *
+         * @return 耗时，单位：毫秒，未解析：-1
+         */
+        public long getDnsMs() {
+            return mDnsMs;
+        }
+
+        /**
+         * 获取连接耗时，TCP + TLS，包括DNS
+         *
+         * @return 耗时，单位：毫秒，未连接：-1
+         */
+        public long getConnectMs() {
+            return (mConnectedMs >= 0) ? mConnectedMs - mStartMs : -1;
+        }
+
+        /**
+         * 获取首字节耗时，从发送请求完成到收到响应头，主要是服务器处理时间
+         *
+         * @return 耗时，单位：毫秒，未收到：-1
+         */
+        public long getTtfbMs() {
+            if (mResponseMs < 0) {
+                return -1;
+            }
+
+            long sentMs = (mRequestSentMs >= 0) ? mRequestSentMs : ((mConnectedMs >= 0) ? mConnectedMs : mStartMs);
+            return mResponseMs - sentMs;
+        }
+
+        /**
+         * 获取传输耗时，从收到响应头到结束
+         *
+         * @return 耗时，单位：毫秒，未收到或未结束：-1
+         */
+        public long getTransferMs() {
+            return (mResponseMs >= 0 && mEndMs >= 0) ? mEndMs - mResponseMs : -1;
+        }
+
+        /**
+         * 获取总耗时
+         *
+         * @return 耗时，单位：毫秒，未结束：-1
+         */
+        public long getTotalMs() {
+            return (mEndMs >= 0) ? mEndMs - mStartMs : -1;
+        }
+
+        /**
+         * 获取访问方式
+         *
+         * @return 访问方式
+         */
+        public String getMethod() {
+            return mMethod;
+        }
+
+        /**
+         * 获取访问链接
+         *
+         * @return a URL String
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * 获取主机
+         *
+         * @return 主机
+         */
+        public String getHost() {
+            return mHost;
+        }
+
+        /**
+         * 获取接口，主机 + 路径
+         *
+         * @return 接口
+         */
+        public String getEndpoint() {
+            return mEndpoint;
+        }
+
+        /**
+         * 获取联网类型
+         *
+         * @return 联网类型，0：未知、1：Wifi、2：2G、3：3G、4：4G
+         */
+        public int getConnectType() {
+            return mConnectType;
+        }
+
+        /**
+         * 获取HTTP状态码
+         *
+         * @return HTTP状态码，未收到：0
+         */
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        /**
+         * 获取发送的字节数
+         *
+         * @return 字节数
+         */
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        /**
+         * 获取接收的字节数，压缩时是解压前的字节数
+         *
+         * @return 字节数
+         */
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        /**
+         * 是否读缓存
+         *
+         * @return Returns True, or False
+         */
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+
+        /**
+         * 获取失败原因
+         *
+         * @return a Throwable Object, or null
+         */
+        public Throwable getError() {
+            return mError;
+        }
+
+        /**
+         * 是否成功，没有异常且HTTP状态码是2xx或304
+         *
+         * @return Returns True, or False
+         */
+        public boolean isSuccessful() {
+            return mError == null && ((mStatusCode >= 200 && mStatusCode < 300) || mStatusCode == 304);
+        }
+
+        @Override
+        public String toString() {
+            return mMethod + " " + mEndpoint + " status: " + mStatusCode + ", connectType: " + mConnectType
+                    + ", dns: " + mDnsMs + "ms, connect: " + getConnectMs() + "ms, ttfb: " + getTtfbMs()
+                    + "ms, transfer: " + getTransferMs() + "ms, total: " + getTotalMs()
+                    + "ms, out: " + mBytesOut + ", in: " + mBytesIn + (mFromCache ? ", cache" : "")
+                    + ((mError != null) ? ", error: " + mError.getMessage() : "");
+        }
+    }
+
+    /**
+     * Stats final class
+     * 一个主机或接口的汇总统计
+     *
+     * @since 1.0
+     */
+    public static final class Stats {
+        /**
+         * 耗时分布的桶的上界，单位：毫秒，包含
+         */
+        private static final long[] BOUNDS = {
+                1, 2, 3, 5, 7, 10, 15, 20, 30, 50, 70, 100, 150, 200, 300, 500, 700,
+                1000, 1500, 2000, 3000, 5000, 7000, 10000, 15000, 20000, 30000, 60000, Long.MAX_VALUE
+        };
+
+        /**
+         * 主机或接口
+         */
+        private final String mKey;
+
+        /**
+         * 请求数
+         */
+        private long mCount;
+
+        /**
+         * 失败数
+         */
+        private long mErrors;
+
+        /**
+         * 发送的字节数
+         */
+        private long mBytesOut;
+
+        /**
+         * 接收的字节数
+         */
+        private long mBytesIn;
+
+        /**
+         * 总耗时的分布
+         */
+        private final Histogram mTotal;
+
+        /**
+         * 连接耗时的分布，不包括读缓存的请求
+         */
+        private final Histogram mConnect;
+
+        /**
+         * 首字节耗时的分布，不包括读缓存的请求
+         */
+        private final Histogram mTtfb;
+
+        /**
+         * 构造方法：初始化主机或接口
+         */
+        private Stats(String key) {
+            mKey = key;
+            mTotal = new Histogram(BOUNDS);
+            mConnect = new Histogram(BOUNDS);
+            mTtfb = new Histogram(BOUNDS);
+        }
+
+        /**
+         * 构造方法：复制统计
+         */
+        private Stats(Stats s) {
+            mKey = s.mKey;
+            mCount = s.mCount;
+            mErrors = s.mErrors;
+            mBytesOut = s.mBytesOut;
+            mBytesIn = s.mBytesIn;
+            mTotal = new Histogram(s.mTotal);
+            mConnect = new Histogram(s.mConnect);
+            mTtfb = new Histogram(s.mTtfb);
+        }
+
+        /**
+         * 添加一个请求的计时
+         */
+        private void add(Timing t) {
+            mCount++;
+            if (!t.isSuccessful()) {
+                mErrors++;
+            }
+
+            mBytesOut += t.getBytesOut();
+            mBytesIn += t.getBytesIn();
+            mTotal.add(t.getTotalMs());
+            if (!t.isFromCache()) {
+                mConnect.add(t.getConnectMs());
+                mTtfb.add(t.getTtfbMs());
+            }
+        }
+
+        /**
+         * 获取主机或接口
+         *
+         * @return 主机或接口
+         */
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * 获取数量
+         *
+         * @return 数量
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * 获取失败数
+         *
+         * @return 失败数
+         */
+        public long getErrors() {
+            return mErrors;
+        }
+
+        /**
+         * 获取发送的字节数
+         *
+         * @return 字节数
+         */
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        /**
+         * 获取接收的字节数，压缩时是解压前的字节数
+         *
+         * @return 字节数
+         */
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        /**
+         * 获取总耗时的分布
+         *
+         * @return a Histogram Object
+         */
+        public Histogram getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * 获取连接耗时的分布
+         *
+         * @return a Histogram Object
+         */
+        public Histogram getConnect() {
+            return mConnect;
+        }
+
+        /**
+         * 获取首字节耗时的分布
+         *
+         * @return a Histogram Object
+         */
+        public Histogram getTtfb() {
+            return mTtfb;
+        }
+
+        @Override
+        public String toString() {
+            return mKey + " count: " + mCount + ", errors: " + mErrors + ", total: " + mTotal + ", connect: " + mConnect + ", ttfb: " + mTtfb;
+        }
+    }
+
+    /**
+     * OnReportListener interface
+     * 报告计时接口
+     *
+     * @since 1.0
+     */
+    public interface OnReportListener {
+        /**
+         * 报告计时的回调方法，每个请求结束时在发送请求的线程中调用
+         *
+         * @param timing 一个请求的计时
+         */
+        void onReport(Timing timing);
+    }
+
+}
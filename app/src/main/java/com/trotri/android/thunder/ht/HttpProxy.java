@@ -23,11 +23,14 @@ import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URL;
-import java.net.URLConnection;
 
 /**
  * HttpProxy class file
  * 网络连接类，移动运营商类型，选择合适的代理
+ * 连接复用：HttpURLConnection底层按“主机 + 端口 + 代理”维护Keep-Alive连接池，
+ * 读完并关闭输入流后，连接自动归还连接池，只有连接异常时才需要disconnect()，见{@link #release(HttpURLConnection, boolean)}
+ * 网络传输：连接由{@link Transport}打开和释放，默认使用系统HttpURLConnection，可通过{@link #setTransport(Transport)}替换，
+ * 如：OkHttpTransport，与Retrofit共用一个OkHttpClient，并按主机限制并发请求数
  *
  * @author 宋欢 <trotri@yeah.net>
  * @version $Id: HttpProxy.java 1 2015-02-22 10:00:06Z huan.song $
@@ -67,6 +70,21 @@ public class HttpProxy {
      */
     public static final Proxy TELECOM_PROXY = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(TELECOM_IP, 80));
 
+    /**
+     * 系统属性名：是否复用连接
+     */
+    private static final String PROPERTY_KEEP_ALIVE = "http.keepAlive";
+
+    /**
+     * 系统属性名：进程内最多保留的空闲连接数，所有主机共用
+     */
+    private static final String PROPERTY_MAX_CONNECTIONS = "http.maxConnections";
+
+    /**
+     * 系统属性名：空闲连接保留时间，单位：毫秒
+     */
+    private static final String PROPERTY_KEEP_ALIVE_DURATION = "http.keepAliveDuration";
+
     /**
      * 用于对获取单例的线程加锁
      */
@@ -79,6 +97,11 @@ public class HttpProxy {
      */
     private final CarrierType mCarrierType;
 
+    /**
+     * 网络传输接口
+     */
+    private volatile Transport mTransport = new UrlConnectionTransport();
+
     /**
      * 上下文环境
      */
@@ -92,6 +115,22 @@ public class HttpProxy {
         mCarrierType = CarrierType.getInstance(getAppContext());
     }
 
+    /**
+     * 设置系统HttpURLConnection的连接池，不调用时使用系统默认值（复用连接、最多5个空闲连接、保留5分钟）
+     * 连接池在第一次联网时初始化，需要在第一次联网前调用，如：Application::onCreate()
+     * 修改的是进程级的系统属性，会覆盖宿主App设置的值，只在需要调整默认值时调用
+     * 系统属性http.maxConnections限制的是整个进程的空闲keep-alive连接总数，所有主机共用，不能按主机限制，
+     * 需要按主机限制并发请求数时，使用OkHttpTransport，见OkHttpTransport#newClient(int, int, long)
+     *
+     * @param maxIdleConnections  进程内最多保留的空闲连接数，所有主机共用，<= 0：不复用连接
+     * @param keepAliveDurationMs 空闲连接保留时间，单位：毫秒
+     */
+    public static void setConnectionPool(int maxIdleConnections, long keepAliveDurationMs) {
+        System.setProperty(PROPERTY_KEEP_ALIVE, String.valueOf(maxIdleConnections > 0));
+        System.setProperty(PROPERTY_MAX_CONNECTIONS, String.valueOf(maxIdleConnections > 0 ? maxIdleConnections : 0));
+        System.setProperty(PROPERTY_KEEP_ALIVE_DURATION, String.valueOf(keepAliveDurationMs));
+    }
+
     /**
      * 获取已存在的实例，该实例是共享的，如果实例不存在，则创建新实例
      */
@@ -115,28 +154,70 @@ public class HttpProxy {
     public HttpURLConnection openConnection(String spec) throws IOException {
         URL url = new URL(spec);
 
-        URLConnection urlConn;
-        int type = getCarrierType();
-        switch (type) {
+        Proxy proxy = getProxy();
+        HttpURLConnection urlConn = getTransport().open(url, proxy);
+
+        if (urlConn == null) {
+            throw new IOException("Open Connection Failure, proxy: " + proxy + ", url: " + spec);
+        }
+
+        return urlConn;
+    }
+
+    /**
+     * 获取当前网络使用的代理，移动运营商WAP网络使用运营商代理
+     * 需要权限：
+     * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+     *
+     * @return a Proxy Object，不使用代理：null
+     */
+    public Proxy getProxy() {
+        switch (getCarrierType()) {
             case CarrierType.TYPE_MOBILE:
-                urlConn = url.openConnection(MOBILE_PROXY);
-                break;
+                return MOBILE_PROXY;
             case CarrierType.TYPE_UNICOM:
-                urlConn = url.openConnection(UNICOM_PROXY);
-                break;
+                return UNICOM_PROXY;
             case CarrierType.TYPE_TELECOM:
-                urlConn = url.openConnection(TELECOM_PROXY);
-                break;
+                return TELECOM_PROXY;
             default:
-                urlConn = url.openConnection();
-                break;
+                return null;
         }
+    }
 
-        if (urlConn == null) {
-            throw new IOException("Open Connection Failure, type: " + type + ", url: " + spec);
+    /**
+     * 释放连接
+     * 复用：输入流已读完并关闭，连接归还连接池，下次请求同一主机时省去TCP和TLS握手
+     * 不复用：连接异常或数据未读完，断开连接
+     *
+     * @param urlConn  a HttpURLConnection Object, or null
+     * @param reusable 是否复用
+     */
+    public void release(HttpURLConnection urlConn, boolean reusable) {
+        if (urlConn != null) {
+            getTransport().release(urlConn, reusable);
+        }
+    }
+
+    /**
+     * 设置网络传输接口，Http和Download的所有连接都由它打开和释放，需要在第一次联网前调用，如：Application::onCreate()
+     *
+     * @param transport a Transport Object，默认：{@link UrlConnectionTransport}
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport is null");
         }
 
-        return (HttpURLConnection) urlConn;
+        mTransport = transport;
+    }
+
+    /**
+     * 获取网络传输接口
+     *
+     * @return a Transport Object
+     */
+    public Transport getTransport() {
+        return mTransport;
     }
 
     /**
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Multipart class file
+ * multipart/form-data请求数据类，支持表单字段和文件，文件从磁盘边读取边发送，内存峰值只有一个缓存空间
+ * 所有部分的长度都已知时，可以计算出总长度，使用固定长度的流模式发送，否则使用分块传输
+ * 使用方法：
+ * Multipart body = new Multipart.Builder().addField("uid", "1").addFile("photo", file, "image/jpeg").create();
+ * http.upload(url, body, listener);
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: Multipart.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class Multipart extends HttpBody {
+
+    /**
+     * 数据类型
+     */
+    public static final String CONTENT_TYPE_MULTIPART = "multipart/form-data";
+
+    /**
+     * 默认的字符编码，用于字段值、字段名和文件名
+     */
+    public static final String DEFAULT_CHARSET = Http.CHARSET_UTF8;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] DASHES = {'-', '-'};
+
+    /**
+     * 分隔符
+     */
+    private final String mBoundary;
+
+    /**
+     * 分隔符，a Byte Array
+     */
+    private final byte[] mBoundaryBytes;
+
+    /**
+     * 所有部分
+     */
+    private final List<Part> mParts;
+
+    /**
+     * 构造方法：初始化分隔符、所有部分
+     */
+    private Multipart(String boundary, List<Part> parts) {
+        mBoundary = boundary;
+        mBoundaryBytes = toAscii(boundary);
+        mParts = Collections.unmodifiableList(parts);
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE_MULTIPART + "; boundary=" + mBoundary;
+    }
+
+    /**
+     * 获取数据长度，每部分：--分隔符CRLF + 头信息 + CRLF + 数据 + CRLF，结尾：--分隔符--CRLF
+     *
+     * @return 数据长度，单位：字节，有部分长度未知：-1
+     */
+    @Override
+    public long getContentLength() {
+        long length = 0;
+
+        for (Part part : mParts) {
+            long partLength = part.getLength();
+            if (partLength < 0) {
+                return -1;
+            }
+
+            length += DASHES.length + mBoundaryBytes.length + CRLF.length + part.mHeader.length + CRLF.length + partLength + CRLF.length;
+        }
+
+        return length + DASHES.length + mBoundaryBytes.length + DASHES.length + CRLF.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out, byte[] bucket) throws IOException {
+        for (Part part : mParts) {
+            out.write(DASHES);
+            out.write(mBoundaryBytes);
+            out.write(CRLF);
+            out.write(part.mHeader);
+            out.write(CRLF);
+            part.mBody.writeTo(out, bucket);
+            out.write(CRLF);
+        }
+
+        out.write(DASHES);
+        out.write(mBoundaryBytes);
+        out.write(DASHES);
+        out.write(CRLF);
+    }
+
+    /**
+     * 获取分隔符
+     *
+     * @return 分隔符
+     */
+    public String getBoundary() {
+        return mBoundary;
+    }
+
+    /**
+     * 获取部分数量
+     *
+     * @return 部分数量
+     */
+    public int size() {
+        return mParts.size();
+    }
+
+    /**
+     * 将ASCII字符串转成字节数组
+     */
+    private static byte[] toAscii(String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Part class
+     * 一个部分，由头信息和数据组成
+     */
+    private static final class Part {
+        /**
+         * 头信息，包括每行的CRLF
+         */
+        private final byte[] mHeader;
+
+        /**
+         * 数据
+         */
+        private final HttpBody mBody;
+
+        /**
+         * 构造方法：初始化头信息、数据
+         */
+        private Part(byte[] header, HttpBody body) {
+            mHeader = header;
+            mBody = body;
+        }
+
+        /**
+         * 获取数据长度
+         *
+         * @return 数据长度，单位：字节，未知：-1
+         */
+        private long getLength() {
+            return mBody.getContentLength();
+        }
+    }
+
+    /**
+     * Builder final class
+     * Build a new {@link Multipart}.
+     *
+     * @since 1.0
+     */
+    public static final class Builder {
+        /**
+         * 分隔符
+         */
+        private String mBoundary = UUID.randomUUID().toString();
+
+        /**
+         * 字符编码，默认：UTF-8
+         */
+        private String mCharset = DEFAULT_CHARSET;
+
+        /**
+         * 所有部分
+         */
+        private final List<Part> mParts = new ArrayList<>();
+
+        /**
+         * 创建Multipart对象
+         *
+         * @return a Multipart Object
+         */
+        public Multipart create() {
+            if (mParts.isEmpty()) {
+                throw new IllegalStateException("Multipart body must have at least one part");
+            }
+
+            return new Multipart(mBoundary, new ArrayList<>(mParts));
+        }
+
+        /**
+         * 设置分隔符
+         *
+         * @param boundary 分隔符，默认：随机UUID
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setBoundary(String boundary) {
+            mBoundary = boundary;
+            return this;
+        }
+
+        /**
+         * 设置字符编码
+         *
+         * @param charset 字符编码，默认：{@link #DEFAULT_CHARSET}
+         * @return This Builder object to allow for chaining of calls to set methods
+         */
+        public Builder setCharset(String charset) {
+            mCharset = charset;
+            return this;
+        }
+
+        /**
+         * 添加表单字段
+         *
+         * @param name  字段名
+         * @param value 字段值
+         * @return This Builder object to allow for chaining of calls to set methods
+         * @throws UnsupportedEncodingException 如果不支持字符编码，抛出异常
+         */
+        public Builder addField(String name, String value) throws UnsupportedEncodingException {
+            return addPart(name, null, null, HttpBody.create(value.getBytes(mCharset), null));
+        }
+
+        /**
+         * 添加文件，发送时从磁盘边读取边发送
+         *
+         * @param name        字段名
+         * @param file        文件
+         * @param contentType 数据类型，null：{@link HttpBody#CONTENT_TYPE_OCTET_STREAM}
+         * @return This Builder object to allow for chaining of calls to set methods
+         * @throws UnsupportedEncodingException 如果不支持字符编码，抛出异常
+         */
+        public Builder addFile(String name, File file, String contentType) throws UnsupportedEncodingException {
+            return addPart(name, file.getName(), contentType, HttpBody.create(file, contentType));
+        }
+
+        /**
+         * 添加文件，数据来自输入流，只能发送一次，发送后不关闭输入流
+         *
+         * @param name          字段名
+         * @param fileName      文件名
+         * @param in            输入流
+         * @param contentLength 数据长度，单位：字节，未知：-1，使用分块传输
+         * @param contentType   数据类型，null：{@link HttpBody#CONTENT_TYPE_OCTET_STREAM}
+         * @return This Builder object to allow for chaining of calls to set methods
+         * @throws UnsupportedEncodingException 如果不支持字符编码，抛出异常
+         */
+        public Builder addFile(String name, String fileName, InputStream in, long contentLength, String contentType) throws UnsupportedEncodingException {
+            return addPart(name, fileName, contentType, HttpBody.create(in, contentLength, contentType));
+        }
+
+        /**
+         * 添加一个部分
+         *
+         * @param name        字段名
+         * @param fileName    文件名，不是文件：null
+         * @param contentType 数据类型，不是文件：null
+         * @param body        数据
+         * @return This Builder object to allow for chaining of calls to set methods
+         * @throws UnsupportedEncodingException 如果不支持字符编码，抛出异常
+         */
+        private Builder addPart(String name, String fileName, String contentType, HttpBody body) throws UnsupportedEncodingException {
+            StringBuilder header = new StringBuilder();
+
+            header.append("Content-Disposition: form-data; name=\"").append(escape(name)).append("\"");
+            if (fileName != null) {
+                header.append("; filename=\"").append(escape(fileName)).append("\"");
+                header.append("\r\nContent-Type: ").append((contentType != null) ? contentType : HttpBody.CONTENT_TYPE_OCTET_STREAM);
+            }
+
+            header.append("\r\n");
+
+            mParts.add(new Part(header.toString().getBytes(mCharset), body));
+            return this;
+        }
+
+        /**
+         * 转义字段名和文件名中的引号和换行，避免破坏头信息
+         */
+        private static String escape(String s) {
+            return s.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+        }
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.Logger;
+import com.trotri.android.thunder.ap.Network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * NetworkMonitor class file
+ * 网络状态快照类，进程内共享，第一次使用时查询一次，之后只在NetworkChangeReceiver收到CONNECTIVITY_CHANGE广播时重新查询
+ * 查询网络状态是对ConnectivityManager的IPC调用，缓存后每次HTTP请求不再需要IPC
+ * 网络状态变化时，在广播线程（主线程）中回调Listener接口
+ * 需要权限：
+ * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: NetworkMonitor.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class NetworkMonitor implements NetworkChangeReceiver.Listener {
+
+    private static final String TAG = "NetworkMonitor";
+
+    /**
+     * 用于对获取单例的线程加锁
+     */
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static NetworkMonitor sInstance;
+
+    /**
+     * 网络辅助类
+     */
+    private final Network mNetwork;
+
+    /**
+     * 联网类型
+     */
+    private final ConnectType mConnectType;
+
+    /**
+     * 运营商类型
+     */
+    private final CarrierType mCarrierType;
+
+    /**
+     * 接受手机网络改变时的广播类
+     */
+    private final NetworkChangeReceiver mReceiver;
+
+    /**
+     * 网络状态变化时的回调接口
+     */
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 用于对查询网络状态加锁
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * 当前的网络状态快照，未查询：null
+     */
+    private volatile Snapshot mSnapshot;
+
+    /**
+     * 上下文环境
+     */
+    private final Context mAppContext;
+
+    /**
+     * 构造方法：初始化上下文环境、网络辅助类、联网类型、运营商类型，注册广播接收器
+     */
+    private NetworkMonitor(Context c) {
+        mAppContext = c.getApplicationContext();
+        mNetwork = Network.getInstance(getAppContext());
+        mConnectType = ConnectType.getInstance(getAppContext());
+        mCarrierType = CarrierType.getInstance(getAppContext());
+
+        mReceiver = new NetworkChangeReceiver(getAppContext(), this);
+        try {
+            mReceiver.register();
+        } catch (RuntimeException e) {
+            Logger.e(Constants.TAG_LOG, TAG + " NetworkMonitor() register receiver failed", e);
+        }
+    }
+
+    /**
+     * 获取已存在的实例，该实例是共享的，如果实例不存在，则创建新实例
+     */
+    public static NetworkMonitor getInstance(Context c) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                sInstance = new NetworkMonitor(c);
+            }
+
+            return sInstance;
+        }
+    }
+
+    /**
+     * 获取当前的网络状态快照，第一次调用时查询网络状态
+     * 需要权限：
+     * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+     *
+     * @return a Snapshot Object
+     */
+    public Snapshot getSnapshot() {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        synchronized (mLock) {
+            if (mSnapshot == null) {
+                mSnapshot = query();
+            }
+
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * 重新查询网络状态，网络状态变化时回调Listener接口
+     * 需要权限：
+     * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+     *
+     * @return 新的网络状态快照
+     */
+    public Snapshot refresh() {
+        Snapshot oldSnapshot, newSnapshot;
+
+        synchronized (mLock) {
+            oldSnapshot = mSnapshot;
+            newSnapshot = query();
+            mSnapshot = newSnapshot;
+        }
+
+        if (oldSnapshot != null && !oldSnapshot.equals(newSnapshot)) {
+            for (Listener l : mListeners) {
+                l.onChanged(oldSnapshot, newSnapshot);
+            }
+        }
+
+        return newSnapshot;
+    }
+
+    /**
+     * 查询网络状态
+     *
+     * @return a Snapshot Object
+     */
+    private Snapshot query() {
+        return new Snapshot(mNetwork.isConnected(), mConnectType.queryType(), mCarrierType.queryType());
+    }
+
+    @Override
+    public void onReceive(Context c, Intent i) {
+        if (i == null || !NetworkChangeReceiver.INTENT_FILTER_ACTION.equals(i.getAction())) {
+            return;
+        }
+
+        refresh();
+    }
+
+    /**
+     * 添加网络状态变化时的回调接口
+     *
+     * @param l 回调接口
+     */
+    public void addListener(Listener l) {
+        if (l != null && !mListeners.contains(l)) {
+            mListeners.add(l);
+        }
+    }
+
+    /**
+     * 移除网络状态变化时的回调接口
+     *
+     * @param l 回调接口
+     */
+    public void removeListener(Listener l) {
+        mListeners.remove(l);
+    }
+
+    /**
+     * 获取上下文环境
+     *
+     * @return an Application Context Object
+     */
+    public Context getAppContext() {
+        return mAppContext;
+    }
+
+    /**
+     * Snapshot class
+     * 网络状态快照，创建后不可修改
+     *
+     * @since 1.0
+     */
+    public static final class Snapshot {
+        /**
+         * 是否已联网
+         */
+        private final boolean mConnected;
+
+        /**
+         * 联网类型，0：未知、1：Wifi、2：2G、3：3G、4：4G
+         */
+        private final int mConnectType;
+
+        /**
+         * 移动运营商类型，0：未知、1：移动、2：联通、3：电信
+         */
+        private final int mCarrierType;
+
+        /**
+         * 构造方法：初始化是否已联网、联网类型、移动运营商类型
+         *
+         * @param connected   是否已联网
+         * @param connectType 联网类型
+         * @param carrierType 移动运营商类型
+         */
+        public Snapshot(boolean connected, int connectType, int carrierType) {
+            mConnected = connected;
+            mConnectType = connectType;
+            mCarrierType = carrierType;
+        }
+
+        /**
+         * 是否已联网
+         *
+         * @return Returns True, or False
+         */
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        /**
+         * 是否是Wifi联网
+         *
+         * @return Returns True, or False
+         */
+        public boolean isWifi() {
+            return mConnectType == ConnectType.TYPE_WIFI;
+        }
+
+        /**
+         * 获取联网类型
+         *
+         * @return 联网类型，0：未知、1：Wifi、2：2G、3：3G、4：4G
+         */
+        public int getConnectType() {
+            return mConnectType;
+        }
+
+        /**
+         * 获取移动运营商类型
+         *
+         * @return 移动运营商类型，0：未知、1：移动、2：联通、3：电信
+         */
+        public int getCarrierType() {
+            return mCarrierType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+
+            Snapshot s = (Snapshot) o;
+            return mConnected == s.mConnected && mConnectType == s.mConnectType && mCarrierType == s.mCarrierType;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mConnected ? 1 : 0) * 31 + mConnectType) * 31 + mCarrierType;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{connected=" + mConnected + ", connectType=" + mConnectType + ", carrierType=" + mCarrierType + "}";
+        }
+    }
+
+    /**
+     * Listener interface
+     * 网络状态变化时的回调接口
+     *
+     * @since 1.0
+     */
+    public interface Listener {
+        /**
+         * 网络状态变化，在广播线程（主线程）中调用
+         *
+         * @param oldSnapshot 变化前的网络状态快照
+         * @param newSnapshot 变化后的网络状态快照
+         */
+        void onChanged(Snapshot oldSnapshot, Snapshot newSnapshot);
+    }
+
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * NetworkPolicy class file
+ * 网络自适应策略类，按联网类型（Wifi、2G、3G、4G）和运营商代理选择连接超时、读取超时、缓存空间和最大并发数，
+ * 并根据实际传输测量的RTT和带宽（指数加权移动平均）逐步调整，联网类型变化后重新测量
+ * 需要权限：
+ * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: NetworkPolicy.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class NetworkPolicy {
+
+    public static final String TAG = "NetworkPolicy";
+
+    /**
+     * 最小的缓存空间，单位：字节
+     */
+    public static final int MIN_BUCKET = 2 * 1024;
+
+    /**
+     * 最大的缓存空间，单位：字节
+     */
+    public static final int MAX_BUCKET = 64 * 1024;
+
+    /**
+     * 最小的连接超时，单位：毫秒
+     */
+    public static final int MIN_CONNECT_TIMEOUT_MS = 3 * 1000;
+
+    /**
+     * 最小的读取超时，单位：毫秒
+     */
+    public static final int MIN_READ_TIMEOUT_MS = 5 * 1000;
+
+    /**
+     * 每种联网类型的设置：连接超时（毫秒）、读取超时（毫秒）、缓存空间（字节）、最大并发数
+     * 下标：{@link ConnectType#TYPE_UNKNOWN}、{@link ConnectType#TYPE_WIFI}、{@link ConnectType#TYPE_MOBILE_2G}、
+     * {@link ConnectType#TYPE_MOBILE_3G}、{@link ConnectType#TYPE_MOBILE_4G}
+     */
+    private static final int[][] PROFILES = {
+            {10 * 1000, 20 * 1000, 4 * 1024, 3},
+            {5 * 1000, 10 * 1000, 16 * 1024, 6},
+            {20 * 1000, 40 * 1000, 2 * 1024, 2},
+            {12 * 1000, 20 * 1000, 4 * 1024, 3},
+            {8 * 1000, 15 * 1000, 8 * 1024, 4},
+    };
+
+    /**
+     * 通过运营商WAP代理联网时，超时时间的倍数，单位：%
+     */
+    private static final int WAP_TIMEOUT_PERCENT = 150;
+
+    /**
+     * 新样本的权重，单位：%
+     */
+    private static final int SAMPLE_WEIGHT_PERCENT = 25;
+
+    /**
+     * 测量带宽的最小传输量，传输量太小时主要是延迟，不计入带宽，单位：字节
+     */
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+
+    /**
+     * 缓存空间按多长时间的传输量计算，单位：毫秒
+     */
+    private static final long BUCKET_WINDOW_MS = 50;
+
+    /**
+     * 用于对获取单例的线程加锁
+     */
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static NetworkPolicy sInstance;
+
+    /**
+     * 联网类型
+     */
+    private final ConnectType mConnectType;
+
+    /**
+     * 运营商类型
+     */
+    private final CarrierType mCarrierType;
+
+    /**
+     * 测量时的联网类型，变化后清空测量结果
+     */
+    private int mSampleType = -1;
+
+    /**
+     * RTT估计值，单位：毫秒，未测量：-1
+     */
+    private long mRttMs = -1;
+
+    /**
+     * 带宽估计值，单位：字节/秒，未测量：-1
+     */
+    private long mBandwidth = -1;
+
+    /**
+     * 用于对测量结果加锁
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * 上下文环境
+     */
+    private final Context mAppContext;
+
+    /**
+     * 构造方法：初始化上下文环境、联网类型、运营商类型
+     */
+    private NetworkPolicy(Context c) {
+        mAppContext = c.getApplicationContext();
+        mConnectType = ConnectType.getInstance(getAppContext());
+        mCarrierType = CarrierType.getInstance(getAppContext());
+    }
+
+    /**
+     * 获取已存在的实例，该实例是共享的，如果实例不存在，则创建新实例
+     */
+    public static NetworkPolicy getInstance(Context c) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                sInstance = new NetworkPolicy(c);
+            }
+
+            return sInstance;
+        }
+    }
+
+    /**
+     * 获取连接超时，有RTT测量结果时按4倍RTT + 2秒计算，不超过联网类型设置的2倍
+     *
+     * @return 连接超时，单位：毫秒
+     */
+    public int getConnectTimeOutMs() {
+        int[] profile = getProfile();
+        long rttMs = getRttMs();
+
+        long timeoutMs = profile[0];
+        if (rttMs >= 0) {
+            timeoutMs = clamp(rttMs * 4 + 2000, MIN_CONNECT_TIMEOUT_MS, profile[0] * 2L);
+        }
+
+        return (int) withWap(timeoutMs);
+    }
+
+    /**
+     * 获取读取超时，有测量结果时按4倍RTT + 4倍读满缓存空间的时间 + 3秒计算，不超过联网类型设置的2倍
+     *
+     * @return 读取超时，单位：毫秒
+     */
+    public int getReadTimeOutMs() {
+        int[] profile = getProfile();
+        long rttMs = getRttMs(), bandwidth = getBandwidth();
+
+        long timeoutMs = profile[1];
+        if (rttMs >= 0 && bandwidth > 0) {
+            timeoutMs = clamp(rttMs * 4 + getBucket() * 4000L / bandwidth + 3000, MIN_READ_TIMEOUT_MS, profile[1] * 2L);
+        }
+
+        return (int) withWap(timeoutMs);
+    }
+
+    /**
+     * 获取缓存空间，有带宽测量结果时按50毫秒的传输量计算，取2的整数次幂
+     *
+     * @return 缓存空间，单位：字节
+     */
+    public int getBucket() {
+        long bandwidth = getBandwidth();
+        if (bandwidth <= 0) {
+            return getProfile()[2];
+        }
+
+        long size = clamp(bandwidth * BUCKET_WINDOW_MS / 1000, MIN_BUCKET, MAX_BUCKET);
+        return Integer.highestOneBit((int) size);
+    }
+
+    /**
+     * 获取最大并发数，带宽低于32KB/s时不超过2，带宽高于1MB/s时可增加2
+     *
+     * @return 最大并发数
+     */
+    public int getMaxRequests() {
+        int maxRequests = getProfile()[3];
+        long bandwidth = getBandwidth();
+
+        if (bandwidth > 0 && bandwidth < 32 * 1024) {
+            return Math.min(maxRequests, 2);
+        }
+
+        if (bandwidth > 1024 * 1024) {
+            return maxRequests + 2;
+        }
+
+        return maxRequests;
+    }
+
+    /**
+     * 记录一次RTT，从发送请求到收到响应头的时间
+     *
+     * @param rttMs RTT，单位：毫秒
+     */
+    public void onResponse(long rttMs) {
+        if (rttMs < 0) {
+            return;
+        }
+
+        synchronized (mLock) {
+            checkType();
+            mRttMs = average(mRttMs, rttMs);
+        }
+    }
+
+    /**
+     * 记录一次传输，传输量太小时不计入带宽
+     *
+     * @param bytes     传输量，单位：字节
+     * @param elapsedMs 传输时间，单位：毫秒
+     */
+    public void onTransfer(long bytes, long elapsedMs) {
+        if (bytes < MIN_SAMPLE_BYTES || elapsedMs <= 0) {
+            return;
+        }
+
+        synchronized (mLock) {
+            checkType();
+            mBandwidth = average(mBandwidth, bytes * 1000 / elapsedMs);
+        }
+    }
+
+    /**
+     * 包装输入流，关闭时按读取的字节数和时间记录一次传输
+     *
+     * @param in 输入流
+     * @return 记录传输的输入流
+     */
+    public InputStream meter(InputStream in) {
+        return new MeteredInputStream(in);
+    }
+
+    /**
+     * 获取RTT估计值，联网类型变化后重新测量
+     *
+     * @return RTT，单位：毫秒，未测量：-1
+     */
+    public long getRttMs() {
+        synchronized (mLock) {
+            checkType();
+            return mRttMs;
+        }
+    }
+
+    /**
+     * 获取带宽估计值，联网类型变化后重新测量
+     *
+     * @return 带宽，单位：字节/秒，未测量：-1
+     */
+    public long getBandwidth() {
+        synchronized (mLock) {
+            checkType();
+            return mBandwidth;
+        }
+    }
+
+    /**
+     * 联网类型变化后，清空测量结果，调用前需加锁
+     */
+    private void checkType() {
+        int type = getConnectType();
+        if (type != mSampleType) {
+            mSampleType = type;
+            mRttMs = -1;
+            mBandwidth = -1;
+        }
+    }
+
+    /**
+     * 获取当前联网类型的设置
+     *
+     * @return 连接超时、读取超时、缓存空间、最大并发数
+     */
+    private int[] getProfile() {
+        int type = getConnectType();
+        return (type >= 0 && type < PROFILES.length) ? PROFILES[type] : PROFILES[ConnectType.TYPE_UNKNOWN];
+    }
+
+    /**
+     * 通过运营商WAP代理联网时，延长超时时间
+     *
+     * @param timeoutMs 超时时间，单位：毫秒
+     * @return 超时时间，单位：毫秒
+     */
+    private long withWap(long timeoutMs) {
+        if (getConnectType() != ConnectType.TYPE_WIFI && mCarrierType.getType() != CarrierType.TYPE_UNKNOWN) {
+            return timeoutMs * WAP_TIMEOUT_PERCENT / 100;
+        }
+
+        return timeoutMs;
+    }
+
+    /**
+     * 指数加权移动平均
+     *
+     * @param average 平均值，没有：-1
+     * @param sample  新样本
+     * @return 新的平均值
+     */
+    private static long average(long average, long sample) {
+        if (average < 0) {
+            return sample;
+        }
+
+        return (average * (100 - SAMPLE_WEIGHT_PERCENT) + sample * SAMPLE_WEIGHT_PERCENT) / 100;
+    }
+
+    /**
+     * 限制在最小值和最大值之间
+     */
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    /**
+     * 获取联网类型
+     * 需要权限：
+     * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+     *
+     * @return 联网类型，0：未知、1：Wifi、2：2G、3：3G、4：4G
+     */
+    public int getConnectType() {
+        return mConnectType.getType();
+    }
+
+    /**
+     * 获取上下文环境
+     *
+     * @return an Application Context Object
+     */
+    public Context getAppContext() {
+        return mAppContext;
+    }
+
+    /**
+     * 记录传输的输入流，从第一次读取开始计时，关闭时记录一次传输
+     */
+    class MeteredInputStream extends FilterInputStream {
+        /**
+         * 第一次读取的时间，单位：毫秒，未读取：-1
+         */
+        private long mStartMs = -1;
+
+        /**
+         * 已读取的字节数
+         */
+        private long mBytes = 0;
+
+        /**
+         * 是否已关闭
+         */
+        private boolean mClosed = false;
+
+        /**
+         * 构造方法：初始化输入流
+         *
+         * @param in 输入流
+         */
+        public MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            start();
+
+            int b = super.read();
+            if (b != -1) {
+                mBytes++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            start();
+
+            int size = super.read(buffer, offset, count);
+            if (size > 0) {
+                mBytes += size;
+            }
+
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                if (mStartMs >= 0) {
+                    onTransfer(mBytes, SystemClock.elapsedRealtime() - mStartMs);
+                }
+            }
+
+            super.close();
+        }
+
+        /**
+         * 第一次读取时开始计时
+         */
+        private void start() {
+            if (mStartMs < 0) {
+                mStartMs = SystemClock.elapsedRealtime();
+            }
+        }
+    }
+
+}
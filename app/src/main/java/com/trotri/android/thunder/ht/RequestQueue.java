@@ -0,0 +1,916 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.trotri.android.thunder.ap.Constants;
+import com.trotri.android.thunder.ap.Logger;
+import com.trotri.android.thunder.ap.ThreadPool;
+import com.trotri.android.thunder.ap.UiThread;
+import com.trotri.android.thunder.db.Db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RequestQueue class file
+ * 离线请求队列类，断网时失败的请求保存到Db，联网后分批重发
+ * 使用Db保存，Db名：包名_thunder_db_request_queue，table名：request_queue
+ * <pre>
+ * 表概要：
+ * id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL
+ * collapse_key VARCHAR(255) UNIQUE，相同的Key只保留最新的请求，null：不合并
+ * method VARCHAR(10) NOT NULL
+ * url TEXT NOT NULL
+ * params TEXT
+ * attempts INTEGER NOT NULL，已重发次数
+ * next_retry_ms INTEGER NOT NULL，下次重发时间，System.currentTimeMillis()
+ * created_ms INTEGER NOT NULL
+ * </pre>
+ * 重发：NetworkMonitor报告联网后，每批最多重发{@link #BATCH_SIZE}个到期的请求，两批之间间隔{@link #BATCH_INTERVAL_MS}，
+ * 失败后按指数退避加随机抖动推迟下次重发，超过{@link #MAX_ATTEMPTS}次后丢弃；重发时断网，本批停止，等待下次联网
+ * 加入、删除、清空、查询数量都在ThreadPool中按调用顺序执行，不在调用者线程（如：主线程）中读写Db，结果通过{@link ResultListener}在后台线程中回调
+ * 第一次重发时（后台线程）才开始监听网络状态变化，getInstance()不读写Db，也不注册广播
+ * 需要权限：
+ * <uses-permission android:name="android.permission.INTERNET" />
+ * <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: RequestQueue.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class RequestQueue implements NetworkMonitor.Listener {
+
+    public static final String TAG = "RequestQueue";
+
+    /**
+     * 每批最多重发的请求数
+     */
+    public static final int BATCH_SIZE = 10;
+
+    /**
+     * 两批之间的间隔，单位：毫秒
+     */
+    public static final long BATCH_INTERVAL_MS = 1000;
+
+    /**
+     * 最多重发次数，超过后丢弃
+     */
+    public static final int MAX_ATTEMPTS = 8;
+
+    /**
+     * 队列最多保存的请求数，超过后丢弃最早的请求
+     */
+    public static final int MAX_SIZE = 500;
+
+    /**
+     * 第一次退避的时间，单位：毫秒，之后每次加倍
+     */
+    public static final long BASE_BACKOFF_MS = 2 * 1000;
+
+    /**
+     * 最长的退避时间，单位：毫秒
+     */
+    public static final long MAX_BACKOFF_MS = 10 * 60 * 1000;
+
+    /**
+     * 默认的Db名的后缀
+     */
+    private static final String DB_POSTFIX = "_" + Constants.TAG_LOWER + "_db_request_queue";
+
+    /**
+     * 版本
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * 表名
+     */
+    private static final String TABLE_NAME = "request_queue";
+
+    /**
+     * 列名
+     */
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_COLLAPSE_KEY = "collapse_key";
+    private static final String COLUMN_METHOD = "method";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_PARAMS = "params";
+    private static final String COLUMN_ATTEMPTS = "attempts";
+    private static final String COLUMN_NEXT_RETRY_MS = "next_retry_ms";
+    private static final String COLUMN_CREATED_MS = "created_ms";
+
+    private static final String[] COLUMNS = {
+            COLUMN_ID, COLUMN_COLLAPSE_KEY, COLUMN_METHOD, COLUMN_URL, COLUMN_PARAMS,
+            COLUMN_ATTEMPTS, COLUMN_NEXT_RETRY_MS, COLUMN_CREATED_MS
+    };
+
+    /**
+     * 用于对获取单例的线程加锁
+     */
+    private static final Object INSTANCE_LOCK = new Object();
+
+    private static RequestQueue sInstance;
+
+    /**
+     * Db对象
+     */
+    private final Db mDb;
+
+    /**
+     * 网络状态快照类，第一次重发时获取并监听网络状态变化
+     */
+    private volatile NetworkMonitor mNetworkMonitor;
+
+    /**
+     * 重发使用的HTTP类
+     */
+    private volatile Http mHttp;
+
+    /**
+     * 重发结果的回调接口
+     */
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 是否正在重发，同一时间只有一批在重发
+     */
+    private final AtomicBoolean mReplaying = new AtomicBoolean(false);
+
+    /**
+     * 待执行的Db操作，按调用顺序执行
+     */
+    private final Queue<Runnable> mPendingOps = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否已提交执行Db操作的命令，同一时间只有一个命令在执行
+     */
+    private final AtomicBoolean mOpsRunning = new AtomicBoolean(false);
+
+    /**
+     * 退避的随机抖动
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * 在主线程中延时提交重发命令
+     */
+    private final Runnable mReplayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            ThreadPool.execute(new ReplayCommand());
+        }
+    };
+
+    /**
+     * 上下文环境
+     */
+    private final Context mAppContext;
+
+    /**
+     * 构造方法：初始化上下文环境、Db对象、HTTP类，延时重发上次未完成的请求
+     * 不打开数据库，也不注册广播，都在第一次重发时（后台线程）执行
+     */
+    private RequestQueue(Context c) {
+        mAppContext = c.getApplicationContext();
+        mDb = new Db(getAppContext(), getAppContext().getPackageName() + DB_POSTFIX, VERSION, TABLE_NAME, getCommand(), true);
+        mHttp = new Http.Builder(getAppContext()).create();
+
+        scheduleReplay(BATCH_INTERVAL_MS);
+    }
+
+    /**
+     * 获取已存在的实例，该实例是共享的，如果实例不存在，则创建新实例
+     */
+    public static RequestQueue getInstance(Context c) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                sInstance = new RequestQueue(c);
+            }
+
+            return sInstance;
+        }
+    }
+
+    /**
+     * 加入队列，不合并，联网时尽快发送，在ThreadPool中执行
+     *
+     * @param method 访问方式，{@link Http#METHOD_GET}、{@link Http#METHOD_POST}
+     * @param url    访问链接，a URL String
+     * @param params 查询串，a String, or null
+     */
+    public void enqueue(String method, String url, String params) {
+        enqueue(method, url, params, null, null);
+    }
+
+    /**
+     * 加入队列，联网时尽快发送，在ThreadPool中执行
+     *
+     * @param method   访问方式，{@link Http#METHOD_GET}、{@link Http#METHOD_POST}
+     * @param url      访问链接，a URL String
+     * @param params   查询串，a String, or null
+     * @param collapse 是否合并，True：同一接口（访问方式 + 访问链接）只保留最新的请求
+     */
+    public void enqueue(String method, String url, String params, boolean collapse) {
+        enqueue(method, url, params, collapse ? getEndpointKey(method, url) : null, null);
+    }
+
+    /**
+     * 加入队列，联网时尽快发送，在ThreadPool中执行
+     *
+     * @param method      访问方式，{@link Http#METHOD_GET}、{@link Http#METHOD_POST}
+     * @param url         访问链接，a URL String
+     * @param params      查询串，a String, or null
+     * @param collapseKey 合并的Key，相同的Key只保留最新的请求，null：不合并
+     */
+    public void enqueue(String method, String url, String params, String collapseKey) {
+        enqueue(method, url, params, collapseKey, null);
+    }
+
+    /**
+     * 加入队列，联网时尽快发送，在ThreadPool中执行
+     *
+     * @param method      访问方式，{@link Http#METHOD_GET}、{@link Http#METHOD_POST}
+     * @param url         访问链接，a URL String
+     * @param params      查询串，a String, or null
+     * @param collapseKey 合并的Key，相同的Key只保留最新的请求，null：不合并
+     * @param l           结果的回调接口，请求Id，如果出错，返回-1，a ResultListener Object, or null
+     */
+    public void enqueue(final String method, final String url, final String params, final String collapseKey, final ResultListener<Long> l) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                long id = insert(method, url, params, collapseKey, 0);
+                if (l != null) {
+                    l.onComplete(id);
+                }
+            }
+        });
+    }
+
+    /**
+     * 【后台线程】加入请求失败后的队列，按第一次退避的时间推迟发送
+     *
+     * @param method      访问方式
+     * @param url         访问链接，a URL String
+     * @param params      查询串，a String, or null
+     * @param collapseKey 合并的Key，null：不合并
+     * @return 请求Id，如果出错，返回-1
+     */
+    long enqueueFailed(String method, String url, String params, String collapseKey) {
+        return insert(method, url, params, collapseKey, 1);
+    }
+
+    /**
+     * 【后台线程】加入队列，超过最多保存的请求数时，丢弃最早的请求
+     *
+     * @param method      访问方式
+     * @param url         访问链接，a URL String
+     * @param params      查询串，a String, or null
+     * @param collapseKey 合并的Key，null：不合并
+     * @param attempts    已发送次数
+     * @return 请求Id，如果出错，返回-1
+     */
+    private long insert(String method, String url, String params, String collapseKey, int attempts) {
+        long nowMs = System.currentTimeMillis();
+        long nextRetryMs = (attempts > 0) ? nowMs + getBackoffMs(attempts) : nowMs;
+
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_COLLAPSE_KEY, collapseKey);
+        values.put(COLUMN_METHOD, method.toUpperCase());
+        values.put(COLUMN_URL, url);
+        values.put(COLUMN_PARAMS, params);
+        values.put(COLUMN_ATTEMPTS, attempts);
+        values.put(COLUMN_NEXT_RETRY_MS, nextRetryMs);
+        values.put(COLUMN_CREATED_MS, nowMs);
+
+        long id = getDb().replace(null, values);
+        getDb().delete(COLUMN_ID + " NOT IN (SELECT " + COLUMN_ID + " FROM " + TABLE_NAME
+                + " ORDER BY " + COLUMN_ID + " DESC LIMIT " + MAX_SIZE + ")", null);
+
+        long earliestMs = getNextRetryMs();
+        scheduleReplay(((earliestMs >= 0) ? Math.min(earliestMs, nextRetryMs) : nextRetryMs) - nowMs);
+        return id;
+    }
+
+    /**
+     * 从队列中删除请求，在ThreadPool中执行
+     *
+     * @param id 请求Id
+     */
+    public void remove(long id) {
+        remove(id, null);
+    }
+
+    /**
+     * 从队列中删除请求，在ThreadPool中执行
+     *
+     * @param id 请求Id
+     * @param l  结果的回调接口，是否删除，a ResultListener Object, or null
+     */
+    public void remove(final long id, final ResultListener<Boolean> l) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                boolean result = delete(id);
+                if (l != null) {
+                    l.onComplete(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * 清空队列，在ThreadPool中执行
+     */
+    public void clear() {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                getDb().delete(null, null);
+            }
+        });
+    }
+
+    /**
+     * 获取队列中的请求数，在ThreadPool中执行，之前调用的加入、删除已执行完
+     *
+     * @param l 结果的回调接口，请求数
+     */
+    public void size(final ResultListener<Integer> l) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                l.onComplete(count());
+            }
+        });
+    }
+
+    /**
+     * 【后台线程】从队列中删除请求
+     *
+     * @param id 请求Id
+     * @return Returns True, or False
+     */
+    private boolean delete(long id) {
+        return getDb().delete(COLUMN_ID + " = ?", new String[]{String.valueOf(id)}) > 0;
+    }
+
+    /**
+     * 【后台线程】获取队列中的请求数
+     *
+     * @return 请求数
+     */
+    private int count() {
+        SQLiteDatabase db = getDb().getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_NAME, null);
+
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+            getDb().release(db);
+        }
+    }
+
+    /**
+     * 按调用顺序在ThreadPool中执行Db操作，命令不属于任何作用域，页面销毁时已调用的操作仍会执行
+     * 线程池拒绝时（如：主线程提交时线程池已满）不执行该操作，抛出异常
+     *
+     * @param op Db操作
+     * @throws RejectedExecutionException if the operation cannot be accepted for execution
+     */
+    private void submit(Runnable op) {
+        mPendingOps.offer(op);
+        if (!mOpsRunning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            ThreadPool.execute(new OpsCommand(), null);
+        } catch (RejectedExecutionException e) {
+            mOpsRunning.set(false);
+            if (mPendingOps.remove(op)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 【后台线程】执行待执行的Db操作，直到队列为空
+     */
+    private void runOps() {
+        while (true) {
+            Runnable op;
+            while ((op = mPendingOps.poll()) != null) {
+                try {
+                    op.run();
+                } catch (RuntimeException e) {
+                    Logger.e(Constants.TAG_LOG, TAG + " runOps() failure", e);
+                }
+            }
+
+            mOpsRunning.set(false);
+            if (mPendingOps.isEmpty() || !mOpsRunning.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 尽快重发到期的请求
+     */
+    public void replay() {
+        scheduleReplay(0);
+    }
+
+    @Override
+    public void onChanged(NetworkMonitor.Snapshot oldSnapshot, NetworkMonitor.Snapshot newSnapshot) {
+        if (newSnapshot.isConnected() && !oldSnapshot.isConnected()) {
+            Logger.d(Constants.TAG_LOG, TAG + " onChanged() connected, replay");
+            scheduleReplay(0);
+        }
+    }
+
+    /**
+     * 延时重发，之前未执行的延时被取消
+     *
+     * @param delayMs 延时，单位：毫秒
+     */
+    private void scheduleReplay(long delayMs) {
+        UiThread.MAIN_THREAD_HANDLER.removeCallbacks(mReplayRunnable);
+        UiThread.MAIN_THREAD_HANDLER.postDelayed(mReplayRunnable, Math.max(delayMs, 0));
+    }
+
+    /**
+     * 重发一批到期的请求，断网时不重发，也不安排下一批
+     */
+    private void replayBatch() {
+        if (!mReplaying.compareAndSet(false, true)) {
+            return;
+        }
+
+        boolean reschedule = false;
+        boolean full = false;
+
+        try {
+            if (!getNetworkMonitor().getSnapshot().isConnected()) {
+                return;
+            }
+
+            reschedule = true;
+            List<Request> batch = load(System.currentTimeMillis(), BATCH_SIZE);
+            full = (batch.size() >= BATCH_SIZE);
+
+            for (Request request : batch) {
+                if (!send(request)) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            Logger.e(Constants.TAG_LOG, TAG + " replayBatch() failure", e);
+        } finally {
+            mReplaying.set(false);
+        }
+
+        if (reschedule) {
+            long nextRetryMs = getNextRetryMs();
+            if (nextRetryMs >= 0) {
+                long delayMs = nextRetryMs - System.currentTimeMillis();
+                scheduleReplay(full ? Math.max(delayMs, BATCH_INTERVAL_MS) : Math.max(delayMs, 0));
+            }
+        }
+    }
+
+    /**
+     * 重发一个请求，成功或不可重试的失败后删除，可重试的失败后推迟下次重发
+     *
+     * @param request 请求
+     * @return 是否继续重发本批的其他请求，断网（没有HTTP状态码）时返回False
+     */
+    private boolean send(final Request request) {
+        final int[] result = {0};
+
+        mHttp.request(request.getMethod(), request.getUrl(), request.getParams(), new Http.Listener() {
+            @Override
+            public void onComplete(byte[] data) {
+                result[0] = 200;
+                delete(request.getId());
+                for (Listener l : mListeners) {
+                    l.onComplete(request, data);
+                }
+            }
+
+            @Override
+            public void onError(int statusCode, Throwable tr, byte[] data) {
+                result[0] = statusCode;
+
+                int attempts = request.getAttempts() + 1;
+                if (!isRetryable(statusCode, tr) || attempts >= MAX_ATTEMPTS) {
+                    Logger.w(Constants.TAG_LOG, TAG + " send() drop, statusCode: " + statusCode + ", attempts: " + attempts + ", url: " + request.getUrl());
+                    delete(request.getId());
+                    for (Listener l : mListeners) {
+                        l.onDrop(request, statusCode, tr);
+                    }
+
+                    return;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_ATTEMPTS, attempts);
+                values.put(COLUMN_NEXT_RETRY_MS, System.currentTimeMillis() + getBackoffMs(attempts));
+                getDb().update(values, COLUMN_ID + " = ?", new String[]{String.valueOf(request.getId())});
+            }
+        });
+
+        return result[0] != 0;
+    }
+
+    /**
+     * 读取到期的请求，按加入顺序排序
+     *
+     * @param nowMs 当前时间，System.currentTimeMillis()
+     * @param limit 最多读取的请求数
+     * @return 请求列表
+     */
+    private List<Request> load(long nowMs, int limit) {
+        List<Request> requests = new ArrayList<>();
+
+        SQLiteDatabase db = getDb().getReadableDatabase();
+        Cursor cursor = db.query(TABLE_NAME, COLUMNS, COLUMN_NEXT_RETRY_MS + " <= ?", new String[]{String.valueOf(nowMs)},
+                null, null, COLUMN_ID + " ASC", String.valueOf(limit));
+
+        try {
+            while (cursor.moveToNext()) {
+                requests.add(new Request(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3),
+                        cursor.getString(4), cursor.getInt(5), cursor.getLong(6), cursor.getLong(7)));
+            }
+        } finally {
+            cursor.close();
+            getDb().release(db);
+        }
+
+        return requests;
+    }
+
+    /**
+     * 获取最早的下次重发时间
+     *
+     * @return 下次重发时间，System.currentTimeMillis()，队列为空：-1
+     */
+    private long getNextRetryMs() {
+        SQLiteDatabase db = getDb().getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT MIN(" + COLUMN_NEXT_RETRY_MS + ") FROM " + TABLE_NAME, null);
+
+        try {
+            return (cursor.moveToFirst() && !cursor.isNull(0)) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+            getDb().release(db);
+        }
+    }
+
+    /**
+     * 获取退避时间，指数退避，加0 ~ 50%的随机抖动，避免大量请求同时重发
+     *
+     * @param attempts 已发送次数，>= 1
+     * @return 退避时间，单位：毫秒
+     */
+    private long getBackoffMs(int attempts) {
+        synchronized (mRandom) {
+            return getBackoffMs(attempts, mRandom.nextDouble());
+        }
+    }
+
+    /**
+     * 获取退避时间，指数退避，最长{@link #MAX_BACKOFF_MS}，加0 ~ 50%的抖动
+     *
+     * @param attempts 已发送次数，>= 1
+     * @param random   随机数，0 ~ 1
+     * @return 退避时间，单位：毫秒
+     */
+    static long getBackoffMs(int attempts, double random) {
+        long backoffMs = Math.min(BASE_BACKOFF_MS << Math.min(attempts - 1, 20), MAX_BACKOFF_MS);
+        return backoffMs + (long) (backoffMs * 0.5 * random);
+    }
+
+    /**
+     * 是否可以重试，没有响应（断网、超时）、408、429、5xx
+     *
+     * @param statusCode HTTP状态码，没有响应：0
+     * @return Returns True, or False
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 0 || statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * 是否可以重试，{@link #isRetryable(int)}，或者已收到200后从网络读取返回数据失败（{@link Http.ResponseReadException}），如：断网
+     * StreamListener解析返回数据失败时不重试，重发也会得到同样的数据
+     *
+     * @param statusCode HTTP状态码，没有响应：0
+     * @param tr         失败原因，a Throwable Object, or null
+     * @return Returns True, or False
+     */
+    public static boolean isRetryable(int statusCode, Throwable tr) {
+        return isRetryable(statusCode) || tr instanceof Http.ResponseReadException;
+    }
+
+    /**
+     * 获取接口的合并Key，访问方式 + 访问链接
+     *
+     * @param method 访问方式
+     * @param url    访问链接，a URL String
+     * @return 合并的Key
+     */
+    public static String getEndpointKey(String method, String url) {
+        return method.toUpperCase() + " " + url;
+    }
+
+    /**
+     * 设置重发使用的HTTP类
+     *
+     * @param http a Http Object
+     */
+    public void setHttp(Http http) {
+        mHttp = http;
+    }
+
+    /**
+     * 添加重发结果的回调接口
+     *
+     * @param l 回调接口
+     */
+    public void addListener(Listener l) {
+        if (l != null && !mListeners.contains(l)) {
+            mListeners.add(l);
+        }
+    }
+
+    /**
+     * 移除重发结果的回调接口
+     *
+     * @param l 回调接口
+     */
+    public void removeListener(Listener l) {
+        mListeners.remove(l);
+    }
+
+    /**
+     * 获取创建表命令
+     *
+     * @return 创建表命令
+     */
+    public String getCommand() {
+        String data = "";
+
+        data += "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ";
+        data += "(";
+        data += COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, ";
+        data += COLUMN_COLLAPSE_KEY + " VARCHAR(255) UNIQUE, ";
+        data += COLUMN_METHOD + " VARCHAR(10) NOT NULL, ";
+        data += COLUMN_URL + " TEXT NOT NULL, ";
+        data += COLUMN_PARAMS + " TEXT, ";
+        data += COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, ";
+        data += COLUMN_NEXT_RETRY_MS + " INTEGER NOT NULL DEFAULT 0, ";
+        data += COLUMN_CREATED_MS + " INTEGER NOT NULL DEFAULT 0";
+        data += ");";
+
+        return data;
+    }
+
+    /**
+     * 【后台线程】获取网络状态快照类，第一次调用时监听网络状态变化，注册广播不在getInstance()的调用者线程中执行
+     *
+     * @return a NetworkMonitor Object
+     */
+    private NetworkMonitor getNetworkMonitor() {
+        NetworkMonitor monitor = mNetworkMonitor;
+        if (monitor == null) {
+            synchronized (this) {
+                monitor = mNetworkMonitor;
+                if (monitor == null) {
+                    monitor = NetworkMonitor.getInstance(getAppContext());
+                    monitor.addListener(this);
+                    mNetworkMonitor = monitor;
+                }
+            }
+        }
+
+        return monitor;
+    }
+
+    /**
+     * 获取Db对象
+     *
+     * @return Db对象，a Db Object
+     */
+    public Db getDb() {
+        return mDb;
+    }
+
+    /**
+     * 获取上下文环境
+     *
+     * @return an Application Context Object
+     */
+    public Context getAppContext() {
+        return mAppContext;
+    }
+
+    /**
+     * 【后台线程】执行命令，重发一批到期的请求
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.RequestQueue$ReplayCommand { *; }
+     * </p>
+     */
+    class ReplayCommand extends ThreadPool.AbstractCommand {
+        @Override
+        public void exec() {
+            replayBatch();
+        }
+    }
+
+    /**
+     * 【后台线程】执行命令，按调用顺序执行加入、删除、清空、查询数量
+     * <p>
+     * 避免混淆，proguard-rules.pro:
+     * -keepclassmembers class 包名.RequestQueue$OpsCommand { *; }
+     * </p>
+     */
+    class OpsCommand extends ThreadPool.AbstractCommand {
+        @Override
+        public void exec() {
+            runOps();
+        }
+    }
+
+    /**
+     * Request final class
+     * 队列中的请求，创建后不可修改
+     *
+     * @since 1.0
+     */
+    public static final class Request {
+        private final long mId;
+        private final String mCollapseKey;
+        private final String mMethod;
+        private final String mUrl;
+        private final String mParams;
+        private final int mAttempts;
+        private final long mNextRetryMs;
+        private final long mCreatedMs;
+
+        /**
+         * 构造方法：初始化请求的所有字段
+         */
+        private Request(long id, String collapseKey, String method, String url, String params, int attempts, long nextRetryMs, long createdMs) {
+            mId = id;
+            mCollapseKey = collapseKey;
+            mMethod = method;
+            mUrl = url;
+            mParams = params;
+            mAttempts = attempts;
+            mNextRetryMs = nextRetryMs;
+            mCreatedMs = createdMs;
+        }
+
+        /**
+         * 获取请求Id
+         *
+         * @return 请求Id
+         */
+        public long getId() {
+            return mId;
+        }
+
+        /**
+         * 获取合并的Key
+         *
+         * @return 合并的Key，不合并：null
+         */
+        public String getCollapseKey() {
+            return mCollapseKey;
+        }
+
+        /**
+         * 获取访问方式
+         *
+         * @return 访问方式
+         */
+        public String getMethod() {
+            return mMethod;
+        }
+
+        /**
+         * 获取访问链接
+         *
+         * @return a URL String
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * 获取查询串
+         *
+         * @return a String, or null
+         */
+        public String getParams() {
+            return mParams;
+        }
+
+        /**
+         * 获取已发送次数
+         *
+         * @return 已发送次数
+         */
+        public int getAttempts() {
+            return mAttempts;
+        }
+
+        /**
+         * 获取下次重发时间
+         *
+         * @return System.currentTimeMillis()
+         */
+        public long getNextRetryMs() {
+            return mNextRetryMs;
+        }
+
+        /**
+         * 获取加入队列的时间
+         *
+         * @return System.currentTimeMillis()
+         */
+        public long getCreatedMs() {
+            return mCreatedMs;
+        }
+    }
+
+    /**
+     * Listener interface
+     * 重发结果的回调接口，在后台线程中执行
+     *
+     * @since 1.0
+     */
+    public interface Listener {
+        /**
+         * 重发成功，请求已从队列中删除
+         *
+         * @param request 请求
+         * @param data    HTTP返回数据，a Byte Array
+         */
+        void onComplete(Request request, byte[] data);
+
+        /**
+         * 不可重试的失败或超过最多重发次数，请求已从队列中删除
+         *
+         * @param request    请求
+         * @param statusCode HTTP状态码
+         * @param tr         失败原因，a Throwable Object
+         */
+        void onDrop(Request request, int statusCode, Throwable tr);
+    }
+
+    /**
+     * ResultListener interface
+     * 加入、删除、查询数量的结果回调接口，在后台线程中执行
+     *
+     * @since 1.0
+     */
+    public interface ResultListener<T> {
+        /**
+         * 执行完成后回调方法
+         *
+         * @param value 请求Id（加入）、是否删除（删除）、请求数（查询数量）
+         */
+        void onComplete(T value);
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * Transport interface file
+ * 网络传输接口，Http和Download通过{@link HttpProxy}打开和释放连接，不关心底层的网络栈
+ * 默认实现：{@link UrlConnectionTransport}，使用系统的HttpURLConnection
+ * 其他实现：如基于OkHttpClient的实现，可与Retrofit共用连接池、HTTP/2多路复用和Dispatcher，见{@link HttpProxy#setTransport(Transport)}
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: Transport.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public interface Transport {
+    /**
+     * 打开连接，只创建连接对象，不发送请求
+     *
+     * @param url   a URL Object
+     * @param proxy 代理，不使用运营商代理：null
+     * @return a HttpURLConnection Object
+     * @throws IOException 如果打开连接失败，抛出异常
+     */
+    HttpURLConnection open(URL url, Proxy proxy) throws IOException;
+
+    /**
+     * 释放连接
+     * 复用：输入流已读完并关闭，连接归还连接池
+     * 不复用：连接异常或数据未读完，断开连接
+     *
+     * @param urlConn  a HttpURLConnection Object
+     * @param reusable 是否复用
+     */
+    void release(HttpURLConnection urlConn, boolean reusable);
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trotri.android.thunder.ht;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * UrlConnectionTransport class file
+ * 使用系统HttpURLConnection的网络传输类，连接池由系统属性http.keepAlive、http.maxConnections设置，
+ * 见{@link HttpProxy#setConnectionPool(int, long)}
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: UrlConnectionTransport.java 1 2015-02-22 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class UrlConnectionTransport implements Transport {
+
+    @Override
+    public HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        URLConnection urlConn = (proxy != null) ? url.openConnection(proxy) : url.openConnection();
+        if (!(urlConn instanceof HttpURLConnection)) {
+            throw new IOException("Open Connection Failure, not a HTTP url: " + url);
+        }
+
+        return (HttpURLConnection) urlConn;
+    }
+
+    @Override
+    public void release(HttpURLConnection urlConn, boolean reusable) {
+        if (!reusable) {
+            urlConn.disconnect();
+        }
+    }
+
+}
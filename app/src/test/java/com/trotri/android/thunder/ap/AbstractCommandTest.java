@@ -0,0 +1,124 @@
+package com.trotri.android.thunder.ap;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AbstractCommandTest class file
+ * 测试后台命令的取消和回收，已取消的命令不回收，避免仍在cancel()中被使用时被对象池复用
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: AbstractCommandTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class AbstractCommandTest {
+    @Test
+    public void recycleAfterRun() throws Exception {
+        RecordingCommand command = new RecordingCommand(null);
+        command.run();
+
+        assertEquals(1, command.mExecuted.get());
+        assertEquals(1, command.mRecycled.get());
+        assertEquals(0, command.mCancelled.get());
+    }
+
+    @Test
+    public void cancelBeforeRun() throws Exception {
+        RecordingCommand command = new RecordingCommand(null);
+
+        assertTrue(command.cancel(false));
+        assertFalse(command.cancel(false)); // 注意，重复取消返回False，onCancelled()只回调一次
+        command.run();
+
+        assertEquals(0, command.mExecuted.get());
+        assertEquals(0, command.mRecycled.get());
+        assertEquals(1, command.mCancelled.get());
+    }
+
+    @Test
+    public void cancelWhileRunning() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final RecordingCommand command = new RecordingCommand(started);
+        final AtomicBoolean interruptedAfterRun = new AtomicBoolean(true);
+
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                command.run();
+                interruptedAfterRun.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        runner.start();
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(command.cancel(true));
+        runner.join(5000);
+
+        assertFalse(runner.isAlive());
+        assertTrue(command.mInterrupted.get()); // 注意，cancel(true)中断执行线程
+        assertEquals(0, command.mRecycled.get()); // 注意，执行中被取消的命令不回收
+        assertEquals(1, command.mCancelled.get());
+        assertFalse(interruptedAfterRun.get()); // 注意，执行完后清除中断状态，不影响线程池中的下一个命令
+    }
+
+    @Test
+    public void cancelReleasesScope() throws Exception {
+        CommandScope scope = new CommandScope();
+        RecordingCommand command = new RecordingCommand(null);
+        assertTrue(scope.add(command));
+        command.mScope = scope;
+
+        command.cancel(false);
+        assertEquals(0, scope.size());
+    }
+
+    /**
+     * 记录执行、取消、回收次数的命令，mStarted不为null时阻塞到被中断
+     */
+    static class RecordingCommand extends ThreadPool.AbstractCommand {
+        final AtomicInteger mExecuted = new AtomicInteger();
+        final AtomicInteger mCancelled = new AtomicInteger();
+        final AtomicInteger mRecycled = new AtomicInteger();
+        final AtomicBoolean mInterrupted = new AtomicBoolean(false);
+        private final CountDownLatch mStarted;
+
+        RecordingCommand(CountDownLatch started) {
+            mStarted = started;
+        }
+
+        @Override
+        public void exec() {
+            mExecuted.incrementAndGet();
+            if (mStarted == null) {
+                return;
+            }
+
+            mStarted.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                mInterrupted.set(true);
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            mCancelled.incrementAndGet();
+        }
+
+        @Override
+        protected void recycle() {
+            super.recycle();
+            mRecycled.incrementAndGet();
+        }
+    }
+
+}
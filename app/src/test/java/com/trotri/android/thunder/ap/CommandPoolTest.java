@@ -0,0 +1,58 @@
+package com.trotri.android.thunder.ap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * CommandPoolTest class file
+ * 测试命令对象池
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: CommandPoolTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class CommandPoolTest {
+    @Test
+    public void acquireRelease() throws Exception {
+        CommandPool<Object> pool = new CommandPool<>(2);
+        assertNull(pool.acquire()); // 注意，对象池为空时返回null，由调用者创建
+
+        Object a = new Object(), b = new Object(), c = new Object();
+        assertTrue(pool.release(a));
+        assertTrue(pool.release(b));
+        assertFalse(pool.release(c)); // 注意，对象池已满时丢弃
+
+        assertSame(b, pool.acquire());
+        assertSame(a, pool.acquire());
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void doubleRelease() throws Exception {
+        CommandPool<Object> pool = new CommandPool<>(2);
+        Object a = new Object();
+        assertTrue(pool.release(a));
+
+        try {
+            pool.release(a);
+            fail("double release must throw");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertSame(a, pool.acquire());
+        assertNull(pool.acquire()); // 注意，同一个对象只在池中出现一次，不会被两个调用者同时获取
+
+        assertTrue(pool.release(a)); // 注意，获取后可以再次放回
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxSize() throws Exception {
+        new CommandPool<>(0);
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.trotri.android.thunder.ap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CommandScopeTest class file
+ * 测试命令作用域，取消和提交并发时每个命令只有一个结果
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: CommandScopeTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class CommandScopeTest {
+    @Test
+    public void executeAfterCancel() throws Exception {
+        CommandScope scope = new CommandScope();
+        scope.cancel();
+
+        CountingCommand command = new CountingCommand(null);
+        scope.execute(command);
+
+        assertTrue(command.isCancelled()); // 注意，已取消的作用域直接取消命令，不执行
+        assertEquals(1, command.mCancelled.get());
+        assertEquals(0, command.mExecuted.get());
+        assertEquals(0, scope.size());
+    }
+
+    @Test
+    public void runSetsCurrentScope() throws Exception {
+        final CommandScope scope = new CommandScope();
+        final CommandScope[] current = new CommandScope[1];
+
+        scope.run(new Runnable() {
+            @Override
+            public void run() {
+                current[0] = CommandScope.current();
+            }
+        });
+
+        assertTrue(current[0] == scope);
+        assertTrue(CommandScope.current() == null); // 注意，执行完后恢复之前的作用域
+    }
+
+    @Test
+    public void cancelWhileAdding() throws Exception {
+        final int threads = 4, perThread = 100;
+        final CommandScope scope = new CommandScope();
+        final CountDownLatch settled = new CountDownLatch(threads * perThread);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<CountingCommand> commands = new ArrayList<>();
+
+        for (int i = 0; i < threads * perThread; i++) {
+            commands.add(new CountingCommand(settled));
+        }
+
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int from = t * perThread;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = from; i < from + perThread; i++) {
+                        scope.execute(commands.get(i));
+                    }
+                }
+            });
+            thread.start();
+            submitters.add(thread);
+        }
+
+        start.countDown();
+        scope.cancel();
+        for (Thread thread : submitters) {
+            thread.join();
+        }
+
+        assertTrue(settled.await(10, TimeUnit.SECONDS));
+        for (CountingCommand command : commands) {
+            // 每个命令要么已执行，要么已取消，取消回调最多一次
+            assertTrue(command.mExecuted.get() == 1 || command.isCancelled());
+            assertTrue(command.mCancelled.get() <= 1);
+        }
+
+        assertEquals(0, scope.size()); // 注意，取消后作用域不再持有任何命令
+        assertTrue(scope.isCancelled());
+    }
+
+    /**
+     * 记录执行和取消次数的命令
+     */
+    static class CountingCommand extends ThreadPool.AbstractCommand {
+        final AtomicInteger mExecuted = new AtomicInteger();
+        final AtomicInteger mCancelled = new AtomicInteger();
+        private final AtomicBoolean mSettled = new AtomicBoolean(false);
+        private final CountDownLatch mLatch;
+
+        CountingCommand(CountDownLatch latch) {
+            mLatch = latch;
+        }
+
+        @Override
+        public void exec() {
+            mExecuted.incrementAndGet();
+            settle();
+        }
+
+        @Override
+        protected void onCancelled() {
+            mCancelled.incrementAndGet();
+            settle();
+        }
+
+        @Override
+        public int getRejectPolicy() {
+            return ThreadPool.POLICY_CALLER_RUNS;
+        }
+
+        private void settle() {
+            if (mLatch != null && mSettled.compareAndSet(false, true)) {
+                mLatch.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void cancelIsIdempotent() throws Exception {
+        CommandScope scope = new CommandScope();
+        scope.cancel();
+        scope.cancel();
+        assertTrue(scope.isCancelled());
+        assertFalse(new CommandScope().isCancelled());
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.trotri.android.thunder.ap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * HistogramTest class file
+ * 测试耗时分布
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: HistogramTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class HistogramTest {
+    private static final long[] BOUNDS = {10, 100, 1000, Long.MAX_VALUE};
+
+    @Test
+    public void percentile() throws Exception {
+        Histogram h = new Histogram(BOUNDS);
+        assertEquals(-1, h.getPercentile(50)); // 注意，没有数据时返回-1
+        assertEquals(-1, h.getMean());
+
+        for (int i = 0; i < 9; i++) {
+            h.add(5);
+        }
+
+        h.add(300);
+        h.add(-1); // 注意，小于0时忽略
+
+        assertEquals(10, h.getCount());
+        assertEquals(10, h.getPercentile(50)); // 注意，百分位数取所在桶的上界
+        assertEquals(10, h.getPercentile(90));
+        assertEquals(300, h.getPercentile(99)); // 注意，不超过最大值
+        assertEquals(300, h.getMax());
+        assertEquals(34, h.getMean());
+    }
+
+    @Test
+    public void copyAndMerge() throws Exception {
+        Histogram a = new Histogram(BOUNDS), b = new Histogram(BOUNDS);
+        a.add(5);
+        b.add(50000);
+
+        Histogram c = new Histogram(a);
+        a.add(5);
+        assertEquals(1, c.getCount()); // 注意，副本不受原分布影响
+
+        Histogram m = new Histogram(a, b);
+        assertEquals(3, m.getCount());
+        assertEquals(10, m.getPercentile(50));
+        assertEquals(50000, m.getPercentile(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeDifferentBounds() throws Exception {
+        new Histogram(new Histogram(BOUNDS), new Histogram(new long[]{1, Long.MAX_VALUE}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBounds() throws Exception {
+        new Histogram(new long[]{10, 100});
+    }
+
+}
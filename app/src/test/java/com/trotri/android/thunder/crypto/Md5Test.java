@@ -0,0 +1,115 @@
+package com.trotri.android.thunder.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Md5Test class file
+ * 测试文件分块MD5和根MD5，与逐块计算的结果一致
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: Md5Test.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class Md5Test {
+    private static final int CHUNK_LEN = 64 * 1024;
+
+    private File mFile;
+
+    private byte[] mData;
+
+    @Before
+    public void setUp() throws Exception {
+        mData = new byte[CHUNK_LEN * 5 + 123]; // 注意，最后一块不满
+        new Random(1).nextBytes(mData);
+
+        mFile = File.createTempFile("md5", ".bin");
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mData);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void chunkBytes() throws Exception {
+        byte[][] chunks = Md5.toChunkBytes(mFile, CHUNK_LEN);
+
+        assertEquals(6, chunks.length);
+        for (int i = 0; i < chunks.length; i++) {
+            int offset = i * CHUNK_LEN;
+            assertArrayEquals(md5(mData, offset, Math.min(CHUNK_LEN, mData.length - offset)), chunks[i]);
+        }
+    }
+
+    @Test
+    public void rootBytes() throws Exception {
+        byte[][] chunks = Md5.toChunkBytes(mFile, CHUNK_LEN);
+
+        MessageDigest executor = MessageDigest.getInstance("MD5");
+        for (byte[] chunk : chunks) {
+            executor.update(chunk);
+        }
+
+        assertArrayEquals(executor.digest(), Md5.toRootBytes(chunks)); // 注意，根MD5是各块MD5拼接后的MD5，不是整个文件的MD5
+    }
+
+    @Test
+    public void chunkDigest() throws Exception {
+        Md5.ChunkDigest digest = new Md5.ChunkDigest(CHUNK_LEN);
+        for (int offset = 0; offset < mData.length; offset += 1000) {
+            digest.update(mData, offset, Math.min(1000, mData.length - offset)); // 注意，写入的段与块边界不对齐
+        }
+
+        byte[][] expected = Md5.toChunkBytes(mFile, CHUNK_LEN);
+        assertEquals(-1, digest.verify(expected));
+
+        byte[][] chunks = digest.finish();
+        assertEquals(expected.length, chunks.length);
+        for (int i = 0; i < chunks.length; i++) {
+            assertArrayEquals(expected[i], chunks[i]);
+        }
+    }
+
+    @Test
+    public void fileBytes() throws Exception {
+        assertArrayEquals(md5(mData, 0, mData.length), Md5.toBytes(mFile));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void invalidBucketLen() throws Exception {
+        Md5.toBytes(mFile, 0); // 注意，缓存空间为0时会一直读到0字节，必须提前拒绝
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        File empty = File.createTempFile("md5", ".empty");
+        try {
+            assertEquals(0, Md5.toChunkBytes(empty, CHUNK_LEN).length);
+        } finally {
+            empty.delete();
+        }
+    }
+
+    private static byte[] md5(byte[] data, int offset, int len) throws Exception {
+        MessageDigest executor = MessageDigest.getInstance("MD5");
+        executor.update(data, offset, len);
+        return executor.digest();
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.trotri.android.thunder.ht;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DownloadProgressTest class file
+ * 测试分段下载进度文件的保存和读取，文件总大小或校验值变化时重新分段
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: DownloadProgressTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class DownloadProgressTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("download", ".seg");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void segments() throws Exception {
+        DownloadProgress progress = DownloadProgress.open(mFile, 1003, 4, "\"v1\"");
+        try {
+            assertEquals(4, progress.getCount());
+            assertEquals(0, progress.getStart(0));
+            assertEquals(1002, progress.getEnd(3));
+            for (int i = 1; i < progress.getCount(); i++) {
+                assertEquals(progress.getEnd(i - 1) + 1, progress.getStart(i)); // 注意，各段连续，不重叠
+            }
+
+            assertEquals(0, progress.getDownloadSize());
+            assertFalse(progress.isFinish());
+        } finally {
+            progress.close();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        DownloadProgress progress = DownloadProgress.open(mFile, 1000, 4, "\"v1\"");
+        progress.setDone(1, 50);
+        progress.setDone(3, 250);
+        progress.close();
+
+        progress = DownloadProgress.open(mFile, 1000, 2, "\"v1\"");
+        try {
+            assertEquals(4, progress.getCount()); // 注意，继续使用已保存的分段，忽略新的段数
+            assertEquals(50, progress.getDone(1));
+            assertEquals(250, progress.getDone(3));
+            assertEquals(300, progress.getDownloadSize());
+            assertEquals("\"v1\"", progress.getValidator());
+        } finally {
+            progress.close();
+        }
+    }
+
+    @Test
+    public void validatorChanged() throws Exception {
+        DownloadProgress progress = DownloadProgress.open(mFile, 1000, 4, "\"v1\"");
+        progress.setDone(0, 100);
+        progress.close();
+
+        progress = DownloadProgress.open(mFile, 1000, 2, "\"v2\"");
+        try {
+            assertEquals(2, progress.getCount()); // 注意，服务器文件已变化，按新的段数重新分段
+            assertEquals(0, progress.getDownloadSize());
+            assertEquals("\"v2\"", progress.getValidator());
+        } finally {
+            progress.close();
+        }
+    }
+
+    @Test
+    public void totalSizeChanged() throws Exception {
+        DownloadProgress progress = DownloadProgress.open(mFile, 1000, 4, null);
+        progress.setDone(0, 100);
+        progress.close();
+
+        progress = DownloadProgress.open(mFile, 2000, 4, null);
+        try {
+            assertEquals(0, progress.getDownloadSize());
+            assertEquals(1999, progress.getEnd(3));
+            assertEquals("", progress.getValidator()); // 注意，没有校验值时保存为""
+        } finally {
+            progress.close();
+        }
+    }
+
+    @Test
+    public void finish() throws Exception {
+        DownloadProgress progress = DownloadProgress.open(mFile, 10, 2, null);
+        progress.setDone(0, progress.getEnd(0) - progress.getStart(0) + 1);
+        progress.setDone(1, progress.getEnd(1) - progress.getStart(1) + 1);
+        assertTrue(progress.isFinish());
+
+        progress.delete();
+        assertFalse(mFile.exists());
+    }
+
+}
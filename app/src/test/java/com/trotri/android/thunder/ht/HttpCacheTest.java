@@ -0,0 +1,153 @@
+package com.trotri.android.thunder.ht;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * HttpCacheTest class file
+ * 测试HTTP响应磁盘缓存，超过上限时按最近最少使用（LRU）删除
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: HttpCacheTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class HttpCacheTest {
+    private static final String URL_A = "http://example.com/a";
+    private static final String URL_B = "http://example.com/b";
+    private static final String URL_C = "http://example.com/c";
+
+    private File mDirectory;
+
+    private HttpCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("http", "cache");
+        mDirectory.delete();
+        mCache = new HttpCache(mDirectory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCache.clear();
+        mDirectory.delete();
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        store(URL_A);
+
+        HttpCache.Entry entry = mCache.get(URL_A);
+        assertNotNull(entry);
+        assertEquals(1000, readAll(mCache.open(entry)));
+        assertNull(mCache.get(URL_B));
+    }
+
+    @Test
+    public void trimKeepsRecentlyRead() throws Exception {
+        store(URL_A);
+        store(URL_B);
+        store(URL_C);
+
+        assertNotNull(mCache.get(URL_A)); // 注意，读取后A变成最近使用的，B是最近最少使用的
+
+        mCache.setMaxSize(mCache.getSize() - 1);
+
+        assertNull(mCache.get(URL_B));
+        assertNotNull(mCache.get(URL_A));
+        assertNotNull(mCache.get(URL_C));
+    }
+
+    @Test
+    public void trimWithoutReads() throws Exception {
+        store(URL_A);
+        store(URL_B);
+        store(URL_C);
+
+        mCache.setMaxSize(mCache.getSize() - 1);
+
+        assertNull(mCache.get(URL_A)); // 注意，没有读取时按写入顺序删除
+        assertNotNull(mCache.get(URL_B));
+        assertNotNull(mCache.get(URL_C));
+    }
+
+    /**
+     * 写入一条缓存，读到末尾并关闭输入流后保存
+     */
+    private void store(String url) throws IOException {
+        InputStream in = mCache.put(url, newConnection(url, 1000), new ByteArrayInputStream(new byte[1000]));
+        readAll(in);
+        assertNotNull(mCache.get(url));
+    }
+
+    /**
+     * 创建可缓存的返回数据的连接，不联网
+     */
+    private static HttpURLConnection newConnection(String url, final int contentLength) throws IOException {
+        return new HttpURLConnection(new URL(url)) {
+            @Override
+            public String getHeaderField(String name) {
+                if ("Cache-Control".equalsIgnoreCase(name)) {
+                    return "max-age=60";
+                }
+
+                if ("ETag".equalsIgnoreCase(name)) {
+                    return "\"v1\"";
+                }
+
+                return null;
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+
+            @Override
+            public int getContentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+
+            @Override
+            public void connect() {
+            }
+        };
+    }
+
+    private static int readAll(InputStream in) throws IOException {
+        int len = 0;
+        try {
+            byte[] bucket = new byte[256];
+            int size;
+            while ((size = in.read(bucket)) != -1) {
+                len += size;
+            }
+        } finally {
+            in.close();
+        }
+
+        return len;
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.trotri.android.thunder.ht;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HttpHelperTest class file
+ * 测试HTTP辅助类的内容编码解码
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: HttpHelperTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class HttpHelperTest {
+    private static final byte[] DATA = newData();
+
+    @Test
+    public void decodeGzip() throws Exception {
+        byte[] gzip = HttpHelper.gzip(DATA, 512);
+        assertTrue(gzip.length < DATA.length);
+
+        assertArrayEquals(DATA, readAll(HttpHelper.decode(newConnection("gzip"), new ByteArrayInputStream(gzip), 512)));
+        assertArrayEquals(DATA, readAll(HttpHelper.decode(newConnection("x-gzip"), new ByteArrayInputStream(gzip), 512)));
+        assertArrayEquals(DATA, readAll(HttpHelper.decode(newConnection(" GZIP "), new ByteArrayInputStream(gzip), 512))); // 注意，不区分大小写，忽略空白
+    }
+
+    @Test
+    public void decodeDeflate() throws Exception {
+        byte[] zlib = deflate(false);
+        byte[] raw = deflate(true);
+
+        assertArrayEquals(DATA, readAll(HttpHelper.decode(newConnection("deflate"), new ByteArrayInputStream(zlib), 512)));
+        assertArrayEquals(DATA, readAll(HttpHelper.decode(newConnection("deflate"), new ByteArrayInputStream(raw), 512))); // 注意，兼容不带zlib头的raw deflate
+    }
+
+    @Test
+    public void decodeIdentity() throws Exception {
+        InputStream in = new ByteArrayInputStream(DATA);
+        assertSame(in, HttpHelper.decode(newConnection(null), in, 512));
+        assertSame(in, HttpHelper.decode(newConnection("identity"), in, 512));
+        assertSame(in, HttpHelper.decode(newConnection("br"), in, 512)); // 注意，不支持的内容编码返回原输入流
+    }
+
+    @Test
+    public void decodedLength() throws Exception {
+        assertEquals(-1, HttpHelper.getDecodedLength(newConnection("gzip"))); // 注意，压缩后Content-Length不是解码后的长度
+        assertEquals(DATA.length, HttpHelper.getDecodedLength(newConnection(null)));
+        assertEquals(HttpHelper.ENCODING_IDENTITY, HttpHelper.getContentEncoding(newConnection("  ")));
+    }
+
+    @Test
+    public void drain() throws Exception {
+        assertTrue(HttpHelper.drain(new ByteArrayInputStream(new byte[100]), 100, 16));
+        assertFalse(HttpHelper.drain(new ByteArrayInputStream(new byte[101]), 100, 16)); // 注意，剩余数据超过上限时放弃，连接不复用
+        assertTrue(HttpHelper.drain(new ByteArrayInputStream(new byte[0]), 0, 16));
+    }
+
+    /**
+     * 创建只返回Content-Encoding和Content-Length的连接，不联网
+     */
+    private static HttpURLConnection newConnection(final String encoding) throws IOException {
+        return new HttpURLConnection(new URL("http://localhost/")) {
+            @Override
+            public String getContentEncoding() {
+                return encoding;
+            }
+
+            @Override
+            public int getContentLength() {
+                return DATA.length;
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+
+            @Override
+            public void connect() {
+            }
+        };
+    }
+
+    private static byte[] deflate(boolean nowrap) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(buffer, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+        try {
+            out.write(DATA);
+        } finally {
+            out.close();
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            byte[] bucket = new byte[100];
+            int size;
+            while ((size = in.read(bucket)) != -1) {
+                data.write(bucket, 0, size);
+            }
+        } finally {
+            in.close();
+        }
+
+        return data.toByteArray();
+    }
+
+    private static byte[] newData() {
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) "thunder".charAt(i % 7);
+        }
+
+        Arrays.fill(data, 10000, 10100, (byte) 0);
+        return data;
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.trotri.android.thunder.ht;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MultipartTest class file
+ * 测试multipart/form-data请求数据，声明的长度必须与实际写入的字节数一致，否则固定长度的流模式会失败
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: MultipartTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class MultipartTest {
+    @Test
+    public void contentLength() throws Exception {
+        File file = File.createTempFile("multipart", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[10000]);
+        } finally {
+            out.close();
+        }
+
+        byte[] stream = "stream data".getBytes("UTF-8");
+        Multipart body = new Multipart.Builder()
+                .addField("name", "value")
+                .addField("中文字段", "中文值") // 注意，非ASCII字符按UTF-8计算长度
+                .addField("quote\"name", "line\r\nbreak")
+                .addFile("file", file, null)
+                .addFile("stream", "s.txt", new ByteArrayInputStream(stream), stream.length, "text/plain")
+                .create();
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.writeTo(written, new byte[1024]);
+
+        assertEquals(body.getContentLength(), written.size());
+        assertEquals(5, body.size());
+        assertTrue(body.getContentType().endsWith("boundary=" + body.getBoundary()));
+
+        String text = written.toString("UTF-8");
+        assertTrue(text.endsWith("--" + body.getBoundary() + "--\r\n"));
+        assertTrue(text.contains("name=\"quote%22name\"")); // 注意，引号被转义，不破坏头信息
+    }
+
+    @Test
+    public void unknownLength() throws Exception {
+        Multipart body = new Multipart.Builder()
+                .addField("name", "value")
+                .addFile("stream", "s.txt", new ByteArrayInputStream(new byte[3]), -1, null)
+                .create();
+
+        assertEquals(-1, body.getContentLength()); // 注意，有部分长度未知时返回-1，使用分块传输
+    }
+
+    @Test
+    public void fieldsOnly() throws Exception {
+        Multipart body = new Multipart.Builder().setBoundary("b").addField("a", "1").create();
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.writeTo(written, new byte[16]);
+
+        assertEquals("--b\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n1\r\n--b--\r\n", written.toString("UTF-8"));
+        assertEquals(body.getContentLength(), written.size());
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.trotri.android.thunder.ht;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RequestQueueTest class file
+ * 测试离线请求队列的退避时间、可重试判断、合并Key
+ *
+ * @author 宋欢 <trotri@yeah.net>
+ * @version $Id: RequestQueueTest.java 1 2017-03-03 10:00:06Z huan.song $
+ * @since 1.0
+ */
+public class RequestQueueTest {
+    @Test
+    public void backoff() throws Exception {
+        assertEquals(RequestQueue.BASE_BACKOFF_MS, RequestQueue.getBackoffMs(1, 0));
+        assertEquals(RequestQueue.BASE_BACKOFF_MS * 2, RequestQueue.getBackoffMs(2, 0));
+        assertEquals(RequestQueue.BASE_BACKOFF_MS * 4, RequestQueue.getBackoffMs(3, 0));
+        assertEquals(RequestQueue.MAX_BACKOFF_MS, RequestQueue.getBackoffMs(RequestQueue.MAX_ATTEMPTS * 10, 0)); // 注意，不超过最长退避时间，也不溢出
+        assertEquals(RequestQueue.BASE_BACKOFF_MS * 3 / 2, RequestQueue.getBackoffMs(1, 1)); // 注意，抖动最多50%
+
+        long prev = 0;
+        for (int attempts = 1; attempts <= RequestQueue.MAX_ATTEMPTS; attempts++) {
+            long backoffMs = RequestQueue.getBackoffMs(attempts, 0.5);
+            assertTrue(backoffMs >= prev);
+            prev = backoffMs;
+        }
+    }
+
+    @Test
+    public void retryable() throws Exception {
+        assertTrue(RequestQueue.isRetryable(0));
+        assertTrue(RequestQueue.isRetryable(408));
+        assertTrue(RequestQueue.isRetryable(429));
+        assertTrue(RequestQueue.isRetryable(500));
+        assertTrue(RequestQueue.isRetryable(503));
+        assertFalse(RequestQueue.isRetryable(200));
+        assertFalse(RequestQueue.isRetryable(400));
+        assertFalse(RequestQueue.isRetryable(404));
+
+        assertTrue(RequestQueue.isRetryable(200, new Http.ResponseReadException(new IOException("unexpected end of stream")))); // 注意，收到200后从网络读取返回数据失败，可以重试
+        assertFalse(RequestQueue.isRetryable(200, new IOException("Malformed JSON"))); // 注意，StreamListener解析失败，重发也会失败
+        assertTrue(RequestQueue.isRetryable(0, new SocketTimeoutException()));
+        assertFalse(RequestQueue.isRetryable(404, new Throwable("Not Found")));
+        assertFalse(RequestQueue.isRetryable(404, null));
+    }
+
+    @Test
+    public void collapseKey() throws Exception {
+        String url = "http://example.com/api/report";
+        assertEquals(RequestQueue.getEndpointKey("post", url), RequestQueue.getEndpointKey("POST", url)); // 注意，访问方式不区分大小写
+        assertNotEquals(RequestQueue.getEndpointKey("GET", url), RequestQueue.getEndpointKey("POST", url));
+        assertNotEquals(RequestQueue.getEndpointKey("POST", url), RequestQueue.getEndpointKey("POST", url + "2"));
+    }
+
+}